@@ -0,0 +1,67 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.jobs;
+
+/**
+ * Counts the runs of jobs with a deadline that were done in time, and records
+ * how late the other runs were done in a histogram, in milliseconds.
+ *
+ * @see org.eclipse.core.runtime.jobs.Job#setDeadline(long)
+ */
+public final class DeadlineStatistics {
+	private LatencyHistogram lateness = new LatencyHistogram();
+	private long met = 0;
+
+	/**
+	 * Returns a copy of the histogram of how late the runs that missed their
+	 * deadline were done.
+	 */
+	public synchronized LatencyHistogram getLateness() {
+		return lateness.copy();
+	}
+
+	/**
+	 * Returns the number of runs that were done by their deadline.
+	 */
+	public synchronized long getMetCount() {
+		return met;
+	}
+
+	/**
+	 * Returns the number of runs that were done after their deadline.
+	 */
+	public synchronized long getMissedCount() {
+		return lateness.getCount();
+	}
+
+	/**
+	 * Records a run that was done the given number of milliseconds after its
+	 * deadline, or before it if the number is negative or zero.
+	 */
+	synchronized void record(long late) {
+		if (late > 0)
+			lateness.record(late);
+		else
+			met++;
+	}
+
+	/**
+	 * Discards all recorded runs.
+	 */
+	public synchronized void reset() {
+		lateness = new LatencyHistogram();
+		met = 0;
+	}
+
+	public synchronized String toString() {
+		return "DeadlineStatistics(met: " + met + ", missed: " + lateness.getCount() + ", max lateness: " + lateness.getMax() + ')'; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+	}
+}
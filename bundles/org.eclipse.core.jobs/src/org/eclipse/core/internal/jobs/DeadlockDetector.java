@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2003, 2010 IBM Corporation and others.
+ * Copyright (c) 2003, 2011 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -12,7 +12,7 @@ package org.eclipse.core.internal.jobs;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
-import java.util.ArrayList;
+import java.util.*;
 import org.eclipse.core.internal.runtime.RuntimeLog;
 import org.eclipse.core.runtime.*;
 import org.eclipse.core.runtime.jobs.ILock;
@@ -20,16 +20,23 @@ import org.eclipse.core.runtime.jobs.ISchedulingRule;
 
 /**
  * Stores all the relationships between locks (rules are also considered locks), 
- * and the threads that own them. All the relationships are stored in a 2D integer array.
- * The rows in the array are threads, while the columns are locks.
- * Two corresponding arrayLists store the actual threads and locks.
- * The index of a thread in the first arrayList is the index of the row in the graph.
- * The index of a lock in the second arrayList is the index of the column in the graph. 
+ * and the threads that own them. The relationships form a sparse matrix, whose
+ * rows are threads and whose columns are locks. Only the entries that are not 0
+ * are stored: each thread maps to its row, the entries for the locks it owns or
+ * waits for, and each lock maps to its column, the entries for the threads that
+ * own it or wait for it. A row and a column share the entry they have in common.
+ * A thread or a lock is dropped from the graph as soon as it has no entries, so
+ * the size of the graph is proportional to the number of relationships, not to
+ * the number of threads times the number of locks.
  * An entry greater than 0 in the graph is the number of times a thread in the entry's row
  * acquired the lock in the entry's column.
  * An entry of -1 means that the thread is waiting to acquire the lock.
  * An entry of 0 means that the thread and the lock have no relationship.
  * 
+ * Locks only conflict with themselves, and since conflicts between scheduling
+ * rules are symmetric, rules never conflict with locks. Only the columns of
+ * rules are therefore searched for conflicts.
+ * 
  * The difference between rules and locks is that locks can be suspended, while
  * rules are implicit locks and as such cannot be suspended.
  * To resolve deadlock, the graph will first try to find a thread that only owns
@@ -66,19 +73,23 @@ import org.eclipse.core.runtime.jobs.ISchedulingRule;
  * the deadlock will still be resolved at this point.
  */
 class DeadlockDetector {
+	/**
+	 * An entry of the graph, shared by the row of its thread and the column
+	 * of its lock.
+	 */
+	private static final class Entry {
+		int state;
+	}
+
 	private static int NO_STATE = 0;
 	//state variables in the graph
 	private static int WAITING_FOR_LOCK = -1;
-	//empty matrix
-	private static final int[][] EMPTY_MATRIX = new int[0][0];
-	//matrix of relationships between threads and locks
-	private int[][] graph = EMPTY_MATRIX;
-	//index is column in adjacency matrix for the lock
-	private final ArrayList locks = new ArrayList();
-	//index is row in adjacency matrix for the thread
-	private final ArrayList lockThreads = new ArrayList();
-	//whether the graph needs to be resized
-	private boolean resize = false;
+	//maps each lock to its column, a map from thread to entry
+	private final LinkedHashMap locks = new LinkedHashMap();
+	//maps each thread to its row, a map from lock to entry
+	private final LinkedHashMap lockThreads = new LinkedHashMap();
+	//the locks that are rules, in the order their columns were added
+	private final LinkedHashSet rules = new LinkedHashSet();
 
 	/**
 	 * Recursively check if any of the threads that prevent the current thread from running
@@ -121,28 +132,37 @@ class DeadlockDetector {
 	/**
 	 * Check that the addition of a waiting thread did not produce deadlock. 
 	 * If deadlock is detected return true, else return false.
+	 * <p>
+	 * The graph had no cycle before the thread started to wait, so only the
+	 * part of the graph that can be reached from the given lock is searched.
+	 * Threads on the current path are kept in onPath, and threads whose locks
+	 * have all been searched without finding a cycle are kept in done, so that
+	 * each thread is searched at most once.
 	 */
-	private boolean checkWaitCycles(int[] waitingThreads, int lockIndex) {
-		/**
-		 * find the lock that this thread is waiting for
-		 * recursively check if this is a cycle (i.e. a thread waiting on itself)
-		 */
-		for (int i = 0; i < graph.length; i++) {
-			if (graph[i][lockIndex] > NO_STATE) {
-				if (waitingThreads[i] > NO_STATE) {
+	private boolean checkWaitCycles(ISchedulingRule lock, HashSet onPath, HashSet done) {
+		Map column = (Map) locks.get(lock);
+		if (column == null)
+			return false;
+		for (Iterator it = column.entrySet().iterator(); it.hasNext();) {
+			Map.Entry owner = (Map.Entry) it.next();
+			if (((Entry) owner.getValue()).state <= NO_STATE)
+				continue;
+			Thread thread = (Thread) owner.getKey();
+			if (onPath.contains(thread))
+				return true;
+			if (done.contains(thread))
+				continue;
+			onPath.add(thread);
+			//follow the locks this thread is waiting for
+			Map row = (Map) lockThreads.get(thread);
+			for (Iterator waits = row.entrySet().iterator(); waits.hasNext();) {
+				Map.Entry wait = (Map.Entry) waits.next();
+				if (((Entry) wait.getValue()).state == WAITING_FOR_LOCK && checkWaitCycles((ISchedulingRule) wait.getKey(), onPath, done))
 					return true;
-				}
-				//keep track that we already visited this thread
-				waitingThreads[i]++;
-				for (int j = 0; j < graph[i].length; j++) {
-					if (graph[i][j] == WAITING_FOR_LOCK) {
-						if (checkWaitCycles(waitingThreads, j))
-							return true;
-					}
-				}
-				//this thread is not involved in a cycle yet, so remove the visited flag
-				waitingThreads[i]--;
 			}
+			//this thread is not involved in a cycle
+			onPath.remove(thread);
+			done.add(thread);
 		}
 		return false;
 	}
@@ -152,7 +172,7 @@ class DeadlockDetector {
 	 * (meaning the given thread either owns locks or is waiting for locks)
 	 */
 	boolean contains(Thread t) {
-		return lockThreads.contains(t);
+		return lockThreads.containsKey(t);
 	}
 
 	/**
@@ -160,43 +180,73 @@ class DeadlockDetector {
 	 * Find a rule it conflicts with and update the new rule with the number of times 
 	 * it was acquired implicitly when threads acquired conflicting rule.
 	 */
-	private void fillPresentEntries(ISchedulingRule newLock, int lockIndex) {
+	private void fillPresentEntries(ISchedulingRule newLock) {
+		ISchedulingRule[] conflicting = conflictingRules(newLock);
 		//fill in the entries for the new rule from rules it conflicts with
-		for (int j = 0; j < locks.size(); j++) {
-			if ((j != lockIndex) && (newLock.isConflicting((ISchedulingRule) locks.get(j)))) {
-				for (int i = 0; i < graph.length; i++) {
-					if ((graph[i][j] > NO_STATE) && (graph[i][lockIndex] == NO_STATE))
-						graph[i][lockIndex] = graph[i][j];
-				}
+		for (int j = 0; j < conflicting.length; j++) {
+			Map column = (Map) locks.get(conflicting[j]);
+			Object[] owners = column.keySet().toArray();
+			for (int i = 0; i < owners.length; i++) {
+				int state = ((Entry) column.get(owners[i])).state;
+				if ((state > NO_STATE) && (getState((Thread) owners[i], newLock) == NO_STATE))
+					setState((Thread) owners[i], newLock, state);
 			}
 		}
 		//now back fill the entries for rules the current rule conflicts with
-		for (int j = 0; j < locks.size(); j++) {
-			if ((j != lockIndex) && (newLock.isConflicting((ISchedulingRule) locks.get(j)))) {
-				for (int i = 0; i < graph.length; i++) {
-					if ((graph[i][lockIndex] > NO_STATE) && (graph[i][j] == NO_STATE))
-						graph[i][j] = graph[i][lockIndex];
-				}
+		Map column = (Map) locks.get(newLock);
+		Object[] owners = column.keySet().toArray();
+		for (int j = 0; j < conflicting.length; j++) {
+			for (int i = 0; i < owners.length; i++) {
+				int state = getState((Thread) owners[i], newLock);
+				if ((state > NO_STATE) && (getState((Thread) owners[i], conflicting[j]) == NO_STATE))
+					setState((Thread) owners[i], conflicting[j], state);
 			}
 		}
 	}
 
+	/**
+	 * Returns the rules in the graph, other than the given rule, that conflict
+	 * with the given rule.
+	 */
+	private ISchedulingRule[] conflictingRules(ISchedulingRule rule) {
+		ArrayList conflicting = new ArrayList(1);
+		for (Iterator it = rules.iterator(); it.hasNext();) {
+			ISchedulingRule possible = (ISchedulingRule) it.next();
+			if (possible != rule && InternalJob.isConflicting(rule, possible))
+				conflicting.add(possible);
+		}
+		return (ISchedulingRule[]) conflicting.toArray(new ISchedulingRule[conflicting.size()]);
+	}
+
 	/**
 	 * Returns all the locks owned by the given thread
 	 */
 	private Object[] getOwnedLocks(Thread current) {
 		ArrayList ownedLocks = new ArrayList(1);
-		int index = indexOf(current, false);
-
-		for (int j = 0; j < graph[index].length; j++) {
-			if (graph[index][j] > NO_STATE)
-				ownedLocks.add(locks.get(j));
+		Map row = (Map) lockThreads.get(current);
+		if (row != null) {
+			for (Iterator it = row.entrySet().iterator(); it.hasNext();) {
+				Map.Entry entry = (Map.Entry) it.next();
+				if (((Entry) entry.getValue()).state > NO_STATE)
+					ownedLocks.add(entry.getKey());
+			}
 		}
 		if (ownedLocks.size() == 0)
 			Assert.isLegal(false, "A thread with no locks is part of a deadlock."); //$NON-NLS-1$
 		return ownedLocks.toArray();
 	}
 
+	/**
+	 * Returns the entry of the graph for the given thread and lock.
+	 */
+	private int getState(Thread thread, ISchedulingRule lock) {
+		Map row = (Map) lockThreads.get(thread);
+		if (row == null)
+			return NO_STATE;
+		Entry entry = (Entry) row.get(lock);
+		return entry == null ? NO_STATE : entry.state;
+	}
+
 	/**
 	 * Returns an array of threads that form the deadlock (usually 2).
 	 */
@@ -218,11 +268,14 @@ class DeadlockDetector {
 	private Thread[] getThreadsOwningLock(ISchedulingRule rule) {
 		if (rule == null)
 			return new Thread[0];
-		int lockIndex = indexOf(rule, false);
 		ArrayList blocking = new ArrayList(1);
-		for (int i = 0; i < graph.length; i++) {
-			if (graph[i][lockIndex] > NO_STATE)
-				blocking.add(lockThreads.get(i));
+		Map column = (Map) locks.get(rule);
+		if (column != null) {
+			for (Iterator it = column.entrySet().iterator(); it.hasNext();) {
+				Map.Entry entry = (Map.Entry) it.next();
+				if (((Entry) entry.getValue()).state > NO_STATE)
+					blocking.add(entry.getKey());
+			}
 		}
 		if ((blocking.size() == 0) && (JobManager.DEBUG_LOCKS))
 			System.out.println("Lock " + rule + " is involved in deadlock but is not owned by any thread."); //$NON-NLS-1$ //$NON-NLS-2$
@@ -235,79 +288,55 @@ class DeadlockDetector {
 	 * Returns the lock the given thread is waiting for.
 	 */
 	private Object getWaitingLock(Thread current) {
-		int index = indexOf(current, false);
+		Map row = (Map) lockThreads.get(current);
 		//find the lock that this thread is waiting for
-		for (int j = 0; j < graph[index].length; j++) {
-			if (graph[index][j] == WAITING_FOR_LOCK)
-				return locks.get(j);
+		if (row != null) {
+			for (Iterator it = row.entrySet().iterator(); it.hasNext();) {
+				Map.Entry entry = (Map.Entry) it.next();
+				if (((Entry) entry.getValue()).state == WAITING_FOR_LOCK)
+					return entry.getKey();
+			}
 		}
 		//it can happen that a thread is not waiting for any lock (it is not really part of the deadlock)
 		return null;
 	}
 
 	/**
-	 * Returns the index of the given lock in the lock array. If the lock is
-	 * not present in the array, it is added to the end.
-	 */
-	private int indexOf(ISchedulingRule lock, boolean add) {
-		int index = locks.indexOf(lock);
-		if ((index < 0) && add) {
-			locks.add(lock);
-			resize = true;
-			index = locks.size() - 1;
-		}
-		return index;
-	}
-
-	/**
-	 * Returns the index of the given thread in the thread array. If the thread
-	 * is not present in the array, it is added to the end.
-	 */
-	private int indexOf(Thread owner, boolean add) {
-		int index = lockThreads.indexOf(owner);
-		if ((index < 0) && add) {
-			lockThreads.add(owner);
-			resize = true;
-			index = lockThreads.size() - 1;
-		}
-		return index;
-	}
-
-	/**
-	 * Returns true IFF the adjacency matrix is empty.
+	 * Returns true IFF the graph is empty.
 	 */
 	boolean isEmpty() {
-		return (locks.size() == 0) && (lockThreads.size() == 0) && (graph.length == 0);
+		return locks.isEmpty() && lockThreads.isEmpty();
 	}
 
 	/**
 	 * The given lock was acquired by the given thread.
 	 */
 	void lockAcquired(Thread owner, ISchedulingRule lock) {
-		int lockIndex = indexOf(lock, true);
-		int threadIndex = indexOf(owner, true);
-		if (resize)
-			resizeGraph();
-		if (graph[threadIndex][lockIndex] == WAITING_FOR_LOCK)
-			graph[threadIndex][lockIndex] = NO_STATE;
+		int state = getState(owner, lock);
+		if (state == WAITING_FOR_LOCK)
+			state = NO_STATE;
+		setState(owner, lock, state + 1);
+		//a lock only conflicts with itself
+		if (lock instanceof ILock)
+			return;
 		/**
-		 * acquire all locks that conflict with the given lock
-		 * or conflict with a lock the given lock will acquire implicitly
-		 * (locks are acquired implicitly when a conflicting lock is acquired)
+		 * acquire all rules that conflict with the given rule
+		 * or conflict with a rule the given rule will acquire implicitly
+		 * (rules are acquired implicitly when a conflicting rule is acquired)
 		 */
 		ArrayList conflicting = new ArrayList(1);
-		//only need two passes through all the locks to pick up all conflicting rules
+		//only need two passes through all the rules to pick up all conflicting rules
 		int NUM_PASSES = 2;
 		conflicting.add(lock);
-		graph[threadIndex][lockIndex]++;
+		Object[] candidates = rules.toArray();
 		for (int i = 0; i < NUM_PASSES; i++) {
 			for (int k = 0; k < conflicting.size(); k++) {
 				ISchedulingRule current = (ISchedulingRule) conflicting.get(k);
-				for (int j = 0; j < locks.size(); j++) {
-					ISchedulingRule possible = (ISchedulingRule) locks.get(j);
-					if (current.isConflicting(possible) && !conflicting.contains(possible)) {
+				for (int j = 0; j < candidates.length; j++) {
+					ISchedulingRule possible = (ISchedulingRule) candidates[j];
+					if (InternalJob.isConflicting(current, possible) && !conflicting.contains(possible)) {
 						conflicting.add(possible);
-						graph[threadIndex][j]++;
+						setState(owner, possible, getState(owner, possible) + 1);
 					}
 				}
 			}
@@ -318,39 +347,43 @@ class DeadlockDetector {
 	 * The given lock was released by the given thread. Update the graph.
 	 */
 	void lockReleased(Thread owner, ISchedulingRule lock) {
-		int lockIndex = indexOf(lock, false);
-		int threadIndex = indexOf(owner, false);
 		//make sure the lock and thread exist in the graph
-		if (threadIndex < 0) {
+		if (!lockThreads.containsKey(owner)) {
 			if (JobManager.DEBUG_LOCKS)
 				System.out.println("[lockReleased] Lock " + lock + " was already released by thread " + owner.getName()); //$NON-NLS-1$ //$NON-NLS-2$
 			return;
 		}
-		if (lockIndex < 0) {
+		if (!locks.containsKey(lock)) {
 			if (JobManager.DEBUG_LOCKS)
 				System.out.println("[lockReleased] Thread " + owner.getName() + " already released lock " + lock); //$NON-NLS-1$ //$NON-NLS-2$
 			return;
 		}
+		int state = getState(owner, lock);
 		//if this lock was suspended, set it to NO_STATE
-		if ((lock instanceof ILock) && (graph[threadIndex][lockIndex] == WAITING_FOR_LOCK)) {
-			graph[threadIndex][lockIndex] = NO_STATE;
+		if ((lock instanceof ILock) && (state == WAITING_FOR_LOCK)) {
+			setState(owner, lock, NO_STATE);
 			return;
 		}
-		//release all locks that conflict with the given lock
-		//or release all rules that are owned by the given thread, if we are releasing a rule
-		for (int j = 0; j < graph[threadIndex].length; j++) {
-			if ((lock.isConflicting((ISchedulingRule) locks.get(j))) || (!(lock instanceof ILock) && !(locks.get(j) instanceof ILock) && (graph[threadIndex][j] > NO_STATE))) {
-				if (graph[threadIndex][j] == NO_STATE) {
-					if (JobManager.DEBUG_LOCKS)
-						System.out.println("[lockReleased] More releases than acquires for thread " + owner.getName() + " and lock " + lock); //$NON-NLS-1$ //$NON-NLS-2$
-				} else {
-					graph[threadIndex][j]--;
-				}
-			}
+		if (state == NO_STATE) {
+			if (JobManager.DEBUG_LOCKS)
+				System.out.println("[lockReleased] More releases than acquires for thread " + owner.getName() + " and lock " + lock); //$NON-NLS-1$ //$NON-NLS-2$
+			return;
+		}
+		if (lock instanceof ILock) {
+			setState(owner, lock, state - 1);
+			return;
+		}
+		//release all rules that are owned by the given thread, since we are releasing a rule
+		Map row = (Map) lockThreads.get(owner);
+		Object[] owned = row.keySet().toArray();
+		for (int j = 0; j < owned.length; j++) {
+			ISchedulingRule rule = (ISchedulingRule) owned[j];
+			if (rule instanceof ILock)
+				continue;
+			int ruleState = getState(owner, rule);
+			if (ruleState > NO_STATE)
+				setState(owner, rule, ruleState - 1);
 		}
-		//if this thread just released the given lock, try to simplify the graph
-		if (graph[threadIndex][lockIndex] == NO_STATE)
-			reduceGraph(threadIndex, lock);
 	}
 
 	/**
@@ -358,15 +391,13 @@ class DeadlockDetector {
 	 * Release this rule regardless of how many times it was acquired.
 	 */
 	void lockReleasedCompletely(Thread owner, ISchedulingRule rule) {
-		int ruleIndex = indexOf(rule, false);
-		int threadIndex = indexOf(owner, false);
 		//need to make sure that the given thread and rule were not already removed from the graph
-		if (threadIndex < 0) {
+		if (!lockThreads.containsKey(owner)) {
 			if (JobManager.DEBUG_LOCKS)
 				System.out.println("[lockReleasedCompletely] Lock " + rule + " was already released by thread " + owner.getName()); //$NON-NLS-1$ //$NON-NLS-2$
 			return;
 		}
-		if (ruleIndex < 0) {
+		if (!locks.containsKey(rule)) {
 			if (JobManager.DEBUG_LOCKS)
 				System.out.println("[lockReleasedCompletely] Thread " + owner.getName() + " already released lock " + rule); //$NON-NLS-1$ //$NON-NLS-2$
 			return;
@@ -374,13 +405,14 @@ class DeadlockDetector {
 		/**
 		 * set all rules that are owned by the given thread to NO_STATE 
 		 * (not just rules that conflict with the rule we are releasing)
-		 * if we are releasing a lock, then only update the one entry for the lock
 		 */
-		for (int j = 0; j < graph[threadIndex].length; j++) {
-			if (!(locks.get(j) instanceof ILock) && (graph[threadIndex][j] > NO_STATE))
-				graph[threadIndex][j] = NO_STATE;
+		Map row = (Map) lockThreads.get(owner);
+		Object[] owned = row.keySet().toArray();
+		for (int j = 0; j < owned.length; j++) {
+			ISchedulingRule ownedRule = (ISchedulingRule) owned[j];
+			if (!(ownedRule instanceof ILock) && (getState(owner, ownedRule) > NO_STATE))
+				setState(owner, ownedRule, NO_STATE);
 		}
-		reduceGraph(threadIndex, rule);
 	}
 
 	/**
@@ -389,10 +421,8 @@ class DeadlockDetector {
 	 */
 	Deadlock lockWaitStart(Thread client, ISchedulingRule lock) {
 		setToWait(client, lock, false);
-		int lockIndex = indexOf(lock, false);
-		int[] temp = new int[lockThreads.size()];
 		//check if the addition of the waiting thread caused deadlock
-		if (!checkWaitCycles(temp, lockIndex))
+		if (!checkWaitCycles(lock, new HashSet(), new HashSet()))
 			return null;
 		//there is a deadlock in the graph
 		Thread[] threads = getThreadsInDeadlock(client);
@@ -417,37 +447,48 @@ class DeadlockDetector {
 	 * If the lock has already been granted, then it isn't removed.
 	 */
 	void lockWaitStop(Thread owner, ISchedulingRule lock) {
-		int lockIndex = indexOf(lock, false);
-		int threadIndex = indexOf(owner, false);
 		//make sure the thread and lock exist in the graph
-		if (threadIndex < 0) {
+		if (!lockThreads.containsKey(owner)) {
 			if (JobManager.DEBUG_LOCKS)
 				System.out.println("Thread " + owner.getName() + " was already removed."); //$NON-NLS-1$ //$NON-NLS-2$
 			return;
 		}
-		if (lockIndex < 0) {
+		if (!locks.containsKey(lock)) {
 			if (JobManager.DEBUG_LOCKS)
 				System.out.println("Lock " + lock + " was already removed."); //$NON-NLS-1$ //$NON-NLS-2$
 			return;
 		}
-		if (graph[threadIndex][lockIndex] != WAITING_FOR_LOCK) {
+		int state = getState(owner, lock);
+		if (state != WAITING_FOR_LOCK) {
 			// Lock has already been granted, nothing to do...
 			if (JobManager.DEBUG_LOCKS)
-				System.out.println("Lock " + lock + " already granted to depth: " + graph[threadIndex][lockIndex]); //$NON-NLS-1$ //$NON-NLS-2$
+				System.out.println("Lock " + lock + " already granted to depth: " + state); //$NON-NLS-1$ //$NON-NLS-2$
 			return;
 		}
-		graph[threadIndex][lockIndex] = NO_STATE;
-		reduceGraph(threadIndex, lock);
+		setState(owner, lock, NO_STATE);
 	}
 
 	/**
 	 * Returns true IFF the given thread owns a single lock
 	 */
 	private boolean ownsLocks(Thread cause) {
-		int threadIndex = indexOf(cause, false);
-		for (int j = 0; j < graph[threadIndex].length; j++) {
-			if (graph[threadIndex][j] > NO_STATE)
-				return true;
+		return ownsLocks(cause, true, true);
+	}
+
+	/**
+	 * Returns true IFF the given thread owns a lock of the given kinds.
+	 */
+	private boolean ownsLocks(Thread owner, boolean realLocks, boolean ruleLocks) {
+		Map row = (Map) lockThreads.get(owner);
+		if (row == null)
+			return false;
+		for (Iterator it = row.entrySet().iterator(); it.hasNext();) {
+			Map.Entry entry = (Map.Entry) it.next();
+			if (((Entry) entry.getValue()).state > NO_STATE) {
+				boolean real = entry.getKey() instanceof ILock;
+				if (real ? realLocks : ruleLocks)
+					return true;
+			}
 		}
 		return false;
 	}
@@ -457,15 +498,7 @@ class DeadlockDetector {
 	 * A real lock is a lock that can be suspended.
 	 */
 	private boolean ownsRealLocks(Thread owner) {
-		int threadIndex = indexOf(owner, false);
-		for (int j = 0; j < graph[threadIndex].length; j++) {
-			if (graph[threadIndex][j] > NO_STATE) {
-				Object lock = locks.get(j);
-				if (lock instanceof ILock)
-					return true;
-			}
-		}
-		return false;
+		return ownsLocks(owner, true, false);
 	}
 
 	/**
@@ -473,15 +506,7 @@ class DeadlockDetector {
 	 * cannot be suspended)
 	 */
 	private boolean ownsRuleLocks(Thread owner) {
-		int threadIndex = indexOf(owner, false);
-		for (int j = 0; j < graph[threadIndex].length; j++) {
-			if (graph[threadIndex][j] > NO_STATE) {
-				Object lock = locks.get(j);
-				if (!(lock instanceof ILock))
-					return true;
-			}
-		}
-		return false;
+		return ownsLocks(owner, false, true);
 	}
 
 	/**
@@ -489,108 +514,20 @@ class DeadlockDetector {
 	 * Real locks are locks that implement the ILock interface and can be suspended.
 	 */
 	private ISchedulingRule[] realLocksForThread(Thread owner) {
-		int threadIndex = indexOf(owner, false);
 		ArrayList ownedLocks = new ArrayList(1);
-		for (int j = 0; j < graph[threadIndex].length; j++) {
-			if ((graph[threadIndex][j] > NO_STATE) && (locks.get(j) instanceof ILock))
-				ownedLocks.add(locks.get(j));
+		Map row = (Map) lockThreads.get(owner);
+		if (row != null) {
+			for (Iterator it = row.entrySet().iterator(); it.hasNext();) {
+				Map.Entry entry = (Map.Entry) it.next();
+				if ((((Entry) entry.getValue()).state > NO_STATE) && (entry.getKey() instanceof ILock))
+					ownedLocks.add(entry.getKey());
+			}
 		}
 		if (ownedLocks.size() == 0)
 			Assert.isLegal(false, "A thread with no real locks was chosen to resolve deadlock."); //$NON-NLS-1$
 		return (ISchedulingRule[]) ownedLocks.toArray(new ISchedulingRule[ownedLocks.size()]);
 	}
 
-	/**
-	 * The matrix has been simplified. Check if any unnecessary rows or columns
-	 * can be removed.
-	 */
-	private void reduceGraph(int row, ISchedulingRule lock) {
-		int numLocks = locks.size();
-		boolean[] emptyColumns = new boolean[numLocks];
-
-		/**
-		 * find all columns that could possibly be empty
-		 * (consist of locks which conflict with the given lock, or of locks which are rules)
-		 */
-		for (int j = 0; j < numLocks; j++) {
-			if ((lock.isConflicting((ISchedulingRule) locks.get(j))) || !(locks.get(j) instanceof ILock))
-				emptyColumns[j] = true;
-		}
-
-		boolean rowEmpty = true;
-		int numEmpty = 0;
-		//check if the given row is empty
-		for (int j = 0; j < graph[row].length; j++) {
-			if (graph[row][j] != NO_STATE) {
-				rowEmpty = false;
-				break;
-			}
-		}
-		/**
-		 * Check if the possibly empty columns are actually empty.
-		 * If a column is actually empty, remove the corresponding lock from the list of locks
-		 * Start at the last column so that when locks are removed from the list, 
-		 * the index of the remaining locks is unchanged. Store the number of empty columns.
-		 */
-		for (int j = emptyColumns.length - 1; j >= 0; j--) {
-			for (int i = 0; i < graph.length; i++) {
-				if (emptyColumns[j] && (graph[i][j] != NO_STATE)) {
-					emptyColumns[j] = false;
-					break;
-				}
-			}
-			if (emptyColumns[j]) {
-				locks.remove(j);
-				numEmpty++;
-			}
-		}
-		//if no columns or rows are empty, return right away
-		if ((numEmpty == 0) && (!rowEmpty))
-			return;
-
-		if (rowEmpty)
-			lockThreads.remove(row);
-
-		//new graph (the list of locks and the list of threads are already updated)
-		final int numThreads = lockThreads.size();
-		numLocks = locks.size();
-		//optimize empty graph case
-		if (numThreads == 0 && numLocks == 0) {
-			graph = EMPTY_MATRIX;
-			return;
-		}
-		int[][] tempGraph = new int[numThreads][numLocks];
-
-		//the number of rows we need to skip to get the correct entry from the old graph
-		int numRowsSkipped = 0;
-		for (int i = 0; i < graph.length - numRowsSkipped; i++) {
-			if ((i == row) && rowEmpty) {
-				numRowsSkipped++;
-				//check if we need to skip the last row
-				if (i >= graph.length - numRowsSkipped)
-					break;
-			}
-			//the number of columns we need to skip to get the correct entry from the old graph
-			//needs to be reset for every new row
-			int numColsSkipped = 0;
-			for (int j = 0; j < graph[i].length - numColsSkipped; j++) {
-				while (emptyColumns[j + numColsSkipped]) {
-					numColsSkipped++;
-					//check if we need to skip the last column
-					if (j >= graph[i].length - numColsSkipped)
-						break;
-				}
-				//need to break out of the outer loop
-				if (j >= graph[i].length - numColsSkipped)
-					break;
-				tempGraph[i][j] = graph[i + numRowsSkipped][j + numColsSkipped];
-			}
-		}
-		graph = tempGraph;
-		Assert.isTrue(numThreads == graph.length, "Rows and threads don't match."); //$NON-NLS-1$
-		Assert.isTrue(numLocks == ((graph.length > 0) ? graph[0].length : 0), "Columns and locks don't match."); //$NON-NLS-1$
-	}
-
 	/**
 	 * Adds a 'deadlock detected' message to the log with a stack trace.
 	 */
@@ -616,28 +553,6 @@ class DeadlockDetector {
 		RuntimeLog.log(main);
 	}
 
-	/**
-	 * The number of threads/locks in the graph has changed. Update the
-	 * underlying matrix.
-	 */
-	private void resizeGraph() {
-		// a new row and/or a new column was added to the graph.
-		// since new rows/columns are always added to the end, just transfer
-		// old entries to the new graph, with the same indices.
-		final int newRows = lockThreads.size();
-		final int newCols = locks.size();
-		//optimize 0x0 and 1x1 matrices
-		if (newRows == 0 && newCols == 0) {
-			graph = EMPTY_MATRIX;
-			return;
-		}
-		int[][] tempGraph = new int[newRows][newCols];
-		for (int i = 0; i < graph.length; i++)
-			System.arraycopy(graph[i], 0, tempGraph[i], 0, graph[i].length);
-		graph = tempGraph;
-		resize = false;
-	}
-
 	/**
 	 * Get the thread whose locks can be suspended. (i.e. all locks it owns are
 	 * actual locks and not rules). Return the first thread in the array by default.
@@ -657,44 +572,75 @@ class DeadlockDetector {
 		return candidates[0];
 	}
 
+	/**
+	 * Sets the entry of the graph for the given thread and lock. Threads and
+	 * locks are added to the graph when they get their first entry, and removed
+	 * when their last entry is set to NO_STATE.
+	 */
+	private void setState(Thread thread, ISchedulingRule lock, int state) {
+		Map row = (Map) lockThreads.get(thread);
+		Entry entry = row == null ? null : (Entry) row.get(lock);
+		if (state == NO_STATE) {
+			if (entry == null)
+				return;
+			row.remove(lock);
+			if (row.isEmpty())
+				lockThreads.remove(thread);
+			Map column = (Map) locks.get(lock);
+			column.remove(thread);
+			if (column.isEmpty()) {
+				locks.remove(lock);
+				rules.remove(lock);
+			}
+			return;
+		}
+		if (entry == null) {
+			if (row == null) {
+				row = new LinkedHashMap(4);
+				lockThreads.put(thread, row);
+			}
+			Map column = (Map) locks.get(lock);
+			if (column == null) {
+				column = new LinkedHashMap(4);
+				locks.put(lock, column);
+				if (!(lock instanceof ILock))
+					rules.add(lock);
+			}
+			entry = new Entry();
+			row.put(lock, entry);
+			column.put(thread, entry);
+		}
+		entry.state = state;
+	}
+
 	/**
 	 * The given thread is waiting for the given lock. Update the graph.
 	 */
 	private void setToWait(Thread owner, ISchedulingRule lock, boolean suspend) {
-		boolean needTransfer = false;
+		setState(owner, lock, WAITING_FOR_LOCK);
 		/**
 		 * if we are adding an entry where a thread is waiting on a scheduling rule,
 		 * then we need to transfer all positive entries for a conflicting rule to the
 		 * newly added rule in order to synchronize the graph.
 		 */
 		if (!suspend && !(lock instanceof ILock))
-			needTransfer = true;
-		int lockIndex = indexOf(lock, !suspend);
-		int threadIndex = indexOf(owner, !suspend);
-		if (resize)
-			resizeGraph();
-
-		graph[threadIndex][lockIndex] = WAITING_FOR_LOCK;
-		if (needTransfer)
-			fillPresentEntries(lock, lockIndex);
+			fillPresentEntries(lock);
 	}
 
 	/**
-	 * Prints out the current matrix to standard output. 
+	 * Prints out the current graph to standard output, one thread per line.
 	 * Only used for debugging.
 	 */
 	public String toDebugString() {
 		StringWriter sWriter = new StringWriter();
 		PrintWriter out = new PrintWriter(sWriter, true);
 		out.println(" :: "); //$NON-NLS-1$
-		for (int j = 0; j < locks.size(); j++) {
-			out.print(" " + locks.get(j) + ','); //$NON-NLS-1$
-		}
-		out.println();
-		for (int i = 0; i < graph.length; i++) {
-			out.print(" " + ((Thread) lockThreads.get(i)).getName() + " : "); //$NON-NLS-1$ //$NON-NLS-2$
-			for (int j = 0; j < graph[i].length; j++) {
-				out.print(" " + graph[i][j] + ','); //$NON-NLS-1$
+		for (Iterator it = lockThreads.entrySet().iterator(); it.hasNext();) {
+			Map.Entry thread = (Map.Entry) it.next();
+			out.print(" " + ((Thread) thread.getKey()).getName() + " : "); //$NON-NLS-1$ //$NON-NLS-2$
+			for (Iterator row = ((Map) thread.getValue()).entrySet().iterator(); row.hasNext();) {
+				Map.Entry entry = (Map.Entry) row.next();
+				out.print(" " + entry.getKey() + '=' + ((Entry) entry.getValue()).state + ','); //$NON-NLS-1$
 			}
 			out.println();
 		}
@@ -0,0 +1,211 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.jobs;
+
+import java.util.*;
+
+/**
+ * Shares the worker threads between the owners of waiting jobs, and accounts
+ * for the time the jobs of each owner run. The owner of a job is the first
+ * family it has declared, or else the symbolic name of the bundle that defines
+ * the class of the job, or else the name of the class of the job.
+ * <p>
+ * Sharing is done by start time fair queuing. Every job that enters the wait
+ * queue is given a tag, which is the finish tag of the previous job of its
+ * owner, or the tag of the job that was started last if that is larger. The
+ * finish tag of a job is its tag plus a stride that is inversely proportional
+ * to the weight of its owner. Jobs of the same priority are run in the order
+ * of their tags, so an owner that has many waiting jobs takes turns with the
+ * other owners instead of running all of its jobs before theirs.
+ * <p>
+ * The share of an owner whose weight has been set is kept until it is removed,
+ * so that the weight is not reset when the owner is no longer referenced
+ * elsewhere. The shares of other owners are dropped once the finish tag of
+ * their last job is not after the virtual time, which means that the owner
+ * has no waiting job that comes after the jobs started so far. A new job of
+ * the owner then gets the same tag whether or not the share was kept, so only
+ * the run time of the owner is forgotten. Such shares are dropped whenever
+ * the number of shares has doubled, so that the shares of owners that come
+ * and go do not accumulate. Class names are used instead of classes, so that
+ * the shares do not keep the classes of jobs from being unloaded.
+ * <p>
+ * All methods must be called while holding the job manager lock.
+ *
+ * @see org.eclipse.core.runtime.jobs.IJobManager#PROP_FAIR_SHARE
+ */
+final class FairShare {
+	/**
+	 * The distance between the tags of successive jobs of an owner of weight 1.
+	 */
+	private static final long STRIDE = 1 << 20;
+
+	/**
+	 * The largest weight of an owner, which keeps the stride positive.
+	 */
+	private static final int MAX_WEIGHT = 1 << 10;
+
+	/**
+	 * Marks classes that are not defined by a bundle in the owner cache.
+	 */
+	private static final Object NO_BUNDLE = new Object();
+
+	/**
+	 * The number of shares below which shares are not dropped.
+	 */
+	private static final int MIN_PRUNE_SIZE = 64;
+
+	/**
+	 * The sharing state of an owner.
+	 */
+	private static final class Share {
+		/**
+		 * The tag that follows the tag of the last job of the owner.
+		 */
+		long finishTag = 0;
+		/**
+		 * The total time in milliseconds that jobs of the owner ran.
+		 */
+		long runTime = 0;
+		int weight = 1;
+		/**
+		 * Whether the weight has been set, so that the share is kept until it
+		 * is removed.
+		 */
+		boolean weighted = false;
+	}
+
+	/**
+	 * Maps job classes to the symbolic names of their bundles, or to
+	 * NO_BUNDLE, so that the bundle of a class is only looked up once.
+	 */
+	private final WeakHashMap bundles = new WeakHashMap();
+
+	/**
+	 * Maps owners to their shares.
+	 */
+	private final HashMap shares = new HashMap();
+
+	/**
+	 * The number of shares at which shares that are no longer needed are
+	 * dropped.
+	 */
+	private int pruneSize = MIN_PRUNE_SIZE;
+
+	/**
+	 * The tag of the job that was started last, which is the tag given to the
+	 * jobs of owners that have no waiting jobs.
+	 */
+	private long virtualTime = 0;
+
+	/**
+	 * Returns the owner of the given job.
+	 */
+	Object getOwner(InternalJob job) {
+		Object[] families = job.internalGetFamilies();
+		if (families != null && families.length > 0)
+			return families[0];
+		Class jobClass = job.getClass();
+		Object bundle = bundles.get(jobClass);
+		if (bundle == null) {
+			bundle = JobOSGiUtils.getDefault().getBundleId(job);
+			if (bundle == null)
+				bundle = NO_BUNDLE;
+			bundles.put(jobClass, bundle);
+		}
+		return bundle == NO_BUNDLE ? jobClass.getName() : bundle;
+	}
+
+	/**
+	 * Returns a map from the owners whose jobs have run to the total time in
+	 * milliseconds that they ran, as a <code>Long</code>.
+	 */
+	Map getRunTimes() {
+		Map result = new HashMap();
+		for (Iterator it = shares.entrySet().iterator(); it.hasNext();) {
+			Map.Entry entry = (Map.Entry) it.next();
+			Share share = (Share) entry.getValue();
+			if (share.runTime > 0)
+				result.put(entry.getKey(), new Long(share.runTime));
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the share of the given owner, which is created if the owner
+	 * does not have one yet.
+	 */
+	private Share getShare(Object owner) {
+		Share share = (Share) shares.get(owner);
+		if (share == null) {
+			if (shares.size() >= pruneSize)
+				prune();
+			share = new Share();
+			shares.put(owner, share);
+		}
+		return share;
+	}
+
+	/**
+	 * Returns the tag of the given job, which is about to enter the wait queue
+	 * with a new wait queue stamp.
+	 */
+	long nextTag(InternalJob job) {
+		Share share = getShare(getOwner(job));
+		long tag = Math.max(share.finishTag, virtualTime);
+		share.finishTag = tag + STRIDE / share.weight;
+		return tag;
+	}
+
+	/**
+	 * Drops the shares whose weight has not been set, and that no longer
+	 * change the tags of the jobs of their owners.
+	 */
+	private void prune() {
+		for (Iterator it = shares.values().iterator(); it.hasNext();) {
+			Share share = (Share) it.next();
+			if (!share.weighted && share.finishTag <= virtualTime)
+				it.remove();
+		}
+		pruneSize = Math.max(MIN_PRUNE_SIZE, shares.size() * 2);
+	}
+
+	/**
+	 * Records that a run of the given job ended after the given number of
+	 * milliseconds.
+	 */
+	void ran(InternalJob job, long time) {
+		getShare(getOwner(job)).runTime += time;
+	}
+
+	/**
+	 * Forgets the weight and run time of the given owner.
+	 */
+	void remove(Object owner) {
+		shares.remove(owner);
+	}
+
+	/**
+	 * Sets the weight of the given owner. An owner of weight <code>n</code>
+	 * gets <code>n</code> turns for every turn of an owner of weight 1.
+	 */
+	void setWeight(Object owner, int weight) {
+		Share share = getShare(owner);
+		share.weight = Math.max(1, Math.min(weight, MAX_WEIGHT));
+		share.weighted = true;
+	}
+
+	/**
+	 * Records that a job with the given tag was taken from the wait queue.
+	 */
+	void started(long tag) {
+		virtualTime = Math.max(virtualTime, tag);
+	}
+}
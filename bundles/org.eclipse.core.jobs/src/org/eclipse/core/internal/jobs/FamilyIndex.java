@@ -0,0 +1,134 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.jobs;
+
+import java.util.*;
+
+/**
+ * An index of the jobs known to the job manager by family.
+ * <p>
+ * Jobs that have declared their families are indexed under each of their
+ * families, so that the members of a family can be found without looking at
+ * other jobs. Jobs that have not declared their families must be asked whether
+ * they belong to a family, so they are kept in a set that is searched for every
+ * family. The families a job has declared cannot change while the job is known
+ * to the job manager.
+ * <p>
+ * A job also belongs to the family of its job group, and is indexed under its
+ * group whether or not it has declared its families.
+ * <p>
+ * All the data structures of this class are protected by the job manager's lock.
+ */
+final class FamilyIndex {
+	/**
+	 * Maps each declared family to the set of jobs that belong to it.
+	 */
+	private final HashMap families = new HashMap();
+
+	/**
+	 * The jobs that have not declared their families.
+	 */
+	private final HashSet undeclared = new HashSet();
+
+	/**
+	 * Returns whether the given job belongs to the given family.
+	 */
+	static boolean belongsTo(InternalJob job, Object family) {
+		if (family != null && family == job.internalGetJobGroup())
+			return true;
+		Object[] declared = job.internalGetFamilies();
+		if (declared == null)
+			return job.belongsTo(family);
+		for (int i = 0; i < declared.length; i++)
+			if (declared[i].equals(family))
+				return true;
+		return false;
+	}
+
+	/**
+	 * Adds a job that has become known to the job manager.
+	 */
+	void add(InternalJob job) {
+		if (job.internalGetJobGroup() != null)
+			add(job, job.internalGetJobGroup());
+		Object[] declared = job.internalGetFamilies();
+		if (declared == null) {
+			undeclared.add(job);
+			return;
+		}
+		for (int i = 0; i < declared.length; i++)
+			add(job, declared[i]);
+	}
+
+	private void add(InternalJob job, Object family) {
+		Set members = (Set) families.get(family);
+		if (members == null) {
+			members = new HashSet();
+			families.put(family, members);
+		}
+		members.add(job);
+	}
+
+	/**
+	 * Returns an iterator over the jobs that are indexed under the given family,
+	 * which are the jobs that have declared the family, and the members of the
+	 * job group that is the family. The jobs must not be added or removed while
+	 * the iterator is used.
+	 */
+	Iterator indexed(Object family) {
+		Set members = (Set) families.get(family);
+		return members == null ? Collections.EMPTY_SET.iterator() : members.iterator();
+	}
+
+	/**
+	 * Removes a job that is no longer known to the job manager.
+	 */
+	void remove(InternalJob job) {
+		if (job.internalGetJobGroup() != null)
+			remove(job, job.internalGetJobGroup());
+		Object[] declared = job.internalGetFamilies();
+		if (declared == null) {
+			undeclared.remove(job);
+			return;
+		}
+		for (int i = 0; i < declared.length; i++)
+			remove(job, declared[i]);
+	}
+
+	private void remove(InternalJob job, Object family) {
+		Set members = (Set) families.get(family);
+		if (members != null && members.remove(job) && members.isEmpty())
+			families.remove(family);
+	}
+
+	/**
+	 * Adds the jobs that belong to the given family and are in one of the given
+	 * states to the list. Jobs that are about to be scheduled are not added, since
+	 * the job manager is still deciding whether to schedule them.
+	 */
+	void select(List members, Object family, int stateMask) {
+		Set declared = (Set) families.get(family);
+		if (declared != null)
+			select(members, family, declared.iterator(), stateMask, false);
+		select(members, family, undeclared.iterator(), stateMask, true);
+	}
+
+	private void select(List members, Object family, Iterator jobs, int stateMask, boolean ask) {
+		while (jobs.hasNext()) {
+			InternalJob job = (InternalJob) jobs.next();
+			if (job.internalGetState() == InternalJob.ABOUT_TO_SCHEDULE || (job.getState() & stateMask) == 0)
+				continue;
+			//members of a group were already found under the group
+			if (!ask || (family != job.internalGetJobGroup() && job.belongsTo(family)))
+				members.add(job);
+		}
+	}
+}
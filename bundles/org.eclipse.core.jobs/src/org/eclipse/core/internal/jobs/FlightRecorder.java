@@ -0,0 +1,453 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.jobs;
+
+import java.io.*;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Array;
+import java.util.*;
+import org.eclipse.core.internal.runtime.RuntimeLog;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+
+/**
+ * Rings of the most recent job state changes, rule and lock acquisitions and
+ * releases, yields and deadlocks of each thread. Once turned on, the events
+ * leading up to a scheduling stall can be dumped after the fact, without having
+ * to reproduce the stall with tracing turned on.
+ * <p>
+ * Each thread records its events in a ring of its own, which it finds through
+ * a thread local, so recording an event takes no lock. Snapshots copy the
+ * rings without a lock either, and discard the events that were overwritten
+ * while they were copied, so that a snapshot never sees an event that is partly
+ * overwritten. Snapshots merge the rings of all threads by sequence number. The sequence
+ * counter is shared but not locked, so events of different threads that are
+ * recorded at the same moment may get the same number. The rings of the most
+ * recently ended threads are kept, so that their last events can be dumped.
+ * <p>
+ * Events do not keep references to the threads, jobs, rules and locks they
+ * are about. The names of threads and jobs, and the class names of rules and
+ * locks, are captured when an event is recorded, together with the number of
+ * the job or the identity hash code of the rule or lock (see
+ * {@link #describe(Object)}). The <code>toString</code> methods of rules are
+ * not called, as they are third party code that may be expensive.
+ *
+ * @see FlightRecording
+ */
+public final class FlightRecorder {
+	/**
+	 * The name of the system property that sets the number of events the
+	 * recorder keeps per thread, which is rounded up to a power of two. Zero
+	 * turns the recorder off, which is the default, since each thread that
+	 * schedules jobs or takes locks then keeps a ring of up to this many events.
+	 * {@link #DEFAULT_SIZE} events are enough to cover a stall of a busy
+	 * application.
+	 */
+	public static final String PROP_SIZE = "eclipse.jobs.recorder.size"; //$NON-NLS-1$
+	/**
+	 * The name of the system property that names a directory that the recorder
+	 * is dumped to whenever a deadlock is detected. Nothing is dumped if the
+	 * property is absent.
+	 */
+	public static final String PROP_DUMP_DIR = "eclipse.jobs.recorder.dumpDir"; //$NON-NLS-1$
+	/**
+	 * The suggested number of events to keep per thread.
+	 */
+	public static final int DEFAULT_SIZE = 4096;
+
+	/**
+	 * Event kind for a job changing state. The argument holds the old state in
+	 * its upper and the new state in its lower 16 bits.
+	 */
+	public static final int STATE_CHANGED = 1;
+	/**
+	 * Event kind for a thread acquiring a scheduling rule, or a lock that
+	 * another thread waited for.
+	 */
+	public static final int RULE_ACQUIRED = 2;
+	/**
+	 * Event kind for a thread releasing a scheduling rule, or a lock that was
+	 * recorded as acquired. The argument is 1 if all nested acquires of the rule
+	 * were released at once.
+	 */
+	public static final int RULE_RELEASED = 3;
+	/**
+	 * Event kind for a thread starting to wait for a rule or lock.
+	 */
+	public static final int RULE_WAITING = 4;
+	/**
+	 * Event kind for a thread becoming the owner of a lock.
+	 */
+	public static final int LOCK_ACQUIRED = 5;
+	/**
+	 * Event kind for a thread giving up the ownership of a lock.
+	 */
+	public static final int LOCK_RELEASED = 6;
+	/**
+	 * Event kind for a job yielding its rule. The detail is the job that the
+	 * rule is yielded to.
+	 */
+	public static final int YIELDED = 7;
+	/**
+	 * Event kind for a deadlock being resolved. The subject is the lock that
+	 * the thread waits for, the detail is the thread whose locks are suspended,
+	 * and the argument is the number of suspended locks.
+	 */
+	public static final int DEADLOCK = 8;
+
+	/**
+	 * The number of events a ring has room for when it is created. Rings grow
+	 * up to the capacity of the recorder, so that threads that record few
+	 * events, such as virtual threads that run a single job, stay small.
+	 */
+	private static final int INITIAL_RING_SIZE = 64;
+	/**
+	 * The number of threads that have ended whose rings are kept.
+	 */
+	private static final int MAX_RETIRED_RINGS = 16;
+
+	/**
+	 * Orders events by sequence number.
+	 */
+	private static final Comparator BY_SEQUENCE = new Comparator() {
+		public int compare(Object o1, Object o2) {
+			long first = ((FlightRecording.Event) o1).getSequence();
+			long second = ((FlightRecording.Event) o2).getSequence();
+			return first < second ? -1 : (first == second ? 0 : 1);
+		}
+	};
+
+	/**
+	 * The events recorded by one thread. Only that thread writes to the ring,
+	 * and it publishes each event by incrementing the count, so snapshots can
+	 * copy the ring without a lock. Events that the thread overwrote while
+	 * they were copied are discarded.
+	 */
+	private static final class Ring {
+		private long[] sequences;
+		private long[] times;
+		private byte[] kinds;
+		private int[] arguments;
+		private String[] threads;
+		private String[] subjectNames;
+		private int[] subjectIds;
+		private String[] detailNames;
+		private int[] detailIds;
+		/**
+		 * The number of events recorded in this ring.
+		 */
+		private volatile long count = 0;
+		/**
+		 * The sequence number of the last event recorded in this ring, or -1.
+		 * Only accessed by the thread that records in this ring.
+		 */
+		long last = -1;
+		/**
+		 * The thread that records in this ring. The ring does not keep the
+		 * thread from being collected once it has ended.
+		 */
+		private final WeakReference owner;
+
+		Ring(Thread owner, int size) {
+			this.owner = new WeakReference(owner);
+			allocate(size);
+		}
+
+		/**
+		 * Records an event, overwriting the oldest event if this ring is full
+		 * and has reached the given capacity.
+		 */
+		void add(int capacity, long sequence, long time, int kind, String thread, String subjectName, int subjectId, String detailName, int detailId, int argument) {
+			long index = count;
+			int length = sequences.length;
+			if (index == length && length < capacity)
+				grow(length * 2);
+			int slot = (int) index & (sequences.length - 1);
+			sequences[slot] = sequence;
+			times[slot] = time;
+			kinds[slot] = (byte) kind;
+			arguments[slot] = argument;
+			threads[slot] = thread;
+			subjectNames[slot] = subjectName;
+			subjectIds[slot] = subjectId;
+			detailNames[slot] = detailName;
+			detailIds[slot] = detailId;
+			//publish the event to snapshots
+			count = index + 1;
+		}
+
+		/**
+		 * Adds the events of this ring that come before the given sequence
+		 * number to the given list. May be called by any thread.
+		 */
+		void addTo(List events, long limit) {
+			//the arrays are read after the count, so they hold all events up to the count
+			long end = count;
+			long[] copiedSequences = sequences;
+			long[] copiedTimes = times;
+			byte[] copiedKinds = kinds;
+			int[] copiedArguments = arguments;
+			String[] copiedThreads = threads;
+			String[] copiedSubjectNames = subjectNames;
+			int[] copiedSubjectIds = subjectIds;
+			String[] copiedDetailNames = detailNames;
+			int[] copiedDetailIds = detailIds;
+			int length = copiedSequences.length;
+			long start = Math.max(0, end - length);
+			List copied = new ArrayList();
+			for (long i = start; i < end; i++) {
+				int slot = (int) i & (length - 1);
+				copied.add(new FlightRecording.Event(copiedSequences[slot], copiedTimes[slot], copiedKinds[slot], copiedThreads[slot], describe(copiedSubjectNames[slot], copiedSubjectIds[slot]), describe(copiedDetailNames[slot], copiedDetailIds[slot]), copiedArguments[slot]));
+			}
+			//the event being recorded now overwrites the oldest event that may have been copied
+			long valid = Math.max(start, count - length + 1);
+			for (int i = (int) Math.min(valid - start, copied.size()); i < copied.size(); i++) {
+				FlightRecording.Event event = (FlightRecording.Event) copied.get(i);
+				if (event.getSequence() < limit)
+					events.add(event);
+			}
+		}
+
+		private void allocate(int size) {
+			sequences = new long[size];
+			times = new long[size];
+			kinds = new byte[size];
+			arguments = new int[size];
+			threads = new String[size];
+			subjectNames = new String[size];
+			subjectIds = new int[size];
+			detailNames = new String[size];
+			detailIds = new int[size];
+		}
+
+		/**
+		 * Makes room for the given number of events. No event has been
+		 * overwritten yet, so the events keep their slots.
+		 */
+		private void grow(int size) {
+			sequences = (long[]) resize(sequences, size);
+			times = (long[]) resize(times, size);
+			kinds = (byte[]) resize(kinds, size);
+			arguments = (int[]) resize(arguments, size);
+			threads = (String[]) resize(threads, size);
+			subjectNames = (String[]) resize(subjectNames, size);
+			subjectIds = (int[]) resize(subjectIds, size);
+			detailNames = (String[]) resize(detailNames, size);
+			detailIds = (int[]) resize(detailIds, size);
+		}
+
+		/**
+		 * Returns a copy of the given array with the given length.
+		 */
+		private static Object resize(Object array, int size) {
+			Object resized = Array.newInstance(array.getClass().getComponentType(), size);
+			System.arraycopy(array, 0, resized, 0, Array.getLength(array));
+			return resized;
+		}
+
+		/**
+		 * Returns whether the thread that records in this ring has ended.
+		 */
+		boolean isRetired() {
+			Thread thread = (Thread) owner.get();
+			return thread == null || !thread.isAlive();
+		}
+	}
+
+	private final int capacity;
+	/**
+	 * The ring of the current thread.
+	 */
+	private final ThreadLocal localRing = new ThreadLocal();
+	/**
+	 * The rings of all threads that recorded events, oldest first.
+	 * @GuardedBy("rings")
+	 */
+	private final List rings = new ArrayList();
+	/**
+	 * The sequence number of the next event. Not locked, see the class comment.
+	 */
+	private volatile long next = 0;
+	/**
+	 * The directory to dump to when a deadlock is detected, or null.
+	 */
+	private volatile File dumpDirectory;
+
+	/**
+	 * Returns a new recorder configured by the system properties, or
+	 * <code>null</code> if the recorder is turned off.
+	 */
+	static FlightRecorder create() {
+		JobOSGiUtils utils = JobOSGiUtils.getDefault();
+		long size = utils.getLongProperty(PROP_SIZE, 0);
+		if (size <= 0)
+			return null;
+		FlightRecorder recorder = new FlightRecorder((int) Math.min(size, 1 << 24));
+		String dir = utils.getProperty(PROP_DUMP_DIR);
+		if (dir != null)
+			recorder.setDumpDirectory(new File(dir));
+		return recorder;
+	}
+
+	/**
+	 * Returns the string that events show for the given job, rule, lock or
+	 * thread: its name, or the name of its class for rules and locks, followed
+	 * by the number of the job or the identity hash code in parentheses.
+	 */
+	public static String describe(Object object) {
+		return describe(nameOf(object), idOf(object));
+	}
+
+	private static String describe(String name, int id) {
+		return name == null ? null : name + '(' + id + ')';
+	}
+
+	private static int idOf(Object object) {
+		if (object instanceof InternalJob)
+			return ((InternalJob) object).getJobNumber();
+		return System.identityHashCode(object);
+	}
+
+	private static String nameOf(Object object) {
+		if (object == null)
+			return null;
+		if (object instanceof InternalJob)
+			return ((InternalJob) object).getName();
+		if (object instanceof Thread)
+			return ((Thread) object).getName();
+		return object.getClass().getName();
+	}
+
+	/**
+	 * Creates a recorder that keeps at least the given number of events per
+	 * thread.
+	 */
+	public FlightRecorder(int size) {
+		int ringCapacity = 1;
+		while (ringCapacity < size)
+			ringCapacity <<= 1;
+		capacity = ringCapacity;
+	}
+
+	/**
+	 * Returns the number of events this recorder keeps per thread.
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Records that a deadlock was resolved, and dumps the events up to the
+	 * deadlock if a dump directory is set.
+	 */
+	void deadlock(Thread thread, Object lock, Thread candidate, int suspended) {
+		long sequence = record(DEADLOCK, thread, lock, candidate, suspended);
+		File dir = dumpDirectory;
+		if (dir == null)
+			return;
+		File file = new File(dir, "jobs-deadlock-" + System.currentTimeMillis() + ".rec"); //$NON-NLS-1$ //$NON-NLS-2$
+		try {
+			OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+			try {
+				snapshot(sequence + 1).write(out);
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			RuntimeLog.log(new Status(IStatus.WARNING, JobManager.PI_JOBS, JobManager.PLUGIN_ERROR, "Could not write " + file, e)); //$NON-NLS-1$
+		}
+	}
+
+	/**
+	 * Writes a snapshot of this recorder to the given stream, in the format read
+	 * by {@link FlightRecording#read(InputStream)}. The stream is not closed.
+	 */
+	public void dump(OutputStream out) throws IOException {
+		snapshot().write(out);
+	}
+
+	/**
+	 * Records an event in the ring of the current thread. The thread is usually
+	 * the current thread, and the meaning of the other values depends on the
+	 * kind of the event. Returns the sequence number of the event.
+	 */
+	long record(int kind, Thread thread, Object subject, Object detail, int argument) {
+		long time = System.currentTimeMillis();
+		Ring ring = (Ring) localRing.get();
+		if (ring == null)
+			ring = register();
+		//another thread may have moved the counter back, but the events of a thread stay ordered
+		long sequence = Math.max(next, ring.last + 1);
+		next = sequence + 1;
+		ring.last = sequence;
+		ring.add(capacity, sequence, time, kind, thread == null ? null : thread.getName(), nameOf(subject), idOf(subject), nameOf(detail), idOf(detail), argument);
+		return sequence;
+	}
+
+	/**
+	 * Creates the ring of the current thread. The rings of threads that have
+	 * ended are discarded, except for the most recently ended ones.
+	 */
+	private Ring register() {
+		Ring ring = new Ring(Thread.currentThread(), Math.min(INITIAL_RING_SIZE, capacity));
+		localRing.set(ring);
+		synchronized (rings) {
+			int retired = 0;
+			for (int i = rings.size() - 1; i >= 0; i--)
+				if (((Ring) rings.get(i)).isRetired() && ++retired > MAX_RETIRED_RINGS)
+					rings.remove(i);
+			rings.add(ring);
+		}
+		return ring;
+	}
+
+	/**
+	 * Records a job changing from the given old state to the given new state.
+	 */
+	void stateChanged(InternalJob job, int oldState, int newState) {
+		record(STATE_CHANGED, Thread.currentThread(), job, null, oldState << 16 | newState);
+	}
+
+	/**
+	 * Sets the directory that this recorder is dumped to whenever a deadlock is
+	 * detected, or <code>null</code> to not dump on deadlocks.
+	 */
+	public void setDumpDirectory(File directory) {
+		dumpDirectory = directory;
+	}
+
+	/**
+	 * Returns the events currently in this recorder, ordered by sequence number.
+	 */
+	public FlightRecording snapshot() {
+		return snapshot(Long.MAX_VALUE);
+	}
+
+	/**
+	 * Returns the events currently in this recorder that come before the given
+	 * sequence number, ordered by sequence number.
+	 */
+	private FlightRecording snapshot(long limit) {
+		Ring[] all;
+		synchronized (rings) {
+			all = (Ring[]) rings.toArray(new Ring[rings.size()]);
+		}
+		List events = new ArrayList();
+		for (int i = 0; i < all.length; i++)
+			all[i].addTo(events, limit);
+		//the sort is stable, so events with the same number stay in the order of their rings
+		Collections.sort(events, BY_SEQUENCE);
+		FlightRecording recording = new FlightRecording();
+		for (Iterator it = events.iterator(); it.hasNext();)
+			recording.add((FlightRecording.Event) it.next());
+		return recording;
+	}
+}
@@ -0,0 +1,271 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.jobs;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * The events of a {@link FlightRecorder} at the time of a snapshot, or as read
+ * back from a dump. The threads, jobs, rules and locks of the events are
+ * described by strings (see {@link FlightRecorder#describe(Object)}).
+ * <p>
+ * A dump starts with a magic number and a version, followed by a table of all
+ * strings, and then the events, each of which refers to its strings by their
+ * index in the table. Running this class with the names of dump files prints
+ * their events.
+ */
+public final class FlightRecording {
+	private static final int MAGIC = 0x4A524543; // "JREC"
+	private static final short VERSION = 1;
+	/**
+	 * Strings are cut to this many characters, so that they can be written
+	 * with <code>DataOutput.writeUTF</code>.
+	 */
+	private static final int MAX_STRING = 8192;
+
+	/**
+	 * A recorded event.
+	 */
+	public static final class Event {
+		final String detail;
+		final int argument;
+		final int kind;
+		final long sequence;
+		final String subject;
+		final String thread;
+		final long time;
+
+		Event(long sequence, long time, int kind, String thread, String subject, String detail, int argument) {
+			this.sequence = sequence;
+			this.time = time;
+			this.kind = kind;
+			this.thread = thread;
+			this.subject = subject;
+			this.detail = detail;
+			this.argument = argument;
+		}
+
+		/**
+		 * Returns a number whose meaning depends on the kind of this event.
+		 */
+		public int getArgument() {
+			return argument;
+		}
+
+		/**
+		 * Returns the second object this event is about, or <code>null</code>.
+		 */
+		public String getDetail() {
+			return detail;
+		}
+
+		/**
+		 * Returns one of the event kind constants of {@link FlightRecorder}.
+		 */
+		public int getKind() {
+			return kind;
+		}
+
+		/**
+		 * Returns the position of this event among all events recorded, which
+		 * orders events of different threads. Events of different threads that
+		 * were recorded at the same moment may have the same position.
+		 */
+		public long getSequence() {
+			return sequence;
+		}
+
+		/**
+		 * Returns the job, rule or lock this event is about, or <code>null</code>.
+		 */
+		public String getSubject() {
+			return subject;
+		}
+
+		/**
+		 * Returns the name of the thread of this event.
+		 */
+		public String getThread() {
+			return thread;
+		}
+
+		/**
+		 * Returns the time this event was recorded, in milliseconds.
+		 */
+		public long getTime() {
+			return time;
+		}
+
+		public String toString() {
+			StringBuffer buf = new StringBuffer();
+			buf.append(sequence).append(' ').append(time).append(" [").append(thread).append("] "); //$NON-NLS-1$ //$NON-NLS-2$
+			switch (kind) {
+				case FlightRecorder.STATE_CHANGED :
+					buf.append("STATE ").append(subject).append(' '); //$NON-NLS-1$
+					buf.append(JobManager.printState(argument >>> 16)).append(" -> ").append(JobManager.printState(argument & 0xFFFF)); //$NON-NLS-1$
+					break;
+				case FlightRecorder.RULE_ACQUIRED :
+					buf.append("ACQUIRE ").append(subject); //$NON-NLS-1$
+					break;
+				case FlightRecorder.RULE_RELEASED :
+					buf.append(argument == 0 ? "RELEASE " : "RELEASE_ALL ").append(subject); //$NON-NLS-1$ //$NON-NLS-2$
+					break;
+				case FlightRecorder.RULE_WAITING :
+					buf.append("WAIT ").append(subject); //$NON-NLS-1$
+					break;
+				case FlightRecorder.LOCK_ACQUIRED :
+					buf.append("LOCK ").append(subject); //$NON-NLS-1$
+					break;
+				case FlightRecorder.LOCK_RELEASED :
+					buf.append("UNLOCK ").append(subject); //$NON-NLS-1$
+					break;
+				case FlightRecorder.YIELDED :
+					buf.append("YIELD ").append(subject).append(" to ").append(detail); //$NON-NLS-1$ //$NON-NLS-2$
+					break;
+				case FlightRecorder.DEADLOCK :
+					buf.append("DEADLOCK waiting for ").append(subject).append(", suspended ").append(argument).append(" locks of ").append(detail); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+					break;
+				default :
+					buf.append("UNKNOWN(").append(kind).append(") ").append(subject); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+			return buf.toString();
+		}
+	}
+
+	private final ArrayList events = new ArrayList();
+
+	/**
+	 * Prints the events of the given dump files.
+	 */
+	public static void main(String[] args) throws IOException {
+		for (int i = 0; i < args.length; i++) {
+			InputStream in = new BufferedInputStream(new FileInputStream(args[i]));
+			try {
+				Event[] read = read(in).getEvents();
+				for (int j = 0; j < read.length; j++)
+					System.out.println(read[j]);
+			} finally {
+				in.close();
+			}
+		}
+	}
+
+	/**
+	 * Reads a recording that was written by {@link #write(OutputStream)}. The
+	 * stream is not closed.
+	 */
+	public static FlightRecording read(InputStream input) throws IOException {
+		DataInputStream in = new DataInputStream(input);
+		if (in.readInt() != MAGIC)
+			throw new IOException("Not a job flight recording"); //$NON-NLS-1$
+		short version = in.readShort();
+		if (version != VERSION)
+			throw new IOException("Unsupported job flight recording version: " + version); //$NON-NLS-1$
+		String[] table = new String[in.readInt()];
+		for (int i = 0; i < table.length; i++)
+			table[i] = in.readUTF();
+		FlightRecording recording = new FlightRecording();
+		for (int i = in.readInt(); i > 0; i--) {
+			long sequence = in.readLong();
+			long time = in.readLong();
+			int kind = in.readByte();
+			String thread = stringAt(table, in.readInt());
+			String subject = stringAt(table, in.readInt());
+			String detail = stringAt(table, in.readInt());
+			recording.events.add(new Event(sequence, time, kind, thread, subject, detail, in.readInt()));
+		}
+		return recording;
+	}
+
+	private static String stringAt(String[] table, int index) throws IOException {
+		if (index == -1)
+			return null;
+		if (index < 0 || index >= table.length)
+			throw new IOException("Invalid string index: " + index); //$NON-NLS-1$
+		return table[index];
+	}
+
+	/**
+	 * Returns the index of the given string in the table, adding it if needed.
+	 */
+	private static int indexOf(String string, Map indices, List table) {
+		if (string == null)
+			return -1;
+		Integer index = (Integer) indices.get(string);
+		if (index == null) {
+			index = new Integer(table.size());
+			indices.put(string, index);
+			table.add(string.length() > MAX_STRING ? string.substring(0, MAX_STRING) : string);
+		}
+		return index.intValue();
+	}
+
+	FlightRecording() {
+		super();
+	}
+
+	/**
+	 * Adds an event.
+	 */
+	void add(Event event) {
+		events.add(event);
+	}
+
+	/**
+	 * Returns the recorded events, oldest first.
+	 */
+	public Event[] getEvents() {
+		return (Event[]) events.toArray(new Event[events.size()]);
+	}
+
+	public String toString() {
+		StringBuffer buf = new StringBuffer();
+		for (Iterator it = events.iterator(); it.hasNext();)
+			buf.append(it.next()).append('\n');
+		return buf.toString();
+	}
+
+	/**
+	 * Writes this recording to the given stream. The stream is not closed.
+	 */
+	public void write(OutputStream output) throws IOException {
+		Map indices = new HashMap();
+		List table = new ArrayList();
+		int[] references = new int[events.size() * 3];
+		int i = 0;
+		for (Iterator it = events.iterator(); it.hasNext();) {
+			Event event = (Event) it.next();
+			references[i++] = indexOf(event.thread, indices, table);
+			references[i++] = indexOf(event.subject, indices, table);
+			references[i++] = indexOf(event.detail, indices, table);
+		}
+		DataOutputStream out = new DataOutputStream(output);
+		out.writeInt(MAGIC);
+		out.writeShort(VERSION);
+		out.writeInt(table.size());
+		for (Iterator it = table.iterator(); it.hasNext();)
+			out.writeUTF((String) it.next());
+		out.writeInt(events.size());
+		i = 0;
+		for (Iterator it = events.iterator(); it.hasNext();) {
+			Event event = (Event) it.next();
+			out.writeLong(event.sequence);
+			out.writeLong(event.time);
+			out.writeByte(event.kind);
+			out.writeInt(references[i++]);
+			out.writeInt(references[i++]);
+			out.writeInt(references[i++]);
+			out.writeInt(event.argument);
+		}
+		out.flush();
+	}
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2003, 2010 IBM Corporation and others.
+ *  Copyright (c) 2003, 2011 IBM Corporation and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
@@ -44,6 +44,13 @@ class ImplicitJobs {
 	 */
 	private final Map threadJobs = new HashMap(20);
 
+	/**
+	 * The thread job of the current thread, if it is in the threadJobs map. Only
+	 * the thread that owns a thread job sets or clears it here, so nested rules
+	 * can be begun and ended without locking.
+	 */
+	private final ThreadLocal currentThreadJob = new ThreadLocal();
+
 	ImplicitJobs(JobManager manager) {
 		this.manager = manager;
 	}
@@ -55,11 +62,17 @@ class ImplicitJobs {
 		if (JobManager.DEBUG_BEGIN_END)
 			JobManager.debug("Begin rule: " + rule); //$NON-NLS-1$
 		final Thread currentThread = Thread.currentThread();
-		ThreadJob threadJob;
+		ThreadJob threadJob = (ThreadJob) currentThreadJob.get();
+		if (threadJob != null) {
+			//nested rule, just push on stack and return
+			threadJob.push(rule);
+			return;
+		}
 		synchronized (this) {
 			threadJob = (ThreadJob) threadJobs.get(currentThread);
 			if (threadJob != null) {
-				//nested rule, just push on stack and return
+				//a rule was transferred to this thread
+				currentThreadJob.set(threadJob);
 				threadJob.push(rule);
 				return;
 			}
@@ -100,20 +113,24 @@ class ImplicitJobs {
 				if (suspend)
 					suspendedRules.add(rule);
 			}
+			currentThreadJob.set(threadJob);
 		}
 	}
 
 	/* (Non-javadoc) 
 	 * @see IJobManager#endRule 
 	 */
-	synchronized void end(ISchedulingRule rule, boolean resume) {
+	void end(ISchedulingRule rule, boolean resume) {
 		if (JobManager.DEBUG_BEGIN_END)
 			JobManager.debug("End rule: " + rule); //$NON-NLS-1$
-		ThreadJob threadJob = (ThreadJob) threadJobs.get(Thread.currentThread());
+		ThreadJob threadJob = getThreadJob(Thread.currentThread());
 		if (threadJob == null)
 			Assert.isLegal(rule == null, "endRule without matching beginRule: " + rule); //$NON-NLS-1$
 		else if (threadJob.pop(rule)) {
-			endThreadJob(threadJob, resume);
+			//only the last rule scope needs the lock
+			synchronized (this) {
+				endThreadJob(threadJob, resume);
+			}
 		}
 	}
 
@@ -152,6 +169,7 @@ class ImplicitJobs {
 		Thread currentThread = Thread.currentThread();
 		//clean up when last rule scope exits
 		threadJobs.remove(currentThread);
+		currentThreadJob.set(null);
 		ISchedulingRule rule = threadJob.getRule();
 		if (resume && rule != null)
 			suspendedRules.remove(rule);
@@ -175,7 +193,7 @@ class ImplicitJobs {
 		if (suspendedRules.size() == 0)
 			return false;
 		for (Iterator it = suspendedRules.iterator(); it.hasNext();)
-			if (((ISchedulingRule) it.next()).contains(rule))
+			if (InternalJob.contains((ISchedulingRule) it.next(), rule))
 				return true;
 		return false;
 	}
@@ -262,6 +280,7 @@ class ImplicitJobs {
 		Assert.isLegal(source.getRule() == rule, "transferred rule " + rule + " does not match beginRule: " + source.getRule()); //$NON-NLS-1$ //$NON-NLS-2$		// transfer the thread job without ending it
 		source.setThread(destinationThread);
 		threadJobs.remove(currentThread);
+		currentThreadJob.set(null);
 		threadJobs.put(destinationThread, source);
 		// transfer lock
 		if (source.acquireRule) {
@@ -291,8 +310,27 @@ class ImplicitJobs {
 		manager.enqueue(manager.waitingThreadJobs, threadJob);
 	}
 
-	synchronized ThreadJob getThreadJob(Thread thread) {
-		return (ThreadJob) threadJobs.get(thread);
+	/**
+	 * Returns the thread job of the given thread, or <code>null</code> if the
+	 * thread has not begun a rule. Does not lock if the given thread is the
+	 * current thread and it has begun a rule.
+	 */
+	ThreadJob getThreadJob(Thread thread) {
+		if (thread != Thread.currentThread()) {
+			synchronized (this) {
+				return (ThreadJob) threadJobs.get(thread);
+			}
+		}
+		ThreadJob threadJob = (ThreadJob) currentThreadJob.get();
+		if (threadJob != null)
+			return threadJob;
+		synchronized (this) {
+			//the thread job may have been transferred to this thread
+			threadJob = (ThreadJob) threadJobs.get(thread);
+		}
+		if (threadJob != null)
+			currentThreadJob.set(threadJob);
+		return threadJob;
 	}
 
 }
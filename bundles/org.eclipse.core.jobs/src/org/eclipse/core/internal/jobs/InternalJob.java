@@ -74,7 +74,102 @@ public abstract class InternalJob extends PlatformObject implements Comparable {
 	 */
 	static final long T_NONE = -1;
 
+	/**
+	 * The state of a job that is only needed when the job uses coalescing, a
+	 * deadline or a completion, or when deadline scheduling, fair share
+	 * scheduling or job metrics are on. It is allocated the first time it is
+	 * given a value other than its initial one, so that jobs that use none of
+	 * these features do not carry it.
+	 */
+	private static final class Extras {
+		/**
+		 * The coalescing mode of the job, and the longest time a burst of
+		 * schedule requests can postpone it.
+		 */
+		int coalescing = Job.COALESCE_NONE;
+		long coalescingMaxWait = 0;
+		/**
+		 * The time of the first schedule request merged into the next run of
+		 * the job, or the time the current or last run started for jobs that
+		 * coalesce at the leading edge.
+		 */
+		long coalescingStart = T_NONE;
+		/**
+		 * The completion of the current run of the job, or <code>null</code>
+		 * if nobody has asked for it yet.
+		 */
+		JobCompletion completion = null;
+		/**
+		 * The time within which the job should be done after it becomes due,
+		 * or zero if it has no deadline.
+		 */
+		long deadline = 0;
+		/**
+		 * The time by which the current run of the job should be done, or
+		 * T_NONE if it has no deadline.
+		 */
+		long dueTime = T_NONE;
+		/**
+		 * The due time the job is ordered by in the wait queue, which is the
+		 * due time of the older conflicting job it has been placed behind, if any.
+		 */
+		long queueDueTime = T_NONE;
+		/**
+		 * The fair share tag the job is ordered by in the wait queue, which is
+		 * the tag of the older conflicting job it has been placed behind, if any.
+		 */
+		long queueFairTag = 0;
+		/**
+		 * The lowest priority of the older conflicting jobs the job has been
+		 * placed behind in the wait queue, or zero if there are no such jobs.
+		 */
+		int queuePriority = 0;
+		/**
+		 * Whether the job ended with a request to run again that has not been
+		 * scheduled yet. Schedule requests that arrive meanwhile are merged
+		 * into the next run, like the requests that arrive while the job runs.
+		 */
+		boolean rescheduling = false;
+		/**
+		 * The time the current run of the job started, or T_NONE if fair share
+		 * scheduling was off at that time.
+		 */
+		long runStart = T_NONE;
+		/**
+		 * The time the job entered its current state, or T_NONE if job metrics
+		 * were off at that time.
+		 */
+		long stateStart = T_NONE;
+	}
+
+	/**
+	 * The number of schedule requests merged into the current or last run of
+	 * this job.
+	 * @GuardedBy("manager.lock")
+	 */
+	private int coalescedCount = 0;
+	/**
+	 * The rarely used state of this job, or <code>null</code> if all of it
+	 * still has its initial value.
+	 * @GuardedBy("manager.lock")
+	 */
+	private Extras extras = null;
+	/**
+	 * The families this job has declared that it belongs to, or <code>null</code>
+	 * if the job decides whether it belongs to a family in #belongsTo.
+	 */
+	private Object[] families = null;
 	private volatile int flags = Job.NONE;
+	/**
+	 * The group this job belongs to, or <code>null</code>.
+	 */
+	private JobGroup jobGroup = null;
+	/**
+	 * The number of the last event of this job that was posted to the
+	 * listener dispatcher, or zero if none was.
+	 * @GuardedBy("dispatcher")
+	 */
+	private long lastEvent = 0;
 	private final int jobNumber = getNextJobNumber();
 	private ListenerList listeners = null;
 	private volatile IProgressMonitor monitor;
@@ -95,6 +190,22 @@ public abstract class InternalJob extends PlatformObject implements Comparable {
 	 * to a job instance by a third party.
 	 */
 	private ObjectMap properties;
+	/**
+	 * The index of this job in the heap of the queue that contains it, or -1
+	 * if this job does not belong to a queue.
+	 * @GuardedBy("manager.lock")
+	 */
+	private int queueIndex = -1;
+	/**
+	 * The number of schedule requests merged into the next run of this job.
+	 * @GuardedBy("manager.lock")
+	 */
+	private int scheduleRequests = 0;
+	/**
+	 * The order in which this job was added to the queue that contains it.
+	 * @GuardedBy("manager.lock")
+	 */
+	private long queueSequence;
 
 	/**
 	 * Volatile because it is usually set via a Worker thread and is read via a 
@@ -122,6 +233,13 @@ public abstract class InternalJob extends PlatformObject implements Comparable {
 	 */
 	private long waitQueueStamp = T_NONE;
 
+	/**
+	 * Stamp added when a job becomes pending. Used to find the job that has
+	 * been pending the longest, whether it is sleeping, waiting or blocked.
+	 * @GuardedBy("manager.lock")
+	 */
+	private long pendingStamp = T_NONE;
+
 	/*
 	 * The thread that is currently running this job
 	 */
@@ -158,6 +276,16 @@ public abstract class InternalJob extends PlatformObject implements Comparable {
 		listeners.add(listener);
 	}
 
+	/**
+	 * Counts a request to schedule this job, which is merged into the next run
+	 * of this job. Requests to a job that the job manager does not know start
+	 * a new count, unless the job is about to be rescheduled.
+	 * @GuardedBy("manager.lock")
+	 */
+	final void addScheduleRequest() {
+		scheduleRequests = internalGetState() == Job.NONE && !isRescheduling() ? 1 : scheduleRequests + 1;
+	}
+
 	/**
 	 * Adds an entry at the end of the list of which this item is the head.
 	 * @GuardedBy("manager.lock")
@@ -177,6 +305,11 @@ public abstract class InternalJob extends PlatformObject implements Comparable {
 	 * @see Job#belongsTo(Object)
 	 */
 	protected boolean belongsTo(Object family) {
+		Object[] declared = families;
+		if (declared != null && family != null)
+			for (int i = 0; i < declared.length; i++)
+				if (declared[i].equals(family))
+					return true;
 		return false;
 	}
 
@@ -216,6 +349,13 @@ public abstract class InternalJob extends PlatformObject implements Comparable {
 		return listeners;
 	}
 
+	/* (non-Javadoc)
+	 * @see Job#getJobGroup()
+	 */
+	protected JobGroup getJobGroup() {
+		return jobGroup;
+	}
+
 	/* (non-Javadoc)
 	 * @see Job#getName()
 	 */
@@ -223,6 +363,14 @@ public abstract class InternalJob extends PlatformObject implements Comparable {
 		return name;
 	}
 
+	/**
+	 * Returns the number that tells this job apart from other jobs of the
+	 * same name in {@link #toString()}.
+	 */
+	final int getJobNumber() {
+		return jobNumber;
+	}
+
 	/* (non-Javadoc)
 	 * @see Job#getPriority()
 	 */
@@ -248,6 +396,81 @@ public abstract class InternalJob extends PlatformObject implements Comparable {
 		return temp.get(key);
 	}
 
+	/**
+	 * Returns the rarely used state of this job, which is allocated if this
+	 * job does not have it yet.
+	 * @GuardedBy("manager.lock")
+	 */
+	private Extras getExtras() {
+		if (extras == null)
+			extras = new Extras();
+		return extras;
+	}
+
+	/* (non-Javadoc)
+	 * @see Job#getCoalescedCount()
+	 */
+	protected int getCoalescedCount() {
+		return coalescedCount;
+	}
+
+	/* (non-Javadoc)
+	 * @see Job#getCoalescing()
+	 */
+	protected int getCoalescing() {
+		Extras temp = extras;
+		return temp == null ? Job.COALESCE_NONE : temp.coalescing;
+	}
+
+	/* (non-Javadoc)
+	 * @see Job#getDeadline()
+	 */
+	protected long getDeadline() {
+		Extras temp = extras;
+		return temp == null ? 0 : temp.deadline;
+	}
+
+	/**
+	 * Returns the time by which the current run of this job should be done,
+	 * or T_NONE if it has no deadline.
+	 * @GuardedBy("manager.lock")
+	 */
+	final long getDueTime() {
+		return extras == null ? T_NONE : extras.dueTime;
+	}
+
+	/**
+	 * Returns the longest time a burst of schedule requests can postpone this job.
+	 */
+	final long getCoalescingMaxWait() {
+		return extras == null ? 0 : extras.coalescingMaxWait;
+	}
+
+	/**
+	 * Returns the time of the first schedule request merged into the next run
+	 * of this job, or the start of the current or last run of a job that
+	 * coalesces at the leading edge.
+	 */
+	final long getCoalescingStart() {
+		return extras == null ? T_NONE : extras.coalescingStart;
+	}
+
+	/**
+	 * Returns the completion of the current run of this job, or <code>null</code>
+	 * if nobody has asked for it.
+	 */
+	final JobCompletion getCompletion() {
+		return extras == null ? null : extras.completion;
+	}
+
+	/**
+	 * Returns the number of the last event of this job that was posted to the
+	 * listener dispatcher.
+	 */
+	final long getLastEvent() {
+		return lastEvent;
+	}
+
 	/* (non-Javadoc)
 	 * @see Job#getResult
 	 */
@@ -271,6 +494,22 @@ public abstract class InternalJob extends PlatformObject implements Comparable {
 		return startTime;
 	}
 
+	/**
+	 * Returns the time the current run of this job started, if it is known.
+	 * @GuardedBy("manager.lock")
+	 */
+	final long getRunStart() {
+		return extras == null ? T_NONE : extras.runStart;
+	}
+
+	/**
+	 * Returns the time this job entered its current state, if it is known.
+	 * @GuardedBy("manager.lock")
+	 */
+	final long getStateStart() {
+		return extras == null ? T_NONE : extras.stateStart;
+	}
+
 	/* (non-Javadoc)
 	 * @see Job#getState()
 	 */
@@ -290,6 +529,14 @@ public abstract class InternalJob extends PlatformObject implements Comparable {
 		}
 	}
 
+	/**
+	 * Returns the families this job has declared that it belongs to, or
+	 * <code>null</code> if it has not declared its families.
+	 */
+	final Object[] internalGetFamilies() {
+		return families;
+	}
+
 	/* (non-javadoc)
 	 * @see Job.getThread
 	 */
@@ -297,6 +544,13 @@ public abstract class InternalJob extends PlatformObject implements Comparable {
 		return thread;
 	}
 
+	/**
+	 * Returns the group of this job, or <code>null</code>.
+	 */
+	final InternalJobGroup internalGetJobGroup() {
+		return jobGroup;
+	}
+
 	/**
 	 * Returns the raw job state, including internal states no exposed as API.
 	 */
@@ -346,6 +600,17 @@ public abstract class InternalJob extends PlatformObject implements Comparable {
 		return manager.isBlocking(this);
 	}
 
+	/**
+	 * Returns true if the given rule contains the other rule, and false otherwise.
+	 * A rule that contains the rule held by a shared rule also contains the
+	 * shared rule.
+	 */
+	static boolean contains(ISchedulingRule rule, ISchedulingRule otherRule) {
+		if (rule.contains(otherRule))
+			return true;
+		return otherRule instanceof SharedRule && rule.contains(((SharedRule) otherRule).getRule());
+	}
+
 	/**
 	 * Returns true if this job conflicts with the given job, and false otherwise.
 	 */
@@ -353,10 +618,25 @@ public abstract class InternalJob extends PlatformObject implements Comparable {
 		ISchedulingRule otherRule = otherJob.getRule();
 		if (schedulingRule == null || otherRule == null)
 			return false;
+		return isConflicting(schedulingRule, otherRule);
+	}
+
+	/**
+	 * Returns true if the given rules conflict, and false otherwise. Unlike
+	 * <code>ISchedulingRule.isConflicting</code>, two shared rules never
+	 * conflict, even if they are the same rule, because any number of jobs
+	 * and threads may hold a rule in shared mode.
+	 */
+	static boolean isConflicting(ISchedulingRule rule, ISchedulingRule otherRule) {
+		//shared rules must be asked the question, since other rules do not know about them
+		if (rule instanceof SharedRule)
+			return !(otherRule instanceof SharedRule) && rule.isConflicting(otherRule);
+		if (otherRule instanceof SharedRule)
+			return otherRule.isConflicting(rule);
 		//if one of the rules is a compound rule, it must be asked the question.
-		if (schedulingRule.getClass() == MultiRule.class)
-			return schedulingRule.isConflicting(otherRule);
-		return otherRule.isConflicting(schedulingRule);
+		if (rule.getClass() == MultiRule.class)
+			return rule.isConflicting(otherRule);
+		return otherRule.isConflicting(rule);
 	}
 
 	/* (non-javadoc)
@@ -387,6 +667,13 @@ public abstract class InternalJob extends PlatformObject implements Comparable {
 		return next;
 	}
 
+	/* (non-Javadoc)
+	 * @see Job#onDone()
+	 */
+	protected IJobCompletion onDone() {
+		return manager.onDone(this);
+	}
+
 	/**
 	 * Returns the previous entry (behind this one) in the list, or null if there is no previous entry
 	 */
@@ -438,6 +725,91 @@ public abstract class InternalJob extends PlatformObject implements Comparable {
 
 	}
 
+	/* (non-Javadoc)
+	 * @see Job#setCoalescing(int, long)
+	 */
+	protected void setCoalescing(int mode, long maxWait) {
+		switch (mode) {
+			case Job.COALESCE_NONE :
+			case Job.COALESCE_TRAILING :
+			case Job.COALESCE_LEADING :
+				if (maxWait < 0)
+					throw new IllegalArgumentException(String.valueOf(maxWait));
+				manager.setCoalescing(this, mode, maxWait);
+				break;
+			default :
+				throw new IllegalArgumentException(String.valueOf(mode));
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see Job#setDeadline(long)
+	 */
+	protected void setDeadline(long deadline) {
+		if (deadline < 0)
+			throw new IllegalArgumentException(String.valueOf(deadline));
+		manager.setDeadline(this, deadline);
+	}
+
+	/**
+	 * Sets the deadline of this job.
+	 * @GuardedBy("manager.lock")
+	 */
+	final void internalSetDeadline(long deadline) {
+		if (extras != null || deadline != 0)
+			getExtras().deadline = deadline;
+	}
+
+	/**
+	 * Sets the time by which the current run of this job should be done.
+	 * @GuardedBy("manager.lock")
+	 */
+	final void setDueTime(long dueTime) {
+		if (extras == null && dueTime == T_NONE)
+			return;
+		Extras temp = getExtras();
+		temp.dueTime = dueTime;
+		temp.queueDueTime = dueTime;
+	}
+
+	/**
+	 * Sets the coalescing mode of this job.
+	 * @GuardedBy("manager.lock")
+	 */
+	final void internalSetCoalescing(int mode, long maxWait) {
+		if (extras == null && mode == Job.COALESCE_NONE && maxWait == 0)
+			return;
+		Extras temp = getExtras();
+		temp.coalescing = mode;
+		temp.coalescingMaxWait = maxWait;
+	}
+
+	/**
+	 * Sets the time of the first schedule request merged into the next run of
+	 * this job, or the start of the current run of a job that coalesces at the
+	 * leading edge.
+	 */
+	final void setCoalescingStart(long time) {
+		if (extras != null || time != T_NONE)
+			getExtras().coalescingStart = time;
+	}
+
+	/**
+	 * Sets the completion of the current run of this job.
+	 */
+	final void setCompletion(JobCompletion completion) {
+		if (extras != null || completion != null)
+			getExtras().completion = completion;
+	}
+
+	/**
+	 * Sets the number of the last event of this job that was posted to the
+	 * listener dispatcher.
+	 */
+	final void setLastEvent(long lastEvent) {
+		this.lastEvent = lastEvent;
+	}
+
 	/**
 	 * Sets whether this job was canceled when it was running
 	 */
@@ -445,6 +817,15 @@ public abstract class InternalJob extends PlatformObject implements Comparable {
 		flags = value ? flags | M_RUN_CANCELED : flags & ~M_RUN_CANCELED;
 	}
 
+	/* (non-javadoc)
+	 * @see Job.setJobGroup
+	 */
+	protected void setJobGroup(JobGroup jobGroup) {
+		if (getState() != Job.NONE)
+			throw new IllegalStateException();
+		this.jobGroup = jobGroup;
+	}
+
 	/* (non-Javadoc)
 	 * @see Job#setName(String)
 	 */
@@ -557,6 +938,38 @@ public abstract class InternalJob extends PlatformObject implements Comparable {
 		startTime = time;
 	}
 
+	/**
+	 * Sets the time the current run of this job started.
+	 * @GuardedBy("manager.lock")
+	 */
+	final void setRunStart(long time) {
+		if (extras != null || time != T_NONE)
+			getExtras().runStart = time;
+	}
+
+	/**
+	 * Sets the time this job entered its current state.
+	 * @GuardedBy("manager.lock")
+	 */
+	final void setStateStart(long time) {
+		if (extras != null || time != T_NONE)
+			getExtras().stateStart = time;
+	}
+
+	/* (non-javadoc)
+	 * @see Job.setFamilies
+	 */
+	protected void setFamilies(Object[] families) {
+		if (getState() != Job.NONE)
+			throw new IllegalStateException();
+		if (families != null) {
+			families = (Object[]) families.clone();
+			for (int i = 0; i < families.length; i++)
+				Assert.isLegal(families[i] != null);
+		}
+		this.families = families;
+	}
+
 	/* (non-javadoc)
 	 * @see Job.setSystem
 	 */
@@ -589,6 +1002,16 @@ public abstract class InternalJob extends PlatformObject implements Comparable {
 		return true;
 	}
 
+	/**
+	 * Records that a run of this job is starting, with the schedule requests
+	 * that were merged into it.
+	 * @GuardedBy("manager.lock")
+	 */
+	final void startRun() {
+		coalescedCount = scheduleRequests;
+		scheduleRequests = 0;
+	}
+
 	/* (non-Javadoc)
 	 * @see Job#sleep()
 	 */
@@ -624,6 +1047,44 @@ public abstract class InternalJob extends PlatformObject implements Comparable {
 	 */
 	void setWaitQueueStamp(long waitQueueStamp) {
 		this.waitQueueStamp = waitQueueStamp;
+		//a new stamp gives the job a new position in the wait queue
+		if (extras != null) {
+			extras.queuePriority = 0;
+			extras.queueDueTime = extras.dueTime;
+			extras.queueFairTag = 0;
+		}
+	}
+
+	/**
+	 * Returns whether this job ended with a request to run again that has not
+	 * been scheduled yet.
+	 * @GuardedBy("manager.lock")
+	 */
+	final boolean isRescheduling() {
+		return extras != null && extras.rescheduling;
+	}
+
+	/**
+	 * @return the stamp added when this job last became pending
+	 * @GuardedBy("manager.lock")
+	 */
+	long getPendingStamp() {
+		return pendingStamp;
+	}
+
+	/**
+	 * @GuardedBy("manager.lock")
+	 */
+	final void setRescheduling(boolean rescheduling) {
+		if (extras != null || rescheduling)
+			getExtras().rescheduling = rescheduling;
+	}
+
+	/**
+	 * @GuardedBy("manager.lock")
+	 */
+	void setPendingStamp(long pendingStamp) {
+		this.pendingStamp = pendingStamp;
 	}
 
 	/**
@@ -633,4 +1094,83 @@ public abstract class InternalJob extends PlatformObject implements Comparable {
 	long getWaitQueueStamp() {
 		return waitQueueStamp;
 	}
+
+	/**
+	 * @return the index of this job in its queue, or -1
+	 * @GuardedBy("manager.lock")
+	 */
+	int getQueueIndex() {
+		return queueIndex;
+	}
+
+	/**
+	 * @GuardedBy("manager.lock")
+	 */
+	void setQueueIndex(int queueIndex) {
+		this.queueIndex = queueIndex;
+	}
+
+	/**
+	 * @return the due time this job is ordered by in the wait queue, or T_NONE
+	 * @GuardedBy("manager.lock")
+	 */
+	long getQueueDueTime() {
+		return extras == null ? T_NONE : extras.queueDueTime;
+	}
+
+	/**
+	 * @GuardedBy("manager.lock")
+	 */
+	void setQueueDueTime(long queueDueTime) {
+		if (extras != null || queueDueTime != T_NONE)
+			getExtras().queueDueTime = queueDueTime;
+	}
+
+	/**
+	 * @return the fair share tag this job is ordered by in the wait queue
+	 * @GuardedBy("manager.lock")
+	 */
+	long getQueueFairTag() {
+		return extras == null ? 0 : extras.queueFairTag;
+	}
+
+	/**
+	 * @GuardedBy("manager.lock")
+	 */
+	void setQueueFairTag(long queueFairTag) {
+		if (extras != null || queueFairTag != 0)
+			getExtras().queueFairTag = queueFairTag;
+	}
+
+	/**
+	 * @return the lowest priority of the older conflicting jobs this job
+	 * has been placed behind in the wait queue
+	 * @GuardedBy("manager.lock")
+	 */
+	int getQueuePriority() {
+		return extras == null ? 0 : extras.queuePriority;
+	}
+
+	/**
+	 * @GuardedBy("manager.lock")
+	 */
+	void setQueuePriority(int queuePriority) {
+		if (extras != null || queuePriority != 0)
+			getExtras().queuePriority = queuePriority;
+	}
+
+	/**
+	 * @return the order in which this job was added to its queue
+	 * @GuardedBy("manager.lock")
+	 */
+	long getQueueSequence() {
+		return queueSequence;
+	}
+
+	/**
+	 * @GuardedBy("manager.lock")
+	 */
+	void setQueueSequence(long queueSequence) {
+		this.queueSequence = queueSequence;
+	}
 }
@@ -0,0 +1,205 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.jobs;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.eclipse.core.runtime.*;
+import org.eclipse.core.runtime.jobs.Job;
+
+/**
+ * Internal implementation class for job groups. Clients must not implement this
+ * class directly. All job groups must be subclasses of the API
+ * <code>org.eclipse.core.runtime.jobs.JobGroup</code> class.
+ */
+public abstract class InternalJobGroup {
+	private static final JobManager manager = JobManager.getInstance();
+
+	/**
+	 * The number of jobs of this group that the job manager knows about.
+	 * @GuardedBy("manager.lock")
+	 */
+	private int activeJobs = 0;
+	/**
+	 * The number of jobs of this group that finished since the group last
+	 * became active.
+	 * @GuardedBy("manager.lock")
+	 */
+	private int doneJobs = 0;
+	private final int maxThreads;
+	private final String name;
+	/**
+	 * The results that are not OK of the jobs of this group that finished since
+	 * the group last became active. Results that are OK are only counted, so
+	 * that a group that is fed jobs continuously does not keep every result.
+	 * @GuardedBy("manager.lock")
+	 */
+	private final List problems = new ArrayList();
+	/**
+	 * The number of jobs of this group that are running or about to run.
+	 * @GuardedBy("manager.lock")
+	 */
+	private int runningJobs = 0;
+	/**
+	 * The waiting jobs of this group that were set aside because the group
+	 * ran as many jobs as it may, or <code>null</code> if there are none.
+	 * @GuardedBy("manager.lock")
+	 */
+	private JobQueue throttledJobs = null;
+
+	protected InternalJobGroup(String name, int maxThreads) {
+		Assert.isNotNull(name);
+		Assert.isLegal(maxThreads >= 0, "Maximum number of threads is negative"); //$NON-NLS-1$
+		this.name = name;
+		this.maxThreads = maxThreads;
+	}
+
+	/**
+	 * A job of this group has become known to the job manager.
+	 * @GuardedBy("manager.lock")
+	 */
+	final void addActiveJob() {
+		//the first job of a new batch discards the results of the last one
+		if (activeJobs++ == 0) {
+			doneJobs = 0;
+			problems.clear();
+		}
+	}
+
+	/**
+	 * A job of this group has finished with the given result.
+	 * @GuardedBy("manager.lock")
+	 */
+	final void addResult(IStatus result) {
+		doneJobs++;
+		if (!result.isOK())
+			problems.add(result);
+	}
+
+	/**
+	 * A job of this group has started running, or stopped running if the
+	 * delta is negative.
+	 * @GuardedBy("manager.lock")
+	 */
+	final void addRunningJobs(int delta) {
+		runningJobs += delta;
+	}
+
+	/* (non-Javadoc)
+	 * @see JobGroup#cancel()
+	 */
+	protected void cancel() {
+		manager.cancel(this);
+	}
+
+	/* (non-Javadoc)
+	 * @see JobGroup#computeGroupResult(IStatus[])
+	 */
+	protected IStatus computeGroupResult(IStatus[] jobResults) {
+		List problems = new ArrayList(jobResults.length);
+		for (int i = 0; i < jobResults.length; i++)
+			if (!jobResults[i].isOK())
+				problems.add(jobResults[i]);
+		IStatus[] children = (IStatus[]) problems.toArray(new IStatus[problems.size()]);
+		return new MultiStatus(JobManager.PI_JOBS, 0, children, name, null);
+	}
+
+	/* (non-Javadoc)
+	 * @see JobGroup#getActiveJobs()
+	 */
+	protected Job[] getActiveJobs() {
+		return manager.find(this);
+	}
+
+	/* (non-Javadoc)
+	 * @see JobGroup#getMaxThreads()
+	 */
+	protected int getMaxThreads() {
+		return maxThreads;
+	}
+
+	/* (non-Javadoc)
+	 * @see JobGroup#getName()
+	 */
+	protected String getName() {
+		return name;
+	}
+
+	/* (non-Javadoc)
+	 * @see JobGroup#getResult()
+	 */
+	protected IStatus getResult() {
+		IStatus[] jobResults = manager.getResults(this);
+		//call the hook outside sync block because it is third party code
+		return jobResults == null ? null : computeGroupResult(jobResults);
+	}
+
+	/**
+	 * Returns the results that are not OK of the jobs of this group that
+	 * finished since the group last became active, or <code>null</code> if
+	 * none has finished.
+	 * @GuardedBy("manager.lock")
+	 */
+	final IStatus[] internalGetResults() {
+		if (doneJobs == 0)
+			return null;
+		return (IStatus[]) problems.toArray(new IStatus[problems.size()]);
+	}
+
+	/**
+	 * Returns whether this group already runs as many jobs as it may.
+	 * @GuardedBy("manager.lock")
+	 */
+	final boolean isFull() {
+		return maxThreads > 0 && runningJobs >= maxThreads;
+	}
+
+	/**
+	 * Returns the queue of the waiting jobs of this group that were set aside
+	 * because the group ran as many jobs as it may, or <code>null</code> if
+	 * there are none.
+	 * @GuardedBy("manager.lock")
+	 */
+	final JobQueue getThrottledJobs() {
+		return throttledJobs;
+	}
+
+	/* (non-Javadoc)
+	 * @see JobGroup#join(IProgressMonitor)
+	 */
+	protected void join(IProgressMonitor monitor) throws InterruptedException, OperationCanceledException {
+		manager.join(this, monitor);
+	}
+
+	/**
+	 * A job of this group is no longer known to the job manager.
+	 * @GuardedBy("manager.lock")
+	 */
+	final void removeActiveJob() {
+		activeJobs--;
+	}
+
+	/**
+	 * Sets the queue of the waiting jobs of this group that were set aside
+	 * because the group ran as many jobs as it may.
+	 * @GuardedBy("manager.lock")
+	 */
+	final void setThrottledJobs(JobQueue jobs) {
+		throttledJobs = jobs;
+	}
+
+	/* (non-Javadoc)
+	 * For debugging purposes only.
+	 */
+	public String toString() {
+		return getName() + "(" + maxThreads + ")"; //$NON-NLS-1$//$NON-NLS-2$
+	}
+}
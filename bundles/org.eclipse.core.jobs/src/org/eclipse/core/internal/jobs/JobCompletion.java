@@ -0,0 +1,161 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.jobs;
+
+import java.util.ArrayList;
+import org.eclipse.core.internal.runtime.RuntimeLog;
+import org.eclipse.core.runtime.*;
+import org.eclipse.core.runtime.jobs.IJobCompletion;
+import org.eclipse.osgi.util.NLS;
+
+/**
+ * The implementation of a job or family completion. A completion is done at
+ * most once, by the job manager; its state is protected by the completion itself,
+ * and actions are always run without holding any lock.
+ */
+class JobCompletion implements IJobCompletion {
+	/**
+	 * The result this completion is done with, or <code>null</code> if it is
+	 * not done yet.
+	 * @GuardedBy("this")
+	 */
+	private IStatus result;
+	/**
+	 * The first action to run when this completion is done, or <code>null</code>.
+	 * @GuardedBy("this")
+	 */
+	private Runnable action;
+	/**
+	 * The other actions to run when this completion is done, or <code>null</code>.
+	 * @GuardedBy("this")
+	 */
+	private ArrayList actions;
+	/**
+	 * Whether the actions that were waiting for this completion have run.
+	 * @GuardedBy("this")
+	 */
+	private boolean settled;
+
+	/**
+	 * Returns a completion that is already done with the given result.
+	 */
+	static JobCompletion done(IStatus result) {
+		JobCompletion completion = new JobCompletion();
+		completion.result = result;
+		completion.settled = true;
+		return completion;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.core.runtime.jobs.IJobCompletion#await(long)
+	 */
+	public synchronized boolean await(long timeout) throws InterruptedException {
+		if (Thread.interrupted())
+			throw new InterruptedException();
+		long start = System.currentTimeMillis();
+		long timeLeft = timeout;
+		while (!settled) {
+			if (timeLeft <= 0)
+				return false;
+			wait(timeLeft);
+			timeLeft = start + timeout - System.currentTimeMillis();
+		}
+		return true;
+	}
+
+	/**
+	 * Marks this completion done with the given result, and runs the actions
+	 * that were waiting for it. Has no effect if this completion is already done.
+	 */
+	void complete(IStatus doneResult) {
+		Runnable first;
+		ArrayList others;
+		synchronized (this) {
+			if (result != null)
+				return;
+			result = doneResult;
+			first = action;
+			others = actions;
+			action = null;
+			actions = null;
+		}
+		if (first != null)
+			run(first);
+		if (others != null)
+			for (int i = 0, size = others.size(); i < size; i++)
+				run((Runnable) others.get(i));
+		//release the threads waiting for this completion once its actions have run
+		synchronized (this) {
+			settled = true;
+			notifyAll();
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.core.runtime.jobs.IJobCompletion#getResult()
+	 */
+	public synchronized IStatus getResult() {
+		return result;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.core.runtime.jobs.IJobCompletion#isDone()
+	 */
+	public synchronized boolean isDone() {
+		return result != null;
+	}
+
+	private void run(Runnable doneAction) {
+		try {
+			doneAction.run();
+		} catch (Exception e) {
+			handleException(doneAction, e);
+		} catch (LinkageError e) {
+			handleException(doneAction, e);
+		}
+	}
+
+	private void handleException(Object doneAction, Throwable e) {
+		if (e instanceof OperationCanceledException)
+			return;
+		String pluginId = JobOSGiUtils.getDefault().getBundleId(doneAction);
+		if (pluginId == null)
+			pluginId = JobManager.PI_JOBS;
+		String message = NLS.bind(JobMessages.meta_pluginProblems, pluginId);
+		RuntimeLog.log(new Status(IStatus.ERROR, pluginId, JobManager.PLUGIN_ERROR, message, e));
+	}
+
+	public String toString() {
+		IStatus done = getResult();
+		return "JobCompletion(" + (done == null ? "not done" : done.toString()) + ')'; //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.core.runtime.jobs.IJobCompletion#whenDone(java.lang.Runnable)
+	 */
+	public void whenDone(Runnable doneAction) {
+		if (doneAction == null)
+			throw new IllegalArgumentException();
+		synchronized (this) {
+			if (result == null) {
+				if (action == null) {
+					action = doneAction;
+				} else {
+					if (actions == null)
+						actions = new ArrayList(2);
+					actions.add(doneAction);
+				}
+				return;
+			}
+		}
+		run(doneAction);
+	}
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2003, 2006 IBM Corporation and others.
+ * Copyright (c) 2003, 2011 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -18,6 +18,12 @@ import org.eclipse.osgi.util.NLS;
 /**
  * Responsible for notifying all job listeners about job lifecycle events.  Uses a
  * specialized iterator to ensure the complex iteration logic is contained in one place.
+ * <p>
+ * When asynchronous notification is enabled, the events for the global listeners
+ * are delivered by a dispatcher thread, except for the <code>aboutToRun</code>
+ * event, which is delivered synchronously so that listeners can still cancel the
+ * job before it runs. Listeners registered on a job are always notified
+ * synchronously.
  */
 class JobListeners {
 	interface IListenerDoit {
@@ -58,6 +64,11 @@ class JobListeners {
 	 * The global job listeners.
 	 */
 	protected final ListenerList global = new ListenerList(ListenerList.IDENTITY);
+	/**
+	 * The dispatcher that delivers events to the global listeners, or
+	 * <code>null</code> if they are notified synchronously.
+	 */
+	private volatile ListenerDispatcher dispatcher;
 
 	/**
 	 * TODO Could use an instance pool to re-use old event objects
@@ -83,14 +94,10 @@ class JobListeners {
 	}
 
 	/**
-	 * Process the given doit for all global listeners and all local listeners
-	 * on the given job.
+	 * Notifies the given listeners of the given event.
 	 */
-	private void doNotify(final IListenerDoit doit, final IJobChangeEvent event) {
-		//notify all global listeners
-		Object[] listeners = global.getListeners();
-		int size = listeners.length;
-		for (int i = 0; i < size; i++) {
+	void deliver(IListenerDoit doit, IJobChangeEvent event, Object[] listeners) {
+		for (int i = 0, size = listeners.length; i < size; i++) {
 			try {
 				if (listeners[i] != null)
 					doit.notify((IJobChangeListener) listeners[i], event);
@@ -100,22 +107,40 @@ class JobListeners {
 				handleException(listeners[i], e);
 			}
 		}
+	}
+
+	/**
+	 * Process the given doit for all global listeners and all local listeners
+	 * on the given job.
+	 */
+	private void doNotify(final IListenerDoit doit, final IJobChangeEvent event) {
+		//notify all global listeners
+		Object[] listeners = global.getListeners();
+		if (listeners.length > 0) {
+			ListenerDispatcher current = dispatcher;
+			if (current == null)
+				deliver(doit, event, listeners);
+			else if (doit == aboutToRun)
+				current.deliverNow(doit, event, listeners);
+			else if (!current.post(doit, event, listeners))
+				current.deliverNow(doit, event, listeners);
+		}
 		//notify all local listeners
 		ListenerList list = ((InternalJob) event.getJob()).getListeners();
 		listeners = list == null ? null : list.getListeners();
 		if (listeners == null)
 			return;
-		size = listeners.length;
-		for (int i = 0; i < size; i++) {
-			try {
-				if (listeners[i] != null)
-					doit.notify((IJobChangeListener) listeners[i], event);
-			} catch (Exception e) {
-				handleException(listeners[i], e);
-			} catch (LinkageError e) {
-				handleException(listeners[i], e);
-			}
-		}
+		deliver(doit, event, listeners);
+	}
+
+	/**
+	 * Delivers the events that have been posted to the dispatcher so far in the
+	 * calling thread.
+	 */
+	void flush() {
+		ListenerDispatcher current = dispatcher;
+		if (current != null)
+			current.flush();
 	}
 
 	private void handleException(Object listener, Throwable e) {
@@ -130,6 +155,13 @@ class JobListeners {
 		RuntimeLog.log(new Status(IStatus.ERROR, pluginId, JobManager.PLUGIN_ERROR, message, e));
 	}
 
+	/**
+	 * Returns whether there are listeners to notify of the events of the given job.
+	 */
+	boolean hasListeners(Job job) {
+		return !global.isEmpty() || ((InternalJob) job).getListeners() != null;
+	}
+
 	public void add(IJobChangeListener listener) {
 		global.add(listener);
 	}
@@ -138,31 +170,60 @@ class JobListeners {
 		global.remove(listener);
 	}
 
+	/**
+	 * Sets whether the global listeners are notified asynchronously. When
+	 * asynchronous notification is disabled, the events that are still pending
+	 * are delivered before this method returns.
+	 */
+	synchronized void setAsynchronous(boolean async, boolean daemon) {
+		ListenerDispatcher current = dispatcher;
+		if (async == (current != null))
+			return;
+		if (async) {
+			current = new ListenerDispatcher(this);
+			current.setDaemon(daemon);
+			current.start();
+			dispatcher = current;
+			return;
+		}
+		dispatcher = null;
+		current.cancel();
+		current.flush();
+	}
+
 	public void aboutToRun(Job job) {
-		doNotify(aboutToRun, newEvent(job));
+		if (hasListeners(job))
+			doNotify(aboutToRun, newEvent(job));
 	}
 
 	public void awake(Job job) {
-		doNotify(awake, newEvent(job));
+		if (hasListeners(job))
+			doNotify(awake, newEvent(job));
 	}
 
 	public void done(Job job, IStatus result, boolean reschedule) {
+		if (!hasListeners(job))
+			return;
 		JobChangeEvent event = newEvent(job, result);
 		event.reschedule = reschedule;
 		doNotify(done, event);
 	}
 
 	public void running(Job job) {
-		doNotify(running, newEvent(job));
+		if (hasListeners(job))
+			doNotify(running, newEvent(job));
 	}
 
 	public void scheduled(Job job, long delay, boolean reschedule) {
+		if (!hasListeners(job))
+			return;
 		JobChangeEvent event = newEvent(job, delay);
 		event.reschedule = reschedule;
 		doNotify(scheduled, event);
 	}
 
 	public void sleeping(Job job) {
-		doNotify(sleeping, newEvent(job));
+		if (hasListeners(job))
+			doNotify(sleeping, newEvent(job));
 	}
 }
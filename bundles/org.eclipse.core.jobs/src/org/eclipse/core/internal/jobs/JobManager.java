@@ -14,6 +14,8 @@
  *******************************************************************************/
 package org.eclipse.core.internal.jobs;
 
+import java.io.IOException;
+import java.io.Writer;
 //don't use ICU because this is used for debugging only (see bug 135785)
 import java.text.*;
 import java.util.*;
@@ -30,6 +32,16 @@ import org.eclipse.osgi.util.NLS;
  * instance itself is not used because this class is publicly reachable, and
  * third party clients may try to synchronize on it.
  * 
+ * The lock is only needed for state transitions, which must be atomic with
+ * respect to scheduling rule conflict checks. A summary of the scheduler state
+ * (whether any jobs are running or waiting, and when the next sleeping job wakes
+ * up) is published in volatile fields whenever a transition occurs, so that 
+ * frequent queries such as isIdle, isSuspended and sleepHint never contend 
+ * for the lock. The lock is not partitioned, so scheduling, starting and
+ * ending jobs serialize on it. A job that has no listeners is claimed and
+ * queued in a single acquisition of the lock when it is scheduled, since no
+ * scheduled event has to be delivered in between.
+ * 
  * There are various locks used and held throughout the JobManager
  * implementation. When multiple locks interact, circular hold and waits must
  * never happen, or a deadlock will occur. To prevent deadlocks, this is the
@@ -99,23 +111,104 @@ public class JobManager implements IJobManager {
 
 	final ImplicitJobs implicitJobs = new ImplicitJobs(this);
 
+	/**
+	 * Index of all jobs known to the job manager by family, used to find
+	 * the members of a family. Should only be modified from changeState
+	 * @GuardedBy("lock")
+	 */
+	private final FamilyIndex familyIndex;
+
 	private final JobListeners jobListeners = new JobListeners();
 
+	/**
+	 * How many runs of jobs with a deadline were done in time.
+	 */
+	private final DeadlineStatistics deadlineStatistics = new DeadlineStatistics();
+
+	/**
+	 * Whether waiting jobs are ordered by priority and due time.
+	 * @GuardedBy("lock")
+	 */
+	private boolean deadlineScheduling = false;
+
+	/**
+	 * The shares of the owners of jobs, and the time their jobs ran.
+	 * @GuardedBy("lock")
+	 */
+	private final FairShare fairShare = new FairShare();
+
+	/**
+	 * Whether waiting jobs are ordered by fair share, and the run time of
+	 * their owners is accounted for.
+	 * @GuardedBy("lock")
+	 */
+	private boolean fairScheduling = false;
+
+	/**
+	 * The limits on the number of pending jobs of families, by family.
+	 * @GuardedBy("lock")
+	 */
+	private final HashMap familyQueueLimits = new HashMap();
+
+	/**
+	 * The time jobs spend in each state, or null if job metrics are off.
+	 */
+	private volatile JobMetrics metrics;
+
 	/**
 	 * The lock for synchronizing all activity in the job manager.  To avoid deadlock,
 	 * this lock must never be held for extended periods, and must never be
 	 * held while third party code is being called.
+	 * <p>
+	 * All job state transitions, including those of schedule, startJob and
+	 * endJob, serialize on this lock, because a job moves between the wait
+	 * queue, the blocked chains and the running set in a single step, and
+	 * starting a job must be atomic with the check for conflicting rules.
+	 * Only queries that can do with a published snapshot, such as isIdle,
+	 * isSuspended and sleepHint, avoid it.
+	 * </p>
 	 * @GuardedBy("itself")
 	 */
 	private final Object lock = new Object();
 
-	private final LockManager lockManager = new LockManager();
+	/**
+	 * The most recent job state changes and lock events, or null if the flight
+	 * recorder is turned off.
+	 */
+	private volatile FlightRecorder recorder = FlightRecorder.create();
+
+	private final LockManager lockManager = new LockManager(recorder);
+
+	/**
+	 * The limit on the number of pending jobs, which also counts the pending
+	 * jobs when there is no limit.
+	 * @GuardedBy("lock")
+	 */
+	private final QueueLimit queueLimit = new QueueLimit(null);
+
+	/**
+	 * Whether the number of pending jobs of any family, or of all jobs, is
+	 * limited. Volatile so that it can be read outside the sync block.
+	 */
+	private volatile boolean queueLimited = false;
+
+	/**
+	 * The number of threads that wait for room below a queue limit.
+	 * @GuardedBy("lock")
+	 */
+	private int queueWaiters = 0;
 
 	/**
 	 * The pool of worker threads.
 	 */
 	private WorkerPool pool;
 
+	/**
+	 * The minimum time in milliseconds between the updates passed on to the
+	 * progress monitors of jobs, or zero if every update is passed on.
+	 */
+	private volatile long progressInterval = 0;
+
 	/**
 	 * @GuardedBy("lock")
 	 */
@@ -126,6 +219,20 @@ public class JobManager implements IJobManager {
 	 */
 	private final HashSet running;
 
+	/**
+	 * Index of the scheduling rules of running jobs, used to find jobs 
+	 * blocking a waiting job. Should only be modified from changeState
+	 * @GuardedBy("lock")
+	 */
+	private final RuleIndex runningRules;
+
+	/**
+	 * Index of the scheduling rules of blocked jobs, used to find jobs 
+	 * blocking a waiting job. Should only be modified from changeState
+	 * @GuardedBy("lock")
+	 */
+	private final RuleIndex blockedRules;
+
 	/**
 	 * Jobs that are currently yielding. Should only be modified from changeState
 	 * @GuardedBy("lock")
@@ -138,15 +245,39 @@ public class JobManager implements IJobManager {
 	 * Should only be modified from changeState
 	 * @GuardedBy("lock")
 	 */
-	private final JobQueue sleeping;
+	private final TimerWheel sleeping;
+
+	/**
+	 * The job groups that have waiting jobs set aside because the group runs as
+	 * many jobs as it may. Should only be modified from changeState and nextJob
+	 * @GuardedBy("lock")
+	 */
+	private final List throttledGroups = new ArrayList();
 	/**
 	 * True if this manager has been suspended, and false otherwise.  A job manager
 	 * starts out not suspended, and becomes suspended when <code>suspend</code>
 	 * is invoked. Once suspended, no jobs will start running until <code>resume</code>
-	 * is called.
-	 * @GuardedBy("lock")
+	 * is called. Written while holding the lock, but can be read without it.
 	 */
-	private boolean suspended = false;
+	private volatile boolean suspended = false;
+
+	/**
+	 * True if there are no running and no waiting jobs. This is a snapshot of the 
+	 * state of the running set and the wait queue published by changeState, 
+	 * so that it can be read without acquiring the lock.
+	 * @GuardedBy("lock") for writing only
+	 */
+	private volatile boolean idle = true;
+
+	/**
+	 * The time at which the next job is scheduled to wake up. This is 
+	 * InternalJob.T_NONE if there are jobs in the wait queue, and 
+	 * InternalJob.T_INFINITE if there are no waiting jobs and no sleeping 
+	 * jobs with a finite wake up time. Published by changeState so that it can 
+	 * be read without acquiring the lock.
+	 * @GuardedBy("lock") for writing only
+	 */
+	private volatile long nextWakeTime = InternalJob.T_INFINITE;
 
 	/**
 	 * jobs that are waiting to be run. Should only be modified from changeState
@@ -166,6 +297,12 @@ public class JobManager implements IJobManager {
 	 */
 	Counter waitQueueCounter = new Counter();
 
+	/**
+	 * Counter to record the order in which jobs become pending.
+	 * @GuardedBy("lock")
+	 */
+	private final Counter pendingCounter = new Counter();
+
 	/**
 	 * A set of progress monitors we must track cancellation requests for.
 	 * @GuardedBy("itself")
@@ -260,12 +397,40 @@ public class JobManager implements IJobManager {
 		synchronized (lock) {
 			waiting = new JobQueue(false);
 			waitingThreadJobs = new JobQueue(false, false);
-			sleeping = new JobQueue(true);
+			sleeping = new TimerWheel();
 			running = new HashSet(10);
+			runningRules = new RuleIndex();
+			blockedRules = new RuleIndex();
 			yielding = new HashSet(10);
+			familyIndex = new FamilyIndex();
 			pool = new WorkerPool(this);
 		}
-		pool.setDaemon(JobOSGiUtils.getDefault().useDaemonThreads());
+		JobOSGiUtils utils = JobOSGiUtils.getDefault();
+		pool.setDaemon(utils.useDaemonThreads());
+		//absent or invalid limits are replaced by the defaults
+		int minThreads = (int) utils.getLongProperty(PROP_MIN_THREADS, -1);
+		int maxThreads = (int) utils.getLongProperty(PROP_MAX_THREADS, -1);
+		pool.setLimits(minThreads, maxThreads, utils.getLongProperty(PROP_KEEP_ALIVE, -1));
+		if (utils.getBooleanProperty(PROP_VIRTUAL_THREADS, false)) {
+			VirtualThreadExecutor executor = VirtualThreadExecutor.create();
+			if (executor == null) {
+				String msg = "Jobs run on platform threads, since virtual threads require Java " + VirtualThreadExecutor.MIN_VERSION + " or later"; //$NON-NLS-1$ //$NON-NLS-2$
+				RuntimeLog.log(new Status(IStatus.WARNING, JobManager.PI_JOBS, JobManager.PLUGIN_ERROR, msg, null));
+			}
+			pool.setExecutor(executor);
+		}
+		if (utils.getBooleanProperty(PROP_ASYNC_LISTENERS, false))
+			jobListeners.setAsynchronous(true, utils.useDaemonThreads());
+		if (utils.getBooleanProperty(PROP_METRICS, false))
+			metrics = new JobMetrics();
+		if (utils.getBooleanProperty(PROP_DEADLINE_SCHEDULING, false))
+			setDeadlineSchedulingEnabled(true);
+		if (utils.getBooleanProperty(PROP_FAIR_SHARE, false))
+			setFairShareEnabled(true);
+		int limit = (int) utils.getLongProperty(PROP_QUEUE_LIMIT, 0);
+		if (limit > 0)
+			setQueueLimit(null, limit, QueueLimit.parsePolicy(utils.getProperty(PROP_QUEUE_POLICY)));
+		setProgressInterval(utils.getLongProperty(PROP_PROGRESS_INTERVAL, 0));
 		internalWorker = new InternalWorker(this);
 		internalWorker.setDaemon(JobOSGiUtils.getDefault().useDaemonThreads());
 		internalWorker.start();
@@ -278,6 +443,31 @@ public class JobManager implements IJobManager {
 		jobListeners.add(listener);
 	}
 
+	/**
+	 * Records that the given job has become pending, or is no longer pending,
+	 * in the queue limits it is counted in.
+	 * @GuardedBy("lock")
+	 */
+	private void addQueueDepth(InternalJob job, int delta) {
+		if (delta > 0)
+			job.setPendingStamp(pendingCounter.increment());
+		queueLimit.addDepth(delta);
+		if (!familyQueueLimits.isEmpty()) {
+			QueueLimit familyLimit = (QueueLimit) familyQueueLimits.get(job.internalGetJobGroup());
+			if (familyLimit != null)
+				familyLimit.addDepth(delta);
+			Object[] families = job.internalGetFamilies();
+			for (int i = 0; families != null && i < families.length; i++) {
+				familyLimit = (QueueLimit) familyQueueLimits.get(families[i]);
+				if (familyLimit != null)
+					familyLimit.addDepth(delta);
+			}
+		}
+		//there may be room for the threads waiting to schedule
+		if (delta < 0 && queueWaiters > 0)
+			lock.notifyAll();
+	}
+
 	/* (non-Javadoc)
 	 * @see org.eclipse.core.runtime.jobs.IJobManager#beginRule(org.eclipse.core.runtime.jobs.ISchedulingRule, org.eclipse.core.runtime.IProgressMonitor)
 	 */
@@ -292,6 +482,7 @@ public class JobManager implements IJobManager {
 	protected boolean cancel(InternalJob job) {
 		IProgressMonitor monitor = null;
 		boolean runCanceling = false;
+		JobCompletion completion = null;
 		synchronized (lock) {
 			switch (job.getState()) {
 				case Job.NONE :
@@ -309,6 +500,10 @@ public class JobManager implements IJobManager {
 					job.setAboutToRunCanceled(true);
 					return false;
 				default :
+					completion = job.getCompletion();
+					job.setCompletion(null);
+					if (job.internalGetJobGroup() != null)
+						job.internalGetJobGroup().addResult(Status.CANCEL_STATUS);
 					changeState(job, Job.NONE);
 			}
 		}
@@ -323,6 +518,8 @@ public class JobManager implements IJobManager {
 		}
 		//only notify listeners if the job was waiting or sleeping
 		jobListeners.done((Job) job, Status.CANCEL_STATUS, false);
+		if (completion != null)
+			completion.complete(Status.CANCEL_STATUS);
 		return true;
 	}
 
@@ -331,7 +528,16 @@ public class JobManager implements IJobManager {
 	 */
 	public void cancel(Object family) {
 		//don't synchronize because cancel calls listeners
-		for (Iterator it = select(family).iterator(); it.hasNext();)
+		List running = new ArrayList();
+		for (Iterator it = select(family).iterator(); it.hasNext();) {
+			Job job = (Job) it.next();
+			if (job.getState() == Job.RUNNING)
+				running.add(job);
+			else
+				cancel(job);
+		}
+		//cancel running jobs last, so that they cannot start jobs that wait for them and are about to be canceled
+		for (Iterator it = running.iterator(); it.hasNext();)
 			cancel((Job) it.next());
 	}
 
@@ -345,6 +551,7 @@ public class JobManager implements IJobManager {
 			synchronized (job.jobStateLock) {
 				job.jobStateLock.notifyAll();
 				int oldState = job.internalGetState();
+				InternalJobGroup group = job.internalGetJobGroup();
 				switch (oldState) {
 					case InternalJob.YIELDING :
 						yielding.remove(job);
@@ -354,10 +561,11 @@ public class JobManager implements IJobManager {
 					case InternalJob.BLOCKED :
 						//remove this job from the linked list of blocked jobs
 						job.remove();
+						blockedRules.remove(job);
 						break;
 					case Job.WAITING :
 						try {
-							waiting.remove(job);
+							removeWaiting(job);
 						} catch (RuntimeException e) {
 							Assert.isLegal(false, "Tried to remove a job that wasn't in the queue"); //$NON-NLS-1$
 						}
@@ -372,6 +580,7 @@ public class JobManager implements IJobManager {
 					case Job.RUNNING :
 					case InternalJob.ABOUT_TO_RUN :
 						running.remove(job);
+						runningRules.remove(job);
 						//add any blocked jobs back to the wait queue
 						InternalJob blocked = job.previous();
 						job.remove();
@@ -381,17 +590,43 @@ public class JobManager implements IJobManager {
 							changeState(blocked, Job.WAITING);
 							blocked = previous;
 						}
+						if (group != null) {
+							group.addRunningJobs(-1);
+							if (releaseThrottledJob(group))
+								blockedJobs = true;
+						}
 						break;
 					default :
 						Assert.isLegal(false, "Invalid job state: " + job + ", state: " + oldState); //$NON-NLS-1$ //$NON-NLS-2$
 				}
 				job.internalSetState(newState);
+				if (isPending(oldState) != isPending(newState))
+					addQueueDepth(job, isPending(newState) ? 1 : -1);
+				if (metrics != null)
+					metrics.stateChanged(job, oldState, newState);
+				FlightRecorder tempRecorder = recorder;
+				if (tempRecorder != null)
+					tempRecorder.stateChanged(job, oldState, newState);
+				//index the job while it is known to the job manager
+				if (oldState == Job.NONE && newState != Job.NONE) {
+					familyIndex.add(job);
+					if (group != null)
+						group.addActiveJob();
+				} else if (oldState != Job.NONE && newState == Job.NONE) {
+					familyIndex.remove(job);
+					if (group != null)
+						group.removeActiveJob();
+				}
 				switch (newState) {
 					case Job.NONE :
 						job.setStartTime(InternalJob.T_NONE);
+						job.setDueTime(InternalJob.T_NONE);
 						job.setWaitQueueStamp(InternalJob.T_NONE);
+						job.setRunStart(InternalJob.T_NONE);
 						job.setRunCanceled(false);
+						break;
 					case InternalJob.BLOCKED :
+						blockedRules.add(job);
 						break;
 					case Job.WAITING :
 						waiting.enqueue(job);
@@ -409,6 +644,9 @@ public class JobManager implements IJobManager {
 						job.setStartTime(InternalJob.T_NONE);
 						job.setWaitQueueStamp(InternalJob.T_NONE);
 						running.add(job);
+						runningRules.add(job);
+						if (group != null)
+							group.addRunningJobs(1);
 						break;
 					case InternalJob.YIELDING :
 						yielding.add(job);
@@ -417,6 +655,7 @@ public class JobManager implements IJobManager {
 					default :
 						Assert.isLegal(false, "Invalid job state: " + job + ", state: " + newState); //$NON-NLS-1$ //$NON-NLS-2$
 				}
+				publishState();
 			}
 		}
 		//notify queue outside sync block
@@ -424,6 +663,50 @@ public class JobManager implements IJobManager {
 			pool.jobQueued();
 	}
 
+	/**
+	 * Counts a request to schedule the given job, and merges it into the next
+	 * run of the job according to the job's coalescing mode. Returns the delay
+	 * to use if the job is not known to the job manager, or to reschedule the
+	 * job if it is running.
+	 * @GuardedBy("lock")
+	 */
+	private long coalesce(InternalJob job, long delay) {
+		job.addScheduleRequest();
+		int mode = job.getCoalescing();
+		if (mode == Job.COALESCE_NONE)
+			return delay;
+		long now = System.currentTimeMillis();
+		if (mode == Job.COALESCE_LEADING) {
+			//run right away, unless the last run started less than the delay ago
+			long lastRun = job.getCoalescingStart();
+			return lastRun == InternalJob.T_NONE ? 0 : Math.max(0, lastRun + delay - now);
+		}
+		long maxWait = job.getCoalescingMaxWait();
+		switch (job.internalGetState()) {
+			case Job.NONE :
+				//this request starts a burst, unless the burst started when the last run ended
+				if (!job.isRescheduling())
+					job.setCoalescingStart(now);
+				//the first request of a burst cannot postpone the job past the maximum wait either
+				if (maxWait > 0)
+					return Math.max(0, Math.min(delay, job.getCoalescingStart() + maxWait - now));
+				break;
+			case Job.SLEEPING :
+				//jobs that were put to sleep explicitly stay asleep
+				long startTime = job.getStartTime();
+				if (startTime == InternalJob.T_INFINITE)
+					break;
+				//postpone the job, but not past the maximum wait since the burst started
+				long wakeTime = Math.max(startTime, now + delay);
+				if (maxWait > 0)
+					wakeTime = Math.min(wakeTime, job.getCoalescingStart() + maxWait);
+				if (wakeTime != startTime)
+					doSchedule(job, Math.max(0, wakeTime - now));
+				break;
+		}
+		return delay;
+	}
+
 	/**
 	 * Returns a new progress monitor for this job, belonging to the given
 	 * progress group.  Returns null if it is not a valid time to set the job's group.
@@ -439,8 +722,8 @@ public class JobManager implements IJobManager {
 			if (progressProvider != null)
 				monitor = progressProvider.createMonitor((Job) job, group, ticks);
 			if (monitor == null)
-				monitor = new NullProgressMonitor();
-			return monitor;
+				return new NullProgressMonitor();
+			return throttle(monitor);
 		}
 	}
 
@@ -453,8 +736,8 @@ public class JobManager implements IJobManager {
 		if (progressProvider != null)
 			monitor = progressProvider.createMonitor(job);
 		if (monitor == null)
-			monitor = new NullProgressMonitor();
-		return monitor;
+			return new NullProgressMonitor();
+		return throttle(monitor);
 	}
 
 	/* (non-Javadoc)
@@ -470,9 +753,10 @@ public class JobManager implements IJobManager {
 	 * @see org.eclipse.core.runtime.jobs.IJobManager#currentJob()
 	 */
 	public Job currentJob() {
+		WorkerTask worker = WorkerTask.getCurrentWorker();
+		if (worker != null)
+			return worker.currentJob();
 		Thread current = Thread.currentThread();
-		if (current instanceof Worker)
-			return ((Worker) current).currentJob();
 		synchronized (lock) {
 			for (Iterator it = running.iterator(); it.hasNext();) {
 				Job job = (Job) it.next();
@@ -519,27 +803,33 @@ public class JobManager implements IJobManager {
 
 	/**
 	 * Performs the scheduling of a job.  Does not perform any notifications.
+	 * Returns whether the job was added to the wait queue.
+	 * @GuardedBy("lock")
 	 */
-	private void doSchedule(InternalJob job, long delay) {
-		synchronized (lock) {
-			//job may have been canceled already
-			int state = job.internalGetState();
-			if (state != InternalJob.ABOUT_TO_SCHEDULE && state != Job.SLEEPING)
-				return;
-			//if it's a decoration job with no rule, don't run it right now if the system is busy
-			if (job.getPriority() == Job.DECORATE && job.getRule() == null) {
-				long minDelay = running.size() * 100;
-				delay = Math.max(delay, minDelay);
-			}
-			if (delay > 0) {
-				job.setStartTime(System.currentTimeMillis() + delay);
-				changeState(job, Job.SLEEPING);
-			} else {
-				job.setStartTime(System.currentTimeMillis() + delayFor(job.getPriority()));
-				job.setWaitQueueStamp(waitQueueCounter.increment());
-				changeState(job, Job.WAITING);
-			}
+	private boolean doSchedule(InternalJob job, long delay) {
+		//job may have been canceled already
+		int state = job.internalGetState();
+		if (state != InternalJob.ABOUT_TO_SCHEDULE && state != Job.SLEEPING)
+			return false;
+		//the deadline is measured from the time the job becomes due
+		long deadline = job.getDeadline();
+		job.setDueTime(deadline > 0 ? System.currentTimeMillis() + delay + deadline : InternalJob.T_NONE);
+		//if it's a decoration job with no rule, don't run it right now if the system is busy
+		if (job.getPriority() == Job.DECORATE && job.getRule() == null) {
+			long minDelay = running.size() * 100;
+			delay = Math.max(delay, minDelay);
+		}
+		if (delay > 0) {
+			job.setStartTime(System.currentTimeMillis() + delay);
+			changeState(job, Job.SLEEPING);
+			return false;
 		}
+		job.setStartTime(System.currentTimeMillis() + delayFor(job.getPriority()));
+		job.setWaitQueueStamp(waitQueueCounter.increment());
+		if (fairScheduling)
+			job.setQueueFairTag(fairShare.nextTag(job));
+		changeState(job, Job.WAITING);
+		return true;
 	}
 
 	/**
@@ -559,6 +849,10 @@ public class JobManager implements IJobManager {
 			//discard any jobs that have not yet started running
 			sleeping.clear();
 			waiting.clear();
+			for (int i = 0; i < throttledGroups.size(); i++)
+				((InternalJobGroup) throttledGroups.get(i)).setThrottledJobs(null);
+			throttledGroups.clear();
+			publishState();
 		}
 
 		// Give running jobs a chance to finish. Wait 0.1 seconds for up to 3 times.
@@ -598,6 +892,8 @@ public class JobManager implements IJobManager {
 			}
 		}
 		internalWorker.cancel();
+		//deliver the events of the jobs that were canceled
+		jobListeners.setAsynchronous(false, false);
 		if (toCancel != null) {
 			for (int i = 0; i < toCancel.length; i++) {
 				String jobName = printJobName(toCancel[i]);
@@ -614,6 +910,9 @@ public class JobManager implements IJobManager {
 		synchronized (lock) {
 			//discard reference to any jobs still running at this point
 			running.clear();
+			runningRules.clear();
+			blockedRules.clear();
+			publishState();
 		}
 
 		pool.shutdown();
@@ -626,6 +925,7 @@ public class JobManager implements IJobManager {
 	 */
 	protected void endJob(InternalJob job, IStatus result, boolean notify) {
 		long rescheduleDelay = InternalJob.T_NONE;
+		JobCompletion completion;
 		synchronized (lock) {
 			//if the job is finishing asynchronously, there is nothing more to do for now
 			if (result == Job.ASYNC_FINISH)
@@ -636,9 +936,26 @@ public class JobManager implements IJobManager {
 			if (JobManager.DEBUG && notify)
 				JobManager.debug("Ending job: " + job); //$NON-NLS-1$
 			job.setResult(result);
+			if (job.getDueTime() != InternalJob.T_NONE && job.internalGetState() == Job.RUNNING)
+				deadlineStatistics.record(System.currentTimeMillis() - job.getDueTime());
+			if (job.getRunStart() != InternalJob.T_NONE)
+				fairShare.ran(job, System.currentTimeMillis() - job.getRunStart());
+			if (job.internalGetJobGroup() != null)
+				job.internalGetJobGroup().addResult(result);
 			job.setProgressMonitor(null);
 			job.setThread(null);
 			rescheduleDelay = job.getStartTime();
+			//requests that arrive before the job is rescheduled belong to the next run
+			if (rescheduleDelay > InternalJob.T_NONE) {
+				job.setRescheduling(true);
+				if (job.getCoalescing() == Job.COALESCE_TRAILING) {
+					job.setCoalescingStart(System.currentTimeMillis());
+					if (job.getCoalescingMaxWait() > 0)
+						rescheduleDelay = Math.min(rescheduleDelay, job.getCoalescingMaxWait());
+				}
+			}
+			completion = job.getCompletion();
+			job.setCompletion(null);
 			changeState(job, Job.NONE);
 		}
 		//notify listeners outside sync block
@@ -646,8 +963,16 @@ public class JobManager implements IJobManager {
 		if (notify)
 			jobListeners.done((Job) job, result, reschedule);
 		//reschedule the job if requested and we are still active
-		if (reschedule)
+		if (reschedule) {
 			schedule(job, rescheduleDelay, reschedule);
+		} else if (rescheduleDelay > InternalJob.T_NONE) {
+			synchronized (lock) {
+				job.setRescheduling(false);
+			}
+		}
+		//complete after rescheduling, so that a family being joined still contains the job
+		if (completion != null)
+			completion.complete(result);
 		//log result if it is warning or error
 		if ((result.getSeverity() & (IStatus.ERROR | IStatus.WARNING)) != 0)
 			RuntimeLog.log(result);
@@ -660,6 +985,34 @@ public class JobManager implements IJobManager {
 		implicitJobs.end(rule, false);
 	}
 
+	/* (non-Javadoc)
+	 * @see IJobManager#exportMetrics(Writer)
+	 */
+	public void exportMetrics(Writer out) throws IOException {
+		JobMetrics current = metrics;
+		//without metrics, export empty ones so that the header is still written
+		if (current == null) {
+			new JobMetrics().export(out);
+			return;
+		}
+		current.export(out);
+		//copy the queue limits in the sync block, and write them outside of it
+		List limits = new ArrayList();
+		synchronized (lock) {
+			limits.add(queueLimit.copy());
+			for (Iterator it = familyQueueLimits.values().iterator(); it.hasNext();)
+				limits.add(((QueueLimit) it.next()).copy());
+		}
+		for (int i = 0; i < limits.size(); i++)
+			JobMetrics.export(out, (QueueLimit) limits.get(i));
+		JobMetrics.exportValue(out, "pool", "", "workers", getWorkerCount()); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		JobMetrics.exportValue(out, "pool", "", "busy", getBusyWorkerCount()); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		JobMetrics.exportValue(out, "pool", "", "idle", getIdleWorkerCount()); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		JobMetrics.exportValue(out, "pool", "", "peak", getPeakWorkerCount()); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		JobMetrics.export(out, deadlineStatistics);
+		out.flush();
+	}
+
 	/* (non-Javadoc)
 	 * @see org.eclipse.core.runtime.jobs.IJobManager#find(java.lang.String)
 	 */
@@ -668,58 +1021,112 @@ public class JobManager implements IJobManager {
 		return (Job[]) members.toArray(new Job[members.size()]);
 	}
 
+	/**
+	 * Returns the limit of the given family if it has been reached, or
+	 * <code>null</code> if it has not or the family is not limited.
+	 * @GuardedBy("lock")
+	 */
+	private QueueLimit findFullQueueLimit(Object family) {
+		QueueLimit familyLimit = (QueueLimit) familyQueueLimits.get(family);
+		return familyLimit != null && familyLimit.isFull() ? familyLimit : null;
+	}
+
+	/**
+	 * Returns a reached queue limit that the given job is subject to, or
+	 * <code>null</code> if there is none. The limits of families are checked
+	 * before the limit on all jobs.
+	 * @GuardedBy("lock")
+	 */
+	private QueueLimit findFullQueueLimit(InternalJob job) {
+		if (!familyQueueLimits.isEmpty()) {
+			QueueLimit full = findFullQueueLimit(job.internalGetJobGroup());
+			Object[] families = job.internalGetFamilies();
+			for (int i = 0; full == null && families != null && i < families.length; i++)
+				full = findFullQueueLimit(families[i]);
+			if (full != null)
+				return full;
+		}
+		return queueLimit.isFull() ? queueLimit : null;
+	}
+
+	/**
+	 * Returns the job that has been pending the longest among the pending jobs
+	 * of the given family, or of all pending jobs if the family is <code>null</code>.
+	 * Sleeping, waiting and blocked jobs are considered, as these are the jobs
+	 * the queue limits count, but not jobs that are about to be scheduled by
+	 * another thread. If a job is given, only jobs that the given job may be
+	 * merged into are considered, which are the jobs of the same class that
+	 * coalesce their own requests. Returns <code>null</code> if there is no such job.
+	 * @GuardedBy("lock")
+	 */
+	private InternalJob findOldestPending(Object family, InternalJob twinOf) {
+		List candidates = new ArrayList();
+		if (family != null) {
+			for (Iterator it = familyIndex.indexed(family); it.hasNext();)
+				candidates.add(it.next());
+		} else {
+			select(candidates, waiting.iterator(), Job.WAITING);
+			selectThrottled(candidates, Job.WAITING);
+			select(candidates, sleeping.iterator(), Job.SLEEPING);
+			//blocked jobs are chained to the running and yielding jobs they wait for
+			for (Iterator it = running.iterator(); it.hasNext();)
+				select(candidates, (InternalJob) it.next(), Job.WAITING);
+			for (Iterator it = yielding.iterator(); it.hasNext();)
+				select(candidates, (InternalJob) it.next(), Job.WAITING);
+		}
+		InternalJob oldest = null;
+		for (Iterator it = candidates.iterator(); it.hasNext();) {
+			InternalJob job = (InternalJob) it.next();
+			int state = job.internalGetState();
+			if (state != Job.SLEEPING && state != Job.WAITING && state != InternalJob.BLOCKED)
+				continue;
+			if (twinOf != null && (job.getClass() != twinOf.getClass() || job.getCoalescing() == Job.COALESCE_NONE))
+				continue;
+			if (oldest == null || job.getPendingStamp() < oldest.getPendingStamp())
+				oldest = job;
+		}
+		return oldest;
+	}
+
 	/**
 	 * Returns a running or blocked job whose scheduling rule conflicts with the 
 	 * scheduling rule of the given waiting job.  Returns null if there are no 
 	 * conflicting jobs.  A job can only run if there are no running jobs and no blocked
-	 * jobs whose scheduling rule conflicts with its rule.
+	 * jobs whose scheduling rule conflicts with its rule. Running jobs are
+	 * preferred over blocked jobs.
+	 * <p>
+	 * A job with a shared rule also waits while a thread is waiting to begin a
+	 * conflicting rule, so that readers cannot starve a writer. In that case
+	 * the job that the writer is waiting for is returned.
 	 */
 	protected InternalJob findBlockingJob(InternalJob waitingJob) {
 		if (waitingJob.getRule() == null)
 			return null;
 		synchronized (lock) {
-			if (running.isEmpty())
-				return null;
 			//check the running jobs
-			boolean hasBlockedJobs = false;
-			for (Iterator it = running.iterator(); it.hasNext();) {
-				InternalJob job = (InternalJob) it.next();
-				if (waitingJob.isConflicting(job))
-					return job;
-				if (!hasBlockedJobs)
-					hasBlockedJobs = job.previous() != null;
-			}
-			//there are no blocked jobs, so we are done
-			if (!hasBlockedJobs)
-				return null;
+			InternalJob blocking = runningRules.findConflicting(waitingJob);
+			if (blocking != null)
+				return blocking;
 			//check all jobs blocked by running jobs
-			for (Iterator it = running.iterator(); it.hasNext();) {
-				InternalJob job = (InternalJob) it.next();
-				while (true) {
-					job = job.previous();
-					if (job == null)
-						break;
-					if (waitingJob.isConflicting(job))
-						return job;
-				}
-			}
+			blocking = blockedRules.findConflicting(waitingJob);
+			if (blocking != null || !isShared(waitingJob.getRule()))
+				return blocking;
+			//check threads waiting in beginRule for a rule that other readers hold
+			InternalJob writer = waitingThreadJobs.findConflicting(waitingJob);
+			if (writer == null)
+				return null;
+			return runningRules.findConflicting(writer);
 		}
-		return null;
 	}
 
 	/**
-	 * Returns a job from the given collection whose scheduling rule conflicts
+	 * Returns the first job in the given queue whose scheduling rule conflicts
 	 * with the scheduling rule of the given job.  Returns null if there are no 
 	 * conflicting jobs.  
 	 */
-	InternalJob findBlockedJob(InternalJob job, Iterator jobs) {
+	InternalJob findBlockedJob(InternalJob job, JobQueue jobs) {
 		synchronized (lock) {
-			while (jobs.hasNext()) {
-				InternalJob waitingJob = (InternalJob) jobs.next();
-				if (waitingJob.isConflicting(job))
-					return waitingJob;
-			}
-			return null;
+			return jobs.findConflicting(job);
 		}
 	}
 
@@ -735,10 +1142,112 @@ public class JobManager implements IJobManager {
 		}
 	}
 
+	/**
+	 * Returns the flight recorder of the most recent job state changes and lock
+	 * events, or <code>null</code> if it is turned off.
+	 * @see FlightRecorder#PROP_SIZE
+	 */
+	public FlightRecorder getFlightRecorder() {
+		return recorder;
+	}
+
 	public LockManager getLockManager() {
 		return lockManager;
 	}
 
+	/**
+	 * Returns the counts of runs of jobs with a deadline that were done in time
+	 * and late. These are the statistics that {@link #exportMetrics(Writer)}
+	 * writes while metrics are on.
+	 * @see Job#setDeadline(long)
+	 */
+	public DeadlineStatistics getDeadlineStatistics() {
+		return deadlineStatistics;
+	}
+
+	/**
+	 * Returns the owner that the given job is accounted to by fair share
+	 * scheduling.
+	 * @see IJobManager#PROP_FAIR_SHARE
+	 */
+	public Object getShareOwner(Job job) {
+		synchronized (lock) {
+			return fairShare.getOwner(job);
+		}
+	}
+
+	/**
+	 * Returns the time jobs spend in each state, or <code>null</code> if job
+	 * metrics are off.
+	 */
+	public JobMetrics getMetrics() {
+		return metrics;
+	}
+
+	/* (non-Javadoc)
+	 * @see IJobManager#getRunTimes()
+	 */
+	public Map getRunTimes() {
+		synchronized (lock) {
+			return fairShare.getRunTimes();
+		}
+	}
+
+	/**
+	 * Returns a copy of the limit on the number of pending jobs of the given
+	 * family, or of all jobs if the family is <code>null</code>. Returns
+	 * <code>null</code> if the family is not limited. The limit on all jobs
+	 * counts the pending jobs even if there is no limit. The depth and counters
+	 * of the limits are written by {@link #exportMetrics(Writer)} while
+	 * metrics are on.
+	 */
+	public QueueLimit getQueueLimit(Object family) {
+		synchronized (lock) {
+			QueueLimit limit = family == null ? queueLimit : (QueueLimit) familyQueueLimits.get(family);
+			return limit == null ? null : limit.copy();
+		}
+	}
+
+	/**
+	 * Returns the results of the jobs of the given group that finished since
+	 * the group last became active, or <code>null</code> if none has finished.
+	 */
+	IStatus[] getResults(InternalJobGroup group) {
+		synchronized (lock) {
+			return group.internalGetResults();
+		}
+	}
+
+	/**
+	 * Returns the number of workers that are running a job or looking for one.
+	 * This and the other counts of workers are written by
+	 * {@link #exportMetrics(Writer)} while metrics are on.
+	 */
+	public int getBusyWorkerCount() {
+		return pool.getBusyThreads();
+	}
+
+	/**
+	 * Returns the number of workers that are waiting for a job to be queued.
+	 */
+	public int getIdleWorkerCount() {
+		return pool.getIdleThreads();
+	}
+
+	/**
+	 * Returns the largest number of workers there have been at once.
+	 */
+	public int getPeakWorkerCount() {
+		return pool.getPeakThreads();
+	}
+
+	/**
+	 * Returns the number of workers in the worker pool.
+	 */
+	public int getWorkerCount() {
+		return pool.getThreads();
+	}
+
 	/**
 	 * Returns a translated message indicating we are waiting for the given
 	 * number of jobs to complete.
@@ -797,8 +1306,38 @@ public class JobManager implements IJobManager {
 	 * @see org.eclipse.core.runtime.jobs.IJobManager#isIdle()
 	 */
 	public boolean isIdle() {
-		synchronized (lock) {
-			return running.isEmpty() && waiting.isEmpty();
+		return idle;
+	}
+
+	/**
+	 * Returns whether the given rule, or one of its children, holds a rule in
+	 * shared mode.
+	 */
+	private static boolean isShared(ISchedulingRule rule) {
+		if (rule instanceof SharedRule)
+			return true;
+		if (rule.getClass() != MultiRule.class)
+			return false;
+		ISchedulingRule[] children = ((MultiRule) rule).getChildren();
+		for (int i = 0; i < children.length; i++)
+			if (children[i] instanceof SharedRule)
+				return true;
+		return false;
+	}
+
+	/**
+	 * Returns whether a job in the given state is pending, that is, whether it
+	 * has been scheduled and has not started running yet.
+	 */
+	private static boolean isPending(int state) {
+		switch (state) {
+			case InternalJob.ABOUT_TO_SCHEDULE :
+			case Job.SLEEPING :
+			case Job.WAITING :
+			case InternalJob.BLOCKED :
+				return true;
+			default :
+				return false;
 		}
 	}
 
@@ -806,17 +1345,14 @@ public class JobManager implements IJobManager {
 	 * @see org.eclipse.core.runtime.jobs.IJobManager#isSuspended()
 	 */
 	public boolean isSuspended() {
-		synchronized (lock) {
-			return suspended;
-		}
+		return suspended;
 	}
 
 	/* (non-Javadoc)
 	 * @see org.eclipse.core.runtime.jobs.Job#job(org.eclipse.core.runtime.jobs.Job)
 	 */
 	protected void join(InternalJob job) {
-		final IJobChangeListener listener;
-		final Semaphore barrier;
+		final JobCompletion completion;
 		synchronized (lock) {
 			int state = job.getState();
 			if (state == Job.NONE)
@@ -827,24 +1363,16 @@ public class JobManager implements IJobManager {
 			//it's an error for a job to join itself
 			if (state == Job.RUNNING && job.getThread() == Thread.currentThread())
 				throw new IllegalStateException("Job attempted to join itself"); //$NON-NLS-1$
-			//the semaphore will be released when the job is done
-			barrier = new Semaphore(null);
-			listener = new JobChangeAdapter() {
-				public void done(IJobChangeEvent event) {
-					barrier.release();
-				}
-			};
-			job.addJobChangeListener(listener);
-			//compute set of all jobs that must run before this one
-			//add a listener that removes jobs from the blocking set when they finish
+			//the completion will be done when the job is done
+			completion = completionFor(job);
 		}
-		//wait until listener notifies this thread.
+		//wait until the job is done
 		try {
 			while (true) {
 				//notify hook to service pending syncExecs before falling asleep
 				lockManager.aboutToWait(job.getThread());
 				try {
-					if (barrier.acquire(Long.MAX_VALUE))
+					if (completion.await(Long.MAX_VALUE))
 						break;
 				} catch (InterruptedException e) {
 					//loop and keep trying
@@ -852,7 +1380,6 @@ public class JobManager implements IJobManager {
 			}
 		} finally {
 			lockManager.aboutToRelease();
-			job.removeJobChangeListener(listener);
 		}
 	}
 
@@ -861,38 +1388,14 @@ public class JobManager implements IJobManager {
 	 */
 	public void join(final Object family, IProgressMonitor monitor) throws InterruptedException, OperationCanceledException {
 		monitor = monitorFor(monitor);
-		IJobChangeListener listener = null;
-		final Set jobs;
 		int jobCount;
 		Job blocking = null;
 		synchronized (lock) {
-			//don't join a waiting or sleeping job when suspended (deadlock risk)
-			int states = suspended ? Job.RUNNING : Job.RUNNING | Job.WAITING | Job.SLEEPING;
-			jobs = Collections.synchronizedSet(new HashSet(select(family, states)));
+			List jobs = select(family, joinStates());
 			jobCount = jobs.size();
-			if (jobCount > 0) {
-				//if there is only one blocking job, use it in the blockage callback below
-				if (jobCount == 1)
-					blocking = (Job) jobs.iterator().next();
-				listener = new JobChangeAdapter() {
-					public void done(IJobChangeEvent event) {
-						//don't remove from list if job is being rescheduled
-						if (!((JobChangeEvent) event).reschedule)
-							jobs.remove(event.getJob());
-					}
-
-					//update the list of jobs if new ones are added during the join
-					public void scheduled(IJobChangeEvent event) {
-						//don't add to list if job is being rescheduled
-						if (((JobChangeEvent) event).reschedule)
-							return;
-						Job job = event.getJob();
-						if (job.belongsTo(family))
-							jobs.add(job);
-					}
-				};
-				addJobChangeListener(listener);
-			}
+			//if there is only one blocking job, use it in the blockage callback below
+			if (jobCount == 1)
+				blocking = (Job) jobs.get(0);
 		}
 		if (jobCount == 0) {
 			//use up the monitor outside synchronized block because monitors call untrusted code
@@ -900,14 +1403,20 @@ public class JobManager implements IJobManager {
 			monitor.done();
 			return;
 		}
+		//the completions of the jobs tell when they are done, including jobs scheduled during the join,
+		//so the join does not depend on when job change listeners are notified
+		IJobCompletion completion = joinAsync(family);
 		//spin until all jobs are completed
 		try {
 			monitor.beginTask(JobMessages.jobs_blocked0, jobCount);
 			monitor.subTask(getWaitMessage(jobCount));
 			reportBlocked(monitor, blocking);
-			int jobsLeft;
 			int reportedWorkDone = 0;
-			while ((jobsLeft = jobs.size()) > 0) {
+			while (!completion.isDone()) {
+				int jobsLeft;
+				synchronized (lock) {
+					jobsLeft = select(family, joinStates()).size();
+				}
 				//don't let there be negative work done if new jobs have
 				//been added since the join began
 				int actualWorkDone = Math.max(0, jobCount - jobsLeft);
@@ -922,16 +1431,65 @@ public class JobManager implements IJobManager {
 					throw new OperationCanceledException();
 				//notify hook to service pending syncExecs before falling asleep
 				lockManager.aboutToWait(null);
-				Thread.sleep(100);
+				completion.await(100);
 			}
 		} finally {
 			lockManager.aboutToRelease();
-			removeJobChangeListener(listener);
 			reportUnblocked(monitor);
 			monitor.done();
 		}
 	}
 
+	/**
+	 * Returns the states of the jobs that a join waits for.
+	 * @GuardedBy("lock")
+	 */
+	private int joinStates() {
+		//don't join a waiting or sleeping job when suspended (deadlock risk)
+		return suspended ? Job.RUNNING : Job.RUNNING | Job.WAITING | Job.SLEEPING;
+	}
+
+	/* (non-Javadoc)
+	 * @see IJobManager#joinAsync(Object)
+	 */
+	public IJobCompletion joinAsync(Object family) {
+		JobCompletion completion = new JobCompletion();
+		joinAsync(family, completion);
+		return completion;
+	}
+
+	/**
+	 * Waits for the jobs of the given family that are not finished yet without
+	 * blocking, and completes the given completion once there are none left.
+	 */
+	private void joinAsync(final Object family, final JobCompletion completion) {
+		final JobCompletion[] members;
+		synchronized (lock) {
+			List jobs = select(family, joinStates());
+			members = new JobCompletion[jobs.size()];
+			for (int i = 0; i < members.length; i++)
+				members[i] = completionFor((InternalJob) jobs.get(i));
+		}
+		if (members.length == 0) {
+			completion.complete(Status.OK_STATUS);
+			return;
+		}
+		final int[] remaining = new int[] {members.length};
+		Runnable memberDone = new Runnable() {
+			public void run() {
+				synchronized (remaining) {
+					if (--remaining[0] > 0)
+						return;
+				}
+				//look again for jobs of the family that were scheduled in the meantime
+				joinAsync(family, completion);
+			}
+		};
+		//add the actions outside sync block, since they run right away for jobs that are done
+		for (int i = 0; i < members.length; i++)
+			members[i].whenDone(memberDone);
+	}
+
 	/**
 	 * Returns a non-null progress monitor instance.  If the monitor is null,
 	 * returns the default monitor supplied by the progress provider, or a 
@@ -954,6 +1512,55 @@ public class JobManager implements IJobManager {
 		return monitor;
 	}
 
+	/**
+	 * Makes room for the given job below the queue limits it is subject to,
+	 * as the policies of the limits say. Returns the status the job is rejected
+	 * with, or <code>null</code> if it can be scheduled. Jobs that are canceled
+	 * to make room are added to the given list, each followed by its completion
+	 * and its result. A limit whose policy is to block is exceeded if allowed,
+	 * because the thread could not wait, and is otherwise treated like a limit
+	 * that rejects jobs.
+	 * @GuardedBy("lock")
+	 */
+	private IStatus makeRoom(InternalJob job, List dropped, boolean mayExceed) {
+		QueueLimit full;
+		while ((full = findFullQueueLimit(job)) != null) {
+			switch (full.getPolicy()) {
+				case OVERFLOW_BLOCK :
+					if (mayExceed)
+						return null;
+					break;
+				case OVERFLOW_DROP_OLDEST :
+					InternalJob oldest = findOldestPending(full.getFamily(), null);
+					if (oldest == null)
+						break;
+					full.recordDropped();
+					IStatus result = new JobStatus(IStatus.CANCEL, (Job) oldest, JobMessages.jobs_queueFullDropped);
+					dropped.add(oldest);
+					dropped.add(oldest.getCompletion());
+					dropped.add(result);
+					oldest.setCompletion(null);
+					if (oldest.internalGetJobGroup() != null)
+						oldest.internalGetJobGroup().addResult(result);
+					changeState(oldest, Job.NONE);
+					continue;
+				case OVERFLOW_COALESCE :
+					//only jobs that coalesce their own requests may be merged into another job
+					if (job.getCoalescing() == Job.COALESCE_NONE)
+						break;
+					InternalJob twin = findOldestPending(full.getFamily(), job);
+					if (twin == null)
+						break;
+					full.recordCoalesced();
+					twin.addScheduleRequest();
+					return new JobStatus(IStatus.CANCEL, (Job) job, NLS.bind(JobMessages.jobs_queueFullMerged, twin.getName()));
+			}
+			full.recordRejected();
+			return new JobStatus(IStatus.CANCEL, (Job) job, JobMessages.jobs_queueFull);
+		}
+		return null;
+	}
+
 	/* (non-Javadoc)
 	 * @see IJobManager#newLock(java.lang.String)
 	 */
@@ -961,6 +1568,22 @@ public class JobManager implements IJobManager {
 		return lockManager.newLock();
 	}
 
+	/**
+	 * Tells the listeners of the jobs that were canceled to make room below a
+	 * queue limit that the jobs are done. The list holds each job followed by
+	 * its completion and its result.
+	 */
+	private void notifyDropped(List dropped) {
+		for (int i = 0; i < dropped.size(); i += 3) {
+			Job job = (Job) dropped.get(i);
+			JobCompletion completion = (JobCompletion) dropped.get(i + 1);
+			IStatus result = (IStatus) dropped.get(i + 2);
+			jobListeners.done(job, result, false);
+			if (completion != null)
+				completion.complete(result);
+		}
+	}
+
 	/**
 	 * Removes and returns the first waiting job in the queue. Returns null if there
 	 * are no items waiting in the queue.  If an item is removed from the queue,
@@ -973,15 +1596,22 @@ public class JobManager implements IJobManager {
 				return null;
 			//tickle the sleep queue to see if anyone wakes up
 			long now = System.currentTimeMillis();
-			InternalJob job = sleeping.peek();
-			while (job != null && job.getStartTime() < now) {
+			InternalJob job;
+			while ((job = sleeping.peekExpired(now)) != null) {
 				job.setStartTime(now + delayFor(job.getPriority()));
 				job.setWaitQueueStamp(waitQueueCounter.increment());
+				if (fairScheduling)
+					job.setQueueFairTag(fairShare.nextTag(job));
 				changeState(job, Job.WAITING);
-				job = sleeping.peek();
 			}
 			//process the wait queue until we find a job whose rules are satisfied.
 			while ((job = waiting.peek()) != null) {
+				InternalJobGroup group = job.internalGetJobGroup();
+				//a job whose group runs as many jobs as it may waits aside until a job of the group stops running
+				if (group != null && group.isFull()) {
+					setAside(job, group);
+					continue;
+				}
 				InternalJob blocker = findBlockingJob(job);
 				if (blocker == null)
 					break;
@@ -991,10 +1621,15 @@ public class JobManager implements IJobManager {
 				Assert.isTrue(job.next() == null);
 				Assert.isTrue(job.previous() == null);
 				blocker.addLast(job);
+				//the blocked job does not take a slot of its group, so another job of the group may run
+				if (group != null)
+					releaseThrottledJob(group);
 			}
 			//the job to run must be in the running list before we exit
 			//the sync block, otherwise two jobs with conflicting rules could start at once
 			if (job != null) {
+				if (fairScheduling)
+					fairShare.started(job.getQueueFairTag());
 				changeState(job, InternalJob.ABOUT_TO_RUN);
 				if (JobManager.DEBUG)
 					JobManager.debug("Starting job: " + job); //$NON-NLS-1$
@@ -1003,6 +1638,54 @@ public class JobManager implements IJobManager {
 		}
 	}
 
+	/* (non-Javadoc)
+	 * @see org.eclipse.core.runtime.jobs.Job#onDone()
+	 */
+	protected IJobCompletion onDone(InternalJob job) {
+		synchronized (lock) {
+			return completionFor(job);
+		}
+	}
+
+	/**
+	 * Returns the completion of the current run of the given job, which is
+	 * created the first time it is asked for. If the job is not scheduled, returns
+	 * a completion that is done with the result of the last run of the job.
+	 * @GuardedBy("lock")
+	 */
+	private JobCompletion completionFor(InternalJob job) {
+		if (job.getState() == Job.NONE) {
+			IStatus result = job.getResult();
+			return JobCompletion.done(result == null ? Status.OK_STATUS : result);
+		}
+		JobCompletion completion = job.getCompletion();
+		if (completion == null) {
+			completion = new JobCompletion();
+			job.setCompletion(completion);
+		}
+		return completion;
+	}
+
+	/**
+	 * Adds the first of the waiting jobs that were set aside for the given job
+	 * group back to the wait queue if the group may run another job, and returns
+	 * whether there was such a job. The job keeps its start time and stamp, so
+	 * it returns to its original position in the wait queue.
+	 * @GuardedBy("lock")
+	 */
+	private boolean releaseThrottledJob(InternalJobGroup group) {
+		JobQueue jobs = group.getThrottledJobs();
+		if (jobs == null || group.isFull())
+			return false;
+		InternalJob job = jobs.dequeue();
+		if (jobs.isEmpty()) {
+			group.setThrottledJobs(null);
+			throttledGroups.remove(group);
+		}
+		waiting.enqueue(job);
+		return true;
+	}
+
 	/* (non-Javadoc)
 	 * @see org.eclipse.core.runtime.jobs.IJobManager#removeJobListener(org.eclipse.core.runtime.jobs.IJobChangeListener)
 	 */
@@ -1010,6 +1693,35 @@ public class JobManager implements IJobManager {
 		jobListeners.remove(listener);
 	}
 
+	/* (non-Javadoc)
+	 * @see IJobManager#removeShare(Object)
+	 */
+	public void removeShare(Object owner) {
+		Assert.isNotNull(owner, "Owner is null"); //$NON-NLS-1$
+		synchronized (lock) {
+			fairShare.remove(owner);
+		}
+	}
+
+	/**
+	 * Removes the given waiting job from the wait queue, or from the queue of
+	 * its job group if it was set aside there.
+	 * @GuardedBy("lock")
+	 */
+	private void removeWaiting(InternalJob job) {
+		InternalJobGroup group = job.internalGetJobGroup();
+		JobQueue jobs = group == null ? null : group.getThrottledJobs();
+		if (jobs == null || !jobs.contains(job)) {
+			waiting.remove(job);
+			return;
+		}
+		jobs.remove(job);
+		if (jobs.isEmpty()) {
+			group.setThrottledJobs(null);
+			throttledGroups.remove(group);
+		}
+	}
+
 	/**
 	 * Report to the progress monitor that this thread is blocked, supplying
 	 * an information message, and if possible the job that is causing the blockage.
@@ -1049,9 +1761,9 @@ public class JobManager implements IJobManager {
 	public final void resume() {
 		synchronized (lock) {
 			suspended = false;
-			//poke the job pool
-			pool.jobQueued();
 		}
+		//poke the job pool outside sync block to avoid deadlock
+		pool.jobQueued();
 	}
 
 	/** (non-Javadoc)
@@ -1104,7 +1816,19 @@ public class JobManager implements IJobManager {
 			throw new IllegalStateException("Job manager has been shut down."); //$NON-NLS-1$
 		Assert.isNotNull(job, "Job is null"); //$NON-NLS-1$
 		Assert.isLegal(delay >= 0, "Scheduling delay is negative"); //$NON-NLS-1$
+		boolean limited = !reschedule && queueLimited;
+		//whether the thread may wait must be found outside sync block
+		boolean mayWait = limited && mayWaitForRoom();
+		List dropped = null;
+		IStatus rejected = null;
+		//a job without listeners is queued in the same sync block that claims it
+		boolean notify = true;
 		synchronized (lock) {
+			//merge the request into the next run of the job
+			if (!reschedule)
+				delay = coalesce(job, delay);
+			else
+				job.setRescheduling(false);
 			//if the job is already running, set it to be rescheduled when done
 			if (job.getState() == Job.RUNNING) {
 				job.setStartTime(delay);
@@ -1113,30 +1837,172 @@ public class JobManager implements IJobManager {
 			//can't schedule a job that is waiting or sleeping
 			if (job.internalGetState() != Job.NONE)
 				return;
-			if (JobManager.DEBUG)
-				JobManager.debug("Scheduling job: " + job); //$NON-NLS-1$
-			//remember that we are about to schedule the job
-			//to prevent multiple schedule attempts from succeeding (bug 68452)
-			changeState(job, InternalJob.ABOUT_TO_SCHEDULE);
+			if (limited) {
+				boolean interrupted = mayWait && !waitForRoom(job);
+				//another thread may have scheduled the job while this thread waited
+				if (job.internalGetState() != Job.NONE)
+					return;
+				dropped = new ArrayList(3);
+				rejected = makeRoom(job, dropped, !interrupted);
+			}
+			if (rejected != null) {
+				job.setResult(rejected);
+			} else {
+				if (JobManager.DEBUG)
+					JobManager.debug("Scheduling job: " + job); //$NON-NLS-1$
+				//remember that we are about to schedule the job
+				//to prevent multiple schedule attempts from succeeding (bug 68452)
+				changeState(job, InternalJob.ABOUT_TO_SCHEDULE);
+				notify = jobListeners.hasListeners((Job) job);
+				if (!notify)
+					doSchedule(job, delay);
+			}
 		}
 		//notify listeners outside sync block
-		jobListeners.scheduled((Job) job, delay, reschedule);
-		//schedule the job
-		doSchedule(job, delay);
+		if (dropped != null)
+			notifyDropped(dropped);
+		if (rejected != null) {
+			jobListeners.done((Job) job, rejected, false);
+			return;
+		}
+		if (notify) {
+			jobListeners.scheduled((Job) job, delay, reschedule);
+			//schedule the job
+			synchronized (lock) {
+				doSchedule(job, delay);
+			}
+		}
 		//call the pool outside sync block to avoid deadlock
 		pool.jobQueued();
 	}
 
+	/* (non-Javadoc)
+	 * @see IJobManager#schedule(Job[], long)
+	 */
+	public void schedule(Job[] jobs, long delay) {
+		if (!active)
+			throw new IllegalStateException("Job manager has been shut down."); //$NON-NLS-1$
+		Assert.isNotNull(jobs, "Jobs are null"); //$NON-NLS-1$
+		Assert.isLegal(delay >= 0, "Scheduling delay is negative"); //$NON-NLS-1$
+		//ask the jobs whether to schedule them outside sync block, since they are third party code
+		InternalJob[] toSchedule = new InternalJob[jobs.length];
+		int count = 0;
+		for (int i = 0; i < jobs.length; i++) {
+			Assert.isNotNull(jobs[i], "Job is null"); //$NON-NLS-1$
+			if (jobs[i].shouldSchedule())
+				toSchedule[count++] = jobs[i];
+		}
+		boolean limited = queueLimited;
+		//whether the thread may wait must be found outside sync block
+		boolean mayWait = limited && mayWaitForRoom();
+		List dropped = null;
+		List rejected = null;
+		int scheduled = 0;
+		int queued = 0;
+		long[] delays = new long[count];
+		synchronized (lock) {
+			boolean interrupted = false;
+			if (limited) {
+				dropped = new ArrayList(3);
+				rejected = new ArrayList(3);
+				//wait before any of the jobs is about to be scheduled, since they take up room themselves
+				for (int i = 0; mayWait && !interrupted && i < count; i++)
+					interrupted = !waitForRoom(toSchedule[i]);
+			}
+			for (int i = 0; i < count; i++) {
+				InternalJob job = toSchedule[i];
+				//merge the request into the next run of the job
+				long jobDelay = coalesce(job, delay);
+				//if the job is already running, set it to be rescheduled when done
+				if (job.getState() == Job.RUNNING) {
+					job.setStartTime(jobDelay);
+					continue;
+				}
+				//can't schedule a job that is waiting or sleeping, or that was already in the array
+				if (job.internalGetState() != Job.NONE)
+					continue;
+				if (limited) {
+					IStatus result = makeRoom(job, dropped, !interrupted);
+					if (result != null) {
+						job.setResult(result);
+						rejected.add(job);
+						continue;
+					}
+				}
+				if (JobManager.DEBUG)
+					JobManager.debug("Scheduling job: " + job); //$NON-NLS-1$
+				//remember that we are about to schedule the job
+				//to prevent multiple schedule attempts from succeeding (bug 68452)
+				changeState(job, InternalJob.ABOUT_TO_SCHEDULE);
+				//a job without listeners is queued in the same sync block that claims it
+				if (!jobListeners.hasListeners((Job) job)) {
+					if (doSchedule(job, jobDelay))
+						queued++;
+					continue;
+				}
+				delays[scheduled] = jobDelay;
+				toSchedule[scheduled++] = job;
+			}
+		}
+		//notify listeners outside sync block
+		if (dropped != null)
+			notifyDropped(dropped);
+		for (int i = 0; rejected != null && i < rejected.size(); i++) {
+			Job job = (Job) rejected.get(i);
+			jobListeners.done(job, job.getResult(), false);
+		}
+		if (scheduled == 0 && queued == 0)
+			return;
+		for (int i = 0; i < scheduled; i++)
+			jobListeners.scheduled((Job) toSchedule[i], delays[i], false);
+		//schedule the jobs
+		if (scheduled > 0) {
+			synchronized (lock) {
+				for (int i = 0; i < scheduled; i++)
+					if (doSchedule(toSchedule[i], delays[i]))
+						queued++;
+			}
+		}
+		//call the pool outside sync block to avoid deadlock
+		pool.jobsQueued(Math.max(queued, 1));
+	}
+
+	/**
+	 * Publishes a snapshot of the running set, the wait queue and the sleep queue
+	 * in the volatile fields that are read by isIdle and sleepHint.
+	 * @GuardedBy("lock")
+	 */
+	private void publishState() {
+		idle = running.isEmpty() && waiting.isEmpty() && throttledGroups.isEmpty();
+		if (!waiting.isEmpty()) {
+			nextWakeTime = InternalJob.T_NONE;
+			return;
+		}
+		nextWakeTime = sleeping.nextWakeTime();
+	}
+
 	/**
-	 * Adds all family members in the list of jobs to the collection
+	 * Adds all jobs returned by the given iterator to the collection
 	 */
-	private void select(List members, Object family, InternalJob firstJob, int stateMask) {
+	private void select(List members, Iterator jobs, int stateMask) {
+		for (Iterator it = jobs; it.hasNext();) {
+			InternalJob job = (InternalJob) it.next();
+			if ((job.getState() & stateMask) != 0)
+				members.add(job);
+		}
+	}
+
+	/**
+	 * Adds all jobs in the chain of jobs starting at the given job
+	 * to the collection
+	 */
+	private void select(List members, InternalJob firstJob, int stateMask) {
 		if (firstJob == null)
 			return;
 		InternalJob job = firstJob;
 		do {
 			//note that job state cannot be NONE at this point
-			if ((family == null || job.belongsTo(family)) && ((job.getState() & stateMask) != 0))
+			if ((job.getState() & stateMask) != 0)
 				members.add(job);
 			job = job.previous();
 		} while (job != null && job != firstJob);
@@ -1156,23 +2022,126 @@ public class JobManager implements IJobManager {
 	private List select(Object family, int stateMask) {
 		List members = new ArrayList();
 		synchronized (lock) {
+			//only look at the members of the family if there is one
+			if (family != null) {
+				familyIndex.select(members, family, stateMask);
+				return members;
+			}
 			if ((stateMask & Job.RUNNING) != 0) {
 				for (Iterator it = running.iterator(); it.hasNext();) {
-					select(members, family, (InternalJob) it.next(), stateMask);
+					select(members, (InternalJob) it.next(), stateMask);
 				}
 			}
 			if ((stateMask & Job.WAITING) != 0) {
-				select(members, family, waiting.peek(), stateMask);
+				select(members, waiting.iterator(), stateMask);
+				selectThrottled(members, stateMask);
 				for (Iterator it = yielding.iterator(); it.hasNext();) {
-					select(members, family, (InternalJob) it.next(), stateMask);
+					select(members, (InternalJob) it.next(), stateMask);
 				}
 			}
 			if ((stateMask & Job.SLEEPING) != 0)
-				select(members, family, sleeping.peek(), stateMask);
+				select(members, sleeping.iterator(), stateMask);
 		}
 		return members;
 	}
 
+	/**
+	 * Adds the waiting jobs that were set aside for their job group to the
+	 * given list.
+	 * @GuardedBy("lock")
+	 */
+	private void selectThrottled(List members, int stateMask) {
+		for (int i = 0; i < throttledGroups.size(); i++)
+			select(members, ((InternalJobGroup) throttledGroups.get(i)).getThrottledJobs().iterator(), stateMask);
+	}
+
+	/**
+	 * Moves the given waiting job from the wait queue to the queue of its job
+	 * group, because the group runs as many jobs as it may. The job stays in
+	 * the WAITING state, and does not block any other job; it is added back to
+	 * the wait queue when a job of the group stops running.
+	 * @GuardedBy("lock")
+	 */
+	private void setAside(InternalJob job, InternalJobGroup group) {
+		waiting.remove(job);
+		JobQueue jobs = group.getThrottledJobs();
+		if (jobs == null) {
+			jobs = new JobQueue(true);
+			jobs.setDeadlineOrdering(deadlineScheduling);
+			jobs.setFairOrdering(fairScheduling);
+			group.setThrottledJobs(jobs);
+			throttledGroups.add(group);
+		}
+		jobs.enqueue(job);
+	}
+
+	/**
+	 * Sets whether the global job change listeners are notified asynchronously.
+	 * @see IJobManager#PROP_ASYNC_LISTENERS
+	 */
+	public void setAsyncListeners(boolean async) {
+		jobListeners.setAsynchronous(async, JobOSGiUtils.getDefault().useDaemonThreads());
+	}
+
+	/* (non-Javadoc)
+	 * @see Job#setCoalescing(int, long)
+	 */
+	protected void setCoalescing(InternalJob job, int mode, long maxWait) {
+		synchronized (lock) {
+			job.internalSetCoalescing(mode, maxWait);
+		}
+	}
+
+	/**
+	 * Sets the deadline of a job.
+	 */
+	protected void setDeadline(InternalJob job, long deadline) {
+		synchronized (lock) {
+			job.internalSetDeadline(deadline);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see IJobManager#setDeadlineSchedulingEnabled(boolean)
+	 */
+	public void setDeadlineSchedulingEnabled(boolean enabled) {
+		synchronized (lock) {
+			deadlineScheduling = enabled;
+			waiting.setDeadlineOrdering(enabled);
+			for (int i = 0; i < throttledGroups.size(); i++)
+				((InternalJobGroup) throttledGroups.get(i)).getThrottledJobs().setDeadlineOrdering(enabled);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see IJobManager#setFairShareEnabled(boolean)
+	 */
+	public void setFairShareEnabled(boolean enabled) {
+		synchronized (lock) {
+			fairScheduling = enabled;
+			waiting.setFairOrdering(enabled);
+			for (int i = 0; i < throttledGroups.size(); i++)
+				((InternalJobGroup) throttledGroups.get(i)).getThrottledJobs().setFairOrdering(enabled);
+		}
+	}
+
+	/**
+	 * Sets the flight recorder that job state changes and lock events are
+	 * recorded in from now on, or <code>null</code> to turn the recorder off.
+	 * @see FlightRecorder#PROP_SIZE
+	 */
+	public void setFlightRecorder(FlightRecorder recorder) {
+		this.recorder = recorder;
+		lockManager.setFlightRecorder(recorder);
+	}
+
+	/* (non-Javadoc)
+	 * @see IJobManager#setJobExecutor(JobExecutor)
+	 */
+	public void setJobExecutor(JobExecutor executor) {
+		pool.setExecutor(executor);
+	}
+
 	/* (non-Javadoc)
 	 * @see IJobManager#setLockListener(LockListener)
 	 */
@@ -1180,6 +2149,17 @@ public class JobManager implements IJobManager {
 		lockManager.setLockListener(listener);
 	}
 
+	/* (non-Javadoc)
+	 * @see IJobManager#setMetricsEnabled(boolean)
+	 */
+	public void setMetricsEnabled(boolean enabled) {
+		synchronized (lock) {
+			if (enabled == (metrics != null))
+				return;
+			metrics = enabled ? new JobMetrics() : null;
+		}
+	}
+
 	/**
 	 * Changes a job priority.
 	 */
@@ -1188,16 +2168,30 @@ public class JobManager implements IJobManager {
 			int oldPriority = job.getPriority();
 			if (oldPriority == newPriority)
 				return;
+			//if the job is in the wait queue, remove it while its priority changes
+			boolean queued = job.internalGetState() == Job.WAITING;
+			if (queued)
+				removeWaiting(job);
 			job.internalSetPriority(newPriority);
-			//if the job is waiting to run, re-shuffle the queue
 			if (job.getState() == Job.WAITING) {
 				long oldStart = job.getStartTime();
 				job.setStartTime(oldStart + (delayFor(newPriority) - delayFor(oldPriority)));
-				waiting.resort(job);
 			}
+			if (queued)
+				waiting.enqueue(job);
 		}
 	}
 
+	/**
+	 * Sets the minimum time in milliseconds between the updates passed on to
+	 * the progress monitors of jobs that are created from now on. Zero or less
+	 * passes every update on.
+	 * @see IJobManager#PROP_PROGRESS_INTERVAL
+	 */
+	public void setProgressInterval(long interval) {
+		progressInterval = Math.max(0, interval);
+	}
+
 	/* (non-Javadoc)
 	 * @see IJobManager#setProgressProvider(IProgressProvider)
 	 */
@@ -1205,6 +2199,49 @@ public class JobManager implements IJobManager {
 		progressProvider = provider;
 	}
 
+	/* (non-Javadoc)
+	 * @see IJobManager#setQueueLimit(Object, int, int)
+	 */
+	public void setQueueLimit(Object family, int limit, int policy) {
+		Assert.isLegal(limit >= 0, "Queue limit is negative"); //$NON-NLS-1$
+		Assert.isLegal(policy >= OVERFLOW_BLOCK && policy <= OVERFLOW_COALESCE, "Invalid overflow policy"); //$NON-NLS-1$
+		synchronized (lock) {
+			if (family == null) {
+				queueLimit.setLimit(limit, policy);
+			} else if (limit == 0) {
+				familyQueueLimits.remove(family);
+			} else {
+				QueueLimit familyLimit = (QueueLimit) familyQueueLimits.get(family);
+				if (familyLimit == null) {
+					familyLimit = new QueueLimit(family);
+					//count the jobs of the family that are already pending
+					for (Iterator it = familyIndex.indexed(family); it.hasNext();)
+						if (isPending(((InternalJob) it.next()).internalGetState()))
+							familyLimit.addDepth(1);
+					familyQueueLimits.put(family, familyLimit);
+				}
+				familyLimit.setLimit(limit, policy);
+			}
+			queueLimited = queueLimit.getLimit() > 0 || !familyQueueLimits.isEmpty();
+			//the limit may have been raised or removed
+			if (queueWaiters > 0)
+				lock.notifyAll();
+		}
+	}
+
+	/**
+	 * Sets the limits on the number of workers, and the time after which idle
+	 * workers end. Negative values are replaced by the defaults.
+	 * @see IJobManager#PROP_MIN_THREADS
+	 * @see IJobManager#PROP_MAX_THREADS
+	 * @see IJobManager#PROP_KEEP_ALIVE
+	 */
+	public void setWorkerLimits(int minThreads, int maxThreads, long keepAlive) {
+		pool.setLimits(minThreads, maxThreads, keepAlive);
+		//the pool may now be allowed to grow
+		pool.jobQueued();
+	}
+
 	/* (non-Javadoc)
 	 * @see Job#setRule
 	 */
@@ -1217,6 +2254,17 @@ public class JobManager implements IJobManager {
 		}
 	}
 
+	/* (non-Javadoc)
+	 * @see IJobManager#setShareWeight(Object, int)
+	 */
+	public void setShareWeight(Object owner, int weight) {
+		Assert.isNotNull(owner, "Owner is null"); //$NON-NLS-1$
+		Assert.isLegal(weight > 0, "Weight is not positive"); //$NON-NLS-1$
+		synchronized (lock) {
+			fairShare.setWeight(owner, weight);
+		}
+	}
+
 	/**
 	 * Puts a job to sleep. Returns true if the job was successfully put to sleep.
 	 */
@@ -1264,18 +2312,17 @@ public class JobManager implements IJobManager {
 	 * there are no sleeping or waiting jobs.
 	 */
 	protected long sleepHint() {
-		synchronized (lock) {
-			//wait forever if job manager is suspended
-			if (suspended)
-				return InternalJob.T_INFINITE;
-			if (!waiting.isEmpty())
-				return 0L;
-			//return the anticipated time that the next sleeping job will wake
-			InternalJob next = sleeping.peek();
-			if (next == null)
-				return InternalJob.T_INFINITE;
-			return next.getStartTime() - System.currentTimeMillis();
-		}
+		//wait forever if job manager is suspended
+		if (suspended)
+			return InternalJob.T_INFINITE;
+		//read the published state once, it may be changed concurrently
+		long wakeTime = nextWakeTime;
+		if (wakeTime == InternalJob.T_NONE)
+			return 0L;
+		if (wakeTime == InternalJob.T_INFINITE)
+			return InternalJob.T_INFINITE;
+		//return the anticipated time that the next sleeping job will wake
+		return wakeTime - System.currentTimeMillis();
 	}
 
 	/**
@@ -1311,13 +2358,13 @@ public class JobManager implements IJobManager {
 						if (unblocked == null) {
 
 							// look for any implicit (or yielding) jobs we may be blocking. 
-							unblocked = findBlockedJob(likeThreadJob, waitingThreadJobs.iterator());
+							unblocked = findBlockedJob(likeThreadJob, waitingThreadJobs);
 						}
 
 					} else {
 
 						// look for any implicit (or yielding) jobs we may be blocking. 
-						unblocked = findBlockedJob(job, waitingThreadJobs.iterator());
+						unblocked = findBlockedJob(job, waitingThreadJobs);
 					}
 				}
 
@@ -1327,6 +2374,9 @@ public class JobManager implements IJobManager {
 
 				// "release" our rule by exiting RUNNING state
 				changeState(job, InternalJob.YIELDING);
+				FlightRecorder tempRecorder = recorder;
+				if (tempRecorder != null)
+					tempRecorder.record(FlightRecorder.YIELDED, currentThread, job, unblocked, 0);
 				if (DEBUG_YIELDING)
 					JobManager.debug(job + " will yieldRule to " + unblocked); //$NON-NLS-1$
 
@@ -1493,6 +2543,16 @@ public class JobManager implements IJobManager {
 							internal.setProgressMonitor(createMonitor(job));
 							//change from ABOUT_TO_RUN to RUNNING
 							internal.internalSetState(Job.RUNNING);
+							if (metrics != null)
+								metrics.stateChanged(internal, InternalJob.ABOUT_TO_RUN, Job.RUNNING);
+							FlightRecorder tempRecorder = recorder;
+							if (tempRecorder != null)
+								tempRecorder.stateChanged(internal, InternalJob.ABOUT_TO_RUN, Job.RUNNING);
+							internal.startRun();
+							if (fairScheduling)
+								internal.setRunStart(System.currentTimeMillis());
+							if (internal.getCoalescing() == Job.COALESCE_LEADING)
+								internal.setCoalescingStart(System.currentTimeMillis());
 							internal.jobStateLock.notifyAll();
 							break;
 						}
@@ -1519,6 +2579,9 @@ public class JobManager implements IJobManager {
 	public final void suspend() {
 		synchronized (lock) {
 			suspended = true;
+			//threads waiting for room in the queue stop waiting, since it no longer drains
+			if (queueWaiters > 0)
+				lock.notifyAll();
 		}
 	}
 
@@ -1531,6 +2594,18 @@ public class JobManager implements IJobManager {
 		implicitJobs.suspend(rule, monitorFor(monitor));
 	}
 
+	/**
+	 * Returns the given progress monitor of a job, wrapped so that updates are
+	 * passed on to it at a bounded rate if the progress interval is set.
+	 * @see IJobManager#PROP_PROGRESS_INTERVAL
+	 */
+	private IProgressMonitor throttle(IProgressMonitor monitor) {
+		long interval = progressInterval;
+		if (interval <= 0)
+			return monitor;
+		return new ThrottledProgressMonitor(monitor, interval);
+	}
+
 	/* (non-Javadoc)
 	 * @see org.eclipse.core.runtime.jobs.IJobManager#transferRule()
 	 */
@@ -1576,6 +2651,48 @@ public class JobManager implements IJobManager {
 			jobListeners.awake((Job) job);
 	}
 
+	/**
+	 * Returns whether the current thread may wait for room below a queue limit
+	 * whose policy is to block. Threads that run a job must not wait, since the
+	 * pending jobs may need a worker to start, or may be held back by the job
+	 * the thread runs, such as the waiting jobs of its job group. Threads that
+	 * own a scheduling rule or a lock must not wait either, since the pending
+	 * jobs may need them to start. The jobs of such threads exceed the limit.
+	 * Must be called from outside the sync block.
+	 */
+	private boolean mayWaitForRoom() {
+		//isLockOwner is true for workers, and for threads that own a lock or a contended rule
+		return currentRule() == null && !lockManager.isLockOwner();
+	}
+
+	/**
+	 * Waits until the given job is not subject to a reached queue limit whose
+	 * policy is to block, unless the job manager is suspended or shut down.
+	 * Returns <code>false</code> if the thread was interrupted while waiting,
+	 * and <code>true</code> otherwise.
+	 * @GuardedBy("lock")
+	 */
+	private boolean waitForRoom(InternalJob job) {
+		boolean waited = false;
+		QueueLimit full;
+		while (active && !suspended && (full = findFullQueueLimit(job)) != null && full.getPolicy() == OVERFLOW_BLOCK) {
+			if (!waited)
+				full.recordBlocked();
+			waited = true;
+			queueWaiters++;
+			try {
+				lock.wait();
+			} catch (InterruptedException e) {
+				//keep the interrupt for the caller
+				Thread.currentThread().interrupt();
+				return false;
+			} finally {
+				queueWaiters--;
+			}
+		}
+		return true;
+	}
+
 	/* (non-Javadoc)
 	 * @see IJobFamily#wakeUp(String)
 	 */
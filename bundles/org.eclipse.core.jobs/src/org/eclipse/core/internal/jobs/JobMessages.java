@@ -22,6 +22,9 @@ public class JobMessages extends NLS {
 	public static String jobs_blocked0;
 	public static String jobs_blocked1;
 	public static String jobs_internalError;
+	public static String jobs_queueFull;
+	public static String jobs_queueFullDropped;
+	public static String jobs_queueFullMerged;
 	public static String jobs_waitFamSub;
 	public static String jobs_waitFamSubOne;
 	// metadata
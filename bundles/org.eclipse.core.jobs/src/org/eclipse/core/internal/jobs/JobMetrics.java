@@ -0,0 +1,290 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.jobs;
+
+import java.io.*;
+import java.util.*;
+import org.eclipse.core.runtime.jobs.Job;
+
+/**
+ * Records how long jobs spend in each state, per job class and per declared
+ * job family. Every time a job leaves a state, the time since it entered that
+ * state is recorded in a histogram of that phase, for the class of the job and
+ * for each family the job has declared. Families that jobs answer through
+ * <code>belongsTo</code> only are not tracked, because finding them would
+ * require asking every job about every family.
+ * <p>
+ * Durations are measured in milliseconds. Recording is done by the job manager
+ * while it holds its lock; the histograms are protected by this object, and
+ * the query methods return copies.
+ */
+public final class JobMetrics {
+
+	/**
+	 * Phase constant for the time a job spends sleeping, before its scheduling
+	 * delay expires or until it is woken up.
+	 */
+	public static final int SLEEPING = 0;
+	/**
+	 * Phase constant for the time a job spends in the wait queue.
+	 */
+	public static final int WAITING = 1;
+	/**
+	 * Phase constant for the time a job spends blocked behind a job with a
+	 * conflicting scheduling rule.
+	 */
+	public static final int BLOCKED = 2;
+	/**
+	 * Phase constant for the time between a job being picked from the wait
+	 * queue and starting to run, which includes notifying the listeners.
+	 */
+	public static final int ABOUT_TO_RUN = 3;
+	/**
+	 * Phase constant for the time a job spends running.
+	 */
+	public static final int RUNNING = 4;
+
+	private static final String[] PHASE_NAMES = {"SLEEPING", "WAITING", "BLOCKED", "ABOUT_TO_RUN", "RUNNING"}; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+	private static final int PHASES = PHASE_NAMES.length;
+
+	/**
+	 * Maps job class names to the histograms of their phases.
+	 */
+	private final HashMap byClass = new HashMap();
+	/**
+	 * Maps declared job families to the histograms of their phases.
+	 */
+	private final HashMap byFamily = new HashMap();
+	/**
+	 * The time these metrics were turned on. Jobs that entered their state
+	 * earlier have an unknown or stale state start time.
+	 */
+	private final long since = System.currentTimeMillis();
+
+	/**
+	 * Returns the phase that time spent in the given job state is recorded in,
+	 * or -1 if the state is not measured.
+	 */
+	private static int phaseOf(int state) {
+		switch (state) {
+			case Job.SLEEPING :
+				return SLEEPING;
+			case Job.WAITING :
+				return WAITING;
+			case InternalJob.BLOCKED :
+				return BLOCKED;
+			case InternalJob.ABOUT_TO_RUN :
+				return ABOUT_TO_RUN;
+			case Job.RUNNING :
+				return RUNNING;
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the name of the given phase.
+	 */
+	public static String getPhaseName(int phase) {
+		return PHASE_NAMES[phase];
+	}
+
+	/**
+	 * Returns copies of the histograms for the given key, or null.
+	 */
+	private static LatencyHistogram copy(HashMap map, Object key, int phase) {
+		LatencyHistogram[] phases = (LatencyHistogram[]) map.get(key);
+		if (phases == null || phases[phase] == null)
+			return null;
+		return phases[phase].copy();
+	}
+
+	/**
+	 * Writes the histograms of the given map, one line per key and phase.
+	 */
+	private static void export(Writer out, String kind, HashMap map) throws IOException {
+		for (Iterator it = map.entrySet().iterator(); it.hasNext();) {
+			Map.Entry entry = (Map.Entry) it.next();
+			LatencyHistogram[] phases = (LatencyHistogram[]) entry.getValue();
+			for (int i = 0; i < PHASES; i++)
+				if (phases[i] != null)
+					exportHistogram(out, kind, entry.getKey(), PHASE_NAMES[i], phases[i]);
+		}
+	}
+
+	/**
+	 * Writes the counters of the given deadline statistics, with the lateness
+	 * of the runs that missed their deadline as a histogram.
+	 */
+	static void export(Writer out, DeadlineStatistics deadlines) throws IOException {
+		exportValue(out, "deadline", "", "met", deadlines.getMetCount()); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		exportHistogram(out, "deadline", "", "missed", deadlines.getLateness()); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+	}
+
+	/**
+	 * Writes the depth and the counters of the given queue limit. The key is
+	 * the family of the limit, or empty for the limit on all jobs.
+	 */
+	static void export(Writer out, QueueLimit limit) throws IOException {
+		Object key = limit.getFamily() == null ? "" : limit.getFamily(); //$NON-NLS-1$
+		exportValue(out, "queue", key, "depth", limit.getDepth()); //$NON-NLS-1$ //$NON-NLS-2$
+		exportValue(out, "queue", key, "peakDepth", limit.getPeakDepth()); //$NON-NLS-1$ //$NON-NLS-2$
+		exportValue(out, "queue", key, "limit", limit.getLimit()); //$NON-NLS-1$ //$NON-NLS-2$
+		exportValue(out, "queue", key, "blocked", limit.getBlockedCount()); //$NON-NLS-1$ //$NON-NLS-2$
+		exportValue(out, "queue", key, "rejected", limit.getRejectedCount()); //$NON-NLS-1$ //$NON-NLS-2$
+		exportValue(out, "queue", key, "dropped", limit.getDroppedCount()); //$NON-NLS-1$ //$NON-NLS-2$
+		exportValue(out, "queue", key, "coalesced", limit.getCoalescedCount()); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	/**
+	 * Writes one line with the given histogram.
+	 */
+	private static void exportHistogram(Writer out, String kind, Object key, String name, LatencyHistogram h) throws IOException {
+		out.write(kind);
+		out.write(',');
+		out.write(quote(String.valueOf(key)));
+		out.write(',');
+		out.write(name);
+		out.write("," + h.getCount() + ',' + h.getMin() + ',' + (long) h.getMean() + ',' + h.getPercentile(50) + ',' + h.getPercentile(90) + ',' + h.getPercentile(99) + ',' + h.getMax()); //$NON-NLS-1$
+		out.write('\n');
+	}
+
+	/**
+	 * Writes one line with the given value in the count column, and the
+	 * other columns empty.
+	 */
+	static void exportValue(Writer out, String kind, Object key, String name, long value) throws IOException {
+		out.write(kind);
+		out.write(',');
+		out.write(quote(String.valueOf(key)));
+		out.write(',');
+		out.write(name);
+		out.write("," + value + ",,,,,,\n"); //$NON-NLS-1$
+	}
+
+	/**
+	 * Quotes a CSV value if needed.
+	 */
+	private static String quote(String value) {
+		if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0)
+			return value;
+		StringBuffer buf = new StringBuffer(value.length() + 2);
+		buf.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"')
+				buf.append('"');
+			buf.append(c);
+		}
+		buf.append('"');
+		return buf.toString();
+	}
+
+	/**
+	 * Records a duration for the given key and phase.
+	 * @GuardedBy("this")
+	 */
+	private static void record(HashMap map, Object key, int phase, long duration) {
+		LatencyHistogram[] phases = (LatencyHistogram[]) map.get(key);
+		if (phases == null) {
+			phases = new LatencyHistogram[PHASES];
+			map.put(key, phases);
+		}
+		if (phases[phase] == null)
+			phases[phase] = new LatencyHistogram();
+		phases[phase].record(duration);
+	}
+
+	/**
+	 * Writes all histograms as comma separated values, with one line for each
+	 * job class or family and phase, and a header line naming the columns.
+	 * The first column is <code>class</code> or <code>family</code>, and
+	 * durations are in milliseconds.
+	 */
+	public synchronized void export(Writer out) throws IOException {
+		out.write("kind,key,phase,count,min,mean,p50,p90,p99,max\n"); //$NON-NLS-1$
+		export(out, "class", byClass); //$NON-NLS-1$
+		export(out, "family", byFamily); //$NON-NLS-1$
+		out.flush();
+	}
+
+	/**
+	 * Returns the names of the job classes that have recorded durations.
+	 */
+	public synchronized String[] getClassNames() {
+		return (String[]) byClass.keySet().toArray(new String[byClass.size()]);
+	}
+
+	/**
+	 * Returns the declared job families that have recorded durations.
+	 */
+	public synchronized Object[] getFamilies() {
+		return byFamily.keySet().toArray();
+	}
+
+	/**
+	 * Returns a copy of the histogram of the given phase for jobs of the class
+	 * with the given name, or <code>null</code> if no such duration was recorded.
+	 */
+	public synchronized LatencyHistogram getHistogram(String className, int phase) {
+		return copy(byClass, className, phase);
+	}
+
+	/**
+	 * Returns a copy of the histogram of the given phase for jobs that declared
+	 * the given family, or <code>null</code> if no such duration was recorded.
+	 */
+	public synchronized LatencyHistogram getFamilyHistogram(Object family, int phase) {
+		return copy(byFamily, family, phase);
+	}
+
+	/**
+	 * Discards all recorded durations.
+	 */
+	public synchronized void reset() {
+		byClass.clear();
+		byFamily.clear();
+	}
+
+	/**
+	 * Records the time the given job spent in the state it is leaving, and starts
+	 * timing the state it is entering.
+	 * @GuardedBy("manager.lock")
+	 */
+	void stateChanged(InternalJob job, int oldState, int newState) {
+		if (oldState == newState)
+			return;
+		long now = System.currentTimeMillis();
+		long start = job.getStateStart();
+		job.setStateStart(now);
+		int phase = phaseOf(oldState);
+		//the job may have entered the state before metrics were turned on
+		if (phase < 0 || start < since)
+			return;
+		long duration = now - start;
+		Object[] families = job.internalGetFamilies();
+		synchronized (this) {
+			record(byClass, job.getClass().getName(), phase, duration);
+			if (families != null)
+				for (int i = 0; i < families.length; i++)
+					record(byFamily, families[i], phase, duration);
+		}
+	}
+
+	public String toString() {
+		StringWriter out = new StringWriter();
+		try {
+			export(out);
+		} catch (IOException e) {
+			//cannot happen
+		}
+		return out.toString();
+	}
+}
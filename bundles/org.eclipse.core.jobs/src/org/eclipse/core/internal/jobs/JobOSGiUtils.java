@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2005, 2007 IBM Corporation and others.
+ * Copyright (c) 2005, 2011 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -135,4 +135,43 @@ class JobOSGiUtils {
 			return false;
 		return "true".equalsIgnoreCase(value); //$NON-NLS-1$
 	}
+
+	/**
+	 * Returns the value of the given property, or <code>null</code> if the
+	 * property is absent. The property is read from the bundle context if the
+	 * framework is running, and from the system properties otherwise.
+	 */
+	String getProperty(String key) {
+		BundleContext context = JobActivator.getContext();
+		return context == null ? System.getProperty(key) : context.getProperty(key);
+	}
+
+	/**
+	 * Returns the value of the given property as a boolean, or the default value
+	 * if the property is absent. The property is read from the bundle context if 
+	 * the framework is running, and from the system properties otherwise.
+	 */
+	boolean getBooleanProperty(String key, boolean defaultValue) {
+		String value = getProperty(key);
+		if (value == null)
+			return defaultValue;
+		return "true".equalsIgnoreCase(value.trim()); //$NON-NLS-1$
+	}
+
+	/**
+	 * Returns the value of the given property as an integer, or the default value
+	 * if the property is absent or is not an integer. The property is read from the
+	 * bundle context if the framework is running, and from the system properties
+	 * otherwise.
+	 */
+	long getLongProperty(String key, long defaultValue) {
+		String value = getProperty(key);
+		if (value == null)
+			return defaultValue;
+		try {
+			return Long.parseLong(value.trim());
+		} catch (NumberFormatException e) {
+			return defaultValue;
+		}
+	}
 }
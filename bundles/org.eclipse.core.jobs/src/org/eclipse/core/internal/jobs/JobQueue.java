@@ -1,27 +1,46 @@
 /*******************************************************************************
- *  Copyright (c) 2003, 2010 IBM Corporation and others.
+ *  Copyright (c) 2003, 2011 IBM Corporation and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
  *  http://www.eclipse.org/legal/epl-v10.html
- * 
+ *
  *  Contributors:
  *     IBM - Initial API and implementation
  *******************************************************************************/
 package org.eclipse.core.internal.jobs;
 
-import java.util.Iterator;
-import org.eclipse.core.runtime.*;
+import java.util.*;
+import org.eclipse.core.runtime.Assert;
+import org.eclipse.core.runtime.jobs.Job;
 
 /**
- * A linked list based priority queue. 
+ * A binary heap based priority queue.
+ * <p>
+ * If priority overtaking is allowed, entries are ordered by start time, then by
+ * wait queue stamp, then by insertion order. With deadline ordering or fair
+ * ordering, they are first ordered by priority, then by due time if deadline
+ * ordering is on, with entries that have no due time last, then by fair share
+ * tag if fair ordering is on, and only then by start time. Due times come
+ * before fair share tags because the tags of the entries of an owner always
+ * differ, so due times would otherwise only order entries of different owners
+ * that have the same tag. With both orderings on, owners take turns among the
+ * entries that have no due time, or the same due time. Otherwise entries
+ * are ordered by wait queue stamp, then by insertion order. A job that is removed from the queue
+ * and added again without changing its start time and stamp (for example while
+ * it is blocked) returns to its original position in the queue (bug 211799).
+ * <p>
+ * If conflict overtaking is not allowed, an entry is never placed ahead of an
+ * entry with a conflicting rule that was added to the wait queue before it
+ * (that is, that has a smaller wait queue stamp). This is done by moving the
+ * start time of the new entry to the start time of the last such entry. These
+ * entries are looked up in an index of the entries by rule, which is only done
+ * if the queue contains entries of lower priority than the new entry, or if the
+ * new entry may overtake entries of the same priority by due time or fair share tag.
+ * The same index is used to find the entry that conflicts with a given job.
  */
 public final class JobQueue {
-	/**
-	 * The dummy entry sits between the head and the tail of the queue.
-	 * dummy.previous() is the head, and dummy.next() is the tail.
-	 */
-	protected final InternalJob dummy;
+	private static final int INITIAL_CAPACITY = 16;
 
 	/**
 	 * If true, conflicting jobs will be allowed to overtake others in the
@@ -33,135 +52,386 @@ public final class JobQueue {
 	private final boolean allowPriorityOvertaking;
 
 	/**
-	 * Create a new job queue. 
+	 * If true, and priority overtaking is allowed, entries are ordered by
+	 * priority and due time before start time.
+	 */
+	private boolean deadlineOrdering = false;
+
+	/**
+	 * If true, and priority overtaking is allowed, entries are ordered by
+	 * priority and fair share tag before start time.
+	 */
+	private boolean fairOrdering = false;
+
+	/**
+	 * The number of entries in the queue for each priority, indexed by
+	 * priority class (see #classOf). Only maintained if conflict overtaking
+	 * is not allowed.
+	 */
+	private final int[] classCounts = new int[Job.DECORATE / 10 + 1];
+
+	/**
+	 * The entries that have a scheduling rule, indexed by rule. Only maintained
+	 * if conflict overtaking is not allowed.
+	 */
+	private final RuleIndex rules;
+
+	/**
+	 * The heap of entries. The entry with the highest priority is at index 0,
+	 * and the children of the entry at index i are at 2i+1 and 2i+2.
+	 */
+	private InternalJob[] heap = new InternalJob[INITIAL_CAPACITY];
+
+	/**
+	 * Counter used to order entries that are otherwise equal in insertion order.
+	 */
+	private long sequence = 0;
+
+	/**
+	 * The number of entries in the heap.
+	 */
+	private int size = 0;
+
+	/**
+	 * Create a new job queue.
 	 */
 	public JobQueue(boolean allowConflictOvertaking) {
 		this(allowConflictOvertaking, true);
 	}
 
 	/**
-	 * Create a new job queue. 
+	 * Create a new job queue.
 	 */
 	public JobQueue(boolean allowConflictOvertaking, boolean allowPriorityOvertaking) {
 		this.allowPriorityOvertaking = allowPriorityOvertaking;
-		//compareTo on dummy is never called
-		dummy = new InternalJob("Queue-Head") {//$NON-NLS-1$
-			public IStatus run(IProgressMonitor m) {
-				return Status.OK_STATUS;
-			}
-		};
-		dummy.setNext(dummy);
-		dummy.setPrevious(dummy);
 		this.allowConflictOvertaking = allowConflictOvertaking;
+		this.rules = allowConflictOvertaking ? null : new RuleIndex();
 	}
 
-	/** 
-	 * remove all elements 
+	/**
+	 * Returns the index into the class counts for the given priority.
+	 */
+	private static int classOf(int priority) {
+		return Math.max(0, Math.min(priority / 10, Job.DECORATE / 10));
+	}
+
+	/**
+	 * Returns the priority used to count the given entry. Entries that have
+	 * been placed behind a conflicting entry of lower priority are counted with
+	 * the priority of that entry.
+	 */
+	private static int countedPriority(InternalJob entry) {
+		return Math.max(entry.getPriority(), entry.getQueuePriority());
+	}
+
+	/**
+	 * remove all elements
 	 */
 	public void clear() {
-		dummy.setNext(dummy);
-		dummy.setPrevious(dummy);
+		for (int i = 0; i < size; i++) {
+			heap[i].setQueueIndex(-1);
+			heap[i] = null;
+		}
+		size = 0;
+		for (int i = 0; i < classCounts.length; i++)
+			classCounts[i] = 0;
+		if (rules != null)
+			rules.clear();
 	}
 
 	/**
-	 * Return and remove the element with highest priority, or null if empty. 
+	 * Returns whether the first entry must be removed from the queue before
+	 * the second entry.
+	 */
+	private boolean comesBefore(InternalJob first, InternalJob second) {
+		if (allowPriorityOvertaking) {
+			if (deadlineOrdering || fairOrdering) {
+				int firstPriority = countedPriority(first), secondPriority = countedPriority(second);
+				if (firstPriority != secondPriority)
+					return firstPriority < secondPriority;
+			}
+			if (deadlineOrdering) {
+				long firstDue = first.getQueueDueTime(), secondDue = second.getQueueDueTime();
+				if (firstDue != secondDue)
+					return secondDue == InternalJob.T_NONE || (firstDue != InternalJob.T_NONE && firstDue < secondDue);
+			}
+			if (fairOrdering) {
+				long firstTag = first.getQueueFairTag(), secondTag = second.getQueueFairTag();
+				if (firstTag != secondTag)
+					return firstTag < secondTag;
+			}
+			long firstTime = first.getStartTime(), secondTime = second.getStartTime();
+			if (firstTime != secondTime)
+				return firstTime < secondTime;
+		}
+		long firstStamp = first.getWaitQueueStamp(), secondStamp = second.getWaitQueueStamp();
+		if (firstStamp != secondStamp)
+			return firstStamp < secondStamp;
+		return first.getQueueSequence() < second.getQueueSequence();
+	}
+
+	/**
+	 * Returns whether the given entry belongs to this queue.
+	 */
+	public boolean contains(InternalJob entry) {
+		int index = entry.getQueueIndex();
+		return index >= 0 && index < size && heap[index] == entry;
+	}
+
+	/**
+	 * Return and remove the element with highest priority, or null if empty.
 	 */
 	public InternalJob dequeue() {
-		InternalJob toRemove = dummy.previous();
-		if (toRemove == dummy)
+		if (size == 0)
 			return null;
-		return toRemove.remove();
+		InternalJob first = heap[0];
+		removeAt(0);
+		return first;
 	}
 
 	/**
-	 * Adds an item to the queue 
+	 * Adds an item to the queue
 	 */
 	public void enqueue(InternalJob newEntry) {
 		//assert new entry is does not already belong to some other data structure
 		Assert.isTrue(newEntry.next() == null);
 		Assert.isTrue(newEntry.previous() == null);
-		InternalJob tail = dummy.next();
-		//overtake lower priority jobs. Only overtake conflicting jobs if allowed to
-		while (canOvertake(newEntry, tail))
-			tail = tail.next();
-		//new entry is smaller than tail
-		final InternalJob tailPrevious = tail.previous();
-		newEntry.setNext(tail);
-		newEntry.setPrevious(tailPrevious);
-		tailPrevious.setNext(newEntry);
-		tail.setPrevious(newEntry);
+		Assert.isTrue(newEntry.getQueueIndex() == -1);
+		if (!allowConflictOvertaking) {
+			if (allowPriorityOvertaking)
+				preventConflictOvertaking(newEntry);
+			rules.add(newEntry);
+			classCounts[classOf(countedPriority(newEntry))]++;
+		}
+		newEntry.setQueueSequence(sequence++);
+		if (size == heap.length) {
+			InternalJob[] newHeap = new InternalJob[size * 2];
+			System.arraycopy(heap, 0, newHeap, 0, size);
+			heap = newHeap;
+		}
+		heap[size] = newEntry;
+		newEntry.setQueueIndex(size);
+		siftUp(size++);
 	}
 
 	/**
-	 * Returns whether the new entry to overtake the existing queue entry.
-	 * @param newEntry The entry to be added to the queue
-	 * @param queueEntry The existing queue entry
+	 * Returns the entry with the highest priority whose rule conflicts with
+	 * the rule of the given job, or <code>null</code> if there is no such entry.
 	 */
-	private boolean canOvertake(InternalJob newEntry, InternalJob queueEntry) {
-		//can never go past the end of the queue
-		if (queueEntry == dummy)
-			return false;
-		//if the new entry was already in the wait queue, ensure it is re-inserted in correct position (bug 211799)
-		if (newEntry.getWaitQueueStamp() > 0 && newEntry.getWaitQueueStamp() < queueEntry.getWaitQueueStamp())
-			return true;
-		//if the new entry has lower priority, there is no need to overtake the existing entry
-		if (allowPriorityOvertaking && queueEntry.compareTo(newEntry) >= 0)
-			return false;
-		//the new entry has higher priority, but only overtake the existing entry if the queue allows it
-		return allowConflictOvertaking || !newEntry.isConflicting(queueEntry);
-	}
-
-	/**
-	 * Removes the given element from the queue. 
-	 */
-	public void remove(InternalJob toRemove) {
-		toRemove.remove();
-		//previous of toRemove might now bubble up
+	public InternalJob findConflicting(InternalJob job) {
+		InternalJob result = null;
+		if (rules == null) {
+			for (int i = 0; i < size; i++) {
+				InternalJob entry = heap[i];
+				if ((result == null || comesBefore(entry, result)) && entry.isConflicting(job))
+					result = entry;
+			}
+			return result;
+		}
+		if (job.getRule() == null || rules.isEmpty())
+			return null;
+		List conflicting = new ArrayList();
+		rules.addConflicting(job, conflicting);
+		for (int i = 0, count = conflicting.size(); i < count; i++) {
+			InternalJob entry = (InternalJob) conflicting.get(i);
+			if (result == null || comesBefore(entry, result))
+				result = entry;
+		}
+		return result;
 	}
 
 	/**
-	 * The given object has changed priority. Reshuffle the heap until it is
-	 * valid.
+	 * Returns whether the queue contains entries of lower priority than the
+	 * given priority.
 	 */
-	public void resort(InternalJob entry) {
-		remove(entry);
-		enqueue(entry);
+	private boolean hasLowerPriority(int priority) {
+		for (int i = classOf(priority) + 1; i < classCounts.length; i++)
+			if (classCounts[i] > 0)
+				return true;
+		return false;
 	}
 
 	/**
-	 * Returns true if the queue is empty, and false otherwise. 
+	 * Returns true if the queue is empty, and false otherwise.
 	 */
 	public boolean isEmpty() {
-		return dummy.next() == dummy;
+		return size == 0;
 	}
 
-	/** 
-	 * Return greatest element without removing it, or null if empty 
+	/**
+	 * Returns an iterator over the entries of the queue. The entries are
+	 * not returned in priority order.
 	 */
-	public InternalJob peek() {
-		return dummy.previous() == dummy ? null : dummy.previous();
-	}
-
 	public Iterator iterator() {
 		return new Iterator() {
-			InternalJob pointer = dummy;
+			int index = 0;
 
 			public boolean hasNext() {
-				if (pointer.previous() == dummy)
-					pointer = null;
-				else
-					pointer = pointer.previous();
-				return pointer != null;
+				return index < size;
 			}
 
 			public Object next() {
-				return pointer;
+				if (index >= size)
+					throw new NoSuchElementException();
+				return heap[index++];
 			}
 
 			public void remove() {
 				throw new UnsupportedOperationException();
 			}
-
 		};
 	}
+
+	/**
+	 * Return greatest element without removing it, or null if empty
+	 */
+	public InternalJob peek() {
+		return size == 0 ? null : heap[0];
+	}
+
+	/**
+	 * Ensures that the new entry will not be placed ahead of an older entry
+	 * whose rule conflicts with the rule of the new entry.
+	 */
+	private void preventConflictOvertaking(InternalJob newEntry) {
+		if (newEntry.getRule() == null || size == 0)
+			return;
+		//a job can only be placed ahead of an older job of lower priority, or of a later due time or fair share tag
+		if (!hasLowerPriority(newEntry.getPriority()) && !fairOrdering && !(deadlineOrdering && newEntry.getQueueDueTime() != InternalJob.T_NONE))
+			return;
+		long stamp = newEntry.getWaitQueueStamp();
+		List conflicting = new ArrayList();
+		rules.addConflicting(newEntry, conflicting);
+		InternalJob last = null;
+		for (int i = 0, count = conflicting.size(); i < count; i++) {
+			InternalJob entry = (InternalJob) conflicting.get(i);
+			if (entry.getWaitQueueStamp() >= stamp || !comesBefore(newEntry, entry))
+				continue;
+			if (last == null || comesBefore(last, entry))
+				last = entry;
+		}
+		if (last == null)
+			return;
+		//the new entry has a higher stamp, so it will be placed right after the last conflicting entry
+		newEntry.setStartTime(last.getStartTime());
+		newEntry.setQueuePriority(countedPriority(last));
+		newEntry.setQueueDueTime(last.getQueueDueTime());
+		newEntry.setQueueFairTag(last.getQueueFairTag());
+	}
+
+	/**
+	 * Removes the given element from the queue. Has no effect if the
+	 * element does not belong to this queue.
+	 */
+	public void remove(InternalJob toRemove) {
+		int index = toRemove.getQueueIndex();
+		if (index < 0 || index >= size || heap[index] != toRemove)
+			return;
+		removeAt(index);
+	}
+
+	/**
+	 * Removes the entry at the given index of the heap.
+	 */
+	private void removeAt(int index) {
+		InternalJob removed = heap[index];
+		removed.setQueueIndex(-1);
+		if (!allowConflictOvertaking)
+			classCounts[classOf(countedPriority(removed))]--;
+		if (rules != null)
+			rules.remove(removed);
+		InternalJob last = heap[--size];
+		heap[size] = null;
+		if (index == size)
+			return;
+		heap[index] = last;
+		last.setQueueIndex(index);
+		//the moved entry may need to go either up or down the heap
+		if (siftUp(index) == index)
+			siftDown(index);
+	}
+
+	/**
+	 * The start time or stamp of the given entry has changed, but not its
+	 * priority. Reshuffle the heap until it is valid.
+	 */
+	public void resort(InternalJob entry) {
+		int index = entry.getQueueIndex();
+		if (index < 0 || index >= size || heap[index] != entry)
+			return;
+		if (siftUp(index) == index)
+			siftDown(index);
+	}
+
+	/**
+	 * Turns ordering by priority and due time on or off, and reorders the
+	 * entries accordingly.
+	 */
+	public void setDeadlineOrdering(boolean value) {
+		if (deadlineOrdering == value)
+			return;
+		deadlineOrdering = value;
+		for (int i = (size >>> 1) - 1; i >= 0; i--)
+			siftDown(i);
+	}
+
+	/**
+	 * Turns ordering by priority and fair share tag on or off, and reorders
+	 * the entries accordingly.
+	 */
+	public void setFairOrdering(boolean value) {
+		if (fairOrdering == value)
+			return;
+		fairOrdering = value;
+		for (int i = (size >>> 1) - 1; i >= 0; i--)
+			siftDown(i);
+	}
+
+	/**
+	 * Moves the entry at the given index down the heap until it comes
+	 * before both of its children.
+	 */
+	private void siftDown(int index) {
+		InternalJob entry = heap[index];
+		int half = size >>> 1;
+		while (index < half) {
+			int child = 2 * index + 1;
+			int right = child + 1;
+			if (right < size && comesBefore(heap[right], heap[child]))
+				child = right;
+			if (!comesBefore(heap[child], entry))
+				break;
+			heap[index] = heap[child];
+			heap[index].setQueueIndex(index);
+			index = child;
+		}
+		heap[index] = entry;
+		entry.setQueueIndex(index);
+	}
+
+	/**
+	 * Moves the entry at the given index up the heap until it comes after
+	 * its parent. Returns the new index of the entry.
+	 */
+	private int siftUp(int index) {
+		InternalJob entry = heap[index];
+		while (index > 0) {
+			int parent = (index - 1) >>> 1;
+			if (!comesBefore(entry, heap[parent]))
+				break;
+			heap[index] = heap[parent];
+			heap[index].setQueueIndex(index);
+			index = parent;
+		}
+		heap[index] = entry;
+		entry.setQueueIndex(index);
+		return index;
+	}
+
+	/**
+	 * Returns the number of entries in the queue.
+	 */
+	public int size() {
+		return size;
+	}
 }
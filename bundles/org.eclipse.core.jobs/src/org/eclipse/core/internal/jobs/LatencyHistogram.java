@@ -0,0 +1,152 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.jobs;
+
+/**
+ * A histogram of durations in milliseconds. Durations are counted in buckets
+ * whose width grows with the duration: each power of two is split into four
+ * buckets, so recording a duration costs a few shifts, the histogram has a
+ * fixed size, and a percentile is at most a quarter off the recorded duration.
+ * <p>
+ * This class is not thread safe; the job metrics that own the histograms
+ * protect them, and hand out copies.
+ */
+public final class LatencyHistogram {
+	/**
+	 * The number of buckets each power of two is split into, as a power of two.
+	 */
+	private static final int SUB_BUCKET_BITS = 2;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	/**
+	 * Durations are clamped to 2^40 milliseconds, which is about 35 years.
+	 */
+	private static final int MAX_BITS = 40;
+	private static final long MAX_VALUE = (1L << MAX_BITS) - 1;
+
+	private final int[] counts = new int[(MAX_BITS - SUB_BUCKET_BITS + 1) * SUB_BUCKETS];
+	private long count = 0;
+	private long max = 0;
+	private long min = Long.MAX_VALUE;
+	private long total = 0;
+
+	/**
+	 * Returns the index of the bucket that counts the given duration.
+	 */
+	static int bucketFor(long value) {
+		if (value < SUB_BUCKETS)
+			return (int) value;
+		//find the highest bit of the value
+		int bits = 0;
+		for (long v = value; v > 1; v >>= 1)
+			bits++;
+		int shift = bits - SUB_BUCKET_BITS;
+		int sub = (int) (value >> shift) & (SUB_BUCKETS - 1);
+		return (shift + 1) * SUB_BUCKETS + sub;
+	}
+
+	/**
+	 * Returns the largest duration counted by the given bucket.
+	 */
+	static long upperBound(int bucket) {
+		if (bucket < SUB_BUCKETS)
+			return bucket;
+		int shift = bucket / SUB_BUCKETS - 1;
+		long sub = bucket % SUB_BUCKETS + SUB_BUCKETS;
+		return ((sub + 1) << shift) - 1;
+	}
+
+	/**
+	 * Returns a copy of this histogram.
+	 */
+	LatencyHistogram copy() {
+		LatencyHistogram copy = new LatencyHistogram();
+		System.arraycopy(counts, 0, copy.counts, 0, counts.length);
+		copy.count = count;
+		copy.max = max;
+		copy.min = min;
+		copy.total = total;
+		return copy;
+	}
+
+	/**
+	 * Returns the number of recorded durations.
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Returns the longest recorded duration, or zero if none was recorded.
+	 */
+	public long getMax() {
+		return max;
+	}
+
+	/**
+	 * Returns the average recorded duration, or zero if none was recorded.
+	 */
+	public double getMean() {
+		return count == 0 ? 0 : (double) total / count;
+	}
+
+	/**
+	 * Returns the shortest recorded duration, or zero if none was recorded.
+	 */
+	public long getMin() {
+		return count == 0 ? 0 : min;
+	}
+
+	/**
+	 * Returns the duration that the given percentage of the recorded durations
+	 * do not exceed, or zero if none was recorded. The result is the upper bound
+	 * of the bucket that contains the percentile, but never more than the
+	 * longest recorded duration.
+	 *
+	 * @param percent a percentage between 0 and 100
+	 */
+	public long getPercentile(double percent) {
+		if (percent < 0 || percent > 100)
+			throw new IllegalArgumentException(String.valueOf(percent));
+		if (count == 0)
+			return 0;
+		long rank = (long) Math.ceil(percent / 100 * count);
+		if (rank < 1)
+			rank = 1;
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= rank)
+				return Math.max(getMin(), Math.min(max, upperBound(i)));
+		}
+		return max;
+	}
+
+	/**
+	 * Records a duration.
+	 */
+	public void record(long duration) {
+		if (duration < 0)
+			duration = 0;
+		else if (duration > MAX_VALUE)
+			duration = MAX_VALUE;
+		counts[bucketFor(duration)]++;
+		count++;
+		total += duration;
+		if (duration > max)
+			max = duration;
+		if (duration < min)
+			min = duration;
+	}
+
+	public String toString() {
+		return "count=" + count + " min=" + getMin() + " mean=" + (long) getMean() + " p50=" + getPercentile(50) + " p90=" + getPercentile(90) + " p99=" + getPercentile(99) + " max=" + max; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$ //$NON-NLS-7$
+	}
+}
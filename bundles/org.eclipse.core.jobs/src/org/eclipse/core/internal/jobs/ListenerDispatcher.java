@@ -0,0 +1,167 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.jobs;
+
+import java.util.ArrayList;
+import org.eclipse.core.internal.jobs.JobListeners.IListenerDoit;
+import org.eclipse.core.runtime.jobs.IJobChangeEvent;
+
+/**
+ * Delivers job change events to the global job listeners in batches, on a thread
+ * of its own. Events are posted by the threads that schedule and run jobs, and are
+ * delivered in the order they were posted, so the events of a job are always
+ * delivered in order.
+ * <p>
+ * Posting an event only adds it to the pending batch under a short lock. The
+ * dispatcher swaps the pending batch with an empty one, and delivers the events
+ * of the batch without holding that lock. Events that must be delivered
+ * synchronously are delivered by the posting thread; if events of the same
+ * job are still pending, the posting thread first delivers the pending events
+ * itself, so that the job's events stay in order.
+ */
+class ListenerDispatcher extends Thread {
+	/**
+	 * The events waiting to be delivered. Each event takes three consecutive
+	 * entries: the notification to perform, the event, and the listeners to notify.
+	 * @GuardedBy("this")
+	 */
+	private ArrayList pending = new ArrayList();
+	/**
+	 * An empty list that replaces the pending events when they are delivered.
+	 * @GuardedBy("dispatchLock")
+	 */
+	private ArrayList spare = new ArrayList();
+	/**
+	 * Held while events are delivered, so that events are delivered one batch at
+	 * a time and in the order they were posted.
+	 */
+	private final Object dispatchLock = new Object();
+	/**
+	 * The number of events that have been posted.
+	 * @GuardedBy("this")
+	 */
+	private long posted;
+	/**
+	 * The number of events that have been delivered. Since events are delivered
+	 * in the order they were posted, the events up to this one have all been
+	 * delivered.
+	 * @GuardedBy("dispatchLock")
+	 */
+	private volatile long delivered;
+	/**
+	 * @GuardedBy("this")
+	 */
+	private boolean canceled;
+	private final JobListeners jobListeners;
+
+	ListenerDispatcher(JobListeners jobListeners) {
+		super("Worker-JL"); //$NON-NLS-1$
+		this.jobListeners = jobListeners;
+	}
+
+	/**
+	 * Ends this dispatcher once the events posted so far are delivered. Once
+	 * canceled, a dispatcher cannot be restarted.
+	 */
+	void cancel() {
+		synchronized (this) {
+			canceled = true;
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Delivers the given event now, after the events of the same job that were
+	 * posted before it. The events of the job that are still pending are
+	 * delivered in the calling thread, along with the events posted before them.
+	 */
+	void deliverNow(IListenerDoit doit, IJobChangeEvent event, Object[] listeners) {
+		InternalJob job = (InternalJob) event.getJob();
+		long last;
+		synchronized (this) {
+			last = job.getLastEvent();
+		}
+		if (delivered < last) {
+			synchronized (dispatchLock) {
+				if (delivered < last)
+					drain();
+			}
+		}
+		jobListeners.deliver(doit, event, listeners);
+	}
+
+	/**
+	 * Delivers the events posted so far.
+	 * @GuardedBy("dispatchLock")
+	 */
+	private void drain() {
+		ArrayList batch;
+		synchronized (this) {
+			if (pending.isEmpty())
+				return;
+			batch = pending;
+			pending = spare;
+		}
+		try {
+			for (int i = 0, size = batch.size(); i < size; i += 3) {
+				jobListeners.deliver((IListenerDoit) batch.get(i), (IJobChangeEvent) batch.get(i + 1), (Object[]) batch.get(i + 2));
+				delivered++;
+			}
+		} finally {
+			batch.clear();
+			spare = batch;
+		}
+	}
+
+	/**
+	 * Delivers the events that have been posted so far in the calling thread.
+	 */
+	void flush() {
+		synchronized (dispatchLock) {
+			drain();
+		}
+	}
+
+	/**
+	 * Posts an event to deliver to the given listeners. Returns <code>false</code>
+	 * if this dispatcher has been canceled, in which case the event must be
+	 * delivered by the caller.
+	 */
+	synchronized boolean post(IListenerDoit doit, IJobChangeEvent event, Object[] listeners) {
+		if (canceled)
+			return false;
+		pending.add(doit);
+		pending.add(event);
+		pending.add(listeners);
+		((InternalJob) event.getJob()).setLastEvent(++posted);
+		//the dispatcher only waits when there are no pending events
+		if (pending.size() == 3)
+			notify();
+		return true;
+	}
+
+	public void run() {
+		while (true) {
+			synchronized (this) {
+				while (pending.isEmpty() && !canceled) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						//loop
+					}
+				}
+				if (pending.isEmpty())
+					return;
+			}
+			flush();
+		}
+	}
+}
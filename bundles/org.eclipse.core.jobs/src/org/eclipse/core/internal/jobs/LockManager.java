@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2003, 2010 IBM Corporation and others.
+ *  Copyright (c) 2003, 2011 IBM Corporation and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
@@ -10,8 +10,7 @@
  *******************************************************************************/
 package org.eclipse.core.internal.jobs;
 
-import java.util.HashMap;
-import java.util.Stack;
+import java.util.*;
 import org.eclipse.core.internal.runtime.RuntimeLog;
 import org.eclipse.core.runtime.*;
 import org.eclipse.core.runtime.jobs.ISchedulingRule;
@@ -63,8 +62,21 @@ public class LockManager {
 		}
 	}
 
+	/**
+	 * The locks held by a thread. A lock is only recorded in the deadlock
+	 * detection graph once a thread waits for it, so this list is what tells
+	 * which locks a thread owns that no other thread is waiting for.
+	 */
+	static final class HeldLocks {
+		final ArrayList locks = new ArrayList(2);
+	}
+
 	//the lock listener for this lock manager
 	protected LockListener lockListener;
+	/*
+	 * The locks held by the current thread, created on first use.
+	 */
+	private final ThreadLocal heldLocks = new ThreadLocal();
 	/* 
 	 * The internal data structure that stores all the relationships 
 	 * between the locks (or rules) and the threads that own them.
@@ -77,9 +89,18 @@ public class LockManager {
 	 * it can cause deadlock, and some locks it owns can be suspended again)
 	 */
 	private HashMap suspendedLocks = new HashMap();
+	/*
+	 * The recorder of lock events, or null.
+	 */
+	private volatile FlightRecorder recorder;
 
 	public LockManager() {
+		this(null);
+	}
+
+	LockManager(FlightRecorder recorder) {
 		super();
+		this.recorder = recorder;
 	}
 
 	/* (non-Javadoc)
@@ -129,10 +150,34 @@ public class LockManager {
 		return false;
 	}
 
+	/**
+	 * The current thread has just become the owner of a lock. Returns the locks
+	 * held by the current thread, which must be passed to
+	 * {@link #removeHeldLock(HeldLocks, OrderedLock)} when the lock is released.
+	 */
+	HeldLocks addHeldLock(OrderedLock lock) {
+		FlightRecorder tempRecorder = recorder;
+		if (tempRecorder != null)
+			tempRecorder.record(FlightRecorder.LOCK_ACQUIRED, Thread.currentThread(), lock, null, 0);
+		HeldLocks held = (HeldLocks) heldLocks.get();
+		if (held == null) {
+			held = new HeldLocks();
+			heldLocks.set(held);
+		}
+		//a suspended lock is released by the thread that detected the deadlock
+		synchronized (held) {
+			held.locks.add(lock);
+		}
+		return held;
+	}
+
 	/**
 	 * This thread has just acquired a lock.  Update graph.
 	 */
 	void addLockThread(Thread thread, ISchedulingRule lock) {
+		FlightRecorder tempRecorder = recorder;
+		if (tempRecorder != null)
+			tempRecorder.record(FlightRecorder.RULE_ACQUIRED, thread, lock, null, 0);
 		DeadlockDetector tempLocks = locks;
 		if (tempLocks == null)
 			return;
@@ -149,9 +194,14 @@ public class LockManager {
 	 * This thread has just been refused a lock.  Update graph and check for deadlock.
 	 */
 	void addLockWaitThread(Thread thread, ISchedulingRule lock) {
+		FlightRecorder tempRecorder = recorder;
+		if (tempRecorder != null)
+			tempRecorder.record(FlightRecorder.RULE_WAITING, thread, lock, null, 0);
 		DeadlockDetector tempLocks = locks;
 		if (tempLocks == null)
 			return;
+		//all locks of a thread in a deadlock have to be in the graph, so that they can be suspended
+		recordHeldLocks();
 		try {
 			Deadlock found = null;
 			synchronized (tempLocks) {
@@ -172,6 +222,8 @@ public class LockManager {
 				prevLocks.push(suspended);
 				suspendedLocks.put(found.getCandidate(), prevLocks);
 			}
+			if (tempRecorder != null)
+				tempRecorder.deadlock(thread, lock, found.getCandidate(), toSuspend.length);
 		} catch (Exception e) {
 			handleInternalError(e);
 		}
@@ -223,9 +275,15 @@ public class LockManager {
 	public boolean isLockOwner() {
 		//all job threads have to be treated as lock owners because UI thread 
 		//may try to join a job
-		Thread current = Thread.currentThread();
-		if (current instanceof Worker)
+		if (WorkerTask.getCurrentWorker() != null)
 			return true;
+		HeldLocks held = (HeldLocks) heldLocks.get();
+		if (held != null) {
+			synchronized (held) {
+				if (!held.locks.isEmpty())
+					return true;
+			}
+		}
 		DeadlockDetector tempLocks = locks;
 		if (tempLocks == null)
 			return false;
@@ -245,6 +303,9 @@ public class LockManager {
 	 * Releases all the acquires that were called on the given rule. Needs to be called only once.
 	 */
 	void removeLockCompletely(Thread thread, ISchedulingRule rule) {
+		FlightRecorder tempRecorder = recorder;
+		if (tempRecorder != null)
+			tempRecorder.record(FlightRecorder.RULE_RELEASED, thread, rule, null, 1);
 		DeadlockDetector tempLocks = locks;
 		if (tempLocks == null)
 			return;
@@ -257,10 +318,43 @@ public class LockManager {
 		}
 	}
 
+	/**
+	 * Records the locks held by the current thread in the graph, before the
+	 * current thread starts waiting.
+	 */
+	private void recordHeldLocks() {
+		HeldLocks held = (HeldLocks) heldLocks.get();
+		if (held == null)
+			return;
+		Object[] toRecord;
+		synchronized (held) {
+			if (held.locks.isEmpty())
+				return;
+			toRecord = held.locks.toArray();
+		}
+		for (int i = 0; i < toRecord.length; i++)
+			((OrderedLock) toRecord[i]).recordOwner();
+	}
+
+	/**
+	 * The given lock is no longer owned by the thread that holds the given locks.
+	 */
+	void removeHeldLock(HeldLocks held, OrderedLock lock) {
+		FlightRecorder tempRecorder = recorder;
+		if (tempRecorder != null)
+			tempRecorder.record(FlightRecorder.LOCK_RELEASED, Thread.currentThread(), lock, null, 0);
+		synchronized (held) {
+			held.locks.remove(lock);
+		}
+	}
+
 	/**
 	 * This thread has just released a lock.  Update graph.
 	 */
 	void removeLockThread(Thread thread, ISchedulingRule lock) {
+		FlightRecorder tempRecorder = recorder;
+		if (tempRecorder != null)
+			tempRecorder.record(FlightRecorder.RULE_RELEASED, thread, lock, null, 0);
 		DeadlockDetector tempLocks = locks;
 		if (tempLocks == null)
 			return;
@@ -308,6 +402,10 @@ public class LockManager {
 			toResume[i].resume();
 	}
 
+	void setFlightRecorder(FlightRecorder recorder) {
+		this.recorder = recorder;
+	}
+
 	public void setLockListener(LockListener listener) {
 		this.lockListener = listener;
 	}
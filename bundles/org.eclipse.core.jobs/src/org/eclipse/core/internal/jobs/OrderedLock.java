@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2003, 2010 IBM Corporation and others.
+ * Copyright (c) 2003, 2011 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -32,6 +32,12 @@ import org.eclipse.core.runtime.jobs.ISchedulingRule;
  * lock in the same order in which acquire() requests arrive. In
  * this scheme, starvation is only possible if a thread retains
  * a lock indefinitely.
+ * 
+ * A deadlock needs threads that wait, so the ownership of a lock is only
+ * recorded in the deadlock detection graph once another thread has to wait
+ * for the lock, or the owner itself has to wait for a lock or rule. Acquiring
+ * and releasing a lock that no thread is waiting for only synchronizes on the
+ * lock itself, not on the shared graph.
  */
 public class OrderedLock implements ILock, ISchedulingRule {
 
@@ -55,6 +61,16 @@ public class OrderedLock implements ILock, ISchedulingRule {
 	 */
 	private final LockManager manager;
 	private final int number;
+	/**
+	 * The locks held by the owner thread, or null if the lock is not owned.
+	 */
+	private LockManager.HeldLocks ownerLocks;
+	/**
+	 * Whether the acquires of the current owner are recorded in the deadlock
+	 * detection graph. They are recorded as soon as a thread waits for this
+	 * lock or the owner waits for another lock, and until the owner releases it.
+	 */
+	private boolean recorded;
 
 	/**
 	 * Queue of semaphores for threads currently waiting
@@ -123,10 +139,17 @@ public class OrderedLock implements ILock, ISchedulingRule {
 	 */
 	private synchronized boolean attempt() {
 		//return true if we already own the lock
+		Thread current = Thread.currentThread();
+		if (currentOperationThread == current) {
+			depth++;
+			if (recorded)
+				manager.addLockThread(current, this);
+			return true;
+		}
 		//also, if nobody is waiting, grant the lock immediately
-		if ((currentOperationThread == Thread.currentThread()) || (currentOperationThread == null && operations.isEmpty())) {
+		if (currentOperationThread == null && operations.isEmpty()) {
 			depth++;
-			setCurrentOperationThread(Thread.currentThread());
+			setCurrentOperationThread(current);
 			return true;
 		}
 		return false;
@@ -157,11 +180,7 @@ public class OrderedLock implements ILock, ISchedulingRule {
 		//notify hook to service pending syncExecs before falling asleep
 		if (manager.aboutToWait(this.currentOperationThread)) {
 			//hook granted immediate access
-			//remove semaphore for the lock request from the queue
-			//do not log in graph because this thread did not really get the lock
-			removeFromQueue(semaphore);
-			depth++;
-			manager.addLockThread(currentOperationThread, this);
+			grantToHook(semaphore);
 			return true;
 		}
 		//Make sure the semaphore is in the queue before we start waiting
@@ -202,6 +221,8 @@ public class OrderedLock implements ILock, ISchedulingRule {
 	 * queue, the other is returned and the new one is not added.
 	 */
 	private synchronized Semaphore enqueue(Semaphore newSemaphore) {
+		//the owner must be in the graph before the new thread waits for it
+		recordOwner();
 		Semaphore semaphore = (Semaphore) operations.get(newSemaphore);
 		if (semaphore == null) {
 			operations.enqueue(newSemaphore);
@@ -220,6 +241,19 @@ public class OrderedLock implements ILock, ISchedulingRule {
 		return oldDepth;
 	}
 
+	/**
+	 * The lock listener has allowed the current thread to run on behalf of the
+	 * owner of this lock, without waiting for the lock.
+	 */
+	private synchronized void grantToHook(Semaphore semaphore) {
+		//remove semaphore for the lock request from the queue
+		//do not log in graph because this thread did not really get the lock
+		removeFromQueue(semaphore);
+		depth++;
+		if (recorded)
+			manager.addLockThread(currentOperationThread, this);
+	}
+
 	/* (non-Javadoc)
 	 * @see Locks.ILock#getDepth()
 	 */
@@ -237,17 +271,29 @@ public class OrderedLock implements ILock, ISchedulingRule {
 	/* (non-Javadoc)
 	 * @see Locks.ILock#release()
 	 */
-	public void release() {
+	public synchronized void release() {
 		if (depth == 0)
 			return;
 		//only release the lock when the depth reaches zero
 		Assert.isTrue(depth >= 0, "Lock released too many times"); //$NON-NLS-1$
 		if (--depth == 0)
 			doRelease();
-		else
+		else if (recorded)
 			manager.removeLockThread(currentOperationThread, this);
 	}
 
+	/**
+	 * Records the acquires of the owner of this lock in the deadlock detection
+	 * graph, if they are not recorded yet.
+	 */
+	synchronized void recordOwner() {
+		if (recorded || currentOperationThread == null)
+			return;
+		recorded = true;
+		for (int i = 0; i < depth; i++)
+			manager.addLockThread(currentOperationThread, this);
+	}
+
 	/**
 	 * Removes a semaphore from the queue of waiting operations.
 	 * 
@@ -262,20 +308,28 @@ public class OrderedLock implements ILock, ISchedulingRule {
 	 * If newThread is not null, grant this lock to newThread.
 	 */
 	private void setCurrentOperationThread(Thread newThread) {
-		if ((currentOperationThread != null) && (newThread == null))
-			manager.removeLockThread(currentOperationThread, this);
+		if ((currentOperationThread != null) && (newThread == null)) {
+			if (recorded)
+				manager.removeLockThread(currentOperationThread, this);
+			manager.removeHeldLock(ownerLocks, this);
+			ownerLocks = null;
+		}
 		this.currentOperationThread = newThread;
+		recorded = false;
+		//the new owner is always the current thread
 		if (currentOperationThread != null)
-			manager.addLockThread(currentOperationThread, this);
+			ownerLocks = manager.addHeldLock(this);
 	}
 
 	/**
 	 * Forces the lock to be at the given depth.
 	 * Used when re-acquiring a suspended lock.
 	 */
-	protected void setDepth(int newDepth) {
-		for (int i = depth; i < newDepth; i++) {
-			manager.addLockThread(currentOperationThread, this);
+	protected synchronized void setDepth(int newDepth) {
+		if (recorded) {
+			for (int i = depth; i < newDepth; i++) {
+				manager.addLockThread(currentOperationThread, this);
+			}
 		}
 		this.depth = newDepth;
 	}
@@ -294,6 +348,11 @@ public class OrderedLock implements ILock, ISchedulingRule {
 	private synchronized void updateCurrentOperation() {
 		operations.dequeue();
 		setCurrentOperationThread(Thread.currentThread());
+		//the threads still waiting for the lock now wait for this thread
+		if (operations.isEmpty())
+			manager.removeLockWaitThread(currentOperationThread, this);
+		else
+			recordOwner();
 	}
 
 	/**
@@ -0,0 +1,190 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.jobs;
+
+import org.eclipse.core.runtime.jobs.IJobManager;
+
+/**
+ * The limit on the number of pending jobs of a family, or of all jobs, with
+ * the number of jobs that are pending and the number of schedule requests
+ * that were held back by the limit. A job is pending from the time it is
+ * scheduled until it starts running, that is while it is sleeping, waiting
+ * or blocked.
+ * <p>
+ * The job manager updates its limits while holding its lock, and hands out
+ * copies.
+ *
+ * @see IJobManager#setQueueLimit(Object, int, int)
+ */
+public final class QueueLimit {
+	private long blocked = 0;
+	private long coalesced = 0;
+	private int depth = 0;
+	private long dropped = 0;
+	private final Object family;
+	/**
+	 * The maximum number of pending jobs, or zero if there is no limit.
+	 */
+	private int limit = 0;
+	private int peakDepth = 0;
+	private int policy = IJobManager.OVERFLOW_BLOCK;
+	private long rejected = 0;
+
+	/**
+	 * Creates a new limit on the jobs of the given family, or on all jobs if
+	 * the family is <code>null</code>, which does not limit the jobs yet.
+	 */
+	QueueLimit(Object family) {
+		this.family = family;
+	}
+
+	/**
+	 * Returns the overflow policy with the given name, as used by the
+	 * {@link IJobManager#PROP_QUEUE_POLICY} property. Returns the policy to
+	 * block if the name is <code>null</code> or unknown.
+	 */
+	static int parsePolicy(String name) {
+		if ("reject".equals(name)) //$NON-NLS-1$
+			return IJobManager.OVERFLOW_REJECT;
+		if ("dropOldest".equals(name)) //$NON-NLS-1$
+			return IJobManager.OVERFLOW_DROP_OLDEST;
+		if ("coalesce".equals(name)) //$NON-NLS-1$
+			return IJobManager.OVERFLOW_COALESCE;
+		return IJobManager.OVERFLOW_BLOCK;
+	}
+
+	/**
+	 * Records that the number of pending jobs changed by the given amount.
+	 */
+	void addDepth(int delta) {
+		depth += delta;
+		if (depth > peakDepth)
+			peakDepth = depth;
+	}
+
+	/**
+	 * Returns a copy of this limit.
+	 */
+	QueueLimit copy() {
+		QueueLimit copy = new QueueLimit(family);
+		copy.blocked = blocked;
+		copy.coalesced = coalesced;
+		copy.depth = depth;
+		copy.dropped = dropped;
+		copy.limit = limit;
+		copy.peakDepth = peakDepth;
+		copy.policy = policy;
+		copy.rejected = rejected;
+		return copy;
+	}
+
+	/**
+	 * Returns the number of times a thread waited for a pending job to start.
+	 */
+	public long getBlockedCount() {
+		return blocked;
+	}
+
+	/**
+	 * Returns the number of jobs that were merged into a pending job of the
+	 * same class instead of being scheduled.
+	 */
+	public long getCoalescedCount() {
+		return coalesced;
+	}
+
+	/**
+	 * Returns the number of pending jobs.
+	 */
+	public int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * Returns the number of pending jobs that were canceled to make room for
+	 * newer jobs.
+	 */
+	public long getDroppedCount() {
+		return dropped;
+	}
+
+	/**
+	 * Returns the family whose jobs are limited, or <code>null</code> if all
+	 * jobs are.
+	 */
+	public Object getFamily() {
+		return family;
+	}
+
+	/**
+	 * Returns the maximum number of pending jobs, or zero if there is no limit.
+	 */
+	public int getLimit() {
+		return limit;
+	}
+
+	/**
+	 * Returns the largest number of jobs that were pending at the same time.
+	 */
+	public int getPeakDepth() {
+		return peakDepth;
+	}
+
+	/**
+	 * Returns what is done when a job is scheduled while the limit is reached.
+	 */
+	public int getPolicy() {
+		return policy;
+	}
+
+	/**
+	 * Returns the number of jobs that were not scheduled because the limit
+	 * was reached.
+	 */
+	public long getRejectedCount() {
+		return rejected;
+	}
+
+	/**
+	 * Returns whether the number of pending jobs has reached the limit.
+	 */
+	boolean isFull() {
+		return limit > 0 && depth >= limit;
+	}
+
+	void recordBlocked() {
+		blocked++;
+	}
+
+	void recordCoalesced() {
+		coalesced++;
+	}
+
+	void recordDropped() {
+		dropped++;
+	}
+
+	void recordRejected() {
+		rejected++;
+	}
+
+	/**
+	 * Changes the maximum number of pending jobs and the policy.
+	 */
+	void setLimit(int limit, int policy) {
+		this.limit = limit;
+		this.policy = policy;
+	}
+
+	public String toString() {
+		return "QueueLimit(" + (family == null ? "all jobs" : family.toString()) + ", depth: " + depth + '/' + limit + ", peak: " + peakDepth + ", blocked: " + blocked + ", rejected: " + rejected + ", dropped: " + dropped + ", coalesced: " + coalesced + ')'; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$ //$NON-NLS-7$ //$NON-NLS-8$
+	}
+}
@@ -0,0 +1,230 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM - Initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.jobs;
+
+import java.util.*;
+import org.eclipse.core.runtime.jobs.*;
+
+/**
+ * An index of jobs by scheduling rule, used to find a job whose rule conflicts
+ * with the rule of another job without comparing it against every indexed job.
+ * <p>
+ * Jobs whose rules implement {@link IHierarchicalRule} are grouped by the root
+ * of their rule, and only jobs with the same root (and jobs with opaque rules)
+ * are candidates for a conflict. A {@link MultiRule} is grouped under the roots
+ * of all of its children. All other rules are opaque, and are compared against
+ * every indexed job. Candidates are always confirmed with
+ * {@link InternalJob#isConflicting(InternalJob)}, so the index never changes
+ * the outcome of a conflict check, only the number of rules that are compared.
+ * <p>
+ * Only rules that implement {@link IHierarchicalRule} benefit from the index.
+ * Clients whose rules do not implement it get no speed-up: a job with an
+ * opaque rule is compared against every indexed job, and every job with an
+ * opaque rule is compared against the rule of every job that is looked up,
+ * just as without the index.
+ * <p>
+ * Jobs without a scheduling rule are never indexed.
+ * @GuardedBy("JobManager.lock")
+ */
+class RuleIndex {
+	/**
+	 * Maps the root of a hierarchical rule to the set of indexed jobs
+	 * whose rule has that root.
+	 */
+	private final HashMap roots = new HashMap();
+	/**
+	 * Indexed jobs whose rule is opaque.
+	 */
+	private final HashSet opaque = new HashSet();
+	/**
+	 * The number of indexed jobs.
+	 */
+	private int size = 0;
+
+	/**
+	 * Returns the roots of the given rule, or <code>null</code> if the rule
+	 * may conflict with rules in any hierarchy.
+	 */
+	private static Object[] rootsOf(ISchedulingRule rule) {
+		//use the exact type, because subclasses may redefine conflicts
+		if (rule.getClass() == MultiRule.class) {
+			ISchedulingRule[] children = ((MultiRule) rule).getChildren();
+			//an empty multi-rule only conflicts with itself
+			if (children.length == 0)
+				return null;
+			Object[] result = new Object[children.length];
+			for (int i = 0; i < children.length; i++) {
+				if (!(children[i] instanceof IHierarchicalRule))
+					return null;
+				result[i] = ((IHierarchicalRule) children[i]).getRuleRoot();
+				if (result[i] == null)
+					return null;
+			}
+			return result;
+		}
+		if (!(rule instanceof IHierarchicalRule))
+			return null;
+		Object root = ((IHierarchicalRule) rule).getRuleRoot();
+		return root == null ? null : new Object[] {root};
+	}
+
+	/**
+	 * Adds a job to the index. Has no effect if the job has no rule.
+	 */
+	void add(InternalJob job) {
+		ISchedulingRule rule = job.getRule();
+		if (rule == null)
+			return;
+		size++;
+		Object[] ruleRoots = rootsOf(rule);
+		if (ruleRoots == null) {
+			opaque.add(job);
+			return;
+		}
+		for (int i = 0; i < ruleRoots.length; i++) {
+			Set jobs = (Set) roots.get(ruleRoots[i]);
+			if (jobs == null) {
+				jobs = new HashSet(4);
+				roots.put(ruleRoots[i], jobs);
+			}
+			jobs.add(job);
+		}
+	}
+
+	/**
+	 * Adds the indexed jobs whose rules conflict with the rule of the given job
+	 * to the given list.
+	 */
+	void addConflicting(InternalJob job, List result) {
+		ISchedulingRule rule = job.getRule();
+		if (rule == null || size == 0)
+			return;
+		addConflicting(job, opaque, result, null);
+		Object[] ruleRoots = rootsOf(rule);
+		int count = ruleRoots == null ? roots.size() : ruleRoots.length;
+		//a multi-rule is indexed under each of its roots, so it may be found in more than one set
+		Map seen = count > 1 ? new IdentityHashMap() : null;
+		if (ruleRoots == null) {
+			//an opaque rule must be compared against all indexed jobs
+			for (Iterator it = roots.values().iterator(); it.hasNext();)
+				addConflicting(job, (Set) it.next(), result, seen);
+			return;
+		}
+		for (int i = 0; i < ruleRoots.length; i++) {
+			Set jobs = (Set) roots.get(ruleRoots[i]);
+			if (jobs != null)
+				addConflicting(job, jobs, result, seen);
+		}
+	}
+
+	/**
+	 * Adds the jobs from the given set whose rules conflict with the rule of
+	 * the given job to the given list. If a map of the jobs that were found
+	 * already is given, jobs in the map are skipped, and added jobs are put
+	 * into it.
+	 */
+	private void addConflicting(InternalJob job, Set jobs, List result, Map seen) {
+		for (Iterator it = jobs.iterator(); it.hasNext();) {
+			InternalJob candidate = (InternalJob) it.next();
+			if (job.isConflicting(candidate) && (seen == null || seen.put(candidate, candidate) == null))
+				result.add(candidate);
+		}
+	}
+
+	/**
+	 * Removes all jobs from the index.
+	 */
+	void clear() {
+		roots.clear();
+		opaque.clear();
+		size = 0;
+	}
+
+	/**
+	 * Returns an indexed job whose rule conflicts with the rule of the given job,
+	 * or <code>null</code> if there is no such job.
+	 */
+	InternalJob findConflicting(InternalJob job) {
+		ISchedulingRule rule = job.getRule();
+		if (rule == null || size == 0)
+			return null;
+		InternalJob conflicting = findConflicting(job, opaque);
+		if (conflicting != null)
+			return conflicting;
+		Object[] ruleRoots = rootsOf(rule);
+		if (ruleRoots == null) {
+			//an opaque rule must be compared against all indexed jobs
+			for (Iterator it = roots.values().iterator(); it.hasNext();) {
+				conflicting = findConflicting(job, (Set) it.next());
+				if (conflicting != null)
+					return conflicting;
+			}
+			return null;
+		}
+		for (int i = 0; i < ruleRoots.length; i++) {
+			Set jobs = (Set) roots.get(ruleRoots[i]);
+			if (jobs != null) {
+				conflicting = findConflicting(job, jobs);
+				if (conflicting != null)
+					return conflicting;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns a job from the given set whose rule conflicts with the rule
+	 * of the given job, or <code>null</code> if there is no such job.
+	 */
+	private InternalJob findConflicting(InternalJob job, Set jobs) {
+		if (jobs.isEmpty())
+			return null;
+		for (Iterator it = jobs.iterator(); it.hasNext();) {
+			InternalJob candidate = (InternalJob) it.next();
+			if (job.isConflicting(candidate))
+				return candidate;
+		}
+		return null;
+	}
+
+	/**
+	 * Returns whether the index is empty.
+	 */
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Removes a job from the index. Has no effect if the job has no rule.
+	 */
+	void remove(InternalJob job) {
+		ISchedulingRule rule = job.getRule();
+		if (rule == null)
+			return;
+		Object[] ruleRoots = rootsOf(rule);
+		if (ruleRoots == null) {
+			if (opaque.remove(job))
+				size--;
+			return;
+		}
+		boolean removed = false;
+		for (int i = 0; i < ruleRoots.length; i++) {
+			Set jobs = (Set) roots.get(ruleRoots[i]);
+			if (jobs != null && jobs.remove(job)) {
+				removed = true;
+				if (jobs.isEmpty())
+					roots.remove(ruleRoots[i]);
+			}
+		}
+		if (removed)
+			size--;
+	}
+}
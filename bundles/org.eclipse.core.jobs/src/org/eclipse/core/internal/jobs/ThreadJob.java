@@ -54,13 +54,13 @@ class ThreadJob extends Job {
 	protected Job realJob;
 	/**
 	 * The stack of rules that have been begun in this thread, but not yet ended.
-	 * 	@GuardedBy("JobManager.implicitJobs")
+	 * Only accessed by the thread that owns this job.
 	 */
 	private ISchedulingRule[] ruleStack;
 	/**
 	 * Rule stack pointer.
 	 * INV: 0 <= top <= ruleStack.length
-	 * @GuardedBy("JobManager.implicitJobs")
+	 * Only accessed by the thread that owns this job.
 	 */
 	private int top;
 
@@ -91,7 +91,7 @@ class ThreadJob extends Job {
 	 * An endRule was called that did not match the last beginRule in
 	 * the stack.  Report and log a detailed informational message.
 	 * @param rule The rule that was popped
-	 * @GuardedBy("JobManager.implicitJobs")
+	 * Only called by the thread that owns this job.
 	 */
 	private void illegalPop(ISchedulingRule rule) {
 		StringBuffer buf = new StringBuffer("Attempted to endRule: "); //$NON-NLS-1$
@@ -303,7 +303,7 @@ class ThreadJob extends Job {
 	/**
 	 * Pops a rule. Returns true if it was the last rule for this thread
 	 * job, and false otherwise.
-	 * 	@GuardedBy("JobManager.implicitJobs")
+	 * Only called by the thread that owns this job.
 	 */
 	boolean pop(ISchedulingRule rule) {
 		if (top < 0 || ruleStack[top] != rule)
@@ -316,7 +316,7 @@ class ThreadJob extends Job {
 	 * Adds a new scheduling rule to the stack of rules for this thread. Throws
 	 * a runtime exception if the new rule is not compatible with the base
 	 * scheduling rule for this thread.
-	 * 	@GuardedBy("JobManager.implicitJobs")
+	 * Only called by the thread that owns this job.
 	 */
 	void push(final ISchedulingRule rule) {
 		final ISchedulingRule baseRule = getRule();
@@ -329,7 +329,7 @@ class ThreadJob extends Job {
 		if (JobManager.DEBUG_BEGIN_END)
 			lastPush = (RuntimeException) new RuntimeException().fillInStackTrace();
 		//check for containment last because we don't want to fail again on endRule
-		if (baseRule != null && rule != null && !baseRule.contains(rule))
+		if (baseRule != null && rule != null && !InternalJob.contains(baseRule, rule))
 			illegalPush(rule, baseRule);
 	}
 
@@ -0,0 +1,189 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.jobs;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.ProgressMonitorWrapper;
+
+/**
+ * A progress monitor that passes work and subtasks on to the monitor it wraps
+ * at a bounded rate, so that a job can report every item it processes even if
+ * updating the wrapped monitor is costly.
+ * <p>
+ * Work and subtasks are accumulated, and passed on when the given interval
+ * has passed since the last update, or when the accumulated work reaches one
+ * percent of the total work of the task. Beginning a task, changing its name
+ * and being done pass on the accumulated updates first. Whether the monitor is
+ * canceled is kept in a volatile field, which is set by {@link #setCanceled(boolean)},
+ * whenever updates are passed on, and by {@link #isCanceled()} once the interval
+ * has passed since the wrapped monitor was last asked. A job that only polls
+ * {@link #isCanceled()} therefore sees the wrapped monitor being canceled
+ * within the interval, without calling it every time.
+ * <p>
+ * Like other progress monitors, the reporting methods must be called by one
+ * thread at a time. Canceling may be done by any thread, and does not touch
+ * the accumulated updates.
+ *
+ * @see org.eclipse.core.runtime.jobs.IJobManager#PROP_PROGRESS_INTERVAL
+ */
+public final class ThrottledProgressMonitor extends ProgressMonitorWrapper {
+	/**
+	 * The largest number of updates of the work done that are passed on for
+	 * a task with known total work, not counting the updates of the interval.
+	 */
+	private static final int STEPS = 100;
+
+	private volatile boolean canceled;
+	/**
+	 * The time the wrapped monitor was last asked whether it is canceled.
+	 */
+	private volatile long lastCancelCheck;
+	private final long interval;
+	private long lastUpdate;
+	/**
+	 * The work reported by {@link #internalWorked(double)} that was not passed on yet.
+	 */
+	private double pendingInternal = 0;
+	/**
+	 * The latest subtask that was not passed on yet, or <code>null</code>.
+	 */
+	private String pendingSubTask = null;
+	/**
+	 * The work reported by {@link #worked(int)} that was not passed on yet.
+	 */
+	private int pendingWork = 0;
+	/**
+	 * The accumulated work that is passed on regardless of the interval.
+	 */
+	private double step = Double.POSITIVE_INFINITY;
+
+	/**
+	 * Creates a new monitor that passes updates on to the given monitor at
+	 * most once per the given number of milliseconds.
+	 */
+	public ThrottledProgressMonitor(IProgressMonitor monitor, long interval) {
+		super(monitor);
+		this.interval = interval;
+		this.canceled = monitor.isCanceled();
+		this.lastUpdate = System.currentTimeMillis();
+		this.lastCancelCheck = lastUpdate;
+	}
+
+	/* (non-Javadoc)
+	 * @see IProgressMonitor#beginTask(String, int)
+	 */
+	public void beginTask(String name, int totalWork) {
+		update();
+		step = totalWork > 0 ? (double) totalWork / STEPS : Double.POSITIVE_INFINITY;
+		super.beginTask(name, totalWork);
+	}
+
+	/* (non-Javadoc)
+	 * @see IProgressMonitor#done()
+	 */
+	public void done() {
+		update();
+		super.done();
+	}
+
+	/* (non-Javadoc)
+	 * @see IProgressMonitor#internalWorked(double)
+	 */
+	public void internalWorked(double work) {
+		pendingInternal += work;
+		updateIfDue();
+	}
+
+	/* (non-Javadoc)
+	 * @see IProgressMonitor#isCanceled()
+	 */
+	public boolean isCanceled() {
+		if (canceled)
+			return true;
+		long now = System.currentTimeMillis();
+		if (now - lastCancelCheck >= interval) {
+			lastCancelCheck = now;
+			if (getWrappedProgressMonitor().isCanceled())
+				canceled = true;
+		}
+		return canceled;
+	}
+
+	/* (non-Javadoc)
+	 * @see IProgressMonitor#setCanceled(boolean)
+	 */
+	public void setCanceled(boolean value) {
+		super.setCanceled(value);
+		canceled = value;
+	}
+
+	/* (non-Javadoc)
+	 * @see IProgressMonitor#setTaskName(String)
+	 */
+	public void setTaskName(String name) {
+		update();
+		super.setTaskName(name);
+	}
+
+	/* (non-Javadoc)
+	 * @see IProgressMonitor#subTask(String)
+	 */
+	public void subTask(String name) {
+		pendingSubTask = name;
+		updateIfDue();
+	}
+
+	/**
+	 * Passes the accumulated updates on to the wrapped monitor, and picks up
+	 * whether the wrapped monitor was canceled.
+	 */
+	private void update() {
+		lastUpdate = System.currentTimeMillis();
+		IProgressMonitor monitor = getWrappedProgressMonitor();
+		if (pendingSubTask != null) {
+			String name = pendingSubTask;
+			pendingSubTask = null;
+			monitor.subTask(name);
+		}
+		if (pendingWork > 0) {
+			int work = pendingWork;
+			pendingWork = 0;
+			monitor.worked(work);
+		}
+		if (pendingInternal > 0) {
+			double work = pendingInternal;
+			pendingInternal = 0;
+			monitor.internalWorked(work);
+		}
+		if (!canceled) {
+			lastCancelCheck = lastUpdate;
+			if (monitor.isCanceled())
+				canceled = true;
+		}
+	}
+
+	/**
+	 * Passes the accumulated updates on if they add up to a step of the task,
+	 * or if the interval has passed since the last update.
+	 */
+	private void updateIfDue() {
+		if (pendingWork + pendingInternal >= step || System.currentTimeMillis() - lastUpdate >= interval)
+			update();
+	}
+
+	/* (non-Javadoc)
+	 * @see IProgressMonitor#worked(int)
+	 */
+	public void worked(int work) {
+		pendingWork += work;
+		updateIfDue();
+	}
+}
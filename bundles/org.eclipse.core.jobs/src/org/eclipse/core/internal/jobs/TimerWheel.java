@@ -0,0 +1,348 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.jobs;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import org.eclipse.core.runtime.Assert;
+
+/**
+ * A hierarchical timer wheel that holds sleeping jobs until their start time.
+ * <p>
+ * Time is divided into ticks. The wheel has several levels of slots, where a
+ * slot in the lowest level covers a single tick, and a slot in each higher level
+ * covers all the slots of the level below it. A job is added to the slot of the
+ * lowest level that can hold its start time. When the wheel reaches the first
+ * tick of a slot in a higher level, the jobs in that slot are moved down to the
+ * lower levels (cascaded). When the wheel passes a slot of the lowest level, the
+ * jobs in that slot have expired and are moved to the expired list. Adding and
+ * removing a job takes constant time, and since a job is cascaded at most once
+ * per level, expiring jobs takes amortized constant time.
+ * <p>
+ * A job expires on the first tick after its start time, so it may wake up to
+ * one tick later than requested. Jobs that sleep indefinitely never expire and
+ * are kept in a separate list. Jobs that start beyond the range of the wheel are
+ * kept in an overflow list that is cascaded whenever the top level completes a
+ * revolution.
+ * <p>
+ * The jobs in each list are linked in insertion order through their next and
+ * previous entries, and the index of the list a job belongs to is stored as its
+ * queue index.
+ */
+final class TimerWheel {
+	/**
+	 * The duration of a tick, in milliseconds.
+	 */
+	static final long TICK_MILLIS = 10;
+
+	private static final int BITS = 6;
+	private static final int SLOTS = 1 << BITS;
+	private static final int MASK = SLOTS - 1;
+	private static final int LEVELS = 4;
+
+	/**
+	 * List indices of the lists that are not slots of the wheel.
+	 */
+	private static final int EXPIRED = LEVELS * SLOTS;
+	private static final int INFINITE = EXPIRED + 1;
+	private static final int OVERFLOW = EXPIRED + 2;
+
+	/**
+	 * The oldest and newest job in each list. The slot lists of level n are
+	 * at indices n * SLOTS to (n + 1) * SLOTS - 1.
+	 */
+	private final InternalJob[] heads = new InternalJob[OVERFLOW + 1];
+	private final InternalJob[] tails = new InternalJob[OVERFLOW + 1];
+
+	/**
+	 * The number of jobs in each level of the wheel. The overflow list
+	 * is counted as level LEVELS.
+	 */
+	private final int[] levelCounts = new int[LEVELS + 1];
+
+	/**
+	 * The first tick that has not been passed yet. All jobs that start
+	 * before this tick have expired.
+	 */
+	private long currentTick;
+
+	/**
+	 * The number of jobs in all lists.
+	 */
+	private int size = 0;
+
+	/**
+	 * A time at or before which the next job will expire, or T_INFINITE if no job
+	 * will expire.
+	 */
+	private long wakeTime = InternalJob.T_INFINITE;
+
+	TimerWheel() {
+		currentTick = tickOf(System.currentTimeMillis());
+	}
+
+	private static long tickOf(long time) {
+		return time / TICK_MILLIS;
+	}
+
+	/**
+	 * Adds a job to the end of the given list.
+	 */
+	private void add(InternalJob job, int list) {
+		job.setQueueIndex(list);
+		InternalJob tail = tails[list];
+		if (tail == null) {
+			heads[list] = job;
+		} else {
+			tail.setPrevious(job);
+			job.setNext(tail);
+		}
+		tails[list] = job;
+	}
+
+	/**
+	 * Moves the jobs in the given list of the given level back into the wheel.
+	 */
+	private void cascade(int list, int level) {
+		InternalJob job = heads[list];
+		heads[list] = tails[list] = null;
+		while (job != null) {
+			InternalJob behind = job.previous();
+			job.setNext(null);
+			job.setPrevious(null);
+			levelCounts[level]--;
+			insert(job, tickOf(job.getStartTime()));
+			job = behind;
+		}
+	}
+
+	/**
+	 * Removes all jobs.
+	 */
+	void clear() {
+		for (int list = 0; list < heads.length; list++) {
+			InternalJob job = heads[list];
+			while (job != null) {
+				InternalJob behind = job.previous();
+				job.setNext(null);
+				job.setPrevious(null);
+				job.setQueueIndex(-1);
+				job = behind;
+			}
+			heads[list] = tails[list] = null;
+		}
+		for (int level = 0; level < levelCounts.length; level++)
+			levelCounts[level] = 0;
+		size = 0;
+		wakeTime = InternalJob.T_INFINITE;
+	}
+
+	/**
+	 * Adds a job to the wheel, to expire after its start time.
+	 */
+	void enqueue(InternalJob job) {
+		//assert new entry is does not already belong to some other data structure
+		Assert.isTrue(job.next() == null);
+		Assert.isTrue(job.previous() == null);
+		Assert.isTrue(job.getQueueIndex() == -1);
+		size++;
+		long startTime = job.getStartTime();
+		if (startTime == InternalJob.T_INFINITE) {
+			add(job, INFINITE);
+			return;
+		}
+		wakeTime = Math.min(wakeTime, insert(job, tickOf(startTime)));
+	}
+
+	/**
+	 * Moves the jobs in the slot of the lowest level at the current tick to
+	 * the expired list.
+	 */
+	private void expire() {
+		int list = (int) (currentTick & MASK);
+		InternalJob head = heads[list];
+		if (head == null)
+			return;
+		for (InternalJob job = head; job != null; job = job.previous()) {
+			job.setQueueIndex(EXPIRED);
+			levelCounts[0]--;
+		}
+		if (tails[EXPIRED] == null) {
+			heads[EXPIRED] = head;
+		} else {
+			tails[EXPIRED].setPrevious(head);
+			head.setNext(tails[EXPIRED]);
+		}
+		tails[EXPIRED] = tails[list];
+		heads[list] = tails[list] = null;
+	}
+
+	/**
+	 * Adds a job that starts at the given tick to the appropriate list. Returns
+	 * a time at or before which the job will have expired or been cascaded.
+	 */
+	private long insert(InternalJob job, long tick) {
+		long delta = tick - currentTick;
+		if (delta < 0) {
+			add(job, EXPIRED);
+			return currentTick * TICK_MILLIS;
+		}
+		for (int level = 0; level < LEVELS; level++) {
+			int shift = BITS * level;
+			if (delta < (1L << (shift + BITS))) {
+				add(job, level * SLOTS + (int) ((tick >>> shift) & MASK));
+				levelCounts[level]++;
+				//the job is handled once the wheel has passed the first tick of its slot
+				return (((tick >>> shift) << shift) + 1) * TICK_MILLIS;
+			}
+		}
+		add(job, OVERFLOW);
+		levelCounts[LEVELS]++;
+		int shift = BITS * LEVELS;
+		return ((((currentTick >>> shift) + 1) << shift) + 1) * TICK_MILLIS;
+	}
+
+	/**
+	 * Returns whether there are no jobs in the wheel.
+	 */
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Returns an iterator over all jobs in the wheel, in no particular order.
+	 */
+	Iterator iterator() {
+		return new Iterator() {
+			private int list = -1;
+			private InternalJob next = null;
+
+			public boolean hasNext() {
+				while (next == null && ++list < heads.length)
+					next = heads[list];
+				return next != null;
+			}
+
+			public Object next() {
+				if (!hasNext())
+					throw new NoSuchElementException();
+				InternalJob result = next;
+				next = next.previous();
+				return result;
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/**
+	 * Returns a time at or before which the next job will expire, or
+	 * T_INFINITE if there are no jobs that will expire.
+	 */
+	long nextWakeTime() {
+		return wakeTime;
+	}
+
+	/**
+	 * Returns the oldest job whose start time has passed at the given time,
+	 * without removing it. Returns <code>null</code> if there is no such job.
+	 */
+	InternalJob peekExpired(long now) {
+		long tick = tickOf(now);
+		while (currentTick < tick) {
+			if ((currentTick & MASK) == 0)
+				startSlots();
+			int level = 0;
+			while (level <= LEVELS && levelCounts[level] == 0)
+				level++;
+			if (level == 0) {
+				expire();
+				currentTick++;
+			} else if (level > LEVELS) {
+				//nothing left to expire or cascade
+				currentTick = tick;
+			} else {
+				//skip to the next tick where the lowest occupied level has a slot to cascade
+				int shift = BITS * level;
+				currentTick = Math.min(((currentTick >>> shift) + 1) << shift, tick);
+			}
+		}
+		updateWakeTime();
+		return heads[EXPIRED];
+	}
+
+	/**
+	 * Removes the given job from the wheel.
+	 */
+	void remove(InternalJob job) {
+		int list = job.getQueueIndex();
+		if (list < 0 || list > OVERFLOW)
+			return;
+		if (heads[list] == job)
+			heads[list] = job.previous();
+		if (tails[list] == job)
+			tails[list] = job.next();
+		job.remove();
+		job.setQueueIndex(-1);
+		size--;
+		if (list < EXPIRED)
+			levelCounts[list >> BITS]--;
+		else if (list == OVERFLOW)
+			levelCounts[LEVELS]--;
+		//the wake time is left as it is, since an early wake time is harmless
+	}
+
+	/**
+	 * The current tick is the first tick of a slot in the lowest level. Cascades the
+	 * slots in higher levels that start at the current tick, starting with the highest.
+	 */
+	private void startSlots() {
+		int level = 1;
+		while (level < LEVELS && (currentTick & ((1L << (BITS * (level + 1))) - 1)) == 0)
+			level++;
+		if (level == LEVELS && (currentTick & ((1L << (BITS * LEVELS)) - 1)) == 0)
+			cascade(OVERFLOW, LEVELS);
+		for (; level > 0; level--) {
+			if (level < LEVELS)
+				cascade(level * SLOTS + (int) ((currentTick >>> (BITS * level)) & MASK), level);
+		}
+	}
+
+	/**
+	 * Recomputes the time at or before which the next job will expire.
+	 */
+	private void updateWakeTime() {
+		if (heads[EXPIRED] != null) {
+			wakeTime = currentTick * TICK_MILLIS;
+			return;
+		}
+		long result = InternalJob.T_INFINITE;
+		for (int level = 0; level < LEVELS; level++) {
+			if (levelCounts[level] == 0)
+				continue;
+			int shift = BITS * level;
+			long first = currentTick >>> shift;
+			for (int i = 0; i < SLOTS; i++) {
+				if (heads[level * SLOTS + (int) ((first + i) & MASK)] != null) {
+					result = Math.min(result, (((first + i) << shift) + 1) * TICK_MILLIS);
+					break;
+				}
+			}
+		}
+		if (levelCounts[LEVELS] > 0) {
+			int shift = BITS * LEVELS;
+			result = Math.min(result, ((((currentTick >>> shift) + 1) << shift) + 1) * TICK_MILLIS);
+		}
+		wakeTime = result;
+	}
+}
@@ -0,0 +1,125 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.jobs;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import org.eclipse.core.runtime.jobs.JobExecutor;
+
+/**
+ * A job executor that runs each worker on a new virtual thread. Virtual threads
+ * are only available on Java runtimes that support them, so they are created
+ * reflectively. Use {@link #create()} to obtain an executor, which returns
+ * <code>null</code> if the running VM does not support virtual threads.
+ * <p>
+ * Since the pool creates a worker per concurrently running job, jobs that block
+ * on I/O do not hold on to a platform thread each. Jobs still run on a thread
+ * of their own, so the ownership of scheduling rules and locks, which is tracked
+ * per thread, is not affected.
+ * <p>
+ * The job manager, and the jobs it runs, wait for scheduling rules, locks and
+ * other jobs in synchronized blocks and in <code>Object.wait</code>. Before
+ * Java 24 (JEP 491), a virtual thread that waits like this pins the platform
+ * thread that carries it, so a few such jobs can occupy all carrier threads
+ * and deadlock the jobs they wait for. Virtual threads are therefore only
+ * used on Java 24 or later, and {@link #create()} returns <code>null</code>
+ * on older runtimes.
+ */
+public final class VirtualThreadExecutor extends JobExecutor {
+	/**
+	 * The first Java version in which virtual threads that wait in
+	 * synchronized code do not pin their carrier thread.
+	 */
+	static final int MIN_VERSION = 24;
+
+	/**
+	 * The virtual thread factory, an instance of java.util.concurrent.ThreadFactory.
+	 */
+	private final Object factory;
+	/**
+	 * The ThreadFactory.newThread(Runnable) method.
+	 */
+	private final Method newThread;
+
+	/**
+	 * Returns a new virtual thread executor, or <code>null</code> if the
+	 * running VM does not support virtual threads, or is older than Java 24.
+	 */
+	public static VirtualThreadExecutor create() {
+		int version = getJavaVersion();
+		if (version < MIN_VERSION) {
+			if (JobManager.DEBUG)
+				JobManager.debug("virtual threads are not used on Java version: " + version); //$NON-NLS-1$
+			return null;
+		}
+		try {
+			//equivalent to Thread.ofVirtual().factory()
+			Object builder = Thread.class.getMethod("ofVirtual", new Class[0]).invoke(null, new Object[0]); //$NON-NLS-1$
+			Class builderClass = Class.forName("java.lang.Thread$Builder"); //$NON-NLS-1$
+			Object factory = builderClass.getMethod("factory", new Class[0]).invoke(builder, new Object[0]); //$NON-NLS-1$
+			Method newThread = Class.forName("java.util.concurrent.ThreadFactory").getMethod("newThread", new Class[] {Runnable.class}); //$NON-NLS-1$ //$NON-NLS-2$
+			return new VirtualThreadExecutor(factory, newThread);
+		} catch (Exception e) {
+			//virtual threads are not supported, or are disabled in this VM
+			if (JobManager.DEBUG)
+				JobManager.debug("virtual threads are not available: " + e); //$NON-NLS-1$
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the feature release number of the running Java version, or zero
+	 * if it is older than Java 10.
+	 */
+	private static int getJavaVersion() {
+		try {
+			//equivalent to Runtime.version().feature()
+			Object version = Runtime.class.getMethod("version", new Class[0]).invoke(null, new Object[0]); //$NON-NLS-1$
+			Object feature = version.getClass().getMethod("feature", new Class[0]).invoke(version, new Object[0]); //$NON-NLS-1$
+			return ((Integer) feature).intValue();
+		} catch (Exception e) {
+			return 0;
+		}
+	}
+
+	private VirtualThreadExecutor(Object factory, Method newThread) {
+		this.factory = factory;
+		this.newThread = newThread;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.core.runtime.jobs.JobExecutor#execute(java.lang.Runnable)
+	 */
+	public void execute(Runnable worker) {
+		Thread thread;
+		try {
+			thread = (Thread) newThread.invoke(factory, new Object[] {worker});
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException(e.getMessage());
+		} catch (InvocationTargetException e) {
+			Throwable cause = e.getTargetException();
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			throw new IllegalStateException(String.valueOf(cause));
+		}
+		if (worker instanceof WorkerTask) {
+			//name the thread like the worker, so that thread dumps show "Worker-n" as for platform threads
+			thread.setName(((WorkerTask) worker).getName());
+			//avoid leaking the context loader of the thread that schedules the job (bug 98376)
+			thread.setContextClassLoader(((WorkerTask) worker).getContextClassLoader());
+		}
+		thread.start();
+	}
+
+	public String toString() {
+		return "VirtualThreadExecutor"; //$NON-NLS-1$
+	}
+}
@@ -13,11 +13,26 @@ package org.eclipse.core.internal.jobs;
 import org.eclipse.core.runtime.Assert;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.core.runtime.jobs.JobExecutor;
 
 /**
  * Maintains a pool of worker threads. Threads are constructed lazily as
  * required, and are eventually discarded if not in use for awhile. This class
  * maintains the thread creation/destruction policies for the job manager.
+ * <p>
+ * Idle workers wait on their own lock until the pool wakes them, so that queuing
+ * a job wakes exactly one worker. Idle workers are kept in a stack, and the most
+ * recently idle worker is woken first, so that workers that stay idle can expire.
+ * Only one idle worker at a time waits for the next sleeping job to wake up; the
+ * others wait until they are woken or expire.
+ * <p>
+ * The number of workers can be limited. When all workers are busy and the pool
+ * has reached its maximum size, queued jobs wait until a worker is available.
+ * Workers are started as threads of their own, unless a job executor has been
+ * set, in which case the executor runs them without creating a thread for them.
+ * Workers run on virtual threads are cheaper to create than to keep idle, so
+ * such workers end when they find no job, unless they are needed to keep the
+ * minimum number of workers or to wait for the next sleeping job.
  * 
  * Implementation note: all the data structures of this class are protected
  * by the instance's object monitor.  To avoid deadlock with third party code,
@@ -26,42 +41,97 @@ import org.eclipse.core.runtime.jobs.Job;
  */
 class WorkerPool {
 	/**
-	 * Threads not used by their best before timestamp are destroyed. 
+	 * Threads not used by their best before timestamp are destroyed, by default. 
 	 */
-	private static final int BEST_BEFORE = 60000;
+	private static final long BEST_BEFORE = 60000;
 	/**
-	 * There will always be at least MIN_THREADS workers in the pool.
+	 * By default, there will always be at least MIN_THREADS workers in the pool.
 	 */
 	private static final int MIN_THREADS = 1;
+	/**
+	 * The number of processors available to the VM.
+	 */
+	private static final int PROCESSORS = Runtime.getRuntime().availableProcessors();
 	/**
 	 * Use the busy thread count to avoid starting new threads when a living
 	 * thread is just doing house cleaning (notifying listeners, etc).
 	 */
 	private int busyThreads = 0;
 
+	/**
+	 * True if new workers are cheaper than idle ones, so that workers end
+	 * as soon as they find no job instead of waiting for one.
+	 */
+	private boolean cheapWorkers = false;
+
 	/**
 	 * The default context class loader to use when creating worker threads.
 	 */
 	protected final ClassLoader defaultContextLoader;
 
+	/**
+	 * The number of workers in the idle stack.
+	 */
+	private int idleCount = 0;
+
+	/**
+	 * The workers that are waiting for a job, the most recently idle last.
+	 */
+	private WorkerTask[] idleWorkers = new WorkerTask[10];
+
 	/**
 	 * Records whether new worker threads should be daemon threads.
 	 */
 	private boolean isDaemon = false;
 
+	/**
+	 * The executor that runs new workers, or <code>null</code> if workers
+	 * are started as threads of their own.
+	 */
+	private JobExecutor executor = null;
+
+	/**
+	 * Idle workers that are not used for this long are destroyed.
+	 */
+	private long keepAlive = BEST_BEFORE;
+
+	/**
+	 * The maximum number of workers in the pool.
+	 */
+	private int maxThreads = Integer.MAX_VALUE;
+
+	/**
+	 * Idle workers are not destroyed if there are this many or fewer workers in the pool.
+	 */
+	private int minThreads = MIN_THREADS;
+
 	private JobManager manager;
 	/**
 	 * The number of workers in the threads array
 	 */
 	private int numThreads = 0;
 	/**
-	 * The number of threads that are currently sleeping 
+	 * The largest number of workers there have been in the pool at once.
 	 */
-	private int sleepingThreads = 0;
+	private int peakThreads = 0;
+	/**
+	 * The number of times a job has been queued. Used by workers to detect
+	 * that a job was queued while they were looking for one.
+	 */
+	private long queuedCount = 0;
 	/**
 	 * The living set of workers in this pool.
 	 */
-	private Worker[] threads = new Worker[10];
+	private WorkerTask[] threads = new WorkerTask[10];
+	/**
+	 * The time at which the timed waiter will stop waiting.
+	 */
+	private long timedDeadline;
+	/**
+	 * The idle worker that waits until the next sleeping job wakes up, or
+	 * <code>null</code> if there is no such worker.
+	 */
+	private WorkerTask timedWaiter = null;
 
 	protected WorkerPool(JobManager manager) {
 		this.manager = manager;
@@ -71,14 +141,15 @@ class WorkerPool {
 	/**
 	 * Adds a worker to the list of workers.
 	 */
-	private synchronized void add(Worker worker) {
+	private synchronized void add(WorkerTask worker) {
 		int size = threads.length;
 		if (numThreads + 1 > size) {
-			Worker[] newThreads = new Worker[2 * size];
+			WorkerTask[] newThreads = new WorkerTask[2 * size];
 			System.arraycopy(threads, 0, newThreads, 0, size);
 			threads = newThreads;
 		}
 		threads[numThreads++] = worker;
+		peakThreads = Math.max(peakThreads, numThreads);
 	}
 
 	private synchronized void decrementBusyThreads() {
@@ -114,7 +185,7 @@ class WorkerPool {
 	 * Signals the death of a worker thread.  Note that this method can be called under
 	 * OutOfMemoryError conditions and thus must be paranoid about allocating objects.
 	 */
-	protected synchronized void endWorker(Worker worker) {
+	protected synchronized void endWorker(WorkerTask worker) {
 		if (remove(worker) && JobManager.DEBUG)
 			JobManager.debug("worker removed from pool: " + worker); //$NON-NLS-1$
 	}
@@ -128,33 +199,135 @@ class WorkerPool {
 		}
 	}
 
+	/**
+	 * Returns the idle worker that should be woken to run a job that is
+	 * ready to run. Prefers the most recently idle worker that is not waiting
+	 * for a sleeping job to wake up.
+	 */
+	private WorkerTask idleWorkerToWake() {
+		WorkerTask worker = idleWorkers[idleCount - 1];
+		if (worker == timedWaiter && idleCount > 1)
+			worker = idleWorkers[idleCount - 2];
+		return worker;
+	}
+
+	/**
+	 * Returns the number of workers that are running or looking for a job.
+	 */
+	synchronized int getBusyThreads() {
+		return busyThreads;
+	}
+
+	/**
+	 * Returns the number of workers that are waiting for a job.
+	 */
+	synchronized int getIdleThreads() {
+		return idleCount;
+	}
+
+	/**
+	 * Returns the largest number of workers there have been in the pool at once.
+	 */
+	synchronized int getPeakThreads() {
+		return peakThreads;
+	}
+
+	/**
+	 * Returns the number of workers in the pool.
+	 */
+	synchronized int getThreads() {
+		return numThreads;
+	}
+
 	/**
 	 * Notification that a job has been added to the queue. Wake a worker,
 	 * creating a new worker if necessary. The provided job may be null.
 	 */
-	protected synchronized void jobQueued() {
-		//if there is a sleeping thread, wake it up
-		if (sleepingThreads > 0) {
-			notify();
-			return;
+	protected void jobQueued() {
+		jobsQueued(1);
+	}
+
+	/**
+	 * Notification that the given number of jobs have been added to the queue
+	 * at once. Wake a worker for each job, creating new workers if necessary.
+	 */
+	protected void jobsQueued(int count) {
+		WorkerTask[] newWorkers;
+		JobExecutor workerExecutor;
+		boolean daemon;
+		synchronized (this) {
+			queuedCount++;
+			//workers that are neither busy nor idle are about to look for a job
+			int spare = numThreads - busyThreads - idleCount;
+			//if there are idle threads, wake them up
+			if (idleCount > 0) {
+				long hint = manager.sleepHint();
+				if (hint <= 0) {
+					while (count > 0 && idleCount > 0) {
+						wake(idleWorkerToWake());
+						count--;
+					}
+					if (count == 0)
+						return;
+				} else {
+					//no job can run yet, so only wake a worker if the next job wakes up earlier than expected
+					if (hint == InternalJob.T_INFINITE)
+						return;
+					if (timedWaiter == null)
+						wake(idleWorkers[idleCount - 1]);
+					else if (System.currentTimeMillis() + hint < timedDeadline)
+						wake(timedWaiter);
+					return;
+				}
+			}
+			//create a thread for each job the other threads can't take, unless the pool is full.
+			//Don't create more threads at once than there are processors, since the new
+			//threads will create more threads as long as they are all busy
+			int create = Math.min(Math.min(count - spare, PROCESSORS), maxThreads - numThreads);
+			if (create <= 0)
+				return;
+			newWorkers = new WorkerTask[create];
+			for (int i = 0; i < create; i++) {
+				newWorkers[i] = new WorkerTask(this);
+				add(newWorkers[i]);
+			}
+			workerExecutor = executor;
+			daemon = isDaemon;
 		}
-		//create a thread if all threads are busy
-		if (busyThreads >= numThreads) {
-			Worker worker = new Worker(this);
-			worker.setDaemon(isDaemon);
-			add(worker);
-			if (JobManager.DEBUG)
-				JobManager.debug("worker added to pool: " + worker); //$NON-NLS-1$
-			worker.start();
-			return;
+		//start the workers outside the sync block, since the executor is third party code
+		for (int i = 0; i < newWorkers.length; i++)
+			start(newWorkers[i], workerExecutor, daemon);
+	}
+
+	/**
+	 * Starts a new worker, using the given executor if there is one, and
+	 * otherwise on a worker thread of its own.
+	 */
+	private void start(WorkerTask worker, JobExecutor workerExecutor, boolean daemon) {
+		if (workerExecutor != null) {
+			try {
+				workerExecutor.execute(worker);
+				if (JobManager.DEBUG)
+					JobManager.debug("worker added to pool: " + worker + " run by: " + workerExecutor); //$NON-NLS-1$ //$NON-NLS-2$
+				return;
+			} catch (RuntimeException e) {
+				//the executor did not accept the worker, so run it on a thread of its own
+				if (JobManager.DEBUG)
+					JobManager.debug("worker rejected by executor: " + workerExecutor + ": " + e); //$NON-NLS-1$ //$NON-NLS-2$
+			}
 		}
+		if (JobManager.DEBUG)
+			JobManager.debug("worker added to pool: " + worker); //$NON-NLS-1$
+		Thread thread = new Worker(worker);
+		thread.setDaemon(daemon);
+		thread.start();
 	}
 
 	/**
 	 * Remove a worker thread from our list.
 	 * @return true if a worker was removed, and false otherwise.
 	 */
-	private synchronized boolean remove(Worker worker) {
+	private synchronized boolean remove(WorkerTask worker) {
 		for (int i = 0; i < threads.length; i++) {
 			if (threads[i] == worker) {
 				System.arraycopy(threads, i + 1, threads, i, numThreads - i - 1);
@@ -172,33 +345,119 @@ class WorkerPool {
 		this.isDaemon = value;
 	}
 
+	/**
+	 * Sets the executor that runs new workers, or <code>null</code> if new
+	 * workers should be started as threads of their own.
+	 */
+	synchronized void setExecutor(JobExecutor executor) {
+		this.executor = executor;
+		this.cheapWorkers = executor instanceof VirtualThreadExecutor;
+	}
+
+	/**
+	 * Sets the limits on the number of workers in the pool, and the time after
+	 * which idle workers are destroyed. Invalid values are replaced by the defaults.
+	 */
+	synchronized void setLimits(int minThreads, int maxThreads, long keepAlive) {
+		this.minThreads = minThreads >= 0 ? minThreads : MIN_THREADS;
+		this.maxThreads = maxThreads > 0 ? maxThreads : Integer.MAX_VALUE;
+		this.keepAlive = keepAlive > 0 ? keepAlive : BEST_BEFORE;
+		//wake idle workers so that they observe the new keep alive time
+		for (int i = 0; i < idleCount; i++)
+			idleWorkers[i].wake();
+	}
+
 	protected synchronized void shutdown() {
-		notifyAll();
+		while (idleCount > 0)
+			wake(idleWorkers[idleCount - 1]);
 	}
 
 	/**
-	 * Sleep for the given duration or until woken. 
+	 * Makes the given worker wait until a job is queued, or until the next
+	 * sleeping job wakes up.  Returns false if the worker has been idle for too
+	 * long or is not needed, and has been removed from the pool, and true otherwise.
 	 */
-	private synchronized void sleep(long duration) {
-		sleepingThreads++;
-		busyThreads--;
+	private boolean idle(WorkerTask worker, long lastQueuedCount, long idleStart) {
+		long hint = manager.sleepHint();
+		long timeout;
+		synchronized (this) {
+			//don't wait if a job was queued while the worker was looking for one
+			if (queuedCount != lastQueuedCount)
+				return true;
+			if (!manager.isActive())
+				return true;
+			timeout = keepAlive;
+			boolean timed = false;
+			if (hint < InternalJob.T_INFINITE) {
+				//avoid a tight loop if the job manager expects a job to be ready (bug 260724)
+				hint = Math.max(hint, 1);
+				long deadline = System.currentTimeMillis() + hint;
+				if (timedWaiter == null || deadline < timedDeadline) {
+					timedWaiter = worker;
+					timedDeadline = deadline;
+					timeout = Math.min(hint, keepAlive);
+					timed = true;
+				}
+			}
+			//a cheap worker that is not needed is ended rather than kept idle
+			if (cheapWorkers && !timed && idleCount >= minThreads && numThreads > minThreads) {
+				endWorker(worker);
+				return false;
+			}
+			worker.resetWoken();
+			if (idleCount == idleWorkers.length) {
+				WorkerTask[] newIdle = new WorkerTask[2 * idleCount];
+				System.arraycopy(idleWorkers, 0, newIdle, 0, idleCount);
+				idleWorkers = newIdle;
+			}
+			idleWorkers[idleCount++] = worker;
+			busyThreads--;
+		}
 		if (JobManager.DEBUG)
-			JobManager.debug("worker sleeping for: " + duration + "ms"); //$NON-NLS-1$ //$NON-NLS-2$
-		try {
-			wait(duration);
-		} catch (InterruptedException e) {
-			if (JobManager.DEBUG)
-				JobManager.debug("worker interrupted while waiting... :-|"); //$NON-NLS-1$
-		} finally {
-			sleepingThreads--;
+			JobManager.debug("worker sleeping for: " + timeout + "ms"); //$NON-NLS-1$ //$NON-NLS-2$
+		boolean woken = worker.idle(timeout);
+		synchronized (this) {
+			//if the worker was not woken it is still in the idle stack
+			removeIdle(worker);
 			busyThreads++;
+			//if we were already idle, and there are still no new jobs, then
+			// the thread can expire
+			if (!woken && (System.currentTimeMillis() - idleStart >= keepAlive) && numThreads > minThreads) {
+				//must remove the worker immediately to prevent all threads from expiring
+				endWorker(worker);
+				return false;
+			}
 		}
+		return true;
+	}
+
+	/**
+	 * Removes the given worker from the idle stack, if it is there.
+	 */
+	private void removeIdle(WorkerTask worker) {
+		if (timedWaiter == worker)
+			timedWaiter = null;
+		for (int i = idleCount - 1; i >= 0; i--) {
+			if (idleWorkers[i] == worker) {
+				System.arraycopy(idleWorkers, i + 1, idleWorkers, i, idleCount - i - 1);
+				idleWorkers[--idleCount] = null;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Wakes an idle worker and removes it from the idle stack.
+	 */
+	private void wake(WorkerTask worker) {
+		removeIdle(worker);
+		worker.wake();
 	}
 
 	/**
 	 * Returns a new job to run. Returns null if the thread should die. 
 	 */
-	protected InternalJob startJob(Worker worker) {
+	protected InternalJob startJob(WorkerTask worker) {
 		//if we're above capacity, kill the thread
 		synchronized (this) {
 			if (!manager.isActive()) {
@@ -211,26 +470,23 @@ class WorkerPool {
 		}
 		Job job = null;
 		try {
-			job = manager.startJob();
-			//spin until a job is found or until we have been idle for too long
+			//look for a job, and wait until one is queued if there are none
 			long idleStart = System.currentTimeMillis();
-			while (manager.isActive() && job == null) {
-				long hint = manager.sleepHint();
-				if (hint > 0)
-					sleep(Math.min(hint, BEST_BEFORE));
-				job = manager.startJob();
-				//if we were already idle, and there are still no new jobs, then
-				// the thread can expire
+			while (true) {
+				long lastQueuedCount;
 				synchronized (this) {
-					if (job == null && (System.currentTimeMillis() - idleStart > BEST_BEFORE) && (numThreads - busyThreads) > MIN_THREADS) {
-						//must remove the worker immediately to prevent all threads from expiring
+					//if the maximum has been lowered, end the worker instead of running another job
+					if (numThreads > maxThreads) {
 						endWorker(worker);
 						return null;
 					}
+					lastQueuedCount = queuedCount;
 				}
-				//if we didn't sleep but there was no job available, make sure we sleep to avoid a tight loop (bug 260724)
-				if (hint <= 0 && job == null)
-					sleep(50);
+				job = manager.startJob();
+				if (job != null || !manager.isActive())
+					break;
+				if (!idle(worker, lastQueuedCount, idleStart))
+					return null;
 			}
 			if (job != null) {
 				//if this job has a rule, then we are essentially acquiring a lock
@@ -0,0 +1,187 @@
+/*******************************************************************************
+ *  Copyright (c) 2003, 2012 IBM Corporation and others.
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the Eclipse Public License v1.0
+ *  which accompanies this distribution, and is available at
+ *  http://www.eclipse.org/legal/epl-v10.html
+ *
+ *  Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.internal.jobs;
+
+import org.eclipse.core.runtime.*;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.osgi.util.NLS;
+
+/**
+ * A worker of the worker pool, which processes jobs supplied to it by the pool.
+ * When the worker pool gives it a null job, the worker ends.
+ * <p>
+ * A worker runs on a {@link Worker} thread of its own, unless the pool runs on
+ * a job executor, in which case the executor invokes its run method on one of
+ * the executor's threads. No thread is created for workers that are run by an
+ * executor.
+ */
+final class WorkerTask implements Runnable {
+	/**
+	 * The worker that is running on the current thread, for workers that
+	 * are run by a job executor.
+	 */
+	private static final ThreadLocal executorWorker = new ThreadLocal();
+	//worker number used for debugging purposes only
+	private static int nextWorkerNumber = 0;
+	private volatile InternalJob currentJob;
+	private final String name;
+	private final WorkerPool pool;
+	/**
+	 * Lock used by the pool to make this worker wait while it is idle.
+	 */
+	private final Object idleLock = new Object();
+	/**
+	 * True if the pool has asked this worker to look for a job since it
+	 * last became idle.
+	 * @GuardedBy("idleLock")
+	 */
+	private boolean woken = false;
+
+	WorkerTask(WorkerPool pool) {
+		this.name = "Worker-" + nextWorkerNumber++; //$NON-NLS-1$
+		this.pool = pool;
+	}
+
+	/**
+	 * Returns the worker that is running on the current thread, or null
+	 * if the current thread is not running a worker.
+	 */
+	static WorkerTask getCurrentWorker() {
+		Thread current = Thread.currentThread();
+		if (current instanceof Worker)
+			return ((Worker) current).getTask();
+		return (WorkerTask) executorWorker.get();
+	}
+
+	/**
+	 * Returns the currently running job, or null if none.
+	 */
+	Job currentJob() {
+		return (Job) currentJob;
+	}
+
+	/**
+	 * Returns the context class loader of the threads that run workers, which
+	 * avoids leaking the context loader of the thread that spawns the worker
+	 * (bug 98376).
+	 */
+	ClassLoader getContextClassLoader() {
+		return pool.defaultContextLoader;
+	}
+
+	/**
+	 * Returns the name of this worker, which is also the name of its thread.
+	 */
+	String getName() {
+		return name;
+	}
+
+	/**
+	 * Waits until the pool wakes this worker, or until the given timeout has
+	 * passed. Returns whether this worker was woken by the pool.
+	 */
+	boolean idle(long timeout) {
+		synchronized (idleLock) {
+			long deadline = System.currentTimeMillis() + timeout;
+			while (!woken && timeout > 0) {
+				try {
+					idleLock.wait(timeout);
+				} catch (InterruptedException e) {
+					if (JobManager.DEBUG)
+						JobManager.debug("worker interrupted while waiting... :-|"); //$NON-NLS-1$
+				}
+				timeout = deadline - System.currentTimeMillis();
+			}
+			boolean result = woken;
+			woken = false;
+			return result;
+		}
+	}
+
+	/**
+	 * Clears any pending request from the pool to look for a job.
+	 */
+	void resetWoken() {
+		synchronized (idleLock) {
+			woken = false;
+		}
+	}
+
+	/**
+	 * Asks this worker to stop waiting and look for a job.
+	 */
+	void wake() {
+		synchronized (idleLock) {
+			woken = true;
+			idleLock.notify();
+		}
+	}
+
+	private IStatus handleException(InternalJob job, Throwable t) {
+		String message = NLS.bind(JobMessages.jobs_internalError, job.getName());
+		return new Status(IStatus.ERROR, JobManager.PI_JOBS, JobManager.PLUGIN_ERROR, message, t);
+	}
+
+	public void run() {
+		Thread thread = Thread.currentThread();
+		boolean ownThread = thread instanceof Worker && ((Worker) thread).getTask() == this;
+		//restore the priority of an executor's thread after running each job
+		int priority = Thread.NORM_PRIORITY;
+		if (!ownThread) {
+			priority = thread.getPriority();
+			executorWorker.set(this);
+		}
+		thread.setPriority(priority);
+		try {
+			while ((currentJob = pool.startJob(this)) != null) {
+				currentJob.setThread(thread);
+				IStatus result = Status.OK_STATUS;
+				try {
+					result = currentJob.run(currentJob.getProgressMonitor());
+				} catch (OperationCanceledException e) {
+					result = Status.CANCEL_STATUS;
+				} catch (Exception e) {
+					result = handleException(currentJob, e);
+				} catch (ThreadDeath e) {
+					//must not consume thread death
+					result = handleException(currentJob, e);
+					throw e;
+				} catch (Error e) {
+					result = handleException(currentJob, e);
+				} finally {
+					//clear interrupted state for this thread
+					Thread.interrupted();
+					//result must not be null
+					if (result == null)
+						result = handleException(currentJob, new NullPointerException());
+					pool.endJob(currentJob, result);
+					currentJob = null;
+					//reset thread priority in case job changed it
+					thread.setPriority(priority);
+				}
+			}
+		} catch (Throwable t) {
+			t.printStackTrace();
+		} finally {
+			currentJob = null;
+			if (!ownThread)
+				executorWorker.set(null);
+			pool.endWorker(this);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * For debugging purposes only.
+	 */
+	public String toString() {
+		return name;
+	}
+}
@@ -0,0 +1,50 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM - Initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.runtime.jobs;
+
+/**
+ * A scheduling rule that belongs to a hierarchy of rules, such as a rule
+ * based on a path in a tree of resources. Implementing this interface is
+ * optional; it allows the job manager to find conflicting rules without
+ * comparing a rule against every rule that is currently in use.
+ * <p>
+ * A hierarchical rule identifies the root of the hierarchy it belongs to.
+ * Rules that belong to different roots must never conflict with each other,
+ * that is, <code>isConflicting</code> must return <code>false</code> for
+ * any two hierarchical rules whose roots are not equal. Rules that return
+ * <code>null</code> as their root may conflict with rules in any hierarchy.
+ * The job manager still calls <code>isConflicting</code> to decide whether
+ * two rules with the same root conflict.
+ * </p><p>
+ * The root of a rule must not change while the rule is in use by a job
+ * or a thread.
+ * </p><p>
+ * Rules that do not implement this interface work as before, but conflicts
+ * with them are still found by comparing against every rule in use, so
+ * clients that do not implement it get no speed-up. A hierarchical rule is
+ * also compared against every rule in use that does not implement it.
+ * </p><p>
+ * Clients may implement this interface.
+ * </p>
+ *
+ * @see ISchedulingRule#isConflicting(ISchedulingRule)
+ * @since 3.6
+ */
+public interface IHierarchicalRule extends ISchedulingRule {
+	/**
+	 * Returns the root of the hierarchy this rule belongs to, or <code>null</code>
+	 * if this rule may conflict with rules in any hierarchy. Roots are compared
+	 * using <code>equals</code>.
+	 *
+	 * @return the root of this rule, or <code>null</code>
+	 */
+	public Object getRuleRoot();
+}
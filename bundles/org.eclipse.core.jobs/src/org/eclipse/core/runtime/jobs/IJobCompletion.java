@@ -0,0 +1,80 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.runtime.jobs;
+
+import org.eclipse.core.runtime.IStatus;
+
+/**
+ * The completion of a job, or of all the jobs in a family. A completion allows
+ * clients to be told when jobs are done without blocking a thread until then,
+ * and without registering a job change listener.
+ * <p>
+ * A completion is done exactly once. Actions added with {@link #whenDone(Runnable)}
+ * before that are run by the thread that completes it, and actions added after
+ * that are run immediately by the calling thread.
+ * </p>
+ * <p>
+ * The completion of a job is done after the listeners added to the job have
+ * been notified that the job is done. The listeners added to the job manager
+ * have been notified as well, unless they are notified asynchronously, in
+ * which case they may be notified after the completion is done.
+ * </p>
+ *
+ * @see Job#onDone()
+ * @see IJobManager#joinAsync(Object)
+ * @see IJobManager#PROP_ASYNC_LISTENERS
+ * @since 3.6
+ * @noimplement This interface is not intended to be implemented by clients.
+ * @noextend This interface is not intended to be extended by clients.
+ */
+public interface IJobCompletion {
+	/**
+	 * Returns whether this completion is done.
+	 *
+	 * @return <code>true</code> if this completion is done, and
+	 * <code>false</code> otherwise
+	 */
+	public boolean isDone();
+
+	/**
+	 * Returns the result this completion is done with, or <code>null</code>
+	 * if it is not done yet. The result of the completion of a job is the result of
+	 * the job's run method; the result of the completion of a family is
+	 * {@link org.eclipse.core.runtime.Status#OK_STATUS}.
+	 *
+	 * @return the result of this completion, or <code>null</code>
+	 */
+	public IStatus getResult();
+
+	/**
+	 * Waits until this completion is done, or until the given timeout elapses.
+	 * When this method returns <code>true</code>, the actions that were added
+	 * before this completion was done have run. Note that the same deadlock
+	 * risk as for {@link Job#join()} applies.
+	 *
+	 * @param timeout the maximum time to wait in milliseconds, or zero to
+	 * return immediately
+	 * @return <code>true</code> if this completion is done, and
+	 * <code>false</code> if the timeout elapsed first
+	 * @exception InterruptedException if this thread is interrupted while waiting
+	 */
+	public boolean await(long timeout) throws InterruptedException;
+
+	/**
+	 * Adds an action to run when this completion is done. If this completion is
+	 * already done, the action is run immediately in the calling thread. Actions
+	 * run in the thread that completes the job, so they must be short and must
+	 * not block; exceptions thrown by an action are logged.
+	 *
+	 * @param action the action to run when this completion is done
+	 */
+	public void whenDone(Runnable action);
+}
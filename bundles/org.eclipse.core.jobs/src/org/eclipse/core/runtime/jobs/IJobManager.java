@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2003, 2010 IBM Corporation and others.
+ * Copyright (c) 2003, 2011 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -10,6 +10,9 @@
  *******************************************************************************/
 package org.eclipse.core.runtime.jobs;
 
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.OperationCanceledException;
 
@@ -46,6 +49,206 @@ public interface IJobManager {
 	 */
 	public static final String PROP_USE_DAEMON_THREADS = "eclipse.jobs.daemon"; //$NON-NLS-1$
 
+	/**
+	 * A system property key indicating the maximum number of worker threads
+	 * the job manager will use to run jobs. When all worker threads are busy,
+	 * newly scheduled jobs wait until a worker thread becomes available.  The
+	 * value must be a positive integer. If the property is absent, the number 
+	 * of worker threads is not limited.
+	 * <p>
+	 * Note that jobs that wait for other jobs to complete, for example by joining
+	 * them, may wait forever if all worker threads are busy running such jobs.
+	 * </p>
+	 * @since 3.6
+	 */
+	public static final String PROP_MAX_THREADS = "eclipse.jobs.maxThreads"; //$NON-NLS-1$
+
+	/**
+	 * A system property key indicating the number of worker threads the job
+	 * manager keeps alive when they are idle. The value must be a non-negative
+	 * integer. If the property is absent, one idle worker thread is kept alive.
+	 * @since 3.6
+	 */
+	public static final String PROP_MIN_THREADS = "eclipse.jobs.minThreads"; //$NON-NLS-1$
+
+	/**
+	 * A system property key indicating the time in milliseconds after which an
+	 * idle worker thread ends, unless it is needed to keep the minimum number of 
+	 * worker threads alive. The value must be a positive integer. If the property
+	 * is absent, idle worker threads end after one minute.
+	 * @since 3.6
+	 */
+	public static final String PROP_KEEP_ALIVE = "eclipse.jobs.keepAlive"; //$NON-NLS-1$
+
+	/**
+	 * A system property key indicating whether the job manager should run jobs
+	 * on virtual threads. Set to <code>true</code> to run each job on a virtual 
+	 * thread, so that many jobs that block on I/O can run at once without a 
+	 * platform thread each. Virtual threads are only used on Java 24 or later, 
+	 * since on older runtimes a virtual thread that waits in synchronized code, 
+	 * as jobs do while they wait for scheduling rules and locks, blocks the 
+	 * platform thread that carries it, which can deadlock the jobs. On runtimes 
+	 * that do not support virtual threads, or that are older than Java 24, a 
+	 * warning is logged and jobs run on platform threads. Setting a job executor 
+	 * replaces the virtual threads. If the property is absent, jobs run on 
+	 * platform threads.
+	 * @see #setJobExecutor(JobExecutor)
+	 * @since 3.6
+	 */
+	public static final String PROP_VIRTUAL_THREADS = "eclipse.jobs.virtualThreads"; //$NON-NLS-1$
+
+	/**
+	 * A system property key indicating whether the job manager should notify
+	 * the job change listeners added with {@link #addJobChangeListener(IJobChangeListener)}
+	 * asynchronously. Set to <code>true</code> to deliver their events in batches 
+	 * on a dispatcher thread instead of the threads that schedule and run jobs.
+	 * The events of each job are still delivered in order, and the 
+	 * {@link IJobChangeListener#aboutToRun(IJobChangeEvent)} event is still 
+	 * delivered before the job runs, so that listeners can cancel the job. 
+	 * Listeners added to a job are always notified synchronously. If the
+	 * property is absent, all listeners are notified synchronously.
+	 * @since 3.6
+	 */
+	public static final String PROP_ASYNC_LISTENERS = "eclipse.jobs.asyncListeners"; //$NON-NLS-1$
+
+	/**
+	 * A system property key indicating whether the job manager should record
+	 * how long jobs spend in each state. Set to <code>true</code> to record the
+	 * durations per job class and per declared job family, from the time the
+	 * job manager starts. If the property is absent, no durations are recorded
+	 * until metrics are turned on with {@link #setMetricsEnabled(boolean)}.
+	 * @see #exportMetrics(Writer)
+	 * @since 3.6
+	 */
+	public static final String PROP_METRICS = "eclipse.jobs.metrics"; //$NON-NLS-1$
+
+	/**
+	 * A system property key indicating whether the job manager should order
+	 * waiting jobs by their deadlines. Set to <code>true</code> to run waiting
+	 * jobs strictly in the order of their priority, and jobs of the same priority
+	 * earliest deadline first, with the jobs that have no deadline last. Jobs of
+	 * a lower priority then wait for as long as jobs of a higher priority are
+	 * waiting. If the property is absent, jobs of a lower priority that have
+	 * waited long enough can run before jobs of a higher priority, and deadlines
+	 * do not change the order in which jobs run.
+	 * @see Job#setDeadline(long)
+	 * @see #setDeadlineSchedulingEnabled(boolean)
+	 * @since 3.6
+	 */
+	public static final String PROP_DEADLINE_SCHEDULING = "eclipse.jobs.deadlineScheduling"; //$NON-NLS-1$
+
+	/**
+	 * A system property key indicating whether the job manager should share
+	 * the worker threads fairly between the owners of waiting jobs. The owner
+	 * of a job is the first family declared with {@link Job#setFamilies(Object[])},
+	 * or else the symbolic name of the bundle that defines the class of the job,
+	 * or else the name of the class of the job. Set to <code>true</code> to run waiting jobs
+	 * strictly in the order of their priority, and jobs of the same priority
+	 * taking turns between their owners, so that an owner that schedules many
+	 * jobs does not delay the jobs of other owners until all of its jobs have run.
+	 * The time the jobs of each owner run is then accounted for. If the property
+	 * is absent, jobs of the same priority run in the order they were scheduled.
+	 * <p>
+	 * Owners only take turns within a priority, so the jobs of an owner that
+	 * only schedules jobs of a lower priority wait for as long as jobs of a
+	 * higher priority are waiting. If deadline scheduling is on as well, jobs of
+	 * the same priority run earliest deadline first, and owners take turns among
+	 * the jobs that have no deadline or the same deadline.
+	 * </p>
+	 * @see #setFairShareEnabled(boolean)
+	 * @see #setShareWeight(Object, int)
+	 * @see #getRunTimes()
+	 * @since 3.6
+	 */
+	public static final String PROP_FAIR_SHARE = "eclipse.jobs.fairShare"; //$NON-NLS-1$
+
+	/**
+	 * A system property key indicating the maximum number of jobs that may be
+	 * pending at the same time. If the property is absent, the number of pending
+	 * jobs is not limited.
+	 * @see #setQueueLimit(Object, int, int)
+	 * @see #PROP_QUEUE_POLICY
+	 * @since 3.6
+	 */
+	public static final String PROP_QUEUE_LIMIT = "eclipse.jobs.queueLimit"; //$NON-NLS-1$
+
+	/**
+	 * A system property key indicating what the job manager should do when a
+	 * job is scheduled while the limit of {@link #PROP_QUEUE_LIMIT} is reached.
+	 * The value is one of <code>block</code>, <code>reject</code>,
+	 * <code>dropOldest</code> and <code>coalesce</code>, for the policies
+	 * {@link #OVERFLOW_BLOCK}, {@link #OVERFLOW_REJECT}, {@link #OVERFLOW_DROP_OLDEST}
+	 * and {@link #OVERFLOW_COALESCE}. If the property is absent, the scheduling
+	 * thread waits.
+	 * @since 3.6
+	 */
+	public static final String PROP_QUEUE_POLICY = "eclipse.jobs.queuePolicy"; //$NON-NLS-1$
+
+	/**
+	 * A system property key indicating the minimum time in milliseconds between
+	 * the updates that are passed on to the progress monitors of running jobs.
+	 * Work and subtasks that a job reports in between are accumulated, and
+	 * passed on together at the end of the interval, or as soon as they add up
+	 * to one percent of the task. Canceling a job is seen by its monitor at once,
+	 * while the monitor created by the progress provider is asked whether it
+	 * is canceled at most once per interval. If the property is absent, every
+	 * update is passed on to the monitor created by the {@link ProgressProvider}.
+	 * @since 3.6
+	 */
+	public static final String PROP_PROGRESS_INTERVAL = "eclipse.jobs.progressInterval"; //$NON-NLS-1$
+
+	/**
+	 * Overflow policy constant (value 1) indicating that a thread that schedules
+	 * a job while the queue limit is reached waits until one of the pending jobs
+	 * starts running or is canceled. Threads that run a job, threads that own a
+	 * scheduling rule or a lock, and threads that schedule while the job manager
+	 * is suspended, do not wait, since the jobs they wait for may never start;
+	 * their jobs exceed the limit.
+	 * If the waiting thread is interrupted, the job is rejected.
+	 * @see #setQueueLimit(Object, int, int)
+	 * @since 3.6
+	 */
+	public static final int OVERFLOW_BLOCK = 1;
+
+	/**
+	 * Overflow policy constant (value 2) indicating that a job that is scheduled
+	 * while the queue limit is reached is not scheduled. Its listeners are told
+	 * that it is done, with a result of severity <code>IStatus.CANCEL</code>.
+	 * @see #setQueueLimit(Object, int, int)
+	 * @since 3.6
+	 */
+	public static final int OVERFLOW_REJECT = 2;
+
+	/**
+	 * Overflow policy constant (value 3) indicating that when a job is scheduled
+	 * while the queue limit is reached, the job that has been pending the longest
+	 * is canceled to make room for it, whether it is sleeping, waiting, or blocked
+	 * by a job with a conflicting rule. If no such job is found, because all pending
+	 * jobs are about to be scheduled by other threads, the new job is rejected.
+	 * @see #OVERFLOW_REJECT
+	 * @see #setQueueLimit(Object, int, int)
+	 * @since 3.6
+	 */
+	public static final int OVERFLOW_DROP_OLDEST = 3;
+
+	/**
+	 * Overflow policy constant (value 4) indicating that a job that is scheduled
+	 * while the queue limit is reached is merged into the pending job of the same
+	 * class that has been pending the longest, which counts the request in its
+	 * next run, and is not scheduled itself. Only jobs that coalesce their own
+	 * schedule requests, that is, whose coalescing mode is not
+	 * <code>Job.COALESCE_NONE</code>, are merged, and only into such jobs. By
+	 * setting a coalescing mode, a job declares that another pending job of its
+	 * class does the same work. Other jobs, and jobs for which no such pending
+	 * job exists, are rejected.
+	 * @see #OVERFLOW_REJECT
+	 * @see Job#setCoalescing(int, long)
+	 * @see Job#getCoalescedCount()
+	 * @see #setQueueLimit(Object, int, int)
+	 * @since 3.6
+	 */
+	public static final int OVERFLOW_COALESCE = 4;
+
 	/**
 	 * Registers a job listener with the job manager.  
 	 * Has no effect if an identical listener is already registered.
@@ -182,6 +385,38 @@ public interface IJobManager {
 	 */
 	public void endRule(ISchedulingRule rule);
 
+	/**
+	 * Writes the durations that jobs spent in each state while metrics were on,
+	 * as comma separated values. There is a header line naming the columns, and
+	 * one line for each job class or declared family and each state, with the
+	 * number of durations and their minimum, mean, percentiles and maximum in
+	 * milliseconds. These lines have the kind <code>class</code> or
+	 * <code>family</code>.
+	 * <p>
+	 * The current counters of the job manager follow, with the value in the
+	 * count column:
+	 * <ul>
+	 * <li>Lines of kind <code>queue</code> give, for all jobs (with an empty
+	 * key) and for each family that has a queue limit, the number of pending
+	 * jobs, its peak, the limit, and how many schedule requests the limit
+	 * blocked, rejected, dropped and coalesced.</li>
+	 * <li>Lines of kind <code>pool</code> give the number of workers, the
+	 * number that are busy, the number that are idle, and the peak number.</li>
+	 * <li>Lines of kind <code>deadline</code> give the number of runs of jobs
+	 * with a deadline that were done in time, and how late the other runs
+	 * were done, as a histogram.</li>
+	 * </ul>
+	 * Only the header line is written if metrics are off.
+	 * </p>
+	 * 
+	 * @param out the writer to write the durations to
+	 * @throws IOException if writing fails
+	 * @see #PROP_METRICS
+	 * @see #setMetricsEnabled(boolean)
+	 * @since 3.6
+	 */
+	public void exportMetrics(Writer out) throws IOException;
+
 	/**
 	 * Returns all waiting, executing and sleeping jobs belonging
 	 * to the given family. If no jobs are found, an empty array is returned.
@@ -192,6 +427,20 @@ public interface IJobManager {
 	 */
 	public Job[] find(Object family);
 
+	/**
+	 * Returns the total time that the jobs of each owner ran while fair share
+	 * scheduling was on. Only owners whose jobs have run are included. The run
+	 * time of an owner whose weight was not set is forgotten some time after
+	 * the owner has no more waiting jobs, and is then counted from zero again.
+	 * @see #setShareWeight(Object, int)
+	 * 
+	 * @return a map from job owners to the time in milliseconds that their
+	 * jobs ran, as a <code>Long</code>
+	 * @see #PROP_FAIR_SHARE
+	 * @since 3.6
+	 */
+	public Map getRunTimes();
+
 	/**
 	 * Returns whether the job manager is currently idle.  The job manager is
 	 * idle if no jobs are currently running or waiting to run.
@@ -242,6 +491,29 @@ public interface IJobManager {
 	 */
 	public void join(Object family, IProgressMonitor monitor) throws InterruptedException, OperationCanceledException;
 
+	/**
+	 * Returns a completion that is done when all jobs of the given family are
+	 * finished. Unlike {@link #join(Object, IProgressMonitor)}, this method
+	 * does not block the calling thread. If there are no jobs in the family that
+	 * are currently waiting, running, or sleeping, the returned completion is
+	 * already done. Jobs of the family that are scheduled before the family is
+	 * finished are also waited for. The completion is done with
+	 * {@link org.eclipse.core.runtime.Status#OK_STATUS}, whatever the results
+	 * of the jobs in the family.
+	 * <p>
+	 * If this method is called while the job manager is suspended, only jobs
+	 * that are currently running will be waited for.
+	 * </p>
+	 *
+	 * @param family the job family to wait for, or <code>null</code> to wait
+	 * for all jobs
+	 * @return the completion of the given family
+	 * @see Job#onDone()
+	 * @see #suspend()
+	 * @since 3.6
+	 */
+	public IJobCompletion joinAsync(Object family);
+
 	/**
 	 * Creates a new lock object.  All lock objects supplied by the job manager
 	 * know about each other and will always avoid circular deadlock amongst
@@ -261,6 +533,25 @@ public interface IJobManager {
 	 */
 	public void removeJobChangeListener(IJobChangeListener listener);
 
+	/**
+	 * Forgets the weight and the run time of the given job owner for fair share
+	 * scheduling. The job manager keeps them for every owner whose weight was
+	 * set, until they are removed. Owners that are given a weight for a limited
+	 * time, such as the family objects of short-lived jobs, should therefore be
+	 * removed when their jobs are done. The share of an owner whose weight was
+	 * not set is forgotten some time after the owner has no more waiting jobs.
+	 * <p>
+	 * This method is intended for use by the currently executing Eclipse application.
+	 * Plug-ins outside the currently running application should not call this method.
+	 * </p>
+	 * 
+	 * @param owner the job owner
+	 * @see #PROP_FAIR_SHARE
+	 * @see #setShareWeight(Object, int)
+	 * @since 3.6
+	 */
+	public void removeShare(Object owner);
+
 	/**
 	 * Resumes execution of jobs after a previous <code>suspend</code>.  All
 	 * jobs that were sleeping or waiting prior to the suspension, or that were
@@ -293,6 +584,28 @@ public interface IJobManager {
 	 */
 	public void resume();
 
+	/**
+	 * Schedules all the given jobs to be run after the given delay.  This is
+	 * equivalent to calling {@link Job#schedule(long)} on each job in turn, except
+	 * that the job manager schedules the jobs together and wakes enough worker 
+	 * threads to run them all at once.  This is much cheaper than scheduling 
+	 * a large number of jobs one at a time.
+	 * <p>
+	 * Each job is scheduled as described by {@link Job#schedule(long)}.  In 
+	 * particular, jobs whose <code>shouldSchedule</code> method returns 
+	 * <code>false</code> are not scheduled, jobs that are running are rescheduled 
+	 * when they finish, and jobs that are already waiting or sleeping are not affected.
+	 * Listeners are notified that each job has been scheduled before any of the 
+	 * jobs is added to the queue of waiting jobs.
+	 * </p>
+	 * 
+	 * @param jobs the jobs to schedule
+	 * @param delay a time delay in milliseconds before the jobs should run
+	 * @see Job#schedule(long)
+	 * @since 3.6
+	 */
+	public void schedule(Job[] jobs, long delay);
+
 	/**
 	 * Provides a hook that is notified whenever a thread is about to wait on a lock,
 	 * or when a thread is about to release a lock.  This hook must only be set once.
@@ -304,6 +617,75 @@ public interface IJobManager {
 	 */
 	public void setLockListener(LockListener listener);
 
+	/**
+	 * Registers an executor that supplies the threads on which jobs are run.
+	 * If there was an executor already registered, it is replaced.  Workers that
+	 * are already running continue on their current threads; only workers that are
+	 * created afterwards are given to the new executor. If the executor is 
+	 * <code>null</code>, the job manager creates its own worker threads.
+	 * <p>
+	 * This method is intended for use by the currently executing Eclipse application.
+	 * Plug-ins outside the currently running application should not call this method.
+	 * </p>
+	 * 
+	 * @param executor the new executor, or <code>null</code> if the job manager
+	 * should create its own worker threads
+	 * @see JobExecutor
+	 * @since 3.6
+	 */
+	public void setJobExecutor(JobExecutor executor);
+
+	/**
+	 * Turns ordering of waiting jobs by their deadlines on or off. While it is
+	 * on, waiting jobs run strictly in the order of their priority, and jobs of
+	 * the same priority earliest deadline first, with the jobs that have no
+	 * deadline last. Jobs that are already waiting are reordered.
+	 * <p>
+	 * This method is intended for use by the currently executing Eclipse application.
+	 * Plug-ins outside the currently running application should not call this method.
+	 * </p>
+	 * 
+	 * @param enabled <code>true</code> to order waiting jobs by their deadlines,
+	 * and <code>false</code> to order them by priority and the time they waited
+	 * @see #PROP_DEADLINE_SCHEDULING
+	 * @see Job#setDeadline(long)
+	 * @since 3.6
+	 */
+	public void setDeadlineSchedulingEnabled(boolean enabled);
+
+	/**
+	 * Turns fair share scheduling of waiting jobs on or off. Turning it off
+	 * keeps the weights and run times of the job owners.
+	 * <p>
+	 * This method is intended for use by the currently executing Eclipse application.
+	 * Plug-ins outside the currently running application should not call this method.
+	 * </p>
+	 * 
+	 * @param enabled <code>true</code> to let the owners of waiting jobs take
+	 * turns, and <code>false</code> to run jobs of the same priority in the
+	 * order they were scheduled
+	 * @see #PROP_FAIR_SHARE
+	 * @since 3.6
+	 */
+	public void setFairShareEnabled(boolean enabled);
+
+	/**
+	 * Turns recording of how long jobs spend in each state on or off. Turning
+	 * metrics off discards the recorded durations, and turning them on again
+	 * starts from scratch.
+	 * <p>
+	 * This method is intended for use by the currently executing Eclipse application.
+	 * Plug-ins outside the currently running application should not call this method.
+	 * </p>
+	 * 
+	 * @param enabled <code>true</code> to record durations, and <code>false</code>
+	 * to stop recording them
+	 * @see #PROP_METRICS
+	 * @see #exportMetrics(Writer)
+	 * @since 3.6
+	 */
+	public void setMetricsEnabled(boolean enabled);
+
 	/**
 	 * Registers a progress provider with the job manager.  If there was a
 	 * provider already registered, it is replaced.
@@ -317,6 +699,51 @@ public interface IJobManager {
 	 */
 	public void setProgressProvider(ProgressProvider provider);
 
+	/**
+	 * Limits the number of jobs of the given family that may be pending at the
+	 * same time, or of all jobs if the family is <code>null</code>. A job is
+	 * pending from the time it is scheduled until it starts running, that is
+	 * while it is sleeping, waiting or blocked. The jobs of a family are those
+	 * that have declared it with {@link Job#setFamilies(Object[])}, and the
+	 * members of the job group that is the family.
+	 * <p>
+	 * The limit is applied when a job that is not yet known to the job manager
+	 * is scheduled, according to the given policy. Jobs that are rescheduled
+	 * when they finish are not limited. The jobs scheduled by one call to
+	 * {@link #schedule(Job[], long)} wait for room at most once each, before
+	 * any of them is scheduled, so they may exceed a limit whose policy is to block.
+	 * </p>
+	 * <p>
+	 * This method is intended for use by the currently executing Eclipse application.
+	 * Plug-ins outside the currently running application should not call this method.
+	 * </p>
+	 * 
+	 * @param family the job family to limit, or <code>null</code> to limit all jobs
+	 * @param limit the maximum number of pending jobs, or zero to remove the limit
+	 * @param policy one of {@link #OVERFLOW_BLOCK}, {@link #OVERFLOW_REJECT},
+	 * {@link #OVERFLOW_DROP_OLDEST} and {@link #OVERFLOW_COALESCE}
+	 * @see #PROP_QUEUE_LIMIT
+	 * @since 3.6
+	 */
+	public void setQueueLimit(Object family, int limit, int policy);
+
+	/**
+	 * Sets the weight of the given job owner for fair share scheduling. An owner
+	 * of weight <code>n</code> gets <code>n</code> turns for every turn of an
+	 * owner of weight 1. Owners have weight 1 unless it is changed. The weight
+	 * is kept until the share of the owner is removed.
+	 * <p>
+	 * This method is intended for use by the currently executing Eclipse application.
+	 * Plug-ins outside the currently running application should not call this method.
+	 * </p>
+	 * 
+	 * @param owner the job owner
+	 * @param weight the weight of the owner, which must be positive
+	 * @see #PROP_FAIR_SHARE
+	 * @since 3.6
+	 */
+	public void setShareWeight(Object owner, int weight);
+
 	/**
 	 * Suspends execution of all jobs.  Jobs that are already running
 	 * when this method is invoked will complete as usual, but all sleeping and
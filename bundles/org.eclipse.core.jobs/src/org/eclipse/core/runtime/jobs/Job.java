@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2003, 2010 IBM Corporation and others.
+ * Copyright (c) 2003, 2011 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -131,6 +131,35 @@ public abstract class Job extends InternalJob implements IAdaptable {
 	 */
 	public static final int RUNNING = 0x04;
 
+	/**
+	 * Coalescing mode constant (value 0) indicating that a job does not coalesce
+	 * schedule requests. This is the default mode.
+	 *
+	 * @see #setCoalescing(int, long)
+	 * @since 3.6
+	 */
+	public static final int COALESCE_NONE = 0;
+	/**
+	 * Coalescing mode constant (value 1) indicating that a job runs at the
+	 * trailing edge of a burst of schedule requests. Each schedule request
+	 * made while the job is sleeping postpones the job until the delay of
+	 * that request has elapsed, so that the job runs once the requests stop.
+	 *
+	 * @see #setCoalescing(int, long)
+	 * @since 3.6
+	 */
+	public static final int COALESCE_TRAILING = 1;
+	/**
+	 * Coalescing mode constant (value 2) indicating that a job runs at the
+	 * leading edge of a burst of schedule requests. The first request runs the
+	 * job immediately, and the requests made during the delay of that request
+	 * are merged into a single run at the end of the delay.
+	 *
+	 * @see #setCoalescing(int, long)
+	 * @since 3.6
+	 */
+	public static final int COALESCE_LEADING = 2;
+
 	/**
 	 * Returns the job manager.
 	 * 
@@ -168,17 +197,19 @@ public abstract class Job extends InternalJob implements IAdaptable {
 	 * by the job manager.  Thus, a job can choose to belong to any number of
 	 * families.
 	 * <p>
-	 * Clients may override this method.  This default implementation always returns
-	 * <code>false</code>.  Overriding implementations must return <code>false</code>
-	 * for families they do not recognize.
+	 * Clients may override this method.  This default implementation returns 
+	 * <code>true</code> if the given family is equal to one of the families set with
+	 * {@link #setFamilies(Object[])}, and <code>false</code> otherwise.  Overriding 
+	 * implementations must return <code>false</code> for families they do not recognize.
 	 * </p>
 	 * 
 	 * @param family the job family identifier
 	 * @return <code>true</code> if this job belongs to the given family, and 
 	 * <code>false</code> otherwise.
+	 * @see #setFamilies(Object[])
 	 */
 	public boolean belongsTo(Object family) {
-		return false;
+		return super.belongsTo(family);
 	}
 
 	/**
@@ -226,6 +257,58 @@ public abstract class Job extends InternalJob implements IAdaptable {
 		super.done(result);
 	}
 
+	/**
+	 * Returns the number of schedule requests that were merged into the current
+	 * execution of this job, or into the last execution if this job is not
+	 * running. Requests to schedule a job that is already waiting or sleeping,
+	 * and repeated requests to reschedule a running job, are merged into the
+	 * next execution of the job, whatever the coalescing mode of the job.
+	 * Returns zero if this job has never run.
+	 *
+	 * @return the number of schedule requests merged into an execution
+	 * @see #setCoalescing(int, long)
+	 * @since 3.6
+	 */
+	public final int getCoalescedCount() {
+		return super.getCoalescedCount();
+	}
+
+	/**
+	 * Returns the coalescing mode of this job.
+	 *
+	 * @return one of <code>COALESCE_NONE</code>, <code>COALESCE_TRAILING</code>,
+	 * or <code>COALESCE_LEADING</code>
+	 * @see #setCoalescing(int, long)
+	 * @since 3.6
+	 */
+	public final int getCoalescing() {
+		return super.getCoalescing();
+	}
+
+	/**
+	 * Returns the deadline of this job, or zero if it has no deadline.
+	 *
+	 * @return the time in milliseconds within which this job should be done
+	 * after it becomes due, or zero
+	 * @see #setDeadline(long)
+	 * @since 3.6
+	 */
+	public final long getDeadline() {
+		return super.getDeadline();
+	}
+
+	/**
+	 * Returns the group this job belongs to, or <code>null</code> if it does
+	 * not belong to a group.
+	 *
+	 * @return the group of this job, or <code>null</code>
+	 * @see #setJobGroup(JobGroup)
+	 * @since 3.6
+	 */
+	public final JobGroup getJobGroup() {
+		return super.getJobGroup();
+	}
+
 	/**
 	 * Returns the human readable name of this job.  The name is never 
 	 * <code>null</code>.
@@ -385,6 +468,29 @@ public abstract class Job extends InternalJob implements IAdaptable {
 		super.join();
 	}
 
+	/**
+	 * Returns the completion of this job. The completion is done when this job
+	 * is finished, with the result of this job's <tt>run</tt> method, and allows
+	 * clients to act on the end of this job without blocking a thread until then.
+	 * If this job has not been scheduled, the returned completion is already done
+	 * with the result of the last execution of this job, or with
+	 * {@link Status#OK_STATUS} if this job has never run.
+	 * <p>
+	 * Like {@link #join()}, the completion of a job that reschedules itself from
+	 * within the <tt>run</tt> method is done at the end of the first execution,
+	 * and the completion of a job that is canceled before it runs is done
+	 * with {@link Status#CANCEL_STATUS}.
+	 * </p>
+	 *
+	 * @return the completion of this job
+	 * @see IJobCompletion
+	 * @see IJobManager#joinAsync(Object)
+	 * @since 3.6
+	 */
+	public final IJobCompletion onDone() {
+		return super.onDone();
+	}
+
 	/**
 	 * Removes a job listener from this job.
 	 * Has no effect if an identical listener is not already registered.
@@ -452,7 +558,8 @@ public abstract class Job extends InternalJob implements IAdaptable {
 	 * while the job is running, the job will still only be rescheduled once,
 	 * with the most recent delay value that was provided.
 	 * </p><p>
-	 * Scheduling a job that is waiting or sleeping has no effect.
+	 * Scheduling a job that is waiting or sleeping has no effect, unless the 
+	 * job coalesces schedule requests.
 	 * </p>
 	 * 
 	 * @param delay a time delay in milliseconds before the job should run
@@ -509,6 +616,111 @@ public abstract class Job extends InternalJob implements IAdaptable {
 		super.setProgressGroup(group, ticks);
 	}
 
+	/**
+	 * Sets how this job coalesces bursts of schedule requests, so that a job
+	 * that is scheduled many times in a short period, such as a job that
+	 * refreshes a view whenever a resource changes, runs once for the burst
+	 * instead of once for each request. The window of a request is the delay
+	 * given to {@link #schedule(long)}.
+	 * <ul>
+	 * <li>With <code>COALESCE_TRAILING</code>, each request made while this job
+	 * is sleeping postpones this job until the delay of the request has elapsed,
+	 * but never further than the given maximum wait after the first request of
+	 * the burst, so that a steady stream of requests cannot starve the job.</li>
+	 * <li>With <code>COALESCE_LEADING</code>, a request runs this job immediately
+	 * unless it is made within the delay of the previous execution, in which case
+	 * the job runs when that delay has elapsed. The maximum wait is ignored.</li>
+	 * <li>With <code>COALESCE_NONE</code>, requests to schedule this job while
+	 * it is waiting or sleeping have no effect, as described in {@link #schedule(long)}.</li>
+	 * </ul>
+	 * In all modes, a request made while this job is running reschedules it once
+	 * it is finished, and the number of requests merged into an execution is
+	 * available from {@link #getCoalescedCount()}. For a trailing job, the burst
+	 * of the rescheduled execution starts when the running execution finishes.
+	 * A job whose mode is not <code>COALESCE_NONE</code> may also be merged into
+	 * a pending job of the same class by the queue limit policy
+	 * {@link IJobManager#OVERFLOW_COALESCE}.
+	 *
+	 * @param mode one of <code>COALESCE_NONE</code>, <code>COALESCE_TRAILING</code>,
+	 * or <code>COALESCE_LEADING</code>
+	 * @param maxWait the maximum time in milliseconds a burst of requests can
+	 * postpone a trailing job, or zero for no maximum
+	 * @exception IllegalArgumentException if the mode is not one of the coalescing
+	 * mode constants, or the maximum wait is negative
+	 * @see #getCoalescing()
+	 * @see #getCoalescedCount()
+	 * @since 3.6
+	 */
+	public final void setCoalescing(int mode, long maxWait) {
+		super.setCoalescing(mode, maxWait);
+	}
+
+	/**
+	 * Sets the deadline of this job, which is the time within which it should
+	 * be done after it becomes due, that is, after it is scheduled or after its
+	 * scheduling delay has elapsed. The new deadline applies from the next time
+	 * this job is scheduled.
+	 * <p>
+	 * If deadline scheduling is turned on with {@link IJobManager#PROP_DEADLINE_SCHEDULING},
+	 * waiting jobs of the same priority run in the order of their deadlines,
+	 * before the jobs of that priority that have no deadline. Otherwise the
+	 * deadline does not change the order in which jobs run. In both cases, the
+	 * job manager counts the runs of jobs that were done after their deadline.
+	 * </p>
+	 *
+	 * @param deadline the time in milliseconds within which this job should be
+	 * done, or zero for no deadline
+	 * @exception IllegalArgumentException if the deadline is negative
+	 * @see #getDeadline()
+	 * @since 3.6
+	 */
+	public final void setDeadline(long deadline) {
+		super.setDeadline(deadline);
+	}
+
+	/**
+	 * Declares the families this job belongs to.  This method must be called 
+	 * before the job is scheduled.
+	 * <p>
+	 * By default, the job manager finds the jobs that belong to a family by asking
+	 * every job it knows about, using {@link #belongsTo(Object)}.  A job that declares
+	 * its families instead belongs to exactly the declared families, and the job manager
+	 * keeps an index of the jobs in each declared family.  Finding, canceling, joining, 
+	 * putting to sleep and waking up the jobs of a family then takes time proportional
+	 * to the number of jobs in the family rather than to the number of jobs known
+	 * to the job manager.  Families are compared using <code>equals</code>, so they 
+	 * should have stable <code>equals</code> and <code>hashCode</code> implementations.
+	 * </p><p>
+	 * The job manager does not call <code>belongsTo</code> for jobs that have
+	 * declared their families, so jobs that override <code>belongsTo</code> must be 
+	 * consistent with their declared families.
+	 * </p>
+	 * 
+	 * @param families the families this job belongs to, or <code>null</code> if
+	 * the job manager should use <code>belongsTo</code> to determine them
+	 * @see #belongsTo(Object)
+	 * @see IJobManager#find(Object)
+	 * @since 3.6
+	 */
+	public final void setFamilies(Object[] families) {
+		super.setFamilies(families);
+	}
+
+	/**
+	 * Adds this job to a group, or removes it from its group. The job manager
+	 * does not run more jobs of a group at once than the group allows, and the
+	 * job belongs to the family of its group. This method must be called before
+	 * the job is scheduled.
+	 *
+	 * @param jobGroup the group of this job, or <code>null</code> if the job
+	 * should not belong to a group
+	 * @see JobGroup
+	 * @since 3.6
+	 */
+	public final void setJobGroup(JobGroup jobGroup) {
+		super.setJobGroup(jobGroup);
+	}
+
 	/**
 	 * Sets the value of the property of this job identified
 	 * by the given key. If the supplied value is <code>null</code>,
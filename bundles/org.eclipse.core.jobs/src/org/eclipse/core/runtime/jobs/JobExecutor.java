@@ -0,0 +1,46 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.runtime.jobs;
+
+/**
+ * A job executor supplies the threads on which the job manager runs jobs.
+ * By default, the job manager creates and starts its own worker threads. When
+ * an executor is registered with the job manager, the job manager instead hands
+ * each new worker to the executor, which must run it on a thread of its own
+ * choosing. Typically, an executor forwards the worker to a thread pool that is
+ * shared with the rest of the application, such as a
+ * <code>java.util.concurrent.ExecutorService</code>.
+ * <p>
+ * The job manager still decides how many workers there are, so the limits on
+ * the number of worker threads also apply to the workers given to an executor.
+ * A worker runs jobs until it has been idle for some time or the job manager is
+ * shut down, and then returns.
+ * </p><p>
+ * This class is intended to be subclassed by clients.
+ * </p>
+ *
+ * @see IJobManager#setJobExecutor(JobExecutor)
+ * @since 3.6
+ */
+public abstract class JobExecutor {
+	/**
+	 * Runs the given worker on some thread other than the calling thread. The
+	 * executor must not run the worker in the calling thread, and must not
+	 * run the same worker more than once.
+	 * <p>
+	 * If the executor cannot accept the worker, it may throw a runtime exception,
+	 * in which case the job manager will run the worker on a thread of its own.
+	 * </p>
+	 *
+	 * @param worker the worker to run
+	 */
+	public abstract void execute(Runnable worker);
+}
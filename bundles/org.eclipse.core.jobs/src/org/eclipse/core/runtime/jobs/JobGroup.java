@@ -0,0 +1,131 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.runtime.jobs;
+
+import org.eclipse.core.internal.jobs.InternalJobGroup;
+import org.eclipse.core.runtime.*;
+
+/**
+ * A group of jobs that are run by a limited number of threads at once, and
+ * that can be canceled and joined together.
+ * <p>
+ * A job joins a group with {@link Job#setJobGroup(JobGroup)} before it is
+ * scheduled. When as many jobs of a group are running as the group allows, the
+ * other jobs of the group stay in the <code>WAITING</code> state until one of
+ * the running jobs is done. Waiting jobs do not occupy a worker thread, so jobs
+ * that do not belong to the group can run in the meantime.
+ * </p><p>
+ * A group is also a job family that all of its jobs belong to, so it can be
+ * passed to the family methods of {@link IJobManager}, such as
+ * {@link IJobManager#find(Object)} and {@link IJobManager#sleep(Object)}.
+ * </p>
+ *
+ * @see Job#setJobGroup(JobGroup)
+ * @since 3.6
+ */
+public class JobGroup extends InternalJobGroup {
+	/**
+	 * Creates a new job group.
+	 *
+	 * @param name the human readable name of the group
+	 * @param maxThreads the largest number of jobs of the group that run at
+	 * once, or zero if the number is not limited
+	 */
+	public JobGroup(String name, int maxThreads) {
+		super(name, maxThreads);
+	}
+
+	/**
+	 * Cancels all jobs of this group that are waiting, sleeping or running.
+	 *
+	 * @see Job#cancel()
+	 */
+	public final void cancel() {
+		super.cancel();
+	}
+
+	/**
+	 * Combines the results of the jobs of this group into the result of the
+	 * group. Only the results that are not OK are kept while the group has
+	 * jobs, so the given results do not include the jobs that succeeded.
+	 * <p>
+	 * Subclasses may override this method. This default implementation returns
+	 * a multi-status with the name of the group as its message, and the results
+	 * that are not OK as its children.
+	 * </p>
+	 *
+	 * @param jobResults the results that are not OK of the jobs of this group
+	 * that are done, which is empty if all of them succeeded
+	 * @return the result of this group
+	 * @see #getResult()
+	 */
+	protected IStatus computeGroupResult(IStatus[] jobResults) {
+		return super.computeGroupResult(jobResults);
+	}
+
+	/**
+	 * Returns the jobs of this group that are waiting, sleeping or running.
+	 *
+	 * @return the active jobs of this group
+	 */
+	public final Job[] getActiveJobs() {
+		return super.getActiveJobs();
+	}
+
+	/**
+	 * Returns the largest number of jobs of this group that run at once, or
+	 * zero if the number is not limited.
+	 *
+	 * @return the largest number of jobs of this group that run at once
+	 */
+	public final int getMaxThreads() {
+		return super.getMaxThreads();
+	}
+
+	/**
+	 * Returns the human readable name of this group. The name is never
+	 * <code>null</code>.
+	 *
+	 * @return the name of this group
+	 */
+	public final String getName() {
+		return super.getName();
+	}
+
+	/**
+	 * Returns the combined result of the jobs of this group that are done,
+	 * or <code>null</code> if none is done. Jobs that were canceled before
+	 * they ran count as done with a cancel status. Only the jobs since the
+	 * group last had no waiting, sleeping or running jobs are combined, so
+	 * every batch of jobs has its own result.
+	 *
+	 * @return the result of this group, or <code>null</code>
+	 * @see #computeGroupResult(IStatus[])
+	 */
+	public final IStatus getResult() {
+		return super.getResult();
+	}
+
+	/**
+	 * Waits until all jobs of this group are done, including the jobs that are
+	 * scheduled while waiting. This is the same as joining the family of the
+	 * group.
+	 *
+	 * @param monitor a progress monitor for reporting progress and requesting
+	 * cancelation, or <code>null</code>
+	 * @exception InterruptedException if this thread is interrupted while waiting
+	 * @exception OperationCanceledException if the progress monitor is canceled while waiting
+	 * @see IJobManager#join(Object, IProgressMonitor)
+	 */
+	public final void join(IProgressMonitor monitor) throws InterruptedException, OperationCanceledException {
+		super.join(monitor);
+	}
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2003, 2008 IBM Corporation and others.
+ * Copyright (c) 2003, 2011 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -10,7 +10,7 @@
  *******************************************************************************/
 package org.eclipse.core.runtime.jobs;
 
-import java.util.ArrayList;
+import java.util.*;
 
 /**
  * A MultiRule is a compound scheduling rule that represents a fixed group of child 
@@ -20,14 +20,121 @@ import java.util.ArrayList;
  * relation.
  * <p>
  * A MultiRule will never contain other MultiRules as children.  If a MultiRule is provided
- * as a child, its children will be added instead.
+ * as a child, its children will be added instead.  A child that is equal to a rule
+ * that was already added is only kept once.
  * </p>
  * 
  * @since 3.0
  * @noextend This class is not intended to be subclassed by clients.
  */
 public class MultiRule implements ISchedulingRule {
-	private ISchedulingRule[] rules;
+	/**
+	 * The number of children from which they are indexed by rule root.
+	 */
+	private static final int INDEX_THRESHOLD = 8;
+
+	/**
+	 * The children of a multi-rule. Once there are enough of them, the children
+	 * are grouped by the root of their rule (see {@link IHierarchicalRule}).
+	 * A rule with a root can only conflict with the children that have the same
+	 * root or no root at all, and since a rule conflicts with every rule it
+	 * contains, it can only be contained by those children as well. Only those
+	 * children are compared with it.
+	 */
+	private static final class Children {
+		final ArrayList list;
+		/**
+		 * The children, to drop duplicates, or <code>null</code> while there
+		 * are too few children to index.
+		 */
+		private HashSet set;
+		/**
+		 * Maps a rule root to the list of children with that root, or
+		 * <code>null</code> while there are too few children to index.
+		 */
+		private HashMap byRoot;
+		/**
+		 * The children without a root, or <code>null</code> while there
+		 * are too few children to index.
+		 */
+		private ArrayList opaque;
+
+		Children(int size) {
+			list = new ArrayList(size);
+		}
+
+		/**
+		 * Adds a rule, or the children of a multi-rule, unless they are
+		 * already there.
+		 */
+		void add(ISchedulingRule rule) {
+			if (rule instanceof MultiRule) {
+				ArrayList children = ((MultiRule) rule).children.list;
+				for (int i = 0, size = children.size(); i < size; i++)
+					add((ISchedulingRule) children.get(i));
+				return;
+			}
+			if (set == null) {
+				if (list.contains(rule))
+					return;
+				list.add(rule);
+				if (list.size() < INDEX_THRESHOLD)
+					return;
+				set = new HashSet(list);
+				byRoot = new HashMap();
+				opaque = new ArrayList();
+				for (int i = 0; i < list.size(); i++)
+					index((ISchedulingRule) list.get(i));
+			} else if (set.add(rule)) {
+				list.add(rule);
+				index(rule);
+			}
+		}
+
+		/**
+		 * Returns whether one of the children conflicts with the given rule
+		 * or, if <code>containment</code> is <code>true</code>, contains it.
+		 * The given rule must not be a multi-rule.
+		 */
+		boolean find(ISchedulingRule rule, boolean containment) {
+			Object root = byRoot == null ? null : rootOf(rule);
+			if (root == null)
+				return find(list, rule, containment);
+			ArrayList group = (ArrayList) byRoot.get(root);
+			if (group != null && find(group, rule, containment))
+				return true;
+			return find(opaque, rule, containment);
+		}
+
+		private static boolean find(ArrayList children, ISchedulingRule rule, boolean containment) {
+			for (int i = 0, size = children.size(); i < size; i++) {
+				ISchedulingRule child = (ISchedulingRule) children.get(i);
+				if (containment ? contains(child, rule) : isConflicting(child, rule))
+					return true;
+			}
+			return false;
+		}
+
+		private void index(ISchedulingRule rule) {
+			Object root = rootOf(rule);
+			if (root == null) {
+				opaque.add(rule);
+				return;
+			}
+			ArrayList group = (ArrayList) byRoot.get(root);
+			if (group == null) {
+				group = new ArrayList(2);
+				byRoot.put(root, group);
+			}
+			group.add(rule);
+		}
+
+		private static Object rootOf(ISchedulingRule rule) {
+			return rule instanceof IHierarchicalRule ? ((IHierarchicalRule) rule).getRuleRoot() : null;
+		}
+	}
+
+	private Children children;
 
 	/**
 	 * Returns a scheduling rule that encompasses all provided rules.  The resulting
@@ -41,14 +148,28 @@ public class MultiRule implements ISchedulingRule {
 	 */
 	public static ISchedulingRule combine(ISchedulingRule[] ruleArray) {
 		ISchedulingRule result = null;
+		//a multi-rule created by this method, which can grow in place since no one else has it yet
+		MultiRule created = null;
 		for (int i = 0; i < ruleArray.length; i++) {
-			if (ruleArray[i] == null)
+			ISchedulingRule rule = ruleArray[i];
+			if (rule == null)
 				continue;
 			if (result == null) {
-				result = ruleArray[i];
-				continue;
+				result = rule;
+			} else if (created == null) {
+				ISchedulingRule combined = combine(result, rule);
+				if (combined != result && combined != rule)
+					created = (MultiRule) combined;
+				result = combined;
+			} else if (!contains(created, rule)) {
+				//the same as combine(created, rule), without copying the children
+				if (contains(rule, created)) {
+					result = rule;
+					created = null;
+				} else {
+					created.children.add(rule);
+				}
 			}
-			result = combine(result, ruleArray[i]);
 		}
 		return result;
 	}
@@ -70,34 +191,26 @@ public class MultiRule implements ISchedulingRule {
 			return rule2;
 		if (rule2 == null)
 			return rule1;
-		if (rule1.contains(rule2))
+		if (contains(rule1, rule2))
 			return rule1;
-		if (rule2.contains(rule1))
+		if (contains(rule2, rule1))
 			return rule2;
 		MultiRule result = new MultiRule();
-		result.rules = new ISchedulingRule[] {rule1, rule2};
 		//make sure we don't end up with nested multi-rules
-		if (rule1 instanceof MultiRule || rule2 instanceof MultiRule)
-			result.rules = flatten(result.rules);
+		result.children = new Children(2);
+		result.children.add(rule1);
+		result.children.add(rule2);
 		return result;
 	}
 
 	/*
-	 * Collapses an array of rules that may contain MultiRules into an
-	 * array in which no rules are MultiRules.
+	 * Returns whether one rule contains another. A rule that contains the rule
+	 * held by a shared rule also contains the shared rule.
 	 */
-	private static ISchedulingRule[] flatten(ISchedulingRule[] nestedRules) {
-		ArrayList myRules = new ArrayList(nestedRules.length);
-		for (int i = 0; i < nestedRules.length; i++) {
-			if (nestedRules[i] instanceof MultiRule) {
-				ISchedulingRule[] children = ((MultiRule) nestedRules[i]).getChildren();
-				for (int j = 0; j < children.length; j++)
-					myRules.add(children[j]);
-			} else {
-				myRules.add(nestedRules[i]);
-			}
-		}
-		return (ISchedulingRule[]) myRules.toArray(new ISchedulingRule[myRules.size()]);
+	private static boolean contains(ISchedulingRule rule, ISchedulingRule other) {
+		if (rule.contains(other))
+			return true;
+		return other instanceof SharedRule && rule.contains(((SharedRule) other).getRule());
 	}
 
 	/**
@@ -106,7 +219,10 @@ public class MultiRule implements ISchedulingRule {
 	 * @param nestedRules the nested rules for this compound rule.
 	 */
 	public MultiRule(ISchedulingRule[] nestedRules) {
-		this.rules = flatten(nestedRules);
+		//make sure we don't end up with nested multi-rules
+		children = new Children(nestedRules.length);
+		for (int i = 0; i < nestedRules.length; i++)
+			children.add(nestedRules[i]);
 	}
 
 	/**
@@ -122,7 +238,7 @@ public class MultiRule implements ISchedulingRule {
 	 * @return the child rules
 	 */
 	public ISchedulingRule[] getChildren() {
-		return (ISchedulingRule[]) rules.clone();
+		return (ISchedulingRule[]) children.list.toArray(new ISchedulingRule[children.list.size()]);
 	}
 
 	/* (non-Javadoc)
@@ -132,21 +248,14 @@ public class MultiRule implements ISchedulingRule {
 		if (this == rule)
 			return true;
 		if (rule instanceof MultiRule) {
-			ISchedulingRule[] otherRules = ((MultiRule) rule).getChildren();
+			ArrayList otherRules = ((MultiRule) rule).children.list;
 			//for each child of the target, there must be some child in this rule that contains it.
-			for (int other = 0; other < otherRules.length; other++) {
-				boolean found = false;
-				for (int mine = 0; !found && mine < rules.length; mine++)
-					found = rules[mine].contains(otherRules[other]);
-				if (!found)
+			for (int i = 0, size = otherRules.size(); i < size; i++)
+				if (!children.find((ISchedulingRule) otherRules.get(i), true))
 					return false;
-			}
 			return true;
 		}
-		for (int i = 0; i < rules.length; i++)
-			if (rules[i].contains(rule))
-				return true;
-		return false;
+		return children.find(rule, true);
 	}
 
 	/* (non-Javadoc)
@@ -155,29 +264,44 @@ public class MultiRule implements ISchedulingRule {
 	public boolean isConflicting(ISchedulingRule rule) {
 		if (this == rule)
 			return true;
-		if (rule instanceof MultiRule) {
-			ISchedulingRule[] otherRules = ((MultiRule) rule).getChildren();
-			for (int j = 0; j < otherRules.length; j++)
-				for (int i = 0; i < rules.length; i++)
-					if (rules[i].isConflicting(otherRules[j]))
-						return true;
-		} else {
-			for (int i = 0; i < rules.length; i++)
-				if (rules[i].isConflicting(rule))
-					return true;
+		if (!(rule instanceof MultiRule))
+			return children.find(rule, false);
+		//look up the children of the smaller rule in the larger one
+		Children mine = children;
+		Children others = ((MultiRule) rule).children;
+		if (mine.list.size() < others.list.size()) {
+			mine = others;
+			others = children;
 		}
+		for (int i = 0, size = others.list.size(); i < size; i++)
+			if (mine.find((ISchedulingRule) others.list.get(i), false))
+				return true;
 		return false;
 	}
 
+	/*
+	 * Returns whether two child rules conflict. Shared rules must be asked,
+	 * since other rules do not know about them, and shared rules never
+	 * conflict with each other.
+	 */
+	private static boolean isConflicting(ISchedulingRule rule, ISchedulingRule other) {
+		if (rule instanceof SharedRule)
+			return !(other instanceof SharedRule) && rule.isConflicting(other);
+		if (other instanceof SharedRule)
+			return other.isConflicting(rule);
+		return rule.isConflicting(other);
+	}
+
 	/*
 	 * For debugging purposes only.
 	 */
 	public String toString() {
 		StringBuffer buffer = new StringBuffer();
 		buffer.append("MultiRule["); //$NON-NLS-1$
-		int last = rules.length - 1;
-		for (int i = 0; i < rules.length; i++) {
-			buffer.append(rules[i]);
+		ArrayList rules = children.list;
+		int last = rules.size() - 1;
+		for (int i = 0; i <= last; i++) {
+			buffer.append(rules.get(i));
 			if (i != last)
 				buffer.append(',');
 		}
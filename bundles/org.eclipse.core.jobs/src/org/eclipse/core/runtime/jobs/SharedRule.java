@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.runtime.jobs;
+
+import org.eclipse.core.runtime.Assert;
+
+/**
+ * A scheduling rule that holds another rule in shared mode. Jobs and threads
+ * that only read the resources protected by a rule can use a shared rule, so
+ * that they run at the same time, while jobs that use the rule itself (in
+ * exclusive mode) still run alone.
+ * <p>
+ * A shared rule conflicts with every rule that conflicts with the rule it
+ * holds, except for other shared rules. The job manager lets any number of
+ * jobs and threads hold shared rules at once, even the same shared rule
+ * instance. A shared rule is contained by any rule that contains the rule it
+ * holds, so a thread that owns a rule in exclusive mode may begin a shared
+ * rule for the same resources, but not the other way around.
+ * </p><p>
+ * To protect writers from starvation, a job or thread that asks for a shared
+ * rule while a job or thread is waiting for a conflicting exclusive rule waits
+ * until the jobs that the writer is waiting for are done, instead of joining
+ * them.
+ * </p><p>
+ * A shared rule belongs to the same hierarchy as the rule it holds, see
+ * {@link IHierarchicalRule}.
+ * </p>
+ *
+ * @since 3.6
+ * @noextend This class is not intended to be subclassed by clients.
+ */
+public final class SharedRule implements IHierarchicalRule {
+	private final ISchedulingRule rule;
+
+	/**
+	 * Creates a rule that holds the given rule in shared mode. If the given
+	 * rule is itself a shared rule, the new rule holds the same rule.
+	 *
+	 * @param rule the rule to hold in shared mode
+	 */
+	public SharedRule(ISchedulingRule rule) {
+		Assert.isNotNull(rule, "Rule is null"); //$NON-NLS-1$
+		if (rule instanceof SharedRule)
+			rule = ((SharedRule) rule).rule;
+		this.rule = rule;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.core.runtime.jobs.ISchedulingRule#contains(org.eclipse.core.runtime.jobs.ISchedulingRule)
+	 */
+	public boolean contains(ISchedulingRule other) {
+		if (this == other)
+			return true;
+		if (other instanceof SharedRule)
+			return rule.contains(((SharedRule) other).rule);
+		if (other instanceof MultiRule) {
+			ISchedulingRule[] children = ((MultiRule) other).getChildren();
+			for (int i = 0; i < children.length; i++)
+				if (!contains(children[i]))
+					return false;
+			return children.length > 0;
+		}
+		//a rule held in shared mode never contains an exclusive rule
+		return false;
+	}
+
+	/**
+	 * Returns the rule that this rule holds in shared mode.
+	 *
+	 * @return the rule held in shared mode
+	 */
+	public ISchedulingRule getRule() {
+		return rule;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.core.runtime.jobs.IHierarchicalRule#getRuleRoot()
+	 */
+	public Object getRuleRoot() {
+		return rule instanceof IHierarchicalRule ? ((IHierarchicalRule) rule).getRuleRoot() : null;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.core.runtime.jobs.ISchedulingRule#isConflicting(org.eclipse.core.runtime.jobs.ISchedulingRule)
+	 */
+	public boolean isConflicting(ISchedulingRule other) {
+		if (this == other)
+			return true;
+		if (other instanceof SharedRule)
+			return false;
+		//a multi-rule asks each of its children
+		if (other instanceof MultiRule)
+			return other.isConflicting(this);
+		return rule.isConflicting(other);
+	}
+
+	/*
+	 * For debugging purposes only.
+	 */
+	public String toString() {
+		return "SharedRule[" + rule + ']'; //$NON-NLS-1$
+	}
+}
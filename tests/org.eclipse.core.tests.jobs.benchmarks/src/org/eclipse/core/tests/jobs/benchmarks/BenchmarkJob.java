@@ -0,0 +1,44 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.tests.jobs.benchmarks;
+
+import org.eclipse.core.runtime.*;
+import org.eclipse.core.runtime.jobs.*;
+
+/**
+ * A system job that does nothing, and declares a family so that benchmarks can
+ * wait for all the jobs they have scheduled.
+ */
+public class BenchmarkJob extends Job {
+	public BenchmarkJob(Object family, ISchedulingRule rule) {
+		super("BenchmarkJob"); //$NON-NLS-1$
+		setSystem(true);
+		setRule(rule);
+		setFamilies(new Object[] {family});
+	}
+
+	/**
+	 * Schedules the given jobs and waits until they are done.
+	 */
+	static void runAll(Job[] jobs, Object family) {
+		IJobManager manager = Job.getJobManager();
+		manager.schedule(jobs, 0);
+		try {
+			manager.join(family, null);
+		} catch (InterruptedException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	protected IStatus run(IProgressMonitor monitor) {
+		return Status.OK_STATUS;
+	}
+}
@@ -0,0 +1,44 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.tests.jobs.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.*;
+
+/**
+ * Runs the job manager benchmarks without a workbench. The defaults run all
+ * benchmarks of this package in one fork, and write the results as JSON to
+ * <code>jobs-benchmarks.json</code> so that they can be compared between
+ * builds. Any JMH command line option overrides the defaults; for example
+ * <code>-rf csv -rff out.csv LockBenchmark</code> runs the lock benchmarks
+ * only and writes CSV.
+ */
+public class BenchmarkMain {
+	public static void main(String[] args) throws Exception {
+		CommandLineOptions commandLine = new CommandLineOptions(args);
+		ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLine);
+		if (commandLine.getIncludes().isEmpty())
+			options.include(BenchmarkMain.class.getPackage().getName() + ".*"); //$NON-NLS-1$
+		if (!commandLine.getForkCount().hasValue())
+			options.forks(1);
+		if (!commandLine.getWarmupIterations().hasValue())
+			options.warmupIterations(5).warmupTime(TimeValue.seconds(1));
+		if (!commandLine.getMeasurementIterations().hasValue())
+			options.measurementIterations(5).measurementTime(TimeValue.seconds(1));
+		if (!commandLine.getTimeUnit().hasValue())
+			options.timeUnit(TimeUnit.MICROSECONDS);
+		if (!commandLine.getResultFormat().hasValue())
+			options.resultFormat(ResultFormatType.JSON).result("jobs-benchmarks.json"); //$NON-NLS-1$
+		new Runner(options.build()).run();
+	}
+}
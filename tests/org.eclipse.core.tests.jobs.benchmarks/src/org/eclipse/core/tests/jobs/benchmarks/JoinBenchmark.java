@@ -0,0 +1,68 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.tests.jobs.benchmarks;
+
+import org.eclipse.core.runtime.jobs.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks for joining a job family, both when the family has no members
+ * and when it has members that are still to run. Other jobs that do not belong
+ * to the family are known to the job manager, since they must not make
+ * joining the family slower.
+ */
+@State(Scope.Benchmark)
+public class JoinBenchmark {
+	/**
+	 * The number of sleeping jobs that do not belong to the joined family.
+	 */
+	private static final int OTHER_JOBS = 10000;
+
+	/**
+	 * The number of family members scheduled before joining the family.
+	 */
+	@Param({"0", "10", "100"})
+	public int members;
+
+	private final Object family = new Object();
+	private final Object otherFamily = new Object();
+	private IJobManager manager;
+	private Job[] jobs;
+	private Job[] others;
+
+	@Setup
+	public void setUp() {
+		manager = Job.getJobManager();
+		jobs = new Job[members];
+		for (int i = 0; i < jobs.length; i++)
+			jobs[i] = new BenchmarkJob(family, null);
+		others = new Job[OTHER_JOBS];
+		for (int i = 0; i < others.length; i++) {
+			others[i] = new BenchmarkJob(otherFamily, null);
+			others[i].schedule(Long.MAX_VALUE / 2);
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		manager.cancel(otherFamily);
+	}
+
+	/**
+	 * Schedules the family members, and joins the family.
+	 */
+	@Benchmark
+	public void join() throws InterruptedException {
+		if (jobs.length > 0)
+			manager.schedule(jobs, 0);
+		manager.join(family, null);
+	}
+}
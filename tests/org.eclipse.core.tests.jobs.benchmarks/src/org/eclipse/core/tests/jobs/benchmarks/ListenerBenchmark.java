@@ -0,0 +1,85 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.tests.jobs.benchmarks;
+
+import org.eclipse.core.internal.jobs.JobManager;
+import org.eclipse.core.runtime.jobs.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks for the cost of job change listeners: jobs are run while a number
+ * of global listeners are registered, which are notified either on the threads
+ * that change the jobs or asynchronously.
+ */
+@State(Scope.Benchmark)
+public class ListenerBenchmark {
+	/**
+	 * The number of jobs run by each invocation of the benchmark.
+	 */
+	private static final int JOBS = 1000;
+
+	/**
+	 * The number of global job change listeners.
+	 */
+	@Param({"0", "1", "12"})
+	public int listeners;
+
+	/**
+	 * Whether the global listeners are notified asynchronously.
+	 */
+	@Param({"false", "true"})
+	public boolean async;
+
+	private final Object family = new Object();
+	private IJobChangeListener[] added;
+	private Job[] jobs;
+
+	@Setup
+	public void setUp() {
+		jobs = new Job[JOBS];
+		for (int i = 0; i < jobs.length; i++)
+			jobs[i] = new BenchmarkJob(family, null);
+		IJobManager manager = Job.getJobManager();
+		((JobManager) manager).setAsyncListeners(async);
+		added = new IJobChangeListener[listeners];
+		for (int i = 0; i < added.length; i++) {
+			added[i] = new JobChangeAdapter() {
+				int events;
+
+				public void done(IJobChangeEvent event) {
+					events++;
+				}
+
+				public void scheduled(IJobChangeEvent event) {
+					events++;
+				}
+			};
+			manager.addJobChangeListener(added[i]);
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		IJobManager manager = Job.getJobManager();
+		for (int i = 0; i < added.length; i++)
+			manager.removeJobChangeListener(added[i]);
+		((JobManager) manager).setAsyncListeners(false);
+	}
+
+	/**
+	 * Runs jobs while the listeners are registered.
+	 */
+	@Benchmark
+	@OperationsPerInvocation(JOBS)
+	public void notifyListeners() {
+		BenchmarkJob.runAll(jobs, family);
+	}
+}
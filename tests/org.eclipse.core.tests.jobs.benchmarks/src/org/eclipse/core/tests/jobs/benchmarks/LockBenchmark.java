@@ -0,0 +1,64 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.tests.jobs.benchmarks;
+
+import org.eclipse.core.runtime.jobs.ILock;
+import org.eclipse.core.runtime.jobs.Job;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks for acquiring and releasing the locks created by the job manager,
+ * by a single thread and by several threads that share the lock.
+ */
+@State(Scope.Benchmark)
+public class LockBenchmark {
+	private ILock lock;
+
+	@Setup
+	public void setUp() {
+		lock = Job.getJobManager().newLock();
+	}
+
+	/**
+	 * Acquires and releases a lock that no other thread uses.
+	 */
+	@Benchmark
+	@Threads(1)
+	public void uncontended() {
+		lock.acquire();
+		lock.release();
+	}
+
+	/**
+	 * Acquires and releases a lock that three other threads use at the same time.
+	 */
+	@Benchmark
+	@Threads(4)
+	public void contended() {
+		lock.acquire();
+		lock.release();
+	}
+
+	/**
+	 * Acquires a lock that the thread already holds, and releases it.
+	 */
+	@Benchmark
+	@Threads(1)
+	public void reentrant() {
+		lock.acquire();
+		try {
+			lock.acquire();
+			lock.release();
+		} finally {
+			lock.release();
+		}
+	}
+}
@@ -0,0 +1,106 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.tests.jobs.benchmarks;
+
+import org.eclipse.core.runtime.jobs.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks for multi-rules with many children: combining the children, and
+ * asking whether the multi-rule conflicts with or contains another rule.
+ */
+@State(Scope.Thread)
+public class MultiRuleBenchmark {
+	/**
+	 * The number of roots that the children of the multi-rule are spread over.
+	 */
+	private static final int ROOTS = 16;
+
+	/**
+	 * A rule with a root that only conflicts with an equal rule.
+	 */
+	static class LeafRule implements IHierarchicalRule {
+		private final Integer root;
+		private final int id;
+
+		LeafRule(int root, int id) {
+			this.root = Integer.valueOf(root);
+			this.id = id;
+		}
+
+		public boolean contains(ISchedulingRule rule) {
+			return isConflicting(rule);
+		}
+
+		public boolean equals(Object obj) {
+			if (!(obj instanceof LeafRule))
+				return false;
+			LeafRule other = (LeafRule) obj;
+			return root.equals(other.root) && id == other.id;
+		}
+
+		public Object getRuleRoot() {
+			return root;
+		}
+
+		public int hashCode() {
+			return root.hashCode() * 31 + id;
+		}
+
+		public boolean isConflicting(ISchedulingRule rule) {
+			return equals(rule);
+		}
+	}
+
+	/**
+	 * The number of children of the multi-rule.
+	 */
+	@Param({"4", "64", "1024"})
+	public int children;
+
+	private ISchedulingRule[] rules;
+	private ISchedulingRule multi;
+	private ISchedulingRule absent;
+
+	@Setup
+	public void setUp() {
+		rules = new ISchedulingRule[children];
+		for (int i = 0; i < rules.length; i++)
+			rules[i] = new LeafRule(i % ROOTS, i);
+		multi = MultiRule.combine(rules);
+		absent = new LeafRule(0, -1);
+	}
+
+	/**
+	 * Combines all children into a multi-rule.
+	 */
+	@Benchmark
+	public ISchedulingRule combine() {
+		return MultiRule.combine(rules);
+	}
+
+	/**
+	 * Asks whether the multi-rule conflicts with a rule that none of its
+	 * children conflicts with.
+	 */
+	@Benchmark
+	public boolean isConflicting() {
+		return multi.isConflicting(absent);
+	}
+
+	/**
+	 * Asks whether the multi-rule contains its last child.
+	 */
+	@Benchmark
+	public boolean contains() {
+		return multi.contains(rules[rules.length - 1]);
+	}
+}
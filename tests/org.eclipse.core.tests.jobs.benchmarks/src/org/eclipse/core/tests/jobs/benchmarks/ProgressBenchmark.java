@@ -0,0 +1,72 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.tests.jobs.benchmarks;
+
+import org.eclipse.core.internal.jobs.ThrottledProgressMonitor;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks for reporting progress once per item in a tight loop, to a
+ * monitor whose updates are costly like those of a user interface, either
+ * directly or through a monitor that passes updates on at a bounded rate.
+ */
+@State(Scope.Thread)
+public class ProgressBenchmark {
+	/**
+	 * The number of items processed by each invocation of the benchmark.
+	 */
+	private static final int ITEMS = 10000;
+
+	/**
+	 * The minimum time in milliseconds between updates, or zero to pass every
+	 * update on.
+	 */
+	@Param({"0", "100"})
+	public long interval;
+
+	private IProgressMonitor monitor;
+
+	@Setup
+	public void setUp() {
+		monitor = new NullProgressMonitor() {
+			public void subTask(String name) {
+				Blackhole.consumeCPU(1000);
+			}
+
+			public void worked(int work) {
+				Blackhole.consumeCPU(1000);
+			}
+		};
+		if (interval > 0)
+			monitor = new ThrottledProgressMonitor(monitor, interval);
+	}
+
+	/**
+	 * Reports a subtask and one unit of work per item, and checks for
+	 * cancelation.
+	 */
+	@Benchmark
+	@OperationsPerInvocation(ITEMS)
+	public boolean reportItems() {
+		monitor.beginTask("ProgressBenchmark", ITEMS); //$NON-NLS-1$
+		boolean canceled = false;
+		for (int i = 0; i < ITEMS && !canceled; i++) {
+			monitor.subTask("item"); //$NON-NLS-1$
+			monitor.worked(1);
+			canceled = monitor.isCanceled();
+		}
+		monitor.done();
+		return canceled;
+	}
+}
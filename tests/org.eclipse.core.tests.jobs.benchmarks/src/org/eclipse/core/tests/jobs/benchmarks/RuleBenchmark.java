@@ -0,0 +1,128 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.tests.jobs.benchmarks;
+
+import org.eclipse.core.runtime.jobs.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks for scheduling rules: the cost of nested <code>beginRule</code>
+ * and <code>endRule</code> calls on one and on several threads, and the
+ * throughput of jobs whose rules all conflict compared to jobs whose rules do
+ * not conflict.
+ */
+public class RuleBenchmark {
+	/**
+	 * The number of jobs scheduled by each invocation of the rule throughput
+	 * benchmark.
+	 */
+	private static final int JOBS = 1000;
+
+	/**
+	 * A rule that contains and conflicts with its descendants.
+	 */
+	static class ChainRule implements ISchedulingRule {
+		private final ChainRule parent;
+
+		ChainRule(ChainRule parent) {
+			this.parent = parent;
+		}
+
+		public boolean contains(ISchedulingRule rule) {
+			for (ISchedulingRule r = rule; r instanceof ChainRule; r = ((ChainRule) r).parent)
+				if (r == this)
+					return true;
+			return false;
+		}
+
+		public boolean isConflicting(ISchedulingRule rule) {
+			return contains(rule) || rule.contains(this);
+		}
+	}
+
+	/**
+	 * A chain of nested rules.
+	 */
+	@State(Scope.Thread)
+	public static class Nesting {
+		/**
+		 * The number of rules that are begun before any of them is ended.
+		 */
+		@Param({"1", "4", "16"})
+		public int depth;
+
+		ISchedulingRule[] rules;
+
+		@Setup
+		public void setUp() {
+			rules = new ISchedulingRule[depth];
+			ChainRule parent = null;
+			for (int i = 0; i < rules.length; i++)
+				rules[i] = parent = new ChainRule(parent);
+		}
+	}
+
+	/**
+	 * Jobs with either the same rule or rules that do not conflict.
+	 */
+	@State(Scope.Benchmark)
+	public static class Conflicts {
+		/**
+		 * Whether the jobs all have the same rule.
+		 */
+		@Param({"false", "true"})
+		public boolean conflicting;
+
+		final Object family = new Object();
+		Job[] jobs;
+
+		@Setup
+		public void setUp() {
+			jobs = new Job[JOBS];
+			ISchedulingRule shared = new ChainRule(null);
+			for (int i = 0; i < jobs.length; i++)
+				jobs[i] = new BenchmarkJob(family, conflicting ? shared : new ChainRule(null));
+		}
+	}
+
+	/**
+	 * Begins a chain of nested rules on the benchmark thread, and ends them.
+	 */
+	@Benchmark
+	public void beginEndRule(Nesting nesting) {
+		IJobManager manager = Job.getJobManager();
+		ISchedulingRule[] rules = nesting.rules;
+		for (int i = 0; i < rules.length; i++)
+			manager.beginRule(rules[i], null);
+		for (int i = rules.length - 1; i >= 0; i--)
+			manager.endRule(rules[i]);
+	}
+
+	/**
+	 * Begins and ends a chain of nested rules on four threads at once. Each
+	 * thread has its own chain, so the rules of different threads do not
+	 * conflict.
+	 */
+	@Benchmark
+	@Threads(4)
+	public void beginEndRuleThreads(Nesting nesting) {
+		beginEndRule(nesting);
+	}
+
+	/**
+	 * Runs jobs whose rules either all conflict or do not conflict at all.
+	 */
+	@Benchmark
+	@OperationsPerInvocation(JOBS)
+	public void ruleThroughput(Conflicts conflicts) {
+		BenchmarkJob.runAll(conflicts.jobs, conflicts.family);
+	}
+}
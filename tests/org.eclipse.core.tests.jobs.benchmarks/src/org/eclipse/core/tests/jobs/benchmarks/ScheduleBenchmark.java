@@ -0,0 +1,92 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.tests.jobs.benchmarks;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.core.runtime.*;
+import org.eclipse.core.runtime.jobs.Job;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks for scheduling jobs: how many jobs can be scheduled and run per
+ * second, and how long it takes a scheduled job to start running.
+ */
+@State(Scope.Benchmark)
+public class ScheduleBenchmark {
+	/**
+	 * The number of jobs scheduled by each invocation of the throughput
+	 * benchmarks.
+	 */
+	private static final int JOBS = 1000;
+
+	/**
+	 * A job that signals when it starts running.
+	 */
+	static class SignalJob extends Job {
+		final Semaphore started = new Semaphore(0);
+
+		SignalJob() {
+			super("SignalJob"); //$NON-NLS-1$
+			setSystem(true);
+		}
+
+		protected IStatus run(IProgressMonitor monitor) {
+			started.release();
+			return Status.OK_STATUS;
+		}
+	}
+
+	private final Object family = new Object();
+	private Job[] jobs;
+	private SignalJob signalJob;
+
+	@Setup
+	public void setUp() {
+		jobs = new Job[JOBS];
+		for (int i = 0; i < jobs.length; i++)
+			jobs[i] = new BenchmarkJob(family, null);
+		signalJob = new SignalJob();
+	}
+
+	/**
+	 * Schedules jobs one at a time and waits until they have all run.
+	 */
+	@Benchmark
+	@OperationsPerInvocation(JOBS)
+	public void schedule() throws InterruptedException {
+		for (int i = 0; i < jobs.length; i++)
+			jobs[i].schedule();
+		Job.getJobManager().join(family, null);
+	}
+
+	/**
+	 * Schedules all jobs at once and waits until they have all run.
+	 */
+	@Benchmark
+	@OperationsPerInvocation(JOBS)
+	public void scheduleBulk() {
+		BenchmarkJob.runAll(jobs, family);
+	}
+
+	/**
+	 * Measures the time between scheduling a job and the job starting to run.
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.SampleTime)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public void scheduleToRun() throws InterruptedException {
+		signalJob.schedule();
+		signalJob.started.acquire();
+		//the job must be done before it can be scheduled again
+		signalJob.join();
+	}
+}
@@ -12,8 +12,9 @@ package org.eclipse.core.tests.runtime.jobs;
 
 import java.util.*;
 import org.eclipse.core.internal.jobs.JobManager;
-import org.eclipse.core.runtime.jobs.IJobManager;
-import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.jobs.*;
+import org.eclipse.core.tests.harness.TestJob;
 
 /**
  * Base class for tests using IJobManager
@@ -30,6 +31,56 @@ public class AbstractJobManagerTest extends AbstractJobTest {
 		super(name);
 	}
 
+	/**
+	 * Asserts that a job with the given rule does not run while a job with the
+	 * held rule is running, and runs once that job is done.
+	 */
+	protected void assertRuleBlocked(String message, ISchedulingRule held, ISchedulingRule rule) {
+		OrderJob holder = new OrderJob("Holder", null); //$NON-NLS-1$
+		holder.setRule(held);
+		holder.hold();
+		holder.schedule();
+		holder.waitForRun();
+		Job job = new TestJob(message, 1, 1);
+		job.setRule(rule);
+		job.schedule();
+		waitForBlocked(job);
+		assertEquals(message + ".1", Job.WAITING, job.getState());
+		holder.release();
+		waitForCompletion(holder, 5000);
+		waitForCompletion(job, 5000);
+		assertEquals(message + ".2", IStatus.OK, job.getResult().getSeverity());
+	}
+
+	/**
+	 * Asserts that a job with the given rule runs while a job with the held
+	 * rule is running.
+	 */
+	protected void assertRuleNotBlocked(String message, ISchedulingRule held, ISchedulingRule rule) {
+		OrderJob holder = new OrderJob("Holder", null); //$NON-NLS-1$
+		holder.setRule(held);
+		holder.hold();
+		holder.schedule();
+		holder.waitForRun();
+		try {
+			Job job = new TestJob(message, 1, 1);
+			job.setRule(rule);
+			job.schedule();
+			waitForCompletion(job, 5000);
+			assertEquals(message + ".1", Job.RUNNING, holder.getState());
+		} finally {
+			holder.release();
+			waitForCompletion(holder, 5000);
+		}
+	}
+
+	/**
+	 * Returns the job manager implementation, for tests of its internal API.
+	 */
+	protected JobManager getInternalManager() {
+		return (JobManager) manager;
+	}
+
 	protected void setUp() throws Exception {
 		super.setUp();
 		manager = Job.getJobManager();
@@ -43,6 +94,17 @@ public class AbstractJobManagerTest extends AbstractJobTest {
 		manager.setProgressProvider(null);
 	}
 
+	/**
+	 * Waits until the given job is blocked by a job with a conflicting rule.
+	 */
+	protected void waitForBlocked(Job job) {
+		int i = 0;
+		while (!"BLOCKED".equals(JobManager.printState(job))) { //$NON-NLS-1$
+			sleep(10);
+			assertTrue("Timeout waiting for " + job.getName() + " to be blocked, state: " + JobManager.printState(job), i++ < 500); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+	}
+
 	/**
 	 * Ensure job completes within the given time.
 	 * @param job
@@ -141,6 +203,21 @@ public class AbstractJobManagerTest extends AbstractJobTest {
 		}
 	}
 
+	/**
+	 * Waits until the given number of {@link OrderJob}s have added their names
+	 * to the given list.
+	 */
+	protected void waitForRuns(List order, int runs) {
+		for (int i = 0; true; i++) {
+			synchronized (order) {
+				if (order.size() >= runs)
+					return;
+			}
+			sleep(10);
+			assertTrue("Timeout waiting for jobs to run, ran: " + order, i < 500);
+		}
+	}
+
 	/**
 	 * Ensure given job completes within a second.
 	 */
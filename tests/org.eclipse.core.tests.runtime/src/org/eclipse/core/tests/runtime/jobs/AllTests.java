@@ -42,6 +42,16 @@ public class AllTests extends TestCase {
 		suite.addTestSuite(Bug_311863.class);
 		suite.addTestSuite(Bug_316839.class);
 		suite.addTestSuite(Bug_320329.class);
+		suite.addTestSuite(HierarchicalRuleTest.class);
+		suite.addTestSuite(WorkerPoolTest.class);
+		suite.addTestSuite(JobMetricsTest.class);
+		suite.addTestSuite(SharedRuleTest.class);
+		suite.addTestSuite(JobGroupTest.class);
+		suite.addTestSuite(FlightRecorderTest.class);
+		suite.addTestSuite(DeadlineTest.class);
+		suite.addTestSuite(FairShareTest.class);
+		suite.addTestSuite(QueueLimitTest.class);
+		suite.addTestSuite(ThrottledProgressMonitorTest.class);
 		return suite;
 	}
 }
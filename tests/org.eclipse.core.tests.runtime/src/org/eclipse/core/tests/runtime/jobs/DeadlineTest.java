@@ -0,0 +1,154 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.tests.runtime.jobs;
+
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.Test;
+import junit.framework.TestSuite;
+import org.eclipse.core.internal.jobs.DeadlineStatistics;
+import org.eclipse.core.runtime.jobs.*;
+
+/**
+ * Tests for job deadlines and deadline scheduling.
+ */
+public class DeadlineTest extends AbstractJobManagerTest {
+	public static Test suite() {
+		return new TestSuite(DeadlineTest.class);
+	}
+
+	public DeadlineTest() {
+		super();
+	}
+
+	public DeadlineTest(String name) {
+		super(name);
+	}
+
+	/**
+	 * Returns a job that adds its name to the given list when it runs.
+	 */
+	private Job createJob(String name, int priority, long deadline, List order) {
+		Job job = new OrderJob(name, order);
+		job.setPriority(priority);
+		job.setDeadline(deadline);
+		return job;
+	}
+
+	/**
+	 * Runs the given jobs one at a time, and returns the names of the jobs in
+	 * the order they ran.
+	 */
+	private List runAll(Job[] jobs, List order) throws InterruptedException {
+		JobGroup group = new JobGroup("DeadlineTest", 1);
+		for (int i = 0; i < jobs.length; i++)
+			jobs[i].setJobGroup(group);
+		manager.suspend();
+		try {
+			manager.schedule(jobs, 0);
+		} finally {
+			manager.resume();
+		}
+		group.join(null);
+		return order;
+	}
+
+	protected void tearDown() throws Exception {
+		manager.setDeadlineSchedulingEnabled(false);
+		super.tearDown();
+	}
+
+	public void testDeadlineOrder() throws InterruptedException {
+		manager.setDeadlineSchedulingEnabled(true);
+		List order = new ArrayList();
+		Job[] jobs = new Job[] {createJob("None", Job.LONG, 0, order), createJob("Late", Job.LONG, 60000, order), createJob("Early", Job.LONG, 1000, order), createJob("Interactive", Job.INTERACTIVE, 0, order)};
+		runAll(jobs, order);
+		assertEquals("1.0", "[Interactive, Early, Late, None]", order.toString());
+	}
+
+	public void testDeadlinesIgnored() throws InterruptedException {
+		List order = new ArrayList();
+		Job[] jobs = new Job[] {createJob("None", Job.LONG, 0, order), createJob("Late", Job.LONG, 60000, order), createJob("Early", Job.LONG, 1000, order)};
+		runAll(jobs, order);
+		assertEquals("1.0", "[None, Late, Early]", order.toString());
+	}
+
+	/**
+	 * A job with a deadline must not overtake an older job with a conflicting
+	 * rule. It is ordered like that job instead.
+	 */
+	public void testNoConflictOvertaking() throws InterruptedException {
+		manager.setDeadlineSchedulingEnabled(true);
+		List order = new ArrayList();
+		ISchedulingRule rule = new IdentityRule();
+		Job first = createJob("First", Job.LONG, 0, order);
+		first.setRule(rule);
+		Job early = createJob("Early", Job.LONG, 1000, order);
+		early.setRule(rule);
+		Job[] jobs = new Job[] {first, createJob("Other", Job.LONG, 0, order), early};
+		runAll(jobs, order);
+		//the other job is ordered by its start time, which may differ from that of the first job
+		assertTrue("1.0", order.indexOf("First") < order.indexOf("Early"));
+		assertEquals("1.1", 3, order.size());
+	}
+
+	/**
+	 * A job with a hierarchical rule may overtake older jobs with rules in other
+	 * hierarchies, but not an older job with a conflicting rule in its own.
+	 */
+	public void testNoConflictOvertakingHierarchical() throws InterruptedException {
+		manager.setDeadlineSchedulingEnabled(true);
+		List order = new ArrayList();
+		Job first = createJob("First", Job.LONG, 0, order);
+		first.setRule(new HierarchicalRuleTest.RootedPathRule("/a"));
+		Job child = createJob("Child", Job.LONG, 1000, order);
+		child.setRule(new HierarchicalRuleTest.RootedPathRule("/a/b"));
+		Job other = createJob("Other", Job.LONG, 1000, order);
+		other.setRule(new HierarchicalRuleTest.RootedPathRule("/b/c"));
+		Job[] jobs = new Job[] {first, child, other};
+		runAll(jobs, order);
+		assertEquals("1.0", "[Other, First, Child]", order.toString());
+	}
+
+	public void testSetDeadline() {
+		Job job = createJob("Job", Job.LONG, 0, new ArrayList());
+		assertEquals("1.0", 0, job.getDeadline());
+		job.setDeadline(100);
+		assertEquals("1.1", 100, job.getDeadline());
+		try {
+			job.setDeadline(-1);
+			fail("1.2");
+		} catch (IllegalArgumentException e) {
+			//expected
+		}
+		assertEquals("1.3", 100, job.getDeadline());
+	}
+
+	public void testStatistics() {
+		DeadlineStatistics statistics = getInternalManager().getDeadlineStatistics();
+		statistics.reset();
+		List order = new ArrayList();
+		//the missed job runs long enough to be late by a known amount
+		Job missed = new OrderJob("Missed", order, 100);
+		missed.setDeadline(1);
+		Job met = createJob("Met", Job.LONG, 60000, order);
+		Job none = createJob("None", Job.LONG, 0, order);
+		missed.schedule();
+		met.schedule();
+		none.schedule();
+		waitForCompletion(missed, 5000);
+		waitForCompletion(met, 5000);
+		waitForCompletion(none, 5000);
+		assertEquals("1.0", 1, statistics.getMissedCount());
+		assertEquals("1.1", 1, statistics.getMetCount());
+		assertTrue("1.2", statistics.getLateness().getMax() >= 50);
+	}
+}
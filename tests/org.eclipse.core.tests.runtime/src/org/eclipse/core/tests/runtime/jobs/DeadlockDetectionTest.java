@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2003, 2006 IBM Corporation and others.
+ * Copyright (c) 2003, 2011 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -138,6 +138,54 @@ public class DeadlockDetectionTest extends TestCase {
 		assertTrue("Locks not removed from graph.", localManager.isEmpty());
 	}
 
+	/**
+	 * Test that a deadlock between threads that hold many locks is detected
+	 * and resolved, and that all the locks are removed from the graph.
+	 */
+	public void testDeadlockManyLocks() {
+		final int LOCKS_PER_THREAD = 500;
+		LockManager localManager = new LockManager();
+		final OrderedLock lock1 = localManager.newLock();
+		final OrderedLock lock2 = localManager.newLock();
+		final ILock[][] owned = new ILock[2][LOCKS_PER_THREAD];
+		for (int i = 0; i < owned.length; i++)
+			for (int j = 0; j < LOCKS_PER_THREAD; j++)
+				owned[i][j] = localManager.newLock();
+		final ILock[][] order = new ILock[][] {{lock1, lock2}, {lock2, lock1}};
+		Thread[] threads = new Thread[2];
+		for (int i = 0; i < threads.length; i++) {
+			final int index = i;
+			threads[i] = new Thread("testDeadlockManyLocks " + i) {
+				public void run() {
+					for (int j = 0; j < LOCKS_PER_THREAD; j++)
+						owned[index][j].acquire();
+					order[index][0].acquire();
+					try {
+						Thread.sleep(200);
+					} catch (InterruptedException e) {
+						//ignore
+					}
+					order[index][1].acquire();
+					order[index][1].release();
+					order[index][0].release();
+					for (int j = LOCKS_PER_THREAD; --j >= 0;)
+						owned[index][j].release();
+				}
+			};
+			threads[i].start();
+		}
+		for (int i = 0; i < threads.length; i++) {
+			try {
+				threads[i].join(100000);
+			} catch (InterruptedException e1) {
+				//ignore
+			}
+			assertTrue("1." + i, !threads[i].isAlive());
+		}
+		//the underlying graph has to be empty
+		assertTrue("Locks not removed from graph.", localManager.isEmpty());
+	}
+
 	/**
 	 * Test a more complicated scenario with 3 threads and 3 locks.
 	 */
@@ -0,0 +1,177 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.tests.runtime.jobs;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import junit.framework.Test;
+import junit.framework.TestSuite;
+import org.eclipse.core.runtime.jobs.*;
+
+/**
+ * Tests for fair share scheduling between the owners of jobs.
+ */
+public class FairShareTest extends AbstractJobManagerTest {
+	public static Test suite() {
+		return new TestSuite(FairShareTest.class);
+	}
+
+	public FairShareTest() {
+		super();
+	}
+
+	public FairShareTest(String name) {
+		super(name);
+	}
+
+	/**
+	 * Returns jobs of the given owner, named by the given prefix and their number.
+	 */
+	private List createJobs(String prefix, Object owner, int count, List order, long duration, List jobs) {
+		for (int i = 1; i <= count; i++) {
+			Job job = new OrderJob(prefix + i, order, duration);
+			job.setFamilies(new Object[] {owner});
+			jobs.add(job);
+		}
+		return jobs;
+	}
+
+	/**
+	 * Runs the given jobs one at a time, and returns the names of the jobs in
+	 * the order they ran.
+	 */
+	private List runAll(List jobs, List order) throws InterruptedException {
+		JobGroup group = new JobGroup("FairShareTest", 1);
+		for (int i = 0; i < jobs.size(); i++)
+			((Job) jobs.get(i)).setJobGroup(group);
+		manager.suspend();
+		try {
+			manager.schedule((Job[]) jobs.toArray(new Job[jobs.size()]), 0);
+		} finally {
+			manager.resume();
+		}
+		group.join(null);
+		return order;
+	}
+
+	protected void tearDown() throws Exception {
+		manager.setFairShareEnabled(false);
+		manager.setDeadlineSchedulingEnabled(false);
+		super.tearDown();
+	}
+
+	public void testDeadlinesFirst() throws InterruptedException {
+		manager.setFairShareEnabled(true);
+		manager.setDeadlineSchedulingEnabled(true);
+		List order = new ArrayList();
+		List jobs = createJobs("A", "FairShareTest.testDeadlinesFirst.A", 3, order, 0, new ArrayList());
+		createJobs("B", "FairShareTest.testDeadlinesFirst.B", 3, order, 0, jobs);
+		((Job) jobs.get(5)).setDeadline(60000);
+		runAll(jobs, order);
+		assertEquals("1.0", "[B3, A1, B1, A2, B2, A3]", order.toString());
+	}
+
+	public void testFairShareOff() throws InterruptedException {
+		List order = new ArrayList();
+		List jobs = createJobs("A", "FairShareTest.testFairShareOff.A", 3, order, 0, new ArrayList());
+		createJobs("B", "FairShareTest.testFairShareOff.B", 2, order, 0, jobs);
+		runAll(jobs, order);
+		assertEquals("1.0", "[A1, A2, A3, B1, B2]", order.toString());
+	}
+
+	public void testNoConflictOvertaking() throws InterruptedException {
+		manager.setFairShareEnabled(true);
+		List order = new ArrayList();
+		List jobs = createJobs("A", "FairShareTest.testNoConflictOvertaking.A", 3, order, 0, new ArrayList());
+		createJobs("B", "FairShareTest.testNoConflictOvertaking.B", 1, order, 0, jobs);
+		ISchedulingRule rule = new IdentityRule();
+		for (int i = 0; i < jobs.size(); i++)
+			((Job) jobs.get(i)).setRule(rule);
+		runAll(jobs, order);
+		assertEquals("1.0", "[A1, A2, A3, B1]", order.toString());
+	}
+
+	public void testOwner() {
+		List order = new ArrayList();
+		Job declared = new OrderJob("Declared", order);
+		declared.setFamilies(new Object[] {"FairShareTest.testOwner"});
+		assertEquals("1.0", "FairShareTest.testOwner", getInternalManager().getShareOwner(declared));
+		Job first = new OrderJob("First", order);
+		Job second = new OrderJob("Second", order);
+		Object owner = getInternalManager().getShareOwner(first);
+		assertNotNull("2.0", owner);
+		assertEquals("2.1", owner, getInternalManager().getShareOwner(second));
+	}
+
+	public void testRunTimes() throws InterruptedException {
+		manager.setFairShareEnabled(true);
+		String owner = "FairShareTest.testRunTimes";
+		List order = new ArrayList();
+		runAll(createJobs("A", owner, 3, order, 50, new ArrayList()), order);
+		Long time = (Long) manager.getRunTimes().get(owner);
+		assertNotNull("1.0", time);
+		assertTrue("1.1", time.longValue() >= 140);
+		assertTrue("1.2", time.longValue() < 5000);
+	}
+
+	public void testShareKept() throws InterruptedException {
+		manager.setFairShareEnabled(true);
+		List order = new ArrayList();
+		//an owner that is not referenced once its jobs are done
+		manager.setShareWeight(new String("FairShareTest.testShareKept"), 2);
+		runAll(createJobs("A", new String("FairShareTest.testShareKept"), 2, order, 10, new ArrayList()), order);
+		System.gc();
+		//owners whose weight was not set, which come and go while the jobs
+		//of another owner keep running
+		for (int i = 0; i < 10; i++) {
+			List jobs = createJobs("S", "FairShareTest.testShareKept.S", 2, order, 0, new ArrayList());
+			for (int j = 0; j < 10; j++)
+				createJobs("B", "FairShareTest.testShareKept." + (i * 10 + j), 1, order, 1, jobs);
+			runAll(jobs, order);
+		}
+		Map runTimes = manager.getRunTimes();
+		assertTrue("1.0", runTimes.containsKey("FairShareTest.testShareKept"));
+		int kept = 0;
+		for (int i = 0; i < 100; i++)
+			if (runTimes.containsKey("FairShareTest.testShareKept." + i))
+				kept++;
+		assertTrue("1.1", kept < 100);
+		manager.removeShare("FairShareTest.testShareKept");
+		assertFalse("1.2", manager.getRunTimes().containsKey("FairShareTest.testShareKept"));
+	}
+
+	public void testTakeTurns() throws InterruptedException {
+		manager.setFairShareEnabled(true);
+		List order = new ArrayList();
+		List jobs = createJobs("A", "FairShareTest.testTakeTurns.A", 5, order, 0, new ArrayList());
+		createJobs("B", "FairShareTest.testTakeTurns.B", 2, order, 0, jobs);
+		runAll(jobs, order);
+		assertEquals("1.0", "[A1, B1, A2, B2, A3, A4, A5]", order.toString());
+	}
+
+	public void testWeights() throws InterruptedException {
+		manager.setFairShareEnabled(true);
+		String heavy = "FairShareTest.testWeights.A";
+		manager.setShareWeight(heavy, 2);
+		List order = new ArrayList();
+		List jobs = createJobs("A", heavy, 5, order, 0, new ArrayList());
+		createJobs("B", "FairShareTest.testWeights.B", 2, order, 0, jobs);
+		runAll(jobs, order);
+		assertEquals("1.0", "[A1, B1, A2, A3, B2, A4, A5]", order.toString());
+		try {
+			manager.setShareWeight(heavy, 0);
+			fail("1.1");
+		} catch (IllegalArgumentException e) {
+			//expected
+		}
+	}
+}
@@ -0,0 +1,280 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.tests.runtime.jobs;
+
+import java.io.*;
+import java.util.*;
+import junit.framework.Test;
+import junit.framework.TestSuite;
+import org.eclipse.core.internal.jobs.*;
+import org.eclipse.core.runtime.jobs.*;
+import org.eclipse.core.tests.harness.TestBarrier;
+import org.eclipse.core.tests.harness.TestJob;
+
+/**
+ * Tests for the flight recorder of job state changes and lock events.
+ */
+public class FlightRecorderTest extends AbstractJobManagerTest {
+	/**
+	 * The recorder of the job manager before the test.
+	 */
+	private FlightRecorder previous;
+
+	public static Test suite() {
+		return new TestSuite(FlightRecorderTest.class);
+	}
+
+	public FlightRecorderTest() {
+		super();
+	}
+
+	public FlightRecorderTest(String name) {
+		super(name);
+	}
+
+	private FlightRecorder getRecorder() {
+		return ((JobManager) manager).getFlightRecorder();
+	}
+
+	/**
+	 * Returns the events of the given kind about the given subject.
+	 */
+	private FlightRecording.Event[] find(FlightRecording recording, int kind, String subject) {
+		FlightRecording.Event[] events = recording.getEvents();
+		int count = 0;
+		for (int i = 0; i < events.length; i++)
+			if (events[i].getKind() == kind && subject.equals(events[i].getSubject()))
+				events[count++] = events[i];
+		FlightRecording.Event[] found = new FlightRecording.Event[count];
+		System.arraycopy(events, 0, found, 0, count);
+		return found;
+	}
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		//the recorder is off by default
+		previous = getRecorder();
+		((JobManager) manager).setFlightRecorder(new FlightRecorder(FlightRecorder.DEFAULT_SIZE));
+	}
+
+	protected void tearDown() throws Exception {
+		((JobManager) manager).setFlightRecorder(previous);
+		super.tearDown();
+	}
+
+	public void testConcurrentSnapshots() throws InterruptedException {
+		//a small recorder, so that events are overwritten while snapshots are taken
+		((JobManager) manager).setFlightRecorder(new FlightRecorder(16));
+		final int[] status = new int[4];
+		Thread[] threads = new Thread[status.length];
+		//each thread records events about a rule of its own
+		String[] subjects = new String[status.length];
+		for (int i = 0; i < threads.length; i++) {
+			final int index = i;
+			final ISchedulingRule rule = new IdentityRule();
+			subjects[i] = FlightRecorder.describe(rule);
+			threads[i] = new Thread("FlightRecorderTest" + i) {
+				public void run() {
+					for (int j = 0; j < 10000; j++) {
+						manager.beginRule(rule, null);
+						manager.endRule(rule);
+					}
+					status[index] = TestBarrier.STATUS_DONE;
+				}
+			};
+			threads[i].start();
+		}
+		int snapshots = 0;
+		boolean done = false;
+		while (!done) {
+			FlightRecording.Event[] events = getRecorder().snapshot().getEvents();
+			Map last = new HashMap();
+			for (int i = 0; i < events.length; i++) {
+				//an event that is partly overwritten would mix up threads and rules
+				for (int j = 0; j < subjects.length; j++)
+					if (subjects[j].equals(events[i].getSubject()))
+						assertEquals("1.0", threads[j].getName(), events[i].getThread());
+				//events of different threads may share a sequence number, but not events of the same thread
+				if (i > 0)
+					assertTrue("1.1", events[i - 1].getSequence() <= events[i].getSequence());
+				Object previousEvent = last.put(events[i].getThread(), events[i]);
+				if (previousEvent != null)
+					assertTrue("1.2", ((FlightRecording.Event) previousEvent).getSequence() < events[i].getSequence());
+			}
+			snapshots++;
+			done = true;
+			for (int i = 0; i < status.length; i++)
+				done &= status[i] == TestBarrier.STATUS_DONE;
+		}
+		for (int i = 0; i < threads.length; i++)
+			threads[i].join(5000);
+		assertTrue("2.0", snapshots > 0);
+	}
+
+	public void testDeadlockDump() throws IOException, InterruptedException {
+		File dir = File.createTempFile("recorder", null);
+		assertTrue("1.0", dir.delete() && dir.mkdir());
+		getRecorder().setDumpDirectory(dir);
+		final ILock lock1 = manager.newLock();
+		final ILock lock2 = manager.newLock();
+		final int[] status = {TestBarrier.STATUS_WAIT_FOR_START, TestBarrier.STATUS_WAIT_FOR_START};
+		Thread first = new Thread("FlightRecorderTest1") {
+			public void run() {
+				lock1.acquire();
+				status[0] = TestBarrier.STATUS_START;
+				TestBarrier.waitForStatus(status, 0, TestBarrier.STATUS_RUNNING);
+				lock2.acquire();
+				lock2.release();
+				lock1.release();
+				status[0] = TestBarrier.STATUS_DONE;
+			}
+		};
+		Thread second = new Thread("FlightRecorderTest2") {
+			public void run() {
+				lock2.acquire();
+				status[1] = TestBarrier.STATUS_START;
+				TestBarrier.waitForStatus(status, 1, TestBarrier.STATUS_RUNNING);
+				lock1.acquire();
+				lock1.release();
+				lock2.release();
+				status[1] = TestBarrier.STATUS_DONE;
+			}
+		};
+		first.start();
+		second.start();
+		TestBarrier.waitForStatus(status, 0, TestBarrier.STATUS_START);
+		TestBarrier.waitForStatus(status, 1, TestBarrier.STATUS_START);
+		status[0] = TestBarrier.STATUS_RUNNING;
+		status[1] = TestBarrier.STATUS_RUNNING;
+		TestBarrier.waitForStatus(status, 0, TestBarrier.STATUS_DONE);
+		TestBarrier.waitForStatus(status, 1, TestBarrier.STATUS_DONE);
+		first.join(5000);
+		second.join(5000);
+
+		File[] dumps = dir.listFiles();
+		try {
+			assertEquals("2.0", 1, dumps.length);
+			InputStream in = new FileInputStream(dumps[0]);
+			FlightRecording recording;
+			try {
+				recording = FlightRecording.read(in);
+			} finally {
+				in.close();
+			}
+			FlightRecording.Event[] events = recording.getEvents();
+			FlightRecording.Event last = events[events.length - 1];
+			assertEquals("2.1", FlightRecorder.DEADLOCK, last.getKind());
+			assertEquals("2.2", 1, last.getArgument());
+		} finally {
+			for (int i = 0; i < dumps.length; i++)
+				dumps[i].delete();
+			dir.delete();
+		}
+	}
+
+	public void testDumpAndRead() throws IOException {
+		ISchedulingRule rule = new IdentityRule();
+		manager.beginRule(rule, null);
+		manager.endRule(rule);
+		FlightRecording recording = getRecorder().snapshot();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		recording.write(out);
+		FlightRecording read = FlightRecording.read(new ByteArrayInputStream(out.toByteArray()));
+		assertEquals("1.0", recording.toString(), read.toString());
+		assertEquals("1.1", 1, find(read, FlightRecorder.RULE_ACQUIRED, FlightRecorder.describe(rule)).length);
+		try {
+			FlightRecording.read(new ByteArrayInputStream(new byte[] {1, 2, 3, 4, 5, 6}));
+			fail("1.2");
+		} catch (IOException e) {
+			//expected
+		}
+	}
+
+	public void testEndedThread() throws InterruptedException {
+		final ISchedulingRule rule = new IdentityRule();
+		Thread thread = new Thread("FlightRecorderTest.testEndedThread") {
+			public void run() {
+				manager.beginRule(rule, null);
+				manager.endRule(rule);
+			}
+		};
+		thread.start();
+		thread.join(5000);
+		//the events of a thread that has ended are kept
+		FlightRecording.Event[] acquired = find(getRecorder().snapshot(), FlightRecorder.RULE_ACQUIRED, FlightRecorder.describe(rule));
+		assertEquals("1.0", 1, acquired.length);
+		assertEquals("1.1", thread.getName(), acquired[0].getThread());
+	}
+
+	public void testNamesCaptured() {
+		Job job = new TestJob("FlightRecorderTest.testNamesCaptured", 1, 1);
+		String subject = job.toString();
+		job.schedule();
+		waitForCompletion(job, 5000);
+		//events show the name the job had when they were recorded
+		job.setName("FlightRecorderTest.renamed");
+		FlightRecording recording = getRecorder().snapshot();
+		assertTrue("1.0", find(recording, FlightRecorder.STATE_CHANGED, subject).length >= 3);
+		assertEquals("1.1", 0, find(recording, FlightRecorder.STATE_CHANGED, job.toString()).length);
+	}
+
+	public void testRules() {
+		ISchedulingRule rule = new IdentityRule();
+		manager.beginRule(rule, null);
+		manager.beginRule(rule, null);
+		manager.endRule(rule);
+		manager.endRule(rule);
+		FlightRecording recording = getRecorder().snapshot();
+		//nested rules do not acquire the rule again
+		FlightRecording.Event[] acquired = find(recording, FlightRecorder.RULE_ACQUIRED, FlightRecorder.describe(rule));
+		FlightRecording.Event[] released = find(recording, FlightRecorder.RULE_RELEASED, FlightRecorder.describe(rule));
+		assertEquals("1.0", 1, acquired.length);
+		assertEquals("1.1", 1, released.length);
+		assertTrue("1.2", acquired[0].getSequence() < released[0].getSequence());
+		assertEquals("1.3", Thread.currentThread().getName(), acquired[0].getThread());
+	}
+
+	public void testStateChanges() {
+		Job job = new TestJob("FlightRecorderTest.testStateChanges", 1, 1);
+		job.schedule();
+		waitForCompletion(job, 5000);
+		FlightRecording.Event[] events = find(getRecorder().snapshot(), FlightRecorder.STATE_CHANGED, job.toString());
+		assertTrue("1.0", events.length >= 3);
+		FlightRecording.Event first = events[0];
+		assertEquals("1.1", Job.NONE, first.getArgument() >>> 16);
+		FlightRecording.Event last = events[events.length - 1];
+		assertEquals("1.2", Job.RUNNING, last.getArgument() >>> 16);
+		assertEquals("1.3", Job.NONE, last.getArgument() & 0xFFFF);
+		for (int i = 1; i < events.length; i++)
+			assertTrue("1.4", events[i - 1].getSequence() < events[i].getSequence());
+		assertTrue("1.5", last.toString().indexOf("RUNNING -> NONE") > 0);
+	}
+
+	public void testWrapAround() {
+		FlightRecorder recorder = getRecorder();
+		int capacity = recorder.getCapacity();
+		ILock lock = manager.newLock();
+		for (int i = 0; i < capacity; i++) {
+			lock.acquire();
+			lock.release();
+		}
+		//each thread keeps as many events as the capacity
+		FlightRecording.Event[] all = recorder.snapshot().getEvents();
+		List events = new ArrayList();
+		for (int i = 0; i < all.length; i++)
+			if (Thread.currentThread().getName().equals(all[i].getThread()))
+				events.add(all[i]);
+		assertTrue("1.0", events.size() <= capacity);
+		assertTrue("1.1", events.size() > capacity / 2);
+		for (int i = 1; i < events.size(); i++)
+			assertTrue("1.2", ((FlightRecording.Event) events.get(i - 1)).getSequence() < ((FlightRecording.Event) events.get(i)).getSequence());
+	}
+}
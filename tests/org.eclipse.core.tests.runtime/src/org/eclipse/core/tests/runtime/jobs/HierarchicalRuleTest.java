@@ -0,0 +1,79 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.tests.runtime.jobs;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+import org.eclipse.core.runtime.*;
+import org.eclipse.core.runtime.jobs.*;
+
+/**
+ * Tests for scheduling of jobs with rules that implement {@link IHierarchicalRule}.
+ */
+public class HierarchicalRuleTest extends AbstractJobManagerTest {
+	/**
+	 * A path rule whose root is the first segment of its path.
+	 */
+	static class RootedPathRule extends PathRule implements IHierarchicalRule {
+		public RootedPathRule(String pathString) {
+			super(pathString);
+		}
+
+		public Object getRuleRoot() {
+			IPath path = getFullPath();
+			return path.segmentCount() == 0 ? null : path.segment(0);
+		}
+	}
+
+	public static Test suite() {
+		return new TestSuite(HierarchicalRuleTest.class);
+	}
+
+	public HierarchicalRuleTest() {
+		super();
+	}
+
+	public HierarchicalRuleTest(String name) {
+		super(name);
+	}
+
+	public void testSameRoot() {
+		assertRuleBlocked("1.0", new RootedPathRule("/a"), new RootedPathRule("/a"));
+		assertRuleBlocked("2.0", new RootedPathRule("/a"), new RootedPathRule("/a/b"));
+		assertRuleBlocked("3.0", new RootedPathRule("/a/b"), new RootedPathRule("/a"));
+		assertRuleNotBlocked("4.0", new RootedPathRule("/a/b"), new RootedPathRule("/a/c"));
+	}
+
+	public void testDifferentRoots() {
+		assertRuleNotBlocked("1.0", new RootedPathRule("/a"), new RootedPathRule("/b"));
+		assertRuleNotBlocked("2.0", new RootedPathRule("/a/b"), new RootedPathRule("/b/a"));
+	}
+
+	public void testOpaqueRules() {
+		//plain path rules may conflict with path rules in any hierarchy
+		assertRuleBlocked("1.0", new RootedPathRule("/a"), new PathRule("/a/b"));
+		assertRuleBlocked("2.0", new PathRule("/a/b"), new RootedPathRule("/a"));
+		//a rule without a root may conflict with rules in any hierarchy
+		assertRuleBlocked("3.0", new RootedPathRule("/"), new RootedPathRule("/a"));
+		assertRuleBlocked("4.0", new RootedPathRule("/a"), new RootedPathRule("/"));
+		assertRuleNotBlocked("5.0", new RootedPathRule("/a"), new IdentityRule());
+	}
+
+	public void testMultiRule() {
+		ISchedulingRule multi = MultiRule.combine(new RootedPathRule("/b"), new RootedPathRule("/a/c"));
+		assertRuleBlocked("1.0", new RootedPathRule("/a"), multi);
+		assertRuleBlocked("2.0", multi, new RootedPathRule("/a"));
+		assertRuleNotBlocked("3.0", new RootedPathRule("/c"), multi);
+		ISchedulingRule mixed = MultiRule.combine(new PathRule("/b"), new RootedPathRule("/c"));
+		assertRuleBlocked("4.0", new RootedPathRule("/b/d"), mixed);
+		assertRuleNotBlocked("5.0", new RootedPathRule("/a"), mixed);
+	}
+}
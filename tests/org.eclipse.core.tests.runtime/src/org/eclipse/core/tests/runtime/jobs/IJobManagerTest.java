@@ -12,6 +12,7 @@ package org.eclipse.core.tests.runtime.jobs;
 
 import java.util.*;
 import junit.framework.*;
+import org.eclipse.core.internal.jobs.JobManager;
 import org.eclipse.core.runtime.*;
 import org.eclipse.core.runtime.jobs.*;
 import org.eclipse.core.tests.harness.*;
@@ -137,6 +138,76 @@ public class IJobManagerTest extends AbstractJobManagerTest {
 		//		manager.startup();
 	}
 
+	/**
+	 * Tests notifying the global listeners asynchronously.
+	 */
+	public void testAsyncListeners() {
+		final List events = Collections.synchronizedList(new ArrayList());
+		final Set wrongThreads = Collections.synchronizedSet(new HashSet());
+		IJobChangeListener listener = new JobChangeAdapter() {
+			private void record(IJobChangeEvent event, String type) {
+				if (event.getJob().getName().startsWith("testAsyncListeners")) //$NON-NLS-1$
+					events.add(event.getJob().getName() + ' ' + type);
+			}
+
+			public void aboutToRun(IJobChangeEvent event) {
+				record(event, "aboutToRun"); //$NON-NLS-1$
+				//this event is delivered by the thread that is about to run the job
+				if (Thread.currentThread().getName().equals("Worker-JL")) //$NON-NLS-1$
+					wrongThreads.add(event.getJob().getName());
+				//the job can still be canceled before it runs
+				if (event.getJob().getName().endsWith("veto")) //$NON-NLS-1$
+					event.getJob().cancel();
+			}
+
+			public void done(IJobChangeEvent event) {
+				record(event, "done"); //$NON-NLS-1$
+			}
+
+			public void running(IJobChangeEvent event) {
+				record(event, "running"); //$NON-NLS-1$
+			}
+
+			public void scheduled(IJobChangeEvent event) {
+				record(event, "scheduled"); //$NON-NLS-1$
+			}
+		};
+		JobManager jobManager = (JobManager) manager;
+		jobManager.setAsyncListeners(true);
+		manager.addJobChangeListener(listener);
+		Job[] jobs = new Job[21];
+		try {
+			for (int i = 0; i < jobs.length; i++) {
+				jobs[i] = new TestJob("testAsyncListeners" + i + (i == 0 ? " veto" : ""), 1, 1); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+				jobs[i].schedule();
+			}
+			for (int i = 0; i < jobs.length; i++)
+				waitForCompletion(jobs[i], 5000);
+		} finally {
+			//delivers the pending events
+			jobManager.setAsyncListeners(false);
+			manager.removeJobChangeListener(listener);
+		}
+		assertEquals("1.0", Collections.EMPTY_SET, wrongThreads);
+		assertEquals("1.1", IStatus.CANCEL, jobs[0].getResult().getSeverity());
+		//the events of each job are delivered in order
+		for (int i = 0; i < jobs.length; i++) {
+			List expected = new ArrayList();
+			expected.add(jobs[i].getName() + " scheduled"); //$NON-NLS-1$
+			expected.add(jobs[i].getName() + " aboutToRun"); //$NON-NLS-1$
+			if (i > 0)
+				expected.add(jobs[i].getName() + " running"); //$NON-NLS-1$
+			expected.add(jobs[i].getName() + " done"); //$NON-NLS-1$
+			List actual = new ArrayList();
+			for (Iterator it = events.iterator(); it.hasNext();) {
+				String event = (String) it.next();
+				if (event.startsWith(jobs[i].getName() + ' '))
+					actual.add(event);
+			}
+			assertEquals("2." + i, expected, actual);
+		}
+	}
+
 	/**
 	 * Tests running a job that begins a rule but never ends it
 	 */
@@ -376,6 +447,34 @@ public class IJobManagerTest extends AbstractJobManagerTest {
 		}
 	}
 
+	public void testManyDelayedJobs() {
+		//schedule many jobs with different delays at once and ensure none of them starts early
+		final int JOB_COUNT = 200;
+		final long[] scheduled = new long[JOB_COUNT];
+		final long[] started = new long[JOB_COUNT];
+		Job[] jobs = new Job[JOB_COUNT];
+		for (int i = 0; i < JOB_COUNT; i++) {
+			final int index = i;
+			jobs[i] = new Job("testManyDelayedJobs" + i) {
+				protected IStatus run(IProgressMonitor monitor) {
+					started[index] = System.currentTimeMillis();
+					return Status.OK_STATUS;
+				}
+			};
+			jobs[i].setSystem(true);
+		}
+		for (int i = 0; i < JOB_COUNT; i++) {
+			//mix short delays with delays that don't fit the lowest level of the timer wheel
+			long delay = (i * 37) % 1500;
+			scheduled[i] = System.currentTimeMillis() + delay;
+			jobs[i].schedule(delay);
+		}
+		for (int i = 0; i < JOB_COUNT; i++) {
+			waitForCompletion(jobs[i], 5000);
+			assertTrue("1.0." + i, started[i] >= scheduled[i]);
+		}
+	}
+
 	public void testJobFamilyCancel() {
 		//test the cancellation of a family of jobs
 		final int NUM_JOBS = 20;
@@ -452,6 +551,78 @@ public class IJobManagerTest extends AbstractJobManagerTest {
 		}
 	}
 
+	public void testJobFamilyDeclared() {
+		//test finding, sleeping, waking and canceling jobs that declare their families
+		final int NUM_JOBS = 20;
+		TestJob[] jobs = new TestJob[NUM_JOBS];
+		TestJobFamily first = new TestJobFamily(TestJobFamily.TYPE_ONE);
+		TestJobFamily second = new TestJobFamily(TestJobFamily.TYPE_TWO);
+		TestJobFamily both = new TestJobFamily(TestJobFamily.TYPE_THREE);
+		//need a scheduling rule so that the jobs would be executed one by one
+		ISchedulingRule rule = new IdentityRule();
+		for (int i = 0; i < NUM_JOBS; i++) {
+			jobs[i] = new TestJob("TestDeclaredFamily", 1000000, 10); //$NON-NLS-1$
+			jobs[i].setFamilies(new Object[] {i % 2 == 0 ? first : second, both});
+			jobs[i].setRule(rule);
+		}
+		//a job that only says which families it belongs to when asked
+		TestJob undeclared = new FamilyTestJob("TestUndeclaredFamily", 1000000, 10, TestJobFamily.TYPE_ONE); //$NON-NLS-1$
+		undeclared.setRule(rule);
+		for (int i = 0; i < NUM_JOBS; i++)
+			jobs[i].schedule();
+		undeclared.schedule();
+		waitForStart(jobs[0]);
+
+		//families can't change while a job is scheduled
+		try {
+			jobs[1].setFamilies(null);
+			fail("1.0");
+		} catch (IllegalStateException e) {
+			//expected
+		}
+		assertTrue("1.1", jobs[0].belongsTo(first));
+		assertTrue("1.2", jobs[0].belongsTo(both));
+		assertTrue("1.3", !jobs[0].belongsTo(second));
+		assertTrue("1.4", !jobs[0].belongsTo(null));
+
+		//find the members of each family
+		assertEquals("2.0", NUM_JOBS / 2 + 1, manager.find(first).length);
+		assertEquals("2.1", NUM_JOBS / 2, manager.find(second).length);
+		assertEquals("2.2", NUM_JOBS, manager.find(both).length);
+		Job[] result = manager.find(first);
+		for (int i = 0; i < result.length; i++)
+			assertTrue("2.3." + i, result[i].belongsTo(first));
+		List all = Arrays.asList(manager.find(null));
+		for (int i = 0; i < NUM_JOBS; i++)
+			assertTrue("2.4." + i, all.contains(jobs[i]));
+
+		//put the second family to sleep, and wake it up again
+		manager.sleep(second);
+		for (int i = 1; i < NUM_JOBS; i += 2)
+			assertState("3." + i, jobs[i], Job.SLEEPING);
+		assertEquals("3.0", NUM_JOBS / 2, manager.find(second).length);
+		manager.wakeUp(second);
+		for (int i = 1; i < NUM_JOBS; i += 2)
+			assertState("4." + i, jobs[i], Job.WAITING);
+
+		//cancel the first family, including the undeclared job
+		manager.cancel(first);
+		waitForFamilyCancel(jobs, first);
+		waitForCancel(undeclared);
+		assertEquals("5.0", 0, manager.find(first).length);
+		assertEquals("5.1", NUM_JOBS / 2, manager.find(both).length);
+
+		//cancel the remaining jobs
+		manager.cancel(both);
+		waitForFamilyCancel(jobs, both);
+		assertEquals("6.0", 0, manager.find(both).length);
+		for (int i = 0; i < NUM_JOBS; i++)
+			assertState("6." + i, jobs[i], Job.NONE);
+		//the families can be changed once the job is done
+		jobs[0].setFamilies(null);
+		assertTrue("6.1", !jobs[0].belongsTo(first));
+	}
+
 	public void testJobFamilyFind() {
 		//test of finding jobs based on the job family they belong to
 		final int NUM_JOBS = 20;
@@ -702,6 +873,80 @@ public class IJobManagerTest extends AbstractJobManagerTest {
 		}
 	}
 
+	/**
+	 * Tests waiting for a family without blocking.
+	 */
+	public void testJobFamilyJoinAsync() {
+		//a family with no jobs is already done
+		IJobCompletion completion = manager.joinAsync(new Object());
+		assertTrue("1.0", completion.isDone());
+		assertEquals("1.1", Status.OK_STATUS, completion.getResult());
+
+		//jobs that run one after the other
+		Object family = new Object();
+		ISchedulingRule rule = new IdentityRule();
+		TestJob[] jobs = new TestJob[5];
+		for (int i = 0; i < jobs.length; i++) {
+			jobs[i] = new TestJob("testJobFamilyJoinAsync", 10, 10);
+			jobs[i].setFamilies(new Object[] {family});
+			jobs[i].setRule(rule);
+			jobs[i].schedule();
+		}
+		//a job that reschedules itself is waited for until it stops
+		int count = 10;
+		RepeatingJob repeating = new RepeatingJob("testJobFamilyJoinAsync", count);
+		repeating.setFamily(family);
+		repeating.schedule();
+		completion = manager.joinAsync(family);
+		assertTrue("2.0", !completion.isDone());
+		final int[] actions = new int[1];
+		completion.whenDone(new Runnable() {
+			public void run() {
+				actions[0]++;
+			}
+		});
+		try {
+			assertTrue("2.1", completion.await(10000));
+		} catch (InterruptedException e) {
+			fail("2.99", e);
+		}
+		assertEquals("2.2", Status.OK_STATUS, completion.getResult());
+		assertEquals("2.3", 1, actions[0]);
+		for (int i = 0; i < jobs.length; i++)
+			assertState("2.4." + i, jobs[i], Job.NONE);
+		assertEquals("2.5", count, repeating.getRunCount());
+		assertEquals("2.6", 0, manager.find(family).length);
+	}
+
+	/**
+	 * Tests that joining a family does not wait for the job change listeners
+	 * that are notified asynchronously.
+	 */
+	public void testJobFamilyJoinAsyncListeners() throws InterruptedException {
+		JobManager jobManager = (JobManager) manager;
+		final TestBarrier barrier = new TestBarrier();
+		//a listener that holds up the delivery of events
+		IJobChangeListener listener = new JobChangeAdapter() {
+			public void done(IJobChangeEvent event) {
+				barrier.waitForStatus(TestBarrier.STATUS_DONE);
+			}
+		};
+		jobManager.setAsyncListeners(true);
+		manager.addJobChangeListener(listener);
+		try {
+			Object family = new Object();
+			TestJob job = new TestJob("testJobFamilyJoinAsyncListeners", 1, 1); //$NON-NLS-1$
+			job.setFamilies(new Object[] {family});
+			job.schedule();
+			manager.join(family, null);
+			assertState("1.0", job, Job.NONE);
+		} finally {
+			barrier.setStatus(TestBarrier.STATUS_DONE);
+			jobManager.setAsyncListeners(false);
+			manager.removeJobChangeListener(listener);
+		}
+	}
+
 	public void testJobFamilyJoinCancelJobs() {
 		//test the join method on a family of jobs, then cancel the jobs that are blocking the join call
 		final int[] status = new int[1];
@@ -1395,6 +1640,35 @@ public class IJobManagerTest extends AbstractJobManagerTest {
 		waitForCompletion();
 	}
 
+	public void testScheduleBulk() {
+		final int JOB_COUNT = 10;
+		TestJob[] jobs = new TestJob[JOB_COUNT];
+		for (int i = 0; i < JOB_COUNT; i++)
+			jobs[i] = new TestJob("testScheduleBulk", 1, 10);
+		TestJob vetoed = new TestJob("testScheduleBulk") {
+			public boolean shouldSchedule() {
+				return false;
+			}
+		};
+		//each job appears twice, but must only be scheduled once
+		Job[] toSchedule = new Job[JOB_COUNT * 2 + 1];
+		for (int i = 0; i < JOB_COUNT; i++)
+			toSchedule[2 * i] = toSchedule[2 * i + 1] = jobs[i];
+		toSchedule[JOB_COUNT * 2] = vetoed;
+		manager.schedule(toSchedule, 0);
+		assertEquals("1.0", JOB_COUNT, scheduledJobs);
+		waitForCompletion();
+		for (int i = 0; i < JOB_COUNT; i++)
+			assertEquals("1." + i, 1, jobs[i].getRunCount());
+		assertEquals("2.0", 0, vetoed.getRunCount());
+		//schedule the same jobs again with a delay
+		manager.schedule(jobs, 50);
+		assertEquals("3.0", JOB_COUNT * 2, scheduledJobs);
+		waitForCompletion();
+		for (int i = 0; i < JOB_COUNT; i++)
+			assertEquals("3." + i, 2, jobs[i].getRunCount());
+	}
+
 	public void testSleep() {
 		TestJob job = new TestJob("ParentJob", 10, 100);
 		//sleeping a job that isn't scheduled should have no effect
@@ -0,0 +1,242 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.tests.runtime.jobs;
+
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.Test;
+import junit.framework.TestSuite;
+import org.eclipse.core.internal.jobs.JobManager;
+import org.eclipse.core.runtime.*;
+import org.eclipse.core.runtime.jobs.*;
+import org.eclipse.core.tests.harness.TestJob;
+
+/**
+ * Tests for {@link JobGroup}.
+ */
+public class JobGroupTest extends AbstractJobManagerTest {
+	/**
+	 * A job that returns a given result.
+	 */
+	static class ResultJob extends Job {
+		private final IStatus result;
+
+		public ResultJob(JobGroup group, IStatus result) {
+			super("ResultJob"); //$NON-NLS-1$
+			this.result = result;
+			setJobGroup(group);
+		}
+
+		protected IStatus run(IProgressMonitor monitor) {
+			return result;
+		}
+	}
+
+	/**
+	 * A job that runs until it is canceled.
+	 */
+	static class CancelableJob extends Job {
+		public CancelableJob(JobGroup group) {
+			super("CancelableJob"); //$NON-NLS-1$
+			setJobGroup(group);
+		}
+
+		protected IStatus run(IProgressMonitor monitor) {
+			while (!monitor.isCanceled())
+				Thread.yield();
+			return Status.CANCEL_STATUS;
+		}
+	}
+
+	public static Test suite() {
+		return new TestSuite(JobGroupTest.class);
+	}
+
+	public JobGroupTest() {
+		super();
+	}
+
+	public JobGroupTest(String name) {
+		super(name);
+	}
+
+	/**
+	 * Returns a job of the given group that runs until it is released.
+	 */
+	private OrderJob createHolder(String name, JobGroup group, List order) {
+		OrderJob holder = new OrderJob(name, order);
+		holder.setJobGroup(group);
+		holder.hold();
+		return holder;
+	}
+
+	/**
+	 * Returns the number of the given jobs that are running.
+	 */
+	private int getRunningCount(Job[] jobs) {
+		int running = 0;
+		for (int i = 0; i < jobs.length; i++)
+			if (jobs[i].getState() == Job.RUNNING)
+				running++;
+		return running;
+	}
+
+	private void waitForStart(Job job) {
+		int i = 0;
+		while (job.getState() != Job.RUNNING) {
+			sleep(10);
+			assertTrue("Timeout waiting for job to start", i++ < 500);
+		}
+	}
+
+	public void testMaxThreads() throws InterruptedException {
+		JobGroup group = new JobGroup("Group", 2);
+		List order = new ArrayList();
+		OrderJob[] jobs = new OrderJob[6];
+		for (int i = 0; i < jobs.length; i++)
+			jobs[i] = createHolder("Job" + i, group, order);
+		manager.schedule(jobs, 0);
+		//the jobs run two at a time, in any order
+		for (int i = 0; i < jobs.length; i += 2) {
+			waitForRuns(order, i + 2);
+			assertEquals("1." + i, 2, getRunningCount(jobs));
+			assertEquals("2." + i, i + 2, order.size());
+			for (int j = i; j < i + 2; j++) {
+				OrderJob job = jobs[Integer.parseInt(((String) order.get(j)).substring(3))];
+				job.release();
+				waitForCompletion(job, 5000);
+			}
+		}
+		group.join(null);
+		assertEquals("3.0", 0, group.getActiveJobs().length);
+		assertTrue("3.1", group.getResult().isOK());
+	}
+
+	public void testNoLimit() throws InterruptedException {
+		JobGroup group = new JobGroup("Group", 0);
+		OrderJob first = createHolder("First", group, null);
+		OrderJob second = createHolder("Second", group, null);
+		first.schedule();
+		second.schedule();
+		first.waitForRun();
+		second.waitForRun();
+		first.release();
+		second.release();
+		group.join(null);
+	}
+
+	/**
+	 * Jobs over the limit of their group must not keep other jobs from running.
+	 */
+	public void testWaitingJobs() throws InterruptedException {
+		JobGroup group = new JobGroup("Group", 1);
+		OrderJob first = createHolder("First", group, null);
+		OrderJob second = createHolder("Second", group, null);
+		assertSame("1.0", group, first.getJobGroup());
+		first.schedule();
+		first.waitForRun();
+		second.schedule();
+		Job other = new TestJob("Other", 1, 1);
+		other.schedule();
+		waitForCompletion(other, 5000);
+		assertEquals("1.1", Job.WAITING, second.getState());
+		assertTrue("1.2", !first.isBlocking());
+		assertEquals("1.3", 2, group.getActiveJobs().length);
+		assertEquals("1.4", 2, manager.find(group).length);
+		first.release();
+		second.waitForRun();
+		second.release();
+		group.join(null);
+		assertEquals("1.5", Job.NONE, second.getState());
+	}
+
+	public void testConflictingJobNotHeld() throws InterruptedException {
+		JobGroup group = new JobGroup("Group", 1);
+		ISchedulingRule rule = new IdentityRule();
+		OrderJob first = createHolder("First", group, null);
+		OrderJob second = createHolder("Second", group, null);
+		second.setRule(rule);
+		first.schedule();
+		first.waitForRun();
+		second.schedule();
+		//a job queued after the second one runs once the second one has been set aside
+		Job probe = new TestJob("Probe", 1, 1);
+		probe.schedule();
+		waitForCompletion(probe, 5000);
+		//a job that does not belong to the group is not held by the waiting job of the group
+		Job other = new TestJob("Other", 1, 1);
+		other.setRule(rule);
+		other.schedule();
+		waitForCompletion(other, 5000);
+		assertEquals("1.0", Job.RUNNING, first.getState());
+		assertEquals("1.1", "WAITING", JobManager.printState(second));
+		first.release();
+		second.waitForRun();
+		second.release();
+		group.join(null);
+		assertEquals("1.2", Job.NONE, second.getState());
+	}
+
+	public void testCancel() throws InterruptedException {
+		JobGroup group = new JobGroup("Group", 1);
+		Job running = new CancelableJob(group);
+		Job[] waiting = new Job[3];
+		for (int i = 0; i < waiting.length; i++)
+			waiting[i] = new ResultJob(group, Status.OK_STATUS);
+		running.schedule();
+		waitForStart(running);
+		manager.schedule(waiting, 0);
+		group.cancel();
+		group.join(null);
+		for (int i = 0; i < waiting.length; i++)
+			assertNull("1." + i, waiting[i].getResult());
+		IStatus result = group.getResult();
+		assertEquals("2.0", IStatus.CANCEL, result.getSeverity());
+		assertEquals("2.1", 4, result.getChildren().length);
+		assertEquals("2.2", "Group", result.getMessage());
+	}
+
+	public void testOnlyProblemsKept() throws InterruptedException {
+		final int[] resultCount = new int[] {-1};
+		JobGroup group = new JobGroup("Group", 2) {
+			protected IStatus computeGroupResult(IStatus[] jobResults) {
+				resultCount[0] = jobResults.length;
+				return super.computeGroupResult(jobResults);
+			}
+		};
+		IStatus error = new Status(IStatus.ERROR, "org.eclipse.core.tests.runtime", "Failure");
+		Job[] jobs = new Job[10];
+		for (int i = 0; i < jobs.length; i++)
+			jobs[i] = new ResultJob(group, i == 5 ? error : Status.OK_STATUS);
+		manager.schedule(jobs, 0);
+		group.join(null);
+		assertEquals("1.0", IStatus.ERROR, group.getResult().getSeverity());
+		assertEquals("1.1", 1, resultCount[0]);
+	}
+
+	public void testResult() throws InterruptedException {
+		JobGroup group = new JobGroup("Group", 2);
+		assertNull("1.0", group.getResult());
+		IStatus error = new Status(IStatus.ERROR, "org.eclipse.core.tests.runtime", "Failure");
+		Job[] jobs = new Job[] {new ResultJob(group, Status.OK_STATUS), new ResultJob(group, error), new ResultJob(group, Status.OK_STATUS)};
+		manager.schedule(jobs, 0);
+		group.join(null);
+		IStatus result = group.getResult();
+		assertEquals("2.0", IStatus.ERROR, result.getSeverity());
+		assertEquals("2.1", 1, result.getChildren().length);
+		assertSame("2.2", error, result.getChildren()[0]);
+		//a new batch of jobs has a result of its own
+		jobs[1] = new ResultJob(group, Status.OK_STATUS);
+		manager.schedule(jobs, 0);
+		group.join(null);
+		assertTrue("3.0", group.getResult().isOK());
+	}
+}
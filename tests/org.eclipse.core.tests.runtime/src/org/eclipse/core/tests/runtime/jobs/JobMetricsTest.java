@@ -0,0 +1,157 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.tests.runtime.jobs;
+
+import java.io.StringWriter;
+import junit.framework.Test;
+import junit.framework.TestSuite;
+import org.eclipse.core.internal.jobs.*;
+import org.eclipse.core.runtime.jobs.ISchedulingRule;
+import org.eclipse.core.runtime.jobs.Job;
+
+/**
+ * Tests for the histograms of the time jobs spend in each state.
+ */
+public class JobMetricsTest extends AbstractJobManagerTest {
+	public static Test suite() {
+		return new TestSuite(JobMetricsTest.class);
+	}
+
+	public JobMetricsTest() {
+		super();
+	}
+
+	public JobMetricsTest(String name) {
+		super(name);
+	}
+
+	/**
+	 * Returns a system job with the given rule and family.
+	 */
+	private OrderJob createJob(String name, ISchedulingRule rule, Object family) {
+		OrderJob job = new OrderJob(name, null);
+		job.setSystem(true);
+		job.setRule(rule);
+		job.setFamilies(new Object[] {family});
+		return job;
+	}
+
+	protected void tearDown() throws Exception {
+		getInternalManager().setMetricsEnabled(false);
+		super.tearDown();
+	}
+
+	public void testExport() throws Exception {
+		manager.setMetricsEnabled(false);
+		StringWriter out = new StringWriter();
+		manager.exportMetrics(out);
+		assertEquals("1.0", "kind,key,phase,count,min,mean,p50,p90,p99,max\n", out.toString()); //$NON-NLS-1$
+		manager.setMetricsEnabled(true);
+		Job job = createJob("testExport", null, this); //$NON-NLS-1$
+		job.schedule();
+		waitForCompletion(job, 5000);
+		out = new StringWriter();
+		manager.exportMetrics(out);
+		assertTrue("2.0", out.toString().indexOf("class," + OrderJob.class.getName() + ",RUNNING,1,") >= 0); //$NON-NLS-1$ //$NON-NLS-2$
+		//the counters of the queue, the worker pool and the deadlines follow
+		assertTrue("2.1", out.toString().indexOf("\nqueue,,depth,") >= 0); //$NON-NLS-1$
+		assertTrue("2.2", out.toString().indexOf("\npool,,workers,") >= 0); //$NON-NLS-1$
+		assertTrue("2.3", out.toString().indexOf("\ndeadline,,met,") >= 0); //$NON-NLS-1$
+	}
+
+	public void testHistogram() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		assertEquals("1.0", 0, histogram.getCount());
+		assertEquals("1.1", 0, histogram.getPercentile(50));
+		for (int i = 1; i <= 100; i++)
+			histogram.record(i);
+		assertEquals("2.0", 100, histogram.getCount());
+		assertEquals("2.1", 1, histogram.getMin());
+		assertEquals("2.2", 100, histogram.getMax());
+		assertEquals("2.3", 50.5, histogram.getMean(), 0.001);
+		assertEquals("2.4", 1, histogram.getPercentile(0));
+		assertEquals("2.5", 100, histogram.getPercentile(100));
+		//percentiles are at most a quarter above the exact value
+		long[] exact = {50, 90, 99};
+		for (int i = 0; i < exact.length; i++) {
+			long p = histogram.getPercentile(exact[i]);
+			assertTrue("3." + i + ": " + p, p >= exact[i] && p <= exact[i] * 5 / 4);
+		}
+		//negative and huge durations are clamped
+		histogram.record(-5);
+		histogram.record(Long.MAX_VALUE);
+		assertEquals("4.0", 0, histogram.getMin());
+		assertTrue("4.1", histogram.getMax() > 0);
+		try {
+			histogram.getPercentile(101);
+			fail("4.2");
+		} catch (IllegalArgumentException e) {
+			//expected
+		}
+	}
+
+	public void testDisabled() {
+		JobManager jobManager = getInternalManager();
+		jobManager.setMetricsEnabled(false);
+		assertNull("1.0", jobManager.getMetrics());
+		Job job = createJob("testDisabled", null, this); //$NON-NLS-1$
+		job.schedule();
+		waitForCompletion(job, 5000);
+		jobManager.setMetricsEnabled(true);
+		assertNotNull("2.0", jobManager.getMetrics());
+		assertEquals("2.1", 0, jobManager.getMetrics().getClassNames().length);
+	}
+
+	public void testPhases() throws Exception {
+		JobManager jobManager = getInternalManager();
+		jobManager.setMetricsEnabled(true);
+		JobMetrics metrics = jobManager.getMetrics();
+		ISchedulingRule rule = new IdentityRule();
+		Object family = new Object();
+		OrderJob first = createJob("testPhases first", rule, family); //$NON-NLS-1$
+		Job second = createJob("testPhases second", rule, family); //$NON-NLS-1$
+		Job delayed = createJob("testPhases delayed", null, family); //$NON-NLS-1$
+		first.hold();
+		first.schedule();
+		first.waitForRun();
+		second.schedule();
+		delayed.schedule(200);
+		//the first job runs, and the second is blocked, until the delayed job is done
+		waitForCompletion(delayed, 5000);
+		first.release();
+		waitForCompletion(first, 5000);
+		waitForCompletion(second, 5000);
+
+		String className = OrderJob.class.getName();
+		LatencyHistogram running = metrics.getHistogram(className, JobMetrics.RUNNING);
+		assertNotNull("1.0", running);
+		assertEquals("1.1", 3, running.getCount());
+		assertTrue("1.2", running.getMax() >= 150);
+		//the second job was blocked behind the first
+		LatencyHistogram blocked = metrics.getFamilyHistogram(family, JobMetrics.BLOCKED);
+		assertNotNull("2.0", blocked);
+		assertTrue("2.1", blocked.getMax() >= 150);
+		//the delayed job slept
+		LatencyHistogram sleeping = metrics.getFamilyHistogram(family, JobMetrics.SLEEPING);
+		assertNotNull("3.0", sleeping);
+		assertTrue("3.1", sleeping.getMax() >= 150);
+		assertEquals("4.0", 3, metrics.getFamilyHistogram(family, JobMetrics.ABOUT_TO_RUN).getCount());
+
+		StringWriter out = new StringWriter();
+		metrics.export(out);
+		String csv = out.toString();
+		assertTrue("5.0", csv.startsWith("kind,key,phase,")); //$NON-NLS-1$
+		assertTrue("5.1", csv.indexOf("class," + className + ",RUNNING,3,") >= 0); //$NON-NLS-1$ //$NON-NLS-2$
+
+		metrics.reset();
+		assertNull("6.0", metrics.getHistogram(className, JobMetrics.RUNNING));
+	}
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2003, 2006 IBM Corporation and others.
+ * Copyright (c) 2003, 2011 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -14,6 +14,7 @@ import junit.framework.TestCase;
 import org.eclipse.core.internal.jobs.InternalJob;
 import org.eclipse.core.internal.jobs.JobQueue;
 import org.eclipse.core.runtime.*;
+import org.eclipse.core.runtime.jobs.ISchedulingRule;
 import org.eclipse.core.runtime.jobs.Job;
 
 /**
@@ -26,6 +27,11 @@ public class JobQueueTest extends TestCase {
 			setPriority(value);
 		}
 
+		Entry(int value, ISchedulingRule rule) {
+			this(value);
+			setRule(rule);
+		}
+
 		protected IStatus run(IProgressMonitor monitor) {
 			return Status.OK_STATUS;
 		}
@@ -90,6 +96,63 @@ public class JobQueueTest extends TestCase {
 		assertEquals("3.1", 0, count);
 	}
 
+	public void testFindConflicting() {
+		//a queue without priority overtaking, such as the queue of threads waiting for rules
+		JobQueue threads = new JobQueue(false, false);
+		Entry[] entries = new Entry[] {new Entry(Job.LONG, new HierarchicalRuleTest.RootedPathRule("/a/b")), new Entry(Job.LONG, new HierarchicalRuleTest.RootedPathRule("/b")), new Entry(Job.INTERACTIVE, new HierarchicalRuleTest.RootedPathRule("/a")), new Entry(Job.LONG, new PathRule("/a/c"))};
+		for (int i = 0; i < entries.length; i++)
+			threads.enqueue(entries[i]);
+		Entry job = new Entry(Job.LONG, new HierarchicalRuleTest.RootedPathRule("/a"));
+		assertEquals("1.0", entries[0], threads.findConflicting(job));
+		threads.remove(entries[0]);
+		assertEquals("1.1", entries[2], threads.findConflicting(job));
+		threads.remove(entries[2]);
+		assertEquals("1.2", entries[3], threads.findConflicting(job));
+		assertNull("2.0", threads.findConflicting(new Entry(Job.LONG, new HierarchicalRuleTest.RootedPathRule("/c"))));
+		assertNull("2.1", threads.findConflicting(new Entry(Job.LONG)));
+	}
+
+	public void testRemoveKeepsOrder() {
+		//removing entries from the middle of the queue must not change the order of the others
+		final int NUM_ENTRIES = 1000;
+		Entry[] entries = new Entry[NUM_ENTRIES];
+		for (int i = 0; i < entries.length; i++) {
+			entries[i] = new Entry(Job.LONG);
+			queue.enqueue(entries[i]);
+		}
+		for (int i = 0; i < entries.length; i += 3)
+			queue.remove(entries[i]);
+		for (int i = 0; i < entries.length; i++) {
+			if (i % 3 != 0)
+				assertEquals("1.0." + i, entries[i], queue.dequeue());
+		}
+		assertTrue("2.0", queue.isEmpty());
+		//removing an entry that is not in the queue has no effect
+		queue.enqueue(entries[1]);
+		queue.remove(entries[0]);
+		assertEquals("3.0", entries[1], queue.peek());
+	}
+
+	public void testRequeue() {
+		//an entry that is removed can be added again, to the same or another queue
+		Entry[] entries = createEntries();
+		for (int i = 0; i < entries.length; i++)
+			queue.enqueue(entries[i]);
+		JobQueue other = new JobQueue(true);
+		while (!queue.isEmpty())
+			other.enqueue(queue.dequeue());
+		queue.clear();
+		for (int i = 0; i < entries.length; i++) {
+			other.remove(entries[i]);
+			queue.enqueue(entries[i]);
+		}
+		assertTrue("1.0", other.isEmpty());
+		int count = 0;
+		while (queue.dequeue() != null)
+			count++;
+		assertEquals("2.0", entries.length, count);
+	}
+
 	private Entry[] createEntries() {
 		return new Entry[] {new Entry(Job.INTERACTIVE), new Entry(Job.BUILD), new Entry(Job.INTERACTIVE), new Entry(Job.SHORT), new Entry(Job.DECORATE), new Entry(Job.LONG), new Entry(Job.SHORT), new Entry(Job.BUILD), new Entry(Job.LONG), new Entry(Job.DECORATE),};
 	}
@@ -12,6 +12,7 @@
  *******************************************************************************/
 package org.eclipse.core.tests.runtime.jobs;
 
+import java.util.*;
 import junit.framework.*;
 import junit.framework.Assert;
 import org.eclipse.core.internal.jobs.JobManager;
@@ -448,6 +449,186 @@ public class JobTest extends AbstractJobTest {
 
 	}
 
+	/**
+	 * A job that records when it runs, and how many schedule requests each
+	 * of its runs stands for.
+	 */
+	static class CoalescingJob extends Job {
+		final List counts = Collections.synchronizedList(new ArrayList());
+
+		CoalescingJob(int mode, long maxWait) {
+			super("CoalescingJob"); //$NON-NLS-1$
+			setSystem(true);
+			setCoalescing(mode, maxWait);
+		}
+
+		protected IStatus run(IProgressMonitor monitor) {
+			synchronized (counts) {
+				counts.add(new Integer(getCoalescedCount()));
+				counts.notifyAll();
+			}
+			return Status.OK_STATUS;
+		}
+
+		/**
+		 * Returns the number of schedule requests that the runs so far stand for.
+		 */
+		int total() {
+			int total = 0;
+			synchronized (counts) {
+				for (int i = 0; i < counts.size(); i++)
+					total += ((Integer) counts.get(i)).intValue();
+			}
+			return total;
+		}
+
+		/**
+		 * Waits until the job has started the given number of runs.
+		 */
+		void waitForRuns(int runs) {
+			long end = System.currentTimeMillis() + 5000;
+			synchronized (counts) {
+				while (counts.size() < runs) {
+					long remaining = end - System.currentTimeMillis();
+					Assert.assertTrue("Timeout waiting for " + runs + " runs", remaining > 0); //$NON-NLS-1$ //$NON-NLS-2$
+					try {
+						counts.wait(remaining);
+					} catch (InterruptedException e) {
+						//ignore
+					}
+				}
+			}
+		}
+	}
+
+	public void testCoalesceNone() {
+		CoalescingJob job = new CoalescingJob(Job.COALESCE_NONE, 0);
+		assertEquals("1.0", Job.COALESCE_NONE, job.getCoalescing());
+		assertEquals("1.1", 0, job.getCoalescedCount());
+		//requests to schedule a sleeping job are merged into its next run
+		job.schedule(100000);
+		job.schedule();
+		job.schedule(10);
+		job.wakeUp();
+		waitForState(job, Job.NONE);
+		assertEquals("2.0", 1, job.counts.size());
+		assertEquals("2.1", new Integer(3), job.counts.get(0));
+		assertEquals("2.2", 3, job.getCoalescedCount());
+		//a new request starts a new count
+		job.schedule();
+		waitForState(job, Job.NONE);
+		assertEquals("3.0", new Integer(1), job.counts.get(1));
+
+		try {
+			job.setCoalescing(3, 0);
+			fail("4.0");
+		} catch (IllegalArgumentException e) {
+			//expected
+		}
+		try {
+			job.setCoalescing(Job.COALESCE_TRAILING, -1);
+			fail("4.1");
+		} catch (IllegalArgumentException e) {
+			//expected
+		}
+	}
+
+	public void testCoalesceTrailing() {
+		CoalescingJob job = new CoalescingJob(Job.COALESCE_TRAILING, 0);
+		assertEquals("1.0", Job.COALESCE_TRAILING, job.getCoalescing());
+		//a request postpones the job, so it runs after a job that was due later
+		CoalescingJob later = new CoalescingJob(Job.COALESCE_NONE, 0);
+		job.schedule(500);
+		later.schedule(1000);
+		job.schedule(60000);
+		later.waitForRuns(1);
+		assertEquals("1.1", 0, job.counts.size());
+		assertEquals("1.2", Job.SLEEPING, job.getState());
+		//the requests of the burst are merged into one run
+		for (int i = 0; i < 8; i++)
+			job.schedule(60000);
+		job.wakeUp();
+		job.waitForRuns(1);
+		waitForState(job, Job.NONE);
+		assertEquals("2.0", 1, job.counts.size());
+		assertEquals("2.1", new Integer(10), job.counts.get(0));
+	}
+
+	public void testCoalesceTrailingMaxWait() {
+		CoalescingJob job = new CoalescingJob(Job.COALESCE_TRAILING, 200);
+		//a steady stream of requests cannot postpone the job past the maximum wait
+		int requests = 0;
+		long start = System.currentTimeMillis();
+		while (job.counts.isEmpty()) {
+			assertTrue("1.0", System.currentTimeMillis() - start < 5000);
+			job.schedule(60000);
+			requests++;
+			sleep(10);
+		}
+		assertTrue("1.1", ((Integer) job.counts.get(0)).intValue() > 1);
+		//the requests made since are merged into the next run, none is lost
+		for (int i = 0; i < 10; i++) {
+			job.schedule(60000);
+			requests++;
+		}
+		while (job.total() < requests) {
+			assertTrue("2.0", System.currentTimeMillis() - start < 10000);
+			job.wakeUp();
+			Thread.yield();
+		}
+		waitForState(job, Job.NONE);
+		assertEquals("2.1", requests, job.total());
+	}
+
+	public void testCoalesceWhileEnding() {
+		final TestBarrier barrier = new TestBarrier();
+		final CoalescingJob job = new CoalescingJob(Job.COALESCE_TRAILING, 0) {
+			protected IStatus run(IProgressMonitor monitor) {
+				IStatus result = super.run(monitor);
+				if (counts.size() == 1) {
+					barrier.setStatus(TestBarrier.STATUS_RUNNING);
+					barrier.waitForStatus(TestBarrier.STATUS_DONE);
+				}
+				return result;
+			}
+		};
+		//listeners are told that the job is done after it has ended, but before it is rescheduled
+		job.addJobChangeListener(new JobChangeAdapter() {
+			public void done(IJobChangeEvent event) {
+				if (job.counts.size() == 1)
+					job.schedule(60000);
+			}
+		});
+		job.schedule();
+		barrier.waitForStatus(TestBarrier.STATUS_RUNNING);
+		job.schedule(60000);
+		job.schedule(60000);
+		barrier.setStatus(TestBarrier.STATUS_DONE);
+		//the request made in between counts towards the next run, like those made while running
+		waitForState(job, Job.SLEEPING);
+		job.wakeUp();
+		job.waitForRuns(2);
+		assertEquals("1.0", new Integer(1), job.counts.get(0));
+		assertEquals("1.1", new Integer(3), job.counts.get(1));
+	}
+
+	public void testCoalesceLeading() {
+		CoalescingJob job = new CoalescingJob(Job.COALESCE_LEADING, 0);
+		assertEquals("1.0", Job.COALESCE_LEADING, job.getCoalescing());
+		//the first request runs the job right away, regardless of its delay
+		job.schedule(60000);
+		job.waitForRuns(1);
+		waitForState(job, Job.NONE);
+		//the requests made within the delay after the run started are merged into one run at the end of it
+		for (int i = 0; i < 5; i++)
+			job.schedule(60000);
+		assertEquals("2.0", Job.SLEEPING, job.getState());
+		assertEquals("2.1", 1, job.counts.size());
+		job.wakeUp();
+		job.waitForRuns(2);
+		assertEquals("2.2", new Integer(5), job.counts.get(1));
+	}
+
 	/**
 	 * Tests canceling a job from the shouldRun method. See bug 255384.
 	 */
@@ -940,6 +1121,72 @@ public class JobTest extends AbstractJobTest {
 		TestBarrier.waitForStatus(status, TestBarrier.STATUS_DONE);
 	}
 
+	public void testOnDone() {
+		//a job that has never been scheduled is already done
+		IJobCompletion completion = shortJob.onDone();
+		assertTrue("1.0", completion.isDone());
+		assertEquals("1.1", IStatus.OK, completion.getResult().getSeverity());
+
+		//the completion is done after the done listeners, with the result of the job
+		final IStatus[] listenerResult = new IStatus[1];
+		final boolean[] doneBeforeListener = new boolean[1];
+		final IJobCompletion[] current = new IJobCompletion[1];
+		IJobChangeListener listener = new JobChangeAdapter() {
+			public void done(IJobChangeEvent event) {
+				listenerResult[0] = event.getResult();
+				doneBeforeListener[0] = current[0].isDone();
+			}
+		};
+		shortJob.addJobChangeListener(listener);
+		try {
+			shortJob.schedule(100);
+			current[0] = completion = shortJob.onDone();
+			assertTrue("2.0", !completion.isDone());
+			assertNull("2.1", completion.getResult());
+			final IStatus[] actionResult = new IStatus[1];
+			final IJobCompletion whenDone = completion;
+			completion.whenDone(new Runnable() {
+				public void run() {
+					actionResult[0] = whenDone.getResult();
+				}
+			});
+			assertTrue("2.2", completion.await(5000));
+			assertEquals("2.3", listenerResult[0], completion.getResult());
+			assertEquals("2.4", completion.getResult(), actionResult[0]);
+			assertTrue("2.5", !doneBeforeListener[0]);
+		} catch (InterruptedException e) {
+			fail("2.99", e);
+		} finally {
+			shortJob.removeJobChangeListener(listener);
+		}
+
+		//actions added after the completion is done run right away
+		final boolean[] ran = new boolean[1];
+		completion.whenDone(new Runnable() {
+			public void run() {
+				ran[0] = true;
+			}
+		});
+		assertTrue("3.0", ran[0]);
+
+		//canceling a waiting job completes it with the cancel status
+		longJob.schedule(100000);
+		completion = longJob.onDone();
+		assertTrue("4.0", !completion.isDone());
+		longJob.cancel();
+		assertTrue("4.1", completion.isDone());
+		assertEquals("4.2", IStatus.CANCEL, completion.getResult().getSeverity());
+
+		//a new run of the job has a new completion
+		longJob.schedule(100000);
+		IJobCompletion next = longJob.onDone();
+		assertTrue("5.0", next != completion);
+		assertTrue("5.1", !next.isDone());
+		assertTrue("5.2", next == longJob.onDone());
+		longJob.cancel();
+		assertTrue("5.3", next.isDone());
+	}
+
 	/*
 	 * Test that a canceled job is rescheduled
 	 */
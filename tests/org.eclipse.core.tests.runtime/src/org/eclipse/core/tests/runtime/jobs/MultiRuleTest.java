@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008 IBM Corporation and others.
+ * Copyright (c) 2008, 2011 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -14,6 +14,7 @@ import junit.framework.Test;
 import junit.framework.TestSuite;
 import org.eclipse.core.runtime.jobs.ISchedulingRule;
 import org.eclipse.core.runtime.jobs.MultiRule;
+import org.eclipse.core.tests.runtime.jobs.HierarchicalRuleTest.RootedPathRule;
 
 /**
  * Tests for {@link MultiRule}.
@@ -80,4 +81,58 @@ public class MultiRuleTest extends AbstractJobTest {
 		assertTrue("1.5", multi2.isConflicting(multi1));
 		assertTrue("1.6", multi1.isConflicting(multi1));
 	}
+
+	public void testDuplicates() {
+		ISchedulingRule child1 = new PathRule("/a");
+		ISchedulingRule child2 = new PathRule("/b/c");
+		MultiRule multi1 = new MultiRule(new ISchedulingRule[] {child1, child2, child1});
+		assertEquals("1.0", 2, multi1.getChildren().length);
+		MultiRule multi2 = new MultiRule(new ISchedulingRule[] {child2, multi1});
+		assertEquals("1.1", 2, multi2.getChildren().length);
+		assertEquals("1.2", child2, multi2.getChildren()[0]);
+		assertEquals("1.3", child1, multi2.getChildren()[1]);
+	}
+
+	/**
+	 * Tests a multi-rule with enough children to be indexed by rule root.
+	 */
+	public void testLargeMultiRule() {
+		ISchedulingRule[] rules = new ISchedulingRule[100];
+		for (int i = 0; i < rules.length; i++)
+			rules[i] = new RootedPathRule("/p" + (i % 10) + "/f" + i);
+		MultiRule multi = (MultiRule) MultiRule.combine(rules);
+		assertEquals("1.0", rules.length, multi.getChildren().length);
+		//combining again must not add the children twice
+		assertEquals("1.1", multi, MultiRule.combine(multi, rules[5]));
+		assertEquals("1.2", rules.length, new MultiRule(new ISchedulingRule[] {multi, multi}).getChildren().length);
+
+		assertTrue("2.0", multi.contains(rules[42]));
+		assertTrue("2.1", multi.contains(new RootedPathRule("/p2/f42/x")));
+		assertTrue("2.2", !multi.contains(new RootedPathRule("/p2")));
+		assertTrue("2.3", !multi.contains(new RootedPathRule("/q/f42")));
+		assertTrue("2.4", multi.isConflicting(new RootedPathRule("/p2")));
+		assertTrue("2.5", multi.isConflicting(new RootedPathRule("/p3/f43/x")));
+		assertTrue("2.6", !multi.isConflicting(new RootedPathRule("/p3/f42")));
+		assertTrue("2.7", !multi.isConflicting(new RootedPathRule("/q")));
+		//rules without a root are compared with all children
+		assertTrue("2.8", multi.isConflicting(new PathRule("/p3/f43")));
+		assertTrue("2.9", multi.contains(new PathRule("/p3/f43/x")));
+
+		//children without a root are compared with all rules
+		MultiRule mixed = (MultiRule) MultiRule.combine(multi, new PathRule("/q"));
+		assertTrue("3.0", mixed.isConflicting(new RootedPathRule("/q/r")));
+		assertTrue("3.1", mixed.contains(new RootedPathRule("/q/r")));
+		assertTrue("3.2", mixed.contains(multi));
+		assertTrue("3.3", !multi.contains(mixed));
+
+		MultiRule small = new MultiRule(new ISchedulingRule[] {new RootedPathRule("/q/r"), new RootedPathRule("/p9/f99")});
+		assertTrue("4.0", multi.isConflicting(small));
+		assertTrue("4.1", small.isConflicting(multi));
+		assertTrue("4.2", multi.contains(new MultiRule(new ISchedulingRule[] {rules[1], rules[99]})));
+		assertTrue("4.3", !multi.contains(small));
+		assertTrue("4.4", mixed.contains(small));
+		small = new MultiRule(new ISchedulingRule[] {new RootedPathRule("/q/r"), new RootedPathRule("/p9/f98")});
+		assertTrue("4.5", !multi.isConflicting(small));
+		assertTrue("4.6", !small.isConflicting(multi));
+	}
 }
@@ -0,0 +1,97 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.tests.runtime.jobs;
+
+import java.util.List;
+import org.eclipse.core.runtime.*;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.core.tests.harness.TestBarrier;
+
+/**
+ * A job that adds its name to a list when it runs. If it is held, the job then
+ * keeps running until it is released. Tests use the list and the barrier of the
+ * job to find out in which order jobs ran, rather than sleeping.
+ */
+class OrderJob extends Job {
+	private final TestBarrier barrier = new TestBarrier(TestBarrier.STATUS_WAIT_FOR_RUN);
+	private final long duration;
+	private boolean held = false;
+	private final List order;
+
+	/**
+	 * A job that adds its name to the given list, which may be <code>null</code>.
+	 */
+	public OrderJob(String name, List order) {
+		this(name, order, 0);
+	}
+
+	/**
+	 * A job that adds its name to the given list, which may be <code>null</code>,
+	 * and then runs for the given number of milliseconds. Only tests that measure
+	 * the time jobs run should give a duration.
+	 */
+	public OrderJob(String name, List order, long duration) {
+		super(name);
+		this.order = order;
+		this.duration = duration;
+	}
+
+	/**
+	 * Makes the job keep running until it is released, once it has added its name.
+	 */
+	public synchronized void hold() {
+		held = true;
+	}
+
+	/**
+	 * Lets the job return if it is held.
+	 */
+	public synchronized void release() {
+		held = false;
+		notifyAll();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.core.runtime.jobs.Job#run(org.eclipse.core.runtime.IProgressMonitor)
+	 */
+	protected IStatus run(IProgressMonitor monitor) {
+		if (order != null) {
+			synchronized (order) {
+				order.add(getName());
+			}
+		}
+		barrier.setStatus(TestBarrier.STATUS_RUNNING);
+		synchronized (this) {
+			while (held) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					//ignore
+				}
+			}
+		}
+		if (duration > 0) {
+			try {
+				Thread.sleep(duration);
+			} catch (InterruptedException e) {
+				//ignore
+			}
+		}
+		return Status.OK_STATUS;
+	}
+
+	/**
+	 * Waits until the job has added its name to the list.
+	 */
+	public void waitForRun() {
+		barrier.waitForStatus(TestBarrier.STATUS_RUNNING);
+	}
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2003, 2010 IBM Corporation and others.
+ * Copyright (c) 2003, 2011 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -177,6 +177,28 @@ public class OrderedLockTest extends TestCase {
 		assertTrue("Locks not removed from graph.", manager.isEmpty());
 	}
 
+	/**
+	 * test that a lock no thread waits for is not recorded in the graph,
+	 * but its owner is still known to own a lock
+	 */
+	public void testUncontended() {
+		LockManager manager = new LockManager();
+		OrderedLock lock1 = manager.newLock();
+		OrderedLock lock2 = manager.newLock();
+		assertTrue("1.0", !manager.isLockOwner());
+		lock1.acquire();
+		lock2.acquire();
+		lock1.acquire();
+		assertTrue("1.1", manager.isEmpty());
+		assertTrue("1.2", manager.isLockOwner());
+		lock1.release();
+		lock1.release();
+		assertTrue("1.3", manager.isLockOwner());
+		lock2.release();
+		assertTrue("1.4", !manager.isLockOwner());
+		assertTrue("1.5", manager.isEmpty());
+	}
+
 	/**
 	 * test that when a Lock Listener forces the Lock Manager to grant a lock
 	 * to a waiting thread, that other threads in the queue don't get disposed (regression test)
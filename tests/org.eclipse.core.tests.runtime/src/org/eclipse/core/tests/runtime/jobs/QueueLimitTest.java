@@ -0,0 +1,380 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.tests.runtime.jobs;
+
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.Test;
+import junit.framework.TestSuite;
+import org.eclipse.core.internal.jobs.QueueLimit;
+import org.eclipse.core.runtime.*;
+import org.eclipse.core.runtime.jobs.*;
+import org.eclipse.core.tests.harness.TestBarrier;
+import org.eclipse.core.tests.harness.TestJob;
+
+/**
+ * Tests for limits on the number of pending jobs.
+ */
+public class QueueLimitTest extends AbstractJobManagerTest {
+	private static final String FAMILY = "QueueLimitTest"; //$NON-NLS-1$
+
+	/**
+	 * A job of the test family.
+	 */
+	static class FamilyJob extends Job {
+		public FamilyJob(String name) {
+			super(name);
+			setFamilies(new Object[] {FAMILY});
+		}
+
+		protected IStatus run(IProgressMonitor monitor) {
+			return Status.OK_STATUS;
+		}
+	}
+
+	/**
+	 * Returns a job of the test family that coalesces its own requests, and may
+	 * therefore be merged into another job of its class.
+	 */
+	private static Job coalescingJob(Job job) {
+		job.setCoalescing(Job.COALESCE_TRAILING, 0);
+		return job;
+	}
+
+	/**
+	 * A job of the test family that has a class of its own.
+	 */
+	static class OtherJob extends FamilyJob {
+		public OtherJob(String name) {
+			super(name);
+		}
+	}
+
+	public static Test suite() {
+		return new TestSuite(QueueLimitTest.class);
+	}
+
+	public QueueLimitTest() {
+		super();
+	}
+
+	public QueueLimitTest(String name) {
+		super(name);
+	}
+
+	private QueueLimit getLimit() {
+		return getInternalManager().getQueueLimit(FAMILY);
+	}
+
+	/**
+	 * Returns a listener that adds the results of the jobs it is added to
+	 * to the given list.
+	 */
+	private IJobChangeListener resultsTo(final List results) {
+		return new JobChangeAdapter() {
+			public void done(IJobChangeEvent event) {
+				synchronized (results) {
+					results.add(event.getResult());
+				}
+			}
+		};
+	}
+
+	/**
+	 * Waits until the given number of threads have waited for room in the queue.
+	 */
+	private void waitForBlockedThreads(int count) {
+		int i = 0;
+		while (getLimit().getBlockedCount() < count) {
+			sleep(10);
+			assertTrue("Timeout waiting for blocked threads", i++ < 500); //$NON-NLS-1$
+		}
+	}
+
+	protected void tearDown() throws Exception {
+		manager.setQueueLimit(FAMILY, 0, IJobManager.OVERFLOW_BLOCK);
+		manager.cancel(FAMILY);
+		if (manager.isSuspended())
+			manager.resume();
+		manager.join(FAMILY, null);
+		super.tearDown();
+	}
+
+	public void testBlock() throws InterruptedException {
+		manager.setQueueLimit(FAMILY, 1, IJobManager.OVERFLOW_BLOCK);
+		final Job sleeping = new FamilyJob("Sleeping");
+		sleeping.schedule(60000);
+		final Job blocked = new FamilyJob("Blocked");
+		Thread scheduler = new Thread("QueueLimitTest.testBlock") {
+			public void run() {
+				blocked.schedule(60000);
+			}
+		};
+		scheduler.start();
+		waitForBlockedThreads(1);
+		assertTrue("1.0", scheduler.isAlive());
+		assertEquals("1.1", Job.NONE, blocked.getState());
+		assertEquals("1.2", 1, getLimit().getBlockedCount());
+		//making room lets the thread schedule its job
+		sleeping.cancel();
+		scheduler.join(5000);
+		assertFalse("2.0", scheduler.isAlive());
+		assertEquals("2.1", Job.SLEEPING, blocked.getState());
+		assertEquals("2.2", 1, getLimit().getDepth());
+	}
+
+	public void testBlockInterrupted() throws InterruptedException {
+		manager.setQueueLimit(FAMILY, 1, IJobManager.OVERFLOW_BLOCK);
+		new FamilyJob("Sleeping").schedule(60000);
+		final Job blocked = new FamilyJob("Blocked");
+		final boolean[] interrupted = new boolean[1];
+		Thread scheduler = new Thread("QueueLimitTest.testBlockInterrupted") {
+			public void run() {
+				blocked.schedule();
+				interrupted[0] = isInterrupted();
+			}
+		};
+		scheduler.start();
+		waitForBlockedThreads(1);
+		assertTrue("1.0", scheduler.isAlive());
+		scheduler.interrupt();
+		scheduler.join(5000);
+		assertFalse("1.1", scheduler.isAlive());
+		assertTrue("1.2", interrupted[0]);
+		assertEquals("1.3", Job.NONE, blocked.getState());
+		assertEquals("1.4", IStatus.CANCEL, blocked.getResult().getSeverity());
+		assertEquals("1.5", 1, getLimit().getRejectedCount());
+	}
+
+	public void testBulk() {
+		manager.setQueueLimit(FAMILY, 2, IJobManager.OVERFLOW_REJECT);
+		List results = new ArrayList();
+		Job[] jobs = new Job[] {new FamilyJob("First"), new FamilyJob("Second"), new FamilyJob("Third")};
+		jobs[2].addJobChangeListener(resultsTo(results));
+		manager.schedule(jobs, 60000);
+		assertEquals("1.0", Job.SLEEPING, jobs[0].getState());
+		assertEquals("1.1", Job.SLEEPING, jobs[1].getState());
+		assertEquals("1.2", Job.NONE, jobs[2].getState());
+		assertEquals("1.3", 1, results.size());
+		assertEquals("1.4", IStatus.CANCEL, ((IStatus) results.get(0)).getSeverity());
+		assertEquals("1.5", 2, getLimit().getDepth());
+	}
+
+	public void testCoalesce() {
+		manager.setQueueLimit(FAMILY, 2, IJobManager.OVERFLOW_COALESCE);
+		manager.suspend();
+		Job first = coalescingJob(new FamilyJob("First"));
+		Job other = coalescingJob(new OtherJob("Other"));
+		first.schedule();
+		other.schedule();
+		Job merged = coalescingJob(new FamilyJob("Merged"));
+		merged.schedule();
+		assertEquals("1.0", Job.NONE, merged.getState());
+		assertEquals("1.1", IStatus.CANCEL, merged.getResult().getSeverity());
+		assertEquals("1.2", 1, getLimit().getCoalescedCount());
+		//a job of a class that is not pending cannot be merged
+		Job rejected = coalescingJob(new FamilyJob("Rejected") {
+			//a class of its own
+		});
+		rejected.schedule();
+		assertEquals("2.0", Job.NONE, rejected.getState());
+		assertEquals("2.1", 1, getLimit().getRejectedCount());
+		//a job that does not coalesce its own requests is never merged
+		Job unrelated = new FamilyJob("Unrelated");
+		unrelated.schedule();
+		assertEquals("2.2", Job.NONE, unrelated.getState());
+		assertEquals("2.3", 2, getLimit().getRejectedCount());
+		assertEquals("2.4", 1, getLimit().getCoalescedCount());
+		manager.resume();
+		waitForCompletion(first, 5000);
+		assertEquals("3.0", 2, first.getCoalescedCount());
+	}
+
+	public void testDepth() throws InterruptedException {
+		int depth = getInternalManager().getQueueLimit(null).getDepth();
+		manager.suspend();
+		Job[] jobs = new Job[] {new FamilyJob("First"), new FamilyJob("Second"), new FamilyJob("Third")};
+		for (int i = 0; i < jobs.length; i++)
+			jobs[i].schedule();
+		QueueLimit limit = getInternalManager().getQueueLimit(null);
+		assertEquals("1.0", depth + 3, limit.getDepth());
+		assertTrue("1.1", limit.getPeakDepth() >= depth + 3);
+		assertNull("1.2", getLimit());
+		//a new family limit counts the jobs that are already pending
+		manager.setQueueLimit(FAMILY, 10, IJobManager.OVERFLOW_REJECT);
+		assertEquals("1.3", 3, getLimit().getDepth());
+		manager.resume();
+		manager.join(FAMILY, null);
+		assertEquals("2.0", 0, getLimit().getDepth());
+		assertEquals("2.1", 3, getLimit().getPeakDepth());
+	}
+
+	public void testDropOldest() {
+		manager.setQueueLimit(FAMILY, 2, IJobManager.OVERFLOW_DROP_OLDEST);
+		manager.suspend();
+		List results = new ArrayList();
+		Job first = new FamilyJob("First");
+		first.addJobChangeListener(resultsTo(results));
+		Job second = new FamilyJob("Second");
+		Job third = new FamilyJob("Third");
+		first.schedule();
+		second.schedule();
+		third.schedule();
+		assertEquals("1.0", Job.NONE, first.getState());
+		assertEquals("1.1", Job.WAITING, second.getState());
+		assertEquals("1.2", Job.WAITING, third.getState());
+		assertEquals("1.3", 1, results.size());
+		assertEquals("1.4", IStatus.CANCEL, ((IStatus) results.get(0)).getSeverity());
+		assertEquals("1.5", 1, getLimit().getDroppedCount());
+		assertEquals("1.6", 2, getLimit().getDepth());
+	}
+
+	public void testDropOldestBlocked() {
+		manager.setQueueLimit(FAMILY, 2, IJobManager.OVERFLOW_DROP_OLDEST);
+		final ISchedulingRule rule = new IdentityRule();
+		final TestBarrier barrier = new TestBarrier();
+		Job holder = new Job("Holder") {
+			protected IStatus run(IProgressMonitor monitor) {
+				barrier.setStatus(TestBarrier.STATUS_RUNNING);
+				barrier.waitForStatus(TestBarrier.STATUS_DONE);
+				return Status.OK_STATUS;
+			}
+		};
+		holder.setRule(rule);
+		holder.schedule();
+		barrier.waitForStatus(TestBarrier.STATUS_RUNNING);
+		try {
+			//the backlog is blocked on the running job, rather than waiting
+			List results = new ArrayList();
+			Job first = new FamilyJob("First");
+			first.addJobChangeListener(resultsTo(results));
+			Job second = coalescingJob(new FamilyJob("Second"));
+			first.setRule(rule);
+			second.setRule(rule);
+			first.schedule();
+			second.schedule();
+			waitForBlocked(first);
+			waitForBlocked(second);
+			Job third = new FamilyJob("Third");
+			third.setRule(rule);
+			third.schedule();
+			assertEquals("1.0", Job.NONE, first.getState());
+			assertEquals("1.1", 1, results.size());
+			assertEquals("1.2", IStatus.CANCEL, ((IStatus) results.get(0)).getSeverity());
+			assertEquals("1.3", Job.WAITING, third.getState());
+			assertEquals("1.4", 1, getLimit().getDroppedCount());
+			assertEquals("1.5", 0, getLimit().getRejectedCount());
+			//jobs are merged into blocked jobs as well
+			manager.setQueueLimit(FAMILY, 2, IJobManager.OVERFLOW_COALESCE);
+			Job merged = coalescingJob(new FamilyJob("Merged"));
+			merged.schedule();
+			assertEquals("2.0", Job.NONE, merged.getState());
+			assertEquals("2.1", 1, getLimit().getCoalescedCount());
+			assertEquals("2.2", 0, getLimit().getRejectedCount());
+			barrier.setStatus(TestBarrier.STATUS_DONE);
+			waitForCompletion(second, 5000);
+			assertEquals("2.3", 2, second.getCoalescedCount());
+		} finally {
+			barrier.setStatus(TestBarrier.STATUS_DONE);
+		}
+	}
+
+	public void testNoWaitInJob() {
+		manager.setQueueLimit(FAMILY, 1, IJobManager.OVERFLOW_BLOCK);
+		new FamilyJob("Sleeping").schedule(60000);
+		final Job exceeding = new FamilyJob("Exceeding");
+		//waiting on a worker could starve the jobs that would make room
+		Job scheduler = new Job("Scheduler") {
+			protected IStatus run(IProgressMonitor monitor) {
+				exceeding.schedule(60000);
+				return Status.OK_STATUS;
+			}
+		};
+		scheduler.schedule();
+		waitForCompletion(scheduler, 5000);
+		assertEquals("1.0", Job.SLEEPING, exceeding.getState());
+		assertEquals("1.1", 0, getLimit().getBlockedCount());
+	}
+
+	public void testNoWaitInGroupJob() {
+		final JobGroup group = new JobGroup("QueueLimitTest", 1);
+		manager.setQueueLimit(group, 1, IJobManager.OVERFLOW_BLOCK);
+		try {
+			final Job waiting = new FamilyJob("Waiting");
+			waiting.setJobGroup(group);
+			//the waiting job can only start once the scheduling job is done
+			Job scheduler = new FamilyJob("Scheduler") {
+				protected IStatus run(IProgressMonitor monitor) {
+					waiting.schedule();
+					Job exceeding = new FamilyJob("Exceeding");
+					exceeding.setJobGroup(group);
+					exceeding.schedule();
+					return Status.OK_STATUS;
+				}
+			};
+			scheduler.setJobGroup(group);
+			scheduler.schedule();
+			waitForCompletion(scheduler, 5000);
+			waitForCompletion(waiting, 5000);
+		} finally {
+			manager.setQueueLimit(group, 0, IJobManager.OVERFLOW_BLOCK);
+		}
+	}
+
+	public void testNoWaitWithRule() {
+		manager.setQueueLimit(FAMILY, 1, IJobManager.OVERFLOW_BLOCK);
+		new FamilyJob("Sleeping").schedule(60000);
+		ISchedulingRule rule = new IdentityRule();
+		manager.beginRule(rule, null);
+		try {
+			//waiting could deadlock, so the limit is exceeded
+			Job job = new FamilyJob("Exceeding");
+			job.schedule(60000);
+			assertEquals("1.0", Job.SLEEPING, job.getState());
+		} finally {
+			manager.endRule(rule);
+		}
+		assertEquals("1.1", 2, getLimit().getDepth());
+		assertEquals("1.2", 0, getLimit().getBlockedCount());
+	}
+
+	public void testReject() {
+		manager.setQueueLimit(FAMILY, 2, IJobManager.OVERFLOW_REJECT);
+		manager.suspend();
+		List results = new ArrayList();
+		Job first = new FamilyJob("First");
+		Job second = new FamilyJob("Second");
+		Job third = new FamilyJob("Third");
+		third.addJobChangeListener(resultsTo(results));
+		first.schedule();
+		second.schedule();
+		third.schedule();
+		assertEquals("1.0", Job.WAITING, first.getState());
+		assertEquals("1.1", Job.WAITING, second.getState());
+		assertEquals("1.2", Job.NONE, third.getState());
+		assertEquals("1.3", 1, results.size());
+		assertEquals("1.4", third.getResult(), results.get(0));
+		assertEquals("1.5", IStatus.CANCEL, third.getResult().getSeverity());
+		assertTrue("1.6", third.getResult() instanceof IJobStatus);
+		assertEquals("1.7", 1, getLimit().getRejectedCount());
+		//jobs of other families are not limited
+		Job unlimited = new TestJob("Unlimited");
+		unlimited.schedule();
+		assertEquals("2.0", Job.WAITING, unlimited.getState());
+		unlimited.cancel();
+		try {
+			manager.setQueueLimit(FAMILY, -1, IJobManager.OVERFLOW_REJECT);
+			fail("3.0");
+		} catch (IllegalArgumentException e) {
+			//expected
+		}
+	}
+}
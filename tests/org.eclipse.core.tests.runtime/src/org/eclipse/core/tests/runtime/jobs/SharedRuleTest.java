@@ -0,0 +1,192 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.tests.runtime.jobs;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.jobs.*;
+import org.eclipse.core.tests.harness.TestJob;
+
+/**
+ * Tests for jobs and threads that hold rules in shared mode with {@link SharedRule}.
+ */
+public class SharedRuleTest extends AbstractJobManagerTest {
+	public static Test suite() {
+		return new TestSuite(SharedRuleTest.class);
+	}
+
+	public SharedRuleTest() {
+		super();
+	}
+
+	public SharedRuleTest(String name) {
+		super(name);
+	}
+
+	/**
+	 * Returns a job with the given rule that runs until it is released.
+	 */
+	private OrderJob createHolder(ISchedulingRule rule) {
+		OrderJob holder = new OrderJob("Holder", null); //$NON-NLS-1$
+		holder.setRule(rule);
+		holder.hold();
+		return holder;
+	}
+
+	/**
+	 * Waits until the given thread waits for a rule.
+	 */
+	private void waitForWaiting(Thread thread) {
+		int i = 0;
+		while (thread.getState() != Thread.State.WAITING && thread.getState() != Thread.State.TIMED_WAITING) {
+			sleep(10);
+			assertTrue("Timeout waiting for " + thread.getName() + " to wait", i++ < 500); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+	}
+
+	public void testRuleConflicts() {
+		PathRule rule = new PathRule("/a");
+		SharedRule shared = new SharedRule(rule);
+		SharedRule other = new SharedRule(new PathRule("/a/b"));
+		assertTrue("1.0", shared.isConflicting(shared));
+		assertTrue("1.1", !shared.isConflicting(other));
+		assertTrue("1.2", shared.isConflicting(rule));
+		assertTrue("1.3", shared.isConflicting(new PathRule("/a/b")));
+		assertTrue("1.4", !shared.isConflicting(new PathRule("/b")));
+		assertSame("1.5", rule, new SharedRule(shared).getRule());
+
+		assertTrue("2.0", shared.contains(other));
+		assertTrue("2.1", !other.contains(shared));
+		assertTrue("2.2", !shared.contains(rule));
+
+		ISchedulingRule multi = MultiRule.combine(other, new PathRule("/c"));
+		assertTrue("3.0", multi.isConflicting(rule));
+		assertTrue("3.1", !multi.isConflicting(shared));
+		assertTrue("3.2", shared.isConflicting(new MultiRule(new ISchedulingRule[] {new PathRule("/c/d"), rule})));
+		assertTrue("3.3", new MultiRule(new ISchedulingRule[] {rule, new PathRule("/c")}).contains(multi));
+		//combining a rule with a shared rule it contains yields the rule
+		assertSame("3.4", rule, MultiRule.combine(rule, other));
+	}
+
+	public void testSharedJobs() {
+		SharedRule shared = new SharedRule(new PathRule("/a"));
+		assertRuleNotBlocked("1.0", shared, shared);
+		assertRuleNotBlocked("2.0", shared, new SharedRule(new PathRule("/a/b")));
+		assertRuleNotBlocked("3.0", MultiRule.combine(shared, new SharedRule(new PathRule("/b"))), shared);
+		assertRuleBlocked("4.0", shared, new PathRule("/a/b"));
+		assertRuleBlocked("5.0", new PathRule("/a/b"), shared);
+		assertRuleBlocked("6.0", MultiRule.combine(shared, new PathRule("/b")), new SharedRule(new PathRule("/b")));
+	}
+
+	public void testSharedBeginRule() {
+		final SharedRule shared = new SharedRule(new PathRule("/a"));
+		OrderJob holder = createHolder(shared);
+		holder.schedule();
+		holder.waitForRun();
+		try {
+			final Job job = new TestJob("1.0", 1, 1);
+			job.setRule(shared);
+			//the thread must not wait for the holder
+			manager.beginRule(shared, null);
+			try {
+				job.schedule();
+				waitForCompletion(job, 5000);
+			} finally {
+				manager.endRule(shared);
+			}
+			assertEquals("1.1", Job.RUNNING, holder.getState());
+		} finally {
+			holder.release();
+			waitForCompletion(holder, 5000);
+		}
+	}
+
+	public void testNestedSharedRule() {
+		PathRule rule = new PathRule("/a");
+		SharedRule shared = new SharedRule(new PathRule("/a/b"));
+		manager.beginRule(rule, null);
+		try {
+			//a thread that owns a rule may begin a shared rule it contains
+			manager.beginRule(shared, null);
+			manager.endRule(shared);
+		} finally {
+			manager.endRule(rule);
+		}
+		SharedRule outer = new SharedRule(rule);
+		manager.beginRule(outer, null);
+		try {
+			//but not upgrade a shared rule to an exclusive rule
+			manager.beginRule(rule, null);
+			fail("1.0");
+		} catch (IllegalArgumentException e) {
+			//expected
+		} finally {
+			manager.endRule(rule);
+			manager.endRule(outer);
+		}
+	}
+
+	public void testWriterNotStarved() {
+		PathRule rule = new PathRule("/a");
+		OrderJob reader = createHolder(new SharedRule(rule));
+		reader.schedule();
+		reader.waitForRun();
+		OrderJob writer = createHolder(rule);
+		writer.schedule();
+		waitForBlocked(writer);
+		//a reader that comes after the writer must wait for it
+		Job lateReader = new TestJob("LateReader", 1, 1);
+		lateReader.setRule(new SharedRule(rule));
+		lateReader.schedule();
+		waitForBlocked(lateReader);
+		assertEquals("1.0", Job.WAITING, writer.getState());
+		assertEquals("1.1", Job.WAITING, lateReader.getState());
+		reader.release();
+		writer.waitForRun();
+		waitForBlocked(lateReader);
+		assertEquals("2.0", Job.WAITING, lateReader.getState());
+		writer.release();
+		waitForCompletion(writer, 5000);
+		waitForCompletion(lateReader, 5000);
+		assertEquals("2.1", IStatus.OK, lateReader.getResult().getSeverity());
+	}
+
+	public void testThreadWriterNotStarved() throws InterruptedException {
+		final PathRule rule = new PathRule("/a");
+		OrderJob reader = createHolder(new SharedRule(rule));
+		reader.schedule();
+		reader.waitForRun();
+		final boolean[] acquired = new boolean[1];
+		Thread writer = new Thread("Writer") { //$NON-NLS-1$
+			public void run() {
+				manager.beginRule(rule, null);
+				acquired[0] = true;
+				manager.endRule(rule);
+			}
+		};
+		writer.start();
+		waitForWaiting(writer);
+		//a reader that comes after the writer must not join the running reader
+		Job lateReader = new TestJob("LateReader", 1, 1);
+		lateReader.setRule(new SharedRule(rule));
+		lateReader.schedule();
+		waitForBlocked(lateReader);
+		assertTrue("1.0", !acquired[0]);
+		assertEquals("1.1", Job.WAITING, lateReader.getState());
+		reader.release();
+		writer.join(5000);
+		assertTrue("2.0", acquired[0]);
+		waitForCompletion(reader, 5000);
+		waitForCompletion(lateReader, 5000);
+		assertEquals("2.1", IStatus.OK, lateReader.getResult().getSeverity());
+	}
+}
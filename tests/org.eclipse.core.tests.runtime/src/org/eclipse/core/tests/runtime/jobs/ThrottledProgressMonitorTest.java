@@ -0,0 +1,168 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.tests.runtime.jobs;
+
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.Test;
+import junit.framework.TestSuite;
+import org.eclipse.core.internal.jobs.ThrottledProgressMonitor;
+import org.eclipse.core.runtime.*;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.core.tests.harness.TestBarrier;
+import org.eclipse.core.tests.harness.TestProgressMonitor;
+
+/**
+ * Tests for progress monitors that pass updates on at a bounded rate.
+ */
+public class ThrottledProgressMonitorTest extends AbstractJobManagerTest {
+	/**
+	 * A monitor that counts the updates it receives.
+	 */
+	static class CountingMonitor extends TestProgressMonitor {
+		boolean canceled = false;
+		final List subTasks = new ArrayList();
+		int updates = 0;
+		double work = 0;
+
+		public void internalWorked(double value) {
+			updates++;
+			work += value;
+		}
+
+		public boolean isCanceled() {
+			return canceled;
+		}
+
+		public void setCanceled(boolean value) {
+			canceled = value;
+		}
+
+		public void subTask(String name) {
+			subTasks.add(name);
+		}
+
+		public void worked(int value) {
+			updates++;
+			work += value;
+		}
+	}
+
+	public static Test suite() {
+		return new TestSuite(ThrottledProgressMonitorTest.class);
+	}
+
+	public ThrottledProgressMonitorTest() {
+		super();
+	}
+
+	public ThrottledProgressMonitorTest(String name) {
+		super(name);
+	}
+
+	protected void tearDown() throws Exception {
+		getInternalManager().setProgressInterval(0);
+		super.tearDown();
+	}
+
+	public void testCanceled() {
+		CountingMonitor counting = new CountingMonitor();
+		IProgressMonitor monitor = new ThrottledProgressMonitor(counting, 60000);
+		monitor.beginTask("Task", 100);
+		assertFalse("1.0", monitor.isCanceled());
+		monitor.setCanceled(true);
+		assertTrue("1.1", monitor.isCanceled());
+		assertTrue("1.2", counting.canceled);
+		monitor.setCanceled(false);
+		assertFalse("1.3", monitor.isCanceled());
+		//canceling the wrapped monitor is picked up with the next update
+		counting.canceled = true;
+		monitor.worked(1);
+		assertTrue("2.0", monitor.isCanceled());
+	}
+
+	public void testCanceledWhilePolling() throws InterruptedException {
+		CountingMonitor counting = new CountingMonitor();
+		IProgressMonitor monitor = new ThrottledProgressMonitor(counting, 50);
+		monitor.beginTask("Task", 100);
+		assertFalse("1.0", monitor.isCanceled());
+		//a job that only polls sees the wrapped monitor being canceled within the interval
+		counting.canceled = true;
+		long start = System.currentTimeMillis();
+		while (!monitor.isCanceled()) {
+			assertTrue("1.1", System.currentTimeMillis() - start < 5000);
+			Thread.sleep(1);
+		}
+		assertEquals("1.2", 0, counting.updates);
+	}
+
+	public void testInterval() throws InterruptedException {
+		CountingMonitor counting = new CountingMonitor();
+		IProgressMonitor monitor = new ThrottledProgressMonitor(counting, 100);
+		monitor.beginTask("Task", IProgressMonitor.UNKNOWN);
+		for (int i = 0; i < 1000; i++)
+			monitor.worked(1);
+		assertTrue("1.0", counting.updates < 1000);
+		Thread.sleep(200);
+		monitor.worked(1);
+		assertTrue("1.1", counting.updates > 0);
+		assertEquals("1.2", 1001, counting.work, 0);
+	}
+
+	public void testJobMonitor() {
+		getInternalManager().setProgressInterval(60000);
+		final TestBarrier barrier = new TestBarrier();
+		final IProgressMonitor[] monitors = new IProgressMonitor[1];
+		final boolean[] canceled = new boolean[1];
+		Job job = new Job("ThrottledProgressMonitorTest") {
+			protected IStatus run(IProgressMonitor monitor) {
+				monitors[0] = monitor;
+				monitor.beginTask(getName(), IProgressMonitor.UNKNOWN);
+				barrier.setStatus(TestBarrier.STATUS_RUNNING);
+				while (!monitor.isCanceled())
+					monitor.worked(1);
+				canceled[0] = true;
+				monitor.done();
+				return Status.CANCEL_STATUS;
+			}
+		};
+		job.schedule();
+		barrier.waitForStatus(TestBarrier.STATUS_RUNNING);
+		assertTrue("1.0", monitors[0] instanceof ThrottledProgressMonitor);
+		job.cancel();
+		waitForCompletion(job, 5000);
+		assertTrue("1.1", canceled[0]);
+	}
+
+	public void testStep() {
+		CountingMonitor counting = new CountingMonitor();
+		IProgressMonitor monitor = new ThrottledProgressMonitor(counting, 60000);
+		monitor.beginTask("Task", 10000);
+		for (int i = 0; i < 10000; i++)
+			monitor.worked(1);
+		monitor.done();
+		assertTrue("1.0", counting.updates <= 101);
+		assertEquals("1.1", 10000, counting.work, 0);
+	}
+
+	public void testSubTask() {
+		CountingMonitor counting = new CountingMonitor();
+		IProgressMonitor monitor = new ThrottledProgressMonitor(counting, 60000);
+		monitor.beginTask("Task", 1000);
+		monitor.subTask("First");
+		monitor.subTask("Second");
+		monitor.internalWorked(0.5);
+		assertEquals("1.0", 0, counting.subTasks.size());
+		monitor.done();
+		assertEquals("1.1", "[Second]", counting.subTasks.toString());
+		assertEquals("1.2", 0.5, counting.work, 0);
+	}
+}
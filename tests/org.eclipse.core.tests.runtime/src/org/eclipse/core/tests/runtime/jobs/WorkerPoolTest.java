@@ -0,0 +1,218 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.tests.runtime.jobs;
+
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.Test;
+import junit.framework.TestSuite;
+import org.eclipse.core.internal.jobs.*;
+import org.eclipse.core.runtime.*;
+import org.eclipse.core.runtime.jobs.*;
+
+/**
+ * Tests for the limits, metrics and executor of the job manager's worker pool.
+ */
+public class WorkerPoolTest extends AbstractJobManagerTest {
+	/**
+	 * The jobs that run until they are released, which are released when the
+	 * test is done.
+	 */
+	private final List holders = new ArrayList();
+
+	public static Test suite() {
+		return new TestSuite(WorkerPoolTest.class);
+	}
+
+	public WorkerPoolTest() {
+		super();
+	}
+
+	public WorkerPoolTest(String name) {
+		super(name);
+	}
+
+	/**
+	 * Returns system jobs that run until they are released, and add their
+	 * names to the given list.
+	 */
+	private OrderJob[] createHolders(int count, List order) {
+		OrderJob[] jobs = new OrderJob[count];
+		for (int i = 0; i < count; i++) {
+			jobs[i] = new OrderJob("Holder", order); //$NON-NLS-1$
+			jobs[i].setSystem(true);
+			jobs[i].hold();
+			holders.add(jobs[i]);
+		}
+		return jobs;
+	}
+
+	/**
+	 * Releases the given jobs, and waits until they are done.
+	 */
+	private void release(Job[] jobs) {
+		for (int i = 0; i < jobs.length; i++)
+			((OrderJob) jobs[i]).release();
+		for (int i = 0; i < jobs.length; i++)
+			waitForCompletion(jobs[i], 5000);
+	}
+
+	protected void tearDown() throws Exception {
+		for (int i = 0; i < holders.size(); i++)
+			((OrderJob) holders.get(i)).release();
+		holders.clear();
+		getInternalManager().setJobExecutor(null);
+		getInternalManager().setWorkerLimits(-1, -1, -1);
+		super.tearDown();
+	}
+
+	/**
+	 * Waits until all idle workers have ended.
+	 */
+	private void waitForNoWorkers() {
+		for (int i = 0; getInternalManager().getWorkerCount() > 0; i++) {
+			sleep(50);
+			assertTrue("Timeout waiting for workers to end", i < 200);
+		}
+	}
+
+	public void testMaxThreads() {
+		getInternalManager().setWorkerLimits(-1, 2, -1);
+		List order = new ArrayList();
+		Job[] jobs = createHolders(6, order);
+		for (int i = 0; i < jobs.length; i++)
+			jobs[i].schedule();
+		waitForRuns(order, 2);
+		//the other jobs wait for the two workers
+		assertTrue("1.0", getInternalManager().getWorkerCount() <= 2);
+		int waiting = 0;
+		for (int i = 0; i < jobs.length; i++)
+			if (jobs[i].getState() == Job.WAITING)
+				waiting++;
+		assertTrue("1.1", waiting >= 4);
+		assertEquals("1.2", 2, order.size());
+		release(jobs);
+		assertEquals("2.0", 6, order.size());
+	}
+
+	public void testJobsQueued() {
+		//all jobs scheduled at once must run at once
+		List order = new ArrayList();
+		Job[] jobs = createHolders(8, order);
+		manager.schedule(jobs, 0);
+		waitForRuns(order, jobs.length);
+		release(jobs);
+	}
+
+	public void testMetrics() {
+		JobManager jobManager = getInternalManager();
+		OrderJob job = createHolders(1, null)[0];
+		job.schedule();
+		job.waitForRun();
+		assertTrue("1.0", jobManager.getWorkerCount() >= 1);
+		assertTrue("1.1", jobManager.getBusyWorkerCount() >= 1);
+		release(new Job[] {job});
+		//the worker becomes idle once the job is done
+		for (int i = 0; jobManager.getIdleWorkerCount() == 0; i++) {
+			sleep(10);
+			assertTrue("Timeout waiting for idle worker", i < 500);
+		}
+		assertTrue("2.0", jobManager.getIdleWorkerCount() <= jobManager.getWorkerCount());
+		assertTrue("2.1", jobManager.getPeakWorkerCount() >= jobManager.getWorkerCount());
+	}
+
+	public void testKeepAlive() {
+		//with no minimum, all idle workers end after the keep alive time
+		getInternalManager().setWorkerLimits(0, -1, 100);
+		waitForNoWorkers();
+		//new workers are created when jobs are scheduled
+		Job job = new OrderJob("testKeepAlive", null); //$NON-NLS-1$
+		job.schedule();
+		waitForCompletion(job, 5000);
+		assertEquals("1.0", IStatus.OK, job.getResult().getSeverity());
+	}
+
+	public void testJobExecutor() {
+		final int[] executed = new int[1];
+		JobExecutor executor = new JobExecutor() {
+			public void execute(Runnable worker) {
+				synchronized (executed) {
+					executed[0]++;
+				}
+				Thread thread = new Thread(worker, "WorkerPoolTest executor"); //$NON-NLS-1$
+				thread.setDaemon(true);
+				thread.start();
+			}
+		};
+		//make sure the next job needs a new worker
+		getInternalManager().setWorkerLimits(0, -1, 100);
+		waitForNoWorkers();
+		getInternalManager().setJobExecutor(executor);
+		final Object[] result = new Object[2];
+		Job job = new Job("testJobExecutor") { //$NON-NLS-1$
+			protected IStatus run(IProgressMonitor monitor) {
+				result[0] = Thread.currentThread();
+				result[1] = manager.currentJob();
+				return Status.OK_STATUS;
+			}
+		};
+		job.schedule();
+		waitForCompletion(job, 5000);
+		synchronized (executed) {
+			assertTrue("1.0", executed[0] > 0);
+		}
+		Thread thread = (Thread) result[0];
+		assertEquals("1.1", "WorkerPoolTest executor", thread.getName()); //$NON-NLS-1$
+		assertTrue("1.2", !(thread instanceof Worker));
+		assertEquals("1.3", job, result[1]);
+	}
+
+	public void testVirtualThreads() {
+		JobExecutor executor = VirtualThreadExecutor.create();
+		String version = System.getProperty("java.specification.version"); //$NON-NLS-1$
+		if (version.startsWith("1.") || Integer.parseInt(version) < 24) { //$NON-NLS-1$
+			//virtual threads pin their carrier thread while they wait in synchronized code
+			assertNull("0.0", executor);
+			return;
+		}
+		if (executor == null) {
+			//virtual threads are not supported by this VM
+			return;
+		}
+		getInternalManager().setJobExecutor(executor);
+		final ISchedulingRule rule = new IdentityRule();
+		final Object[] result = new Object[3];
+		Job job = new Job("testVirtualThreads") { //$NON-NLS-1$
+			protected IStatus run(IProgressMonitor monitor) {
+				result[0] = Thread.currentThread();
+				result[1] = manager.currentJob();
+				manager.beginRule(rule, null);
+				try {
+					result[2] = manager.currentRule();
+				} finally {
+					manager.endRule(rule);
+				}
+				return Status.OK_STATUS;
+			}
+		};
+		job.setRule(rule);
+		Job[] jobs = createHolders(100, null);
+		for (int i = 0; i < jobs.length; i++)
+			jobs[i].schedule();
+		job.schedule();
+		waitForCompletion(job, 5000);
+		assertTrue("1.0", !(result[0] instanceof Worker));
+		assertEquals("1.1", job, result[1]);
+		assertEquals("1.2", rule, result[2]);
+		assertTrue("1.3", ((Thread) result[0]).getName().startsWith("Worker-")); //$NON-NLS-1$
+		release(jobs);
+	}
+}
@@ -0,0 +1,478 @@
+/*******************************************************************************
+ * Copyright (c) 2011 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.core.tests.runtime.perf;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+import org.eclipse.core.internal.jobs.JobManager;
+import org.eclipse.core.internal.jobs.VirtualThreadExecutor;
+import org.eclipse.core.runtime.*;
+import org.eclipse.core.runtime.jobs.*;
+import org.eclipse.core.tests.harness.PerformanceTestRunner;
+import org.eclipse.core.tests.runtime.RuntimeTest;
+
+/**
+ * Performance tests for the job manager.
+ */
+public class JobPerformanceTest extends RuntimeTest {
+	/**
+	 * The total number of jobs scheduled by each contention test, independent
+	 * of the number of scheduling threads.
+	 */
+	private static final int CONTENTION_JOBS = 20000;
+
+	/**
+	 * The number of jobs scheduled while the job manager is suspended by the
+	 * backlog test.
+	 */
+	private static final int BACKLOG_JOBS = 100000;
+
+	/**
+	 * The number of sleeping jobs scheduled and canceled by the sleeping test.
+	 */
+	private static final int SLEEPING_JOBS = 20000;
+
+	/**
+	 * The number of times the latency test schedules a job and waits for it
+	 * to run.
+	 */
+	private static final int LATENCY_ROUNDS = 2000;
+
+	/**
+	 * The number of jobs and families queued by the family test.
+	 */
+	private static final int FAMILY_JOBS = 20000;
+	private static final int FAMILIES = 1000;
+
+	/**
+	 * The number of jobs scheduled at once by the fan out tests.
+	 */
+	private static final int FAN_OUT_JOBS = 20000;
+
+	/**
+	 * The number of jobs that block at once in the blocking tests, and the
+	 * time each of them blocks.
+	 */
+	private static final int BLOCKING_JOBS = 10000;
+	private static final long BLOCKING_MILLIS = 100;
+
+	/**
+	 * The number of jobs run by the listener tests, and the number of global
+	 * listeners they add.
+	 */
+	private static final int LISTENER_JOBS = 20000;
+	private static final int LISTENERS = 12;
+
+	private static final int[] PRIORITIES = new int[] {Job.INTERACTIVE, Job.SHORT, Job.LONG, Job.BUILD, Job.DECORATE};
+
+	/**
+	 * A job that does nothing but belongs to a family, so the test can wait
+	 * until all jobs it has scheduled are done.
+	 */
+	static class FamilyJob extends Job {
+		private final Object family;
+
+		public FamilyJob(Object family) {
+			super("FamilyJob"); //$NON-NLS-1$
+			this.family = family;
+			setSystem(true);
+		}
+
+		public boolean belongsTo(Object jobFamily) {
+			return jobFamily == family;
+		}
+
+		protected IStatus run(IProgressMonitor monitor) {
+			return Status.OK_STATUS;
+		}
+	}
+
+	/**
+	 * A job that blocks for a while, as a job waiting for I/O does. Records
+	 * whether the job manager knows which job is running while the job blocks.
+	 */
+	static class BlockingJob extends FamilyJob {
+		static int failures = 0;
+
+		public BlockingJob(Object family) {
+			super(family);
+		}
+
+		protected IStatus run(IProgressMonitor monitor) {
+			try {
+				Thread.sleep(BLOCKING_MILLIS);
+			} catch (InterruptedException e) {
+				//ignore
+			}
+			if (Job.getJobManager().currentJob() != this) {
+				synchronized (BlockingJob.class) {
+					failures++;
+				}
+			}
+			return Status.OK_STATUS;
+		}
+	}
+
+	public static Test suite() {
+		return new TestSuite(JobPerformanceTest.class);
+		//		TestSuite suite = new TestSuite(JobPerformanceTest.class.getName());
+		//		suite.addTest(new JobPerformanceTest("testScheduleContention64"));
+		//		return suite;
+	}
+
+	public JobPerformanceTest() {
+		super();
+	}
+
+	public JobPerformanceTest(String testName) {
+		super(testName);
+	}
+
+	/**
+	 * Schedules a fixed number of jobs from the given number of threads at
+	 * once, while the worker threads compete with the scheduling threads for
+	 * the job manager, and waits until all jobs are done.
+	 */
+	private void scheduleConcurrently(final int threadCount) {
+		final IJobManager manager = Job.getJobManager();
+		final int jobsPerThread = CONTENTION_JOBS / threadCount;
+		new PerformanceTestRunner() {
+			protected void test() {
+				final Object family = new Object();
+				Thread[] threads = new Thread[threadCount];
+				for (int i = 0; i < threadCount; i++) {
+					threads[i] = new Thread("JobPerformanceTest-" + i) { //$NON-NLS-1$
+						public void run() {
+							for (int j = 0; j < jobsPerThread; j++) {
+								new FamilyJob(family).schedule();
+								//query the manager the way progress reporting clients do
+								manager.isIdle();
+							}
+						}
+					};
+				}
+				for (int i = 0; i < threadCount; i++)
+					threads[i].start();
+				try {
+					for (int i = 0; i < threadCount; i++)
+						threads[i].join();
+					manager.join(family, null);
+				} catch (InterruptedException e) {
+					fail("4.99", e);
+				}
+			}
+		}.run(this, 5, 1);
+	}
+
+	/**
+	 * Schedules a large number of jobs that all block at once, using the given
+	 * executor to run the workers, and waits until all jobs are done.
+	 */
+	private void runBlocking(JobExecutor executor) {
+		final JobManager manager = (JobManager) Job.getJobManager();
+		//let the workers end soon after the test instead of lingering for a minute
+		manager.setWorkerLimits(-1, -1, 1000);
+		manager.setJobExecutor(executor);
+		BlockingJob.failures = 0;
+		try {
+			new PerformanceTestRunner() {
+				protected void test() {
+					Object family = new Object();
+					for (int i = 0; i < BLOCKING_JOBS; i++)
+						new BlockingJob(family).schedule();
+					try {
+						manager.join(family, null);
+					} catch (InterruptedException e) {
+						fail("4.99", e);
+					}
+				}
+			}.run(this, 5, 1);
+			debug("Peak number of workers: " + manager.getPeakWorkerCount()); //$NON-NLS-1$
+		} finally {
+			manager.setJobExecutor(null);
+			for (int i = 0; manager.getWorkerCount() > 1 && i < 100; i++) {
+				try {
+					Thread.sleep(100);
+				} catch (InterruptedException e) {
+					//ignore
+				}
+			}
+			manager.setWorkerLimits(-1, -1, -1);
+		}
+		assertEquals("1.0", 0, BlockingJob.failures);
+	}
+
+	/**
+	 * Runs many jobs that block at once on platform worker threads.
+	 */
+	public void testBlockingPlatformThreads() {
+		runBlocking(null);
+	}
+
+	/**
+	 * Runs many jobs that block at once on virtual threads, if the Java
+	 * runtime supports them.
+	 */
+	public void testBlockingVirtualThreads() {
+		JobExecutor executor = VirtualThreadExecutor.create();
+		if (executor == null) {
+			debug("Virtual threads are not supported, skipping test"); //$NON-NLS-1$
+			return;
+		}
+		runBlocking(executor);
+	}
+
+	/**
+	 * Schedules a large number of jobs at once, the way clients that split
+	 * work into a job per file do, and waits until all jobs are done.
+	 */
+	private void scheduleFanOut(final boolean bulk) {
+		final IJobManager manager = Job.getJobManager();
+		new PerformanceTestRunner() {
+			protected void test() {
+				Object family = new Object();
+				Job[] jobs = new Job[FAN_OUT_JOBS];
+				for (int i = 0; i < jobs.length; i++)
+					jobs[i] = new FamilyJob(family);
+				if (bulk) {
+					manager.schedule(jobs, 0);
+				} else {
+					for (int i = 0; i < jobs.length; i++)
+						jobs[i].schedule();
+				}
+				try {
+					manager.join(family, null);
+				} catch (InterruptedException e) {
+					fail("4.99", e);
+				}
+			}
+		}.run(this, 5, 1);
+	}
+
+	public void testScheduleFanOut() {
+		scheduleFanOut(false);
+	}
+
+	public void testScheduleFanOutBulk() {
+		scheduleFanOut(true);
+	}
+
+	/**
+	 * Runs short jobs while a number of global listeners, which do a bit of
+	 * work for each event as progress views do, are notified of their events.
+	 */
+	private void runWithListeners(boolean async) {
+		final IJobManager manager = Job.getJobManager();
+		final int[] sink = new int[1];
+		IJobChangeListener[] listeners = new IJobChangeListener[LISTENERS];
+		for (int i = 0; i < listeners.length; i++) {
+			listeners[i] = new JobChangeAdapter() {
+				private void update(IJobChangeEvent event) {
+					String label = event.getJob().getName() + ' ' + event.getJob().getState();
+					synchronized (sink) {
+						sink[0] += label.hashCode();
+					}
+				}
+
+				public void done(IJobChangeEvent event) {
+					update(event);
+				}
+
+				public void running(IJobChangeEvent event) {
+					update(event);
+				}
+
+				public void scheduled(IJobChangeEvent event) {
+					update(event);
+				}
+			};
+			manager.addJobChangeListener(listeners[i]);
+		}
+		((JobManager) manager).setAsyncListeners(async);
+		try {
+			new PerformanceTestRunner() {
+				protected void test() {
+					Object family = new Object();
+					for (int i = 0; i < LISTENER_JOBS; i++)
+						new FamilyJob(family).schedule();
+					try {
+						manager.join(family, null);
+					} catch (InterruptedException e) {
+						fail("4.99", e);
+					}
+				}
+			}.run(this, 5, 1);
+		} finally {
+			((JobManager) manager).setAsyncListeners(false);
+			for (int i = 0; i < listeners.length; i++)
+				manager.removeJobChangeListener(listeners[i]);
+		}
+	}
+
+	public void testListenersSync() {
+		runWithListeners(false);
+	}
+
+	public void testListenersAsync() {
+		runWithListeners(true);
+	}
+
+	/**
+	 * Schedules a large number of jobs of mixed priorities while the job
+	 * manager is suspended, so that they all end up in the wait queue, then
+	 * runs them all. The time is dominated by adding jobs to and removing them
+	 * from the wait queue.
+	 */
+	public void testScheduleBacklog() {
+		final IJobManager manager = Job.getJobManager();
+		new PerformanceTestRunner() {
+			protected void test() {
+				Object family = new Object();
+				manager.suspend();
+				try {
+					for (int i = 0; i < BACKLOG_JOBS; i++) {
+						Job job = new FamilyJob(family);
+						job.setPriority(PRIORITIES[i % PRIORITIES.length]);
+						job.schedule();
+					}
+				} finally {
+					manager.resume();
+				}
+				try {
+					manager.join(family, null);
+				} catch (InterruptedException e) {
+					fail("4.99", e);
+				}
+			}
+		}.run(this, 5, 1);
+	}
+
+	/**
+	 * Queues a large number of jobs that declare their families while the job
+	 * manager is suspended, then finds and joins the jobs of every family. This
+	 * is what clients that track their jobs by family do while many jobs are queued.
+	 */
+	public void testFindFamily() {
+		final IJobManager manager = Job.getJobManager();
+		final Object[] families = new Object[FAMILIES];
+		for (int i = 0; i < families.length; i++)
+			families[i] = new Object();
+		manager.suspend();
+		try {
+			for (int i = 0; i < FAMILY_JOBS; i++) {
+				Job job = new Job("DeclaredFamilyJob") { //$NON-NLS-1$
+					protected IStatus run(IProgressMonitor monitor) {
+						return Status.OK_STATUS;
+					}
+				};
+				job.setSystem(true);
+				job.setFamilies(new Object[] {families[i % FAMILIES]});
+				job.schedule();
+			}
+			new PerformanceTestRunner() {
+				protected void test() {
+					for (int i = 0; i < families.length; i++) {
+						assertEquals("1.0", FAMILY_JOBS / FAMILIES, manager.find(families[i]).length);
+						try {
+							//jobs don't run while the manager is suspended, so this returns at once
+							manager.join(families[i], null);
+						} catch (InterruptedException e) {
+							fail("4.99", e);
+						}
+					}
+				}
+			}.run(this, 5, 1);
+			for (int i = 0; i < families.length; i++)
+				manager.cancel(families[i]);
+		} finally {
+			manager.resume();
+		}
+	}
+
+	/**
+	 * Schedules a large number of jobs with delays between one second and
+	 * one minute, as polling jobs do, then cancels them all while they
+	 * are still sleeping.
+	 */
+	public void testScheduleSleeping() {
+		final Job[] jobs = new Job[SLEEPING_JOBS];
+		Object family = new Object();
+		for (int i = 0; i < jobs.length; i++)
+			jobs[i] = new FamilyJob(family);
+		new PerformanceTestRunner() {
+			protected void test() {
+				for (int i = 0; i < jobs.length; i++)
+					jobs[i].schedule(1000 + (i * 7919L) % 59000);
+				for (int i = 0; i < jobs.length; i++)
+					jobs[i].cancel();
+			}
+		}.run(this, 5, 1);
+		for (int i = 0; i < jobs.length; i++)
+			assertEquals("1.0." + i, Job.NONE, jobs[i].getState());
+	}
+
+	/**
+	 * Repeatedly schedules a job while the worker threads are idle and waits
+	 * for it to start running, measuring the time between the call to schedule
+	 * and the start of the job.
+	 */
+	public void testScheduleLatency() {
+		final long[] started = new long[1];
+		final Job job = new Job("LatencyJob") { //$NON-NLS-1$
+			protected IStatus run(IProgressMonitor monitor) {
+				synchronized (started) {
+					started[0] = System.nanoTime();
+					started.notifyAll();
+				}
+				return Status.OK_STATUS;
+			}
+		};
+		job.setSystem(true);
+		job.setPriority(Job.INTERACTIVE);
+		final long[] maxLatency = new long[1];
+		new PerformanceTestRunner() {
+			protected void test() {
+				for (int i = 0; i < LATENCY_ROUNDS; i++) {
+					try {
+						job.join();
+						synchronized (started) {
+							started[0] = 0;
+							long scheduled = System.nanoTime();
+							job.schedule();
+							while (started[0] == 0)
+								started.wait();
+							maxLatency[0] = Math.max(maxLatency[0], started[0] - scheduled);
+						}
+					} catch (InterruptedException e) {
+						fail("4.99", e);
+					}
+				}
+			}
+		}.run(this, 5, 1);
+		debug("Maximum schedule to run latency: " + maxLatency[0] / 1000 + "us"); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	public void testScheduleContention1() {
+		scheduleConcurrently(1);
+	}
+
+	public void testScheduleContention4() {
+		scheduleConcurrently(4);
+	}
+
+	public void testScheduleContention16() {
+		scheduleConcurrently(16);
+	}
+
+	public void testScheduleContention64() {
+		scheduleConcurrently(64);
+	}
+}